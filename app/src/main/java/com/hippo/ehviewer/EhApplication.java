@@ -27,10 +27,10 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.os.AsyncTask;
 import android.os.Debug;
+import android.os.Process;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.collection.LruCache;
 import com.getkeepsafe.relinker.ReLinker;
 import com.hippo.a7zip.A7Zip;
 import com.hippo.a7zip.A7ZipExtractLite;
@@ -41,6 +41,7 @@ import com.hippo.ehviewer.client.EhClient;
 import com.hippo.ehviewer.client.EhCookieStore;
 import com.hippo.ehviewer.client.EhDns;
 import com.hippo.ehviewer.client.EhEngine;
+import com.hippo.ehviewer.client.GalleryDetailCache;
 import com.hippo.ehviewer.client.data.GalleryDetail;
 import com.hippo.ehviewer.download.DownloadManager;
 import com.hippo.ehviewer.spider.SpiderDen;
@@ -48,6 +49,7 @@ import com.hippo.ehviewer.ui.CommonOperations;
 import com.hippo.image.Image;
 import com.hippo.image.ImageBitmap;
 import com.hippo.network.StatusCodeException;
+import com.hippo.network.TrafficClass;
 import com.hippo.text.Html;
 import com.hippo.unifile.UniFile;
 import com.hippo.util.BitmapUtils;
@@ -60,10 +62,10 @@ import com.hippo.yorozuya.OSUtils;
 import com.hippo.yorozuya.SimpleHandler;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 import okhttp3.OkHttpClient;
 
 public class EhApplication extends RecordingApplication {
@@ -76,8 +78,46 @@ public class EhApplication extends RecordingApplication {
     private static final boolean DEBUG_CONACO = false;
     private static final boolean DEBUG_PRINT_NATIVE_MEMORY = false;
     private static final boolean DEBUG_PRINT_IMAGE_COUNT = false;
+    private static final boolean DEBUG_PRINT_TRAFFIC = false;
     private static final long DEBUG_PRINT_INTERVAL = 3000L;
 
+    private static final TrafficClass TRAFFIC_API;
+    private static final TrafficClass TRAFFIC_THUMB;
+    private static final TrafficClass TRAFFIC_IMAGE;
+    private static final TrafficClass TRAFFIC_ARCHIVE;
+
+    static {
+        TrafficClass.Builder builder = new TrafficClass.Builder("api");
+        builder.maxRequestsPerHost = 6;
+        TRAFFIC_API = builder.build();
+
+        builder = new TrafficClass.Builder("thumb");
+        builder.maxRequestsPerHost = 8;
+        builder.maxIdleConnections = 8;
+        builder.keepAlive = 60 * 1000;
+        builder.threadPriority = Process.THREAD_PRIORITY_BACKGROUND;
+        TRAFFIC_THUMB = builder.build();
+
+        // Download threads and the reader
+        builder = new TrafficClass.Builder("image");
+        builder.maxRequestsPerHost = 10;
+        builder.maxIdleConnections = 10;
+        builder.keepAlive = 60 * 1000;
+        builder.readTimeout = 20 * 1000;
+        builder.threadPriority = Process.THREAD_PRIORITY_BACKGROUND;
+        TRAFFIC_IMAGE = builder.build();
+
+        // Few large files
+        builder = new TrafficClass.Builder("archive");
+        builder.maxRequestsPerHost = 2;
+        builder.maxIdleConnections = 1;
+        builder.keepAlive = 30 * 1000;
+        builder.readTimeout = 60 * 1000;
+        builder.writeTimeout = 60 * 1000;
+        builder.threadPriority = Process.THREAD_PRIORITY_BACKGROUND;
+        TRAFFIC_ARCHIVE = builder.build();
+    }
+
     private static EhApplication instance;
 
     private final IntIdGenerator mIdGenerator = new IntIdGenerator();
@@ -85,13 +125,19 @@ public class EhApplication extends RecordingApplication {
     private EhCookieStore mEhCookieStore;
     private EhClient mEhClient;
     private EhProxySelector mEhProxySelector;
+    private EhDns mEhDns;
     private OkHttpClient mOkHttpClient;
+    private OkHttpClient mThumbOkHttpClient;
+    private OkHttpClient mImageOkHttpClient;
+    private OkHttpClient mArchiveOkHttpClient;
     private ImageBitmapHelper mImageBitmapHelper;
     private Conaco<ImageBitmap> mConaco;
-    private LruCache<Long, GalleryDetail> mGalleryDetailCache;
+    private GalleryDetailCache mGalleryDetailCache;
     private SimpleDiskCache mSpiderInfoCache;
+    private SimpleDiskCache mArchiveIndexCache;
     private DownloadManager mDownloadManager;
     private Hosts mHosts;
+    private ReadingProgress mReadingProgress;
     private FavouriteStatusRouter mFavouriteStatusRouter;
 
     private final List<Activity> mActivityList = new ArrayList<>();
@@ -184,7 +230,7 @@ public class EhApplication extends RecordingApplication {
 
         mIdGenerator.setNextId(Settings.getInt(KEY_GLOBAL_STUFF_NEXT_ID, 0));
 
-        if (DEBUG_PRINT_NATIVE_MEMORY || DEBUG_PRINT_IMAGE_COUNT) {
+        if (DEBUG_PRINT_NATIVE_MEMORY || DEBUG_PRINT_IMAGE_COUNT || DEBUG_PRINT_TRAFFIC) {
             debugPrint();
         }
 
@@ -217,7 +263,7 @@ public class EhApplication extends RecordingApplication {
             mConaco.getBeerBelly().clearMemory();
         }
         if (null != mGalleryDetailCache) {
-            mGalleryDetailCache.evictAll();
+            mGalleryDetailCache.evictMemory();
         }
     }
 
@@ -241,6 +287,11 @@ public class EhApplication extends RecordingApplication {
                 if (DEBUG_PRINT_IMAGE_COUNT) {
                     Log.i(TAG, "Image count: " + Image.getImageCount());
                 }
+                if (DEBUG_PRINT_TRAFFIC) {
+                    for (TrafficClass trafficClass : getTrafficClasses()) {
+                        Log.i(TAG, "Traffic " + trafficClass);
+                    }
+                }
                 SimpleHandler.getInstance().postDelayed(this, DEBUG_PRINT_INTERVAL);
             }
         }.run();
@@ -295,22 +346,71 @@ public class EhApplication extends RecordingApplication {
         return application.mEhProxySelector;
     }
 
+    private static OkHttpClient newOkHttpClient(@NonNull EhApplication application,
+            @NonNull TrafficClass trafficClass) {
+        if (application.mEhDns == null) {
+            application.mEhDns = new EhDns(application);
+        }
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .cookieJar(getEhCookieStore(application))
+                .dns(application.mEhDns)
+                .proxySelector(getEhProxySelector(application));
+        return trafficClass.apply(builder, application.mEhDns.getEventListenerFactory()).build();
+    }
+
+    /**
+     * For api and html requests.
+     */
     @NonNull
     public static OkHttpClient getOkHttpClient(@NonNull Context context) {
         EhApplication application = ((EhApplication) context.getApplicationContext());
         if (application.mOkHttpClient == null) {
-            application.mOkHttpClient = new OkHttpClient.Builder()
-                    .connectTimeout(10, TimeUnit.SECONDS)
-                    .readTimeout(10, TimeUnit.SECONDS)
-                    .writeTimeout(10, TimeUnit.SECONDS)
-                    .cookieJar(getEhCookieStore(application))
-                    .dns(new EhDns(application))
-                    .proxySelector(getEhProxySelector(application))
-                    .build();
+            application.mOkHttpClient = newOkHttpClient(application, TRAFFIC_API);
         }
         return application.mOkHttpClient;
     }
 
+    @NonNull
+    public static OkHttpClient getThumbOkHttpClient(@NonNull Context context) {
+        EhApplication application = ((EhApplication) context.getApplicationContext());
+        if (application.mThumbOkHttpClient == null) {
+            application.mThumbOkHttpClient = newOkHttpClient(application, TRAFFIC_THUMB);
+        }
+        return application.mThumbOkHttpClient;
+    }
+
+    /**
+     * For full images of the reader and downloads.
+     */
+    @NonNull
+    public static OkHttpClient getImageOkHttpClient(@NonNull Context context) {
+        EhApplication application = ((EhApplication) context.getApplicationContext());
+        if (application.mImageOkHttpClient == null) {
+            application.mImageOkHttpClient = newOkHttpClient(application, TRAFFIC_IMAGE);
+        }
+        return application.mImageOkHttpClient;
+    }
+
+    /**
+     * For large files.
+     */
+    @NonNull
+    public static OkHttpClient getArchiveOkHttpClient(@NonNull Context context) {
+        EhApplication application = ((EhApplication) context.getApplicationContext());
+        if (application.mArchiveOkHttpClient == null) {
+            application.mArchiveOkHttpClient = newOkHttpClient(application, TRAFFIC_ARCHIVE);
+        }
+        return application.mArchiveOkHttpClient;
+    }
+
+    /**
+     * Queue depth and latency of each kind of traffic.
+     */
+    @NonNull
+    public static List<TrafficClass> getTrafficClasses() {
+        return Arrays.asList(TRAFFIC_API, TRAFFIC_THUMB, TRAFFIC_IMAGE, TRAFFIC_ARCHIVE);
+    }
+
     @NonNull
     public static ImageBitmapHelper getImageBitmapHelper(@NonNull Context context) {
         EhApplication application = ((EhApplication) context.getApplicationContext());
@@ -334,7 +434,7 @@ public class EhApplication extends RecordingApplication {
             builder.hasDiskCache = true;
             builder.diskCacheDir = new File(context.getCacheDir(), "thumb");
             builder.diskCacheMaxSize = 80 * 1024 * 1024; // 80MB
-            builder.okHttpClient = getOkHttpClient(context);
+            builder.okHttpClient = getThumbOkHttpClient(context);
             builder.objectHelper = getImageBitmapHelper(context);
             builder.debug = DEBUG_CONACO;
             application.mConaco = builder.build();
@@ -343,15 +443,17 @@ public class EhApplication extends RecordingApplication {
     }
 
     @NonNull
-    public static LruCache<Long, GalleryDetail> getGalleryDetailCache(@NonNull Context context) {
+    public static GalleryDetailCache getGalleryDetailCache(@NonNull Context context) {
         EhApplication application = ((EhApplication) context.getApplicationContext());
         if (application.mGalleryDetailCache == null) {
-            // Max size 25, 3 min timeout
-            application.mGalleryDetailCache = new LruCache<>(25);
+            // 1M in memory
+            application.mGalleryDetailCache = new GalleryDetailCache(1024 * 1024, new SimpleDiskCache(
+                    new File(context.getCacheDir(), "gallery_detail"), 20 * 1024 * 1024)); // 20M
             getFavouriteStatusRouter().addListener((gid, slot) -> {
-                GalleryDetail gd = application.mGalleryDetailCache.get(gid);
+                GalleryDetail gd = application.mGalleryDetailCache.getFromMemory(gid);
                 if (gd != null) {
                     gd.favoriteSlot = slot;
+                    application.mGalleryDetailCache.update(gid);
                 }
             });
         }
@@ -368,6 +470,16 @@ public class EhApplication extends RecordingApplication {
         return application.mSpiderInfoCache;
     }
 
+    @NonNull
+    public static SimpleDiskCache getArchiveIndexCache(@NonNull Context context) {
+        EhApplication application = ((EhApplication) context.getApplicationContext());
+        if (null == application.mArchiveIndexCache) {
+            application.mArchiveIndexCache = new SimpleDiskCache(
+                    new File(context.getCacheDir(), "archive_index"), 5 * 1024 * 1024); // 5M
+        }
+        return application.mArchiveIndexCache;
+    }
+
     @NonNull
     public static DownloadManager getDownloadManager() {
         return getDownloadManager(instance);
@@ -391,6 +503,15 @@ public class EhApplication extends RecordingApplication {
         return application.mHosts;
     }
 
+    @NonNull
+    public static ReadingProgress getReadingProgress(@NonNull Context context) {
+        EhApplication application = ((EhApplication) context.getApplicationContext());
+        if (application.mReadingProgress == null) {
+            application.mReadingProgress = new ReadingProgress(application, "reading_progress.db");
+        }
+        return application.mReadingProgress;
+    }
+
     @NonNull
     public static FavouriteStatusRouter getFavouriteStatusRouter() {
         return getFavouriteStatusRouter(getInstance());
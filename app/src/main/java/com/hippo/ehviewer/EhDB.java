@@ -20,6 +20,7 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Process;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -28,7 +29,6 @@ import com.hippo.ehviewer.client.data.ListUrlBuilder;
 import com.hippo.ehviewer.dao.DaoMaster;
 import com.hippo.ehviewer.dao.DaoSession;
 import com.hippo.ehviewer.dao.DownloadDirname;
-import com.hippo.ehviewer.dao.DownloadDirnameDao;
 import com.hippo.ehviewer.dao.DownloadInfo;
 import com.hippo.ehviewer.dao.DownloadLabel;
 import com.hippo.ehviewer.dao.DownloadLabelDao;
@@ -47,9 +47,11 @@ import com.hippo.util.SqlUtils;
 import com.hippo.yorozuya.IOUtils;
 import com.hippo.yorozuya.ObjectUtils;
 import com.hippo.yorozuya.collect.SparseJLArray;
+import com.hippo.yorozuya.thread.PriorityThreadFactory;
 import de.greenrobot.dao.AbstractDao;
+import de.greenrobot.dao.identityscope.IdentityScopeType;
 import de.greenrobot.dao.query.CloseableListIterator;
-import de.greenrobot.dao.query.LazyList;
+import de.greenrobot.dao.query.QueryBuilder;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -57,7 +59,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class EhDB {
 
@@ -70,6 +83,29 @@ public class EhDB {
     private static boolean sHasOldDB;
     private static boolean sNewDB;
 
+    // Write-behind queue. Writes of downloads, download dirnames, local favorites
+    // and history are queued and run in one transaction on the writer thread.
+    // Queued entities are snapshots taken at enqueue time. Readers of these
+    // tables don't wait for the writer, they apply pending entities over the
+    // database instead.
+    private static final Object sWriteLock = new Object();
+    private static final List<WriteOp> sPendingWriteOps = new ArrayList<>();
+    // The latest queued write of each entity, by dao then key
+    private static final Map<AbstractDao<?, ?>, Map<Object, PendingEntity>> sPendingEntities = new HashMap<>();
+    // Enqueue count of the latest queued deleteAll of each dao
+    private static final Map<AbstractDao<?, ?>, Long> sPendingClears = new HashMap<>();
+    private static long sEnqueuedCount;
+    private static long sWrittenCount;
+    private static boolean sWriteScheduled;
+    private static boolean sTrimHistory;
+    private static final ExecutorService sWriteExecutor = Executors.newSingleThreadExecutor(
+            new PriorityThreadFactory("EhDB-Writer", Process.THREAD_PRIORITY_BACKGROUND));
+
+    private static final int MAX_WRITE_ATTEMPTS = 3;
+    private static final long WRITE_RETRY_DELAY = 1000;
+
+    private static Context sContext;
+
     private static class DBOpenHelper extends DaoMaster.OpenHelper {
 
         public DBOpenHelper(Context context, String name, SQLiteDatabase.CursorFactory factory) {
@@ -172,15 +208,464 @@ public class EhDB {
     }
 
     public static void initialize(Context context) {
+        sContext = context.getApplicationContext();
         sHasOldDB = context.getDatabasePath("data").exists();
 
         DBOpenHelper helper = new DBOpenHelper(
                 context.getApplicationContext(), "eh.db", null);
 
         SQLiteDatabase db = helper.getWritableDatabase();
+        // Readers don't wait for the writer transaction
+        db.enableWriteAheadLogging();
         DaoMaster daoMaster = new DaoMaster(db);
 
-        sDaoSession = daoMaster.newSession();
+        // No identity scope, the writer thread must not share entities with readers
+        sDaoSession = daoMaster.newSession(IdentityScopeType.None);
+    }
+
+    private interface WriteOp {
+        void run();
+    }
+
+    private interface Copier<T> {
+        T copy(T entity);
+    }
+
+    private interface Matcher<T> {
+        boolean match(T entity);
+    }
+
+    private static DownloadInfo copyOf(DownloadInfo info) {
+        DownloadInfo copy = new DownloadInfo(info);
+        copy.state = info.state;
+        copy.legacy = info.legacy;
+        copy.time = info.time;
+        copy.label = info.label;
+        copy.total = info.total;
+        return copy;
+    }
+
+    private static LocalFavoriteInfo copyOf(LocalFavoriteInfo info) {
+        LocalFavoriteInfo copy = new LocalFavoriteInfo(info);
+        copy.time = info.time;
+        return copy;
+    }
+
+    private static HistoryInfo copyOf(HistoryInfo info) {
+        HistoryInfo copy = new HistoryInfo(info);
+        copy.mode = info.mode;
+        copy.time = info.time;
+        return copy;
+    }
+
+    private static final Comparator<DownloadInfo> DOWNLOAD_TIME_DESC =
+            (lhs, rhs) -> compareDesc(lhs.time, rhs.time);
+    private static final Comparator<LocalFavoriteInfo> LOCAL_FAVORITE_TIME_DESC =
+            (lhs, rhs) -> compareDesc(lhs.time, rhs.time);
+    private static final Comparator<HistoryInfo> HISTORY_TIME_DESC =
+            (lhs, rhs) -> compareDesc(lhs.time, rhs.time);
+
+    private static int compareDesc(long lhs, long rhs) {
+        return lhs > rhs ? -1 : (lhs < rhs ? 1 : 0);
+    }
+
+    /**
+     * A queued write of an entity. The entity is a snapshot, readers get copies of it.
+     */
+    private static final class PendingEntity {
+
+        // Insert or replace
+        static final int PUT = 0;
+        // Insert if the key is not in the table
+        static final int PUT_IF_ABSENT = 1;
+        static final int DELETE = 2;
+
+        final int type;
+        @Nullable
+        final Object entity;
+        // Enqueue count of the write
+        final long count;
+
+        PendingEntity(int type, @Nullable Object entity, long count) {
+            this.type = type;
+            this.entity = entity;
+            this.count = count;
+        }
+    }
+
+    // Call it with sWriteLock, after the write is counted
+    private static void putPending(AbstractDao<?, ?> dao, Object key, int type, @Nullable Object entity) {
+        Map<Object, PendingEntity> map = sPendingEntities.get(dao);
+        if (map == null) {
+            map = new HashMap<>();
+            sPendingEntities.put(dao, map);
+        }
+
+        PendingEntity old = map.get(key);
+        if (type == PendingEntity.PUT_IF_ABSENT) {
+            if (old != null && old.type != PendingEntity.DELETE) {
+                // The row is there when it runs
+                return;
+            }
+            if (old != null || sPendingClears.containsKey(dao)) {
+                // The row is gone when it runs
+                type = PendingEntity.PUT;
+            }
+        }
+        map.put(key, new PendingEntity(type, entity, sEnqueuedCount));
+    }
+
+    // Call it with sWriteLock
+    private static void clearPending(AbstractDao<?, ?> dao) {
+        sPendingEntities.remove(dao);
+        sPendingClears.put(dao, sEnqueuedCount);
+    }
+
+    // Call it with sWriteLock, drops pending entities written to database
+    private static void removePending(long count) {
+        for (Iterator<Map<Object, PendingEntity>> i = sPendingEntities.values().iterator(); i.hasNext(); ) {
+            Map<Object, PendingEntity> map = i.next();
+            for (Iterator<PendingEntity> j = map.values().iterator(); j.hasNext(); ) {
+                if (j.next().count <= count) {
+                    j.remove();
+                }
+            }
+            if (map.isEmpty()) {
+                i.remove();
+            }
+        }
+        for (Iterator<Long> i = sPendingClears.values().iterator(); i.hasNext(); ) {
+            if (i.next() <= count) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Loads the entity and applies the pending write of it.
+     * The result is owned by the caller.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private static <T, K> T load(AbstractDao<T, K> dao, K key, Copier<T> copier) {
+        PendingEntity pending;
+        boolean cleared;
+        // Take pending ones before reading database, they might be written in between
+        synchronized (sWriteLock) {
+            Map<Object, PendingEntity> map = sPendingEntities.get(dao);
+            pending = map != null ? map.get(key) : null;
+            cleared = sPendingClears.containsKey(dao);
+        }
+
+        if (pending != null) {
+            if (pending.type == PendingEntity.DELETE) {
+                return null;
+            } else if (pending.type == PendingEntity.PUT) {
+                return copier.copy((T) pending.entity);
+            }
+        }
+        T entity = cleared ? null : dao.load(key);
+        if (entity == null && pending != null) {
+            // PUT_IF_ABSENT
+            entity = copier.copy((T) pending.entity);
+        }
+        return entity;
+    }
+
+    /**
+     * Queries the entities and applies pending writes of them.
+     * The result is owned by the caller.
+     *
+     * @param query queries database, matcher must match the same entities
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends GalleryInfo> List<T> list(AbstractDao<T, Long> dao, QueryBuilder<T> query,
+            @Nullable Matcher<T> matcher, Copier<T> copier, Comparator<T> comparator) {
+        Map<Object, PendingEntity> pending;
+        boolean cleared;
+        synchronized (sWriteLock) {
+            Map<Object, PendingEntity> map = sPendingEntities.get(dao);
+            pending = map != null ? new HashMap<>(map) : Collections.<Object, PendingEntity>emptyMap();
+            cleared = sPendingClears.containsKey(dao);
+        }
+
+        List<T> list = cleared ? new ArrayList<T>() : query.list();
+        if (pending.isEmpty()) {
+            return list;
+        }
+
+        Map<Long, T> map = new LinkedHashMap<>();
+        for (T entity : list) {
+            map.put(entity.gid, entity);
+        }
+        for (Map.Entry<Object, PendingEntity> entry : pending.entrySet()) {
+            Long key = (Long) entry.getKey();
+            PendingEntity entity = entry.getValue();
+            if (entity.type == PendingEntity.DELETE) {
+                map.remove(key);
+            } else if (entity.type == PendingEntity.PUT || !map.containsKey(key)) {
+                T copy = copier.copy((T) entity.entity);
+                if (matcher == null || matcher.match(copy)) {
+                    map.put(key, copy);
+                } else {
+                    map.remove(key);
+                }
+            }
+        }
+        list = new ArrayList<>(map.values());
+        Collections.sort(list, comparator);
+        return list;
+    }
+
+    /**
+     * Insert or replace entities in one batch. Adjacent puts to the same dao are merged.
+     */
+    private static class InsertOrReplaceOp<T> implements WriteOp {
+
+        private final AbstractDao<T, ?> mDao;
+        private final List<T> mEntities = new ArrayList<>();
+
+        private InsertOrReplaceOp(AbstractDao<T, ?> dao) {
+            mDao = dao;
+        }
+
+        @Override
+        public void run() {
+            mDao.insertOrReplaceInTx(mEntities);
+        }
+    }
+
+    /**
+     * Insert entities whose gid is not in the table yet.
+     */
+    private static class InsertIfAbsentOp<T extends GalleryInfo> implements WriteOp {
+
+        private final AbstractDao<T, Long> mDao;
+        private final List<T> mEntities = new ArrayList<>();
+
+        private InsertIfAbsentOp(AbstractDao<T, Long> dao) {
+            mDao = dao;
+        }
+
+        @Override
+        public void run() {
+            Set<Long> gids = new HashSet<>();
+            List<T> list = new ArrayList<>(mEntities.size());
+            for (T entity : mEntities) {
+                if (gids.add(entity.gid) && null == mDao.load(entity.gid)) {
+                    list.add(entity);
+                }
+            }
+            mDao.insertInTx(list);
+        }
+    }
+
+    private static class DeleteByKeyOp<K> implements WriteOp {
+
+        private final AbstractDao<?, K> mDao;
+        private final List<K> mKeys = new ArrayList<>();
+
+        private DeleteByKeyOp(AbstractDao<?, K> dao) {
+            mDao = dao;
+        }
+
+        @Override
+        public void run() {
+            mDao.deleteByKeyInTx(mKeys);
+        }
+    }
+
+    private static void trimHistory() {
+        HistoryDao dao = sDaoSession.getHistoryDao();
+        List<HistoryInfo> list = dao.queryBuilder().orderDesc(HistoryDao.Properties.Time)
+                .limit(-1).offset(MAX_HISTORY_COUNT).list();
+        dao.deleteInTx(list);
+    }
+
+    private static final Runnable sWriteTask = new Runnable() {
+        @Override
+        public void run() {
+            final List<WriteOp> ops;
+            final boolean trimHistory;
+            long count;
+            synchronized (sWriteLock) {
+                ops = new ArrayList<>(sPendingWriteOps);
+                sPendingWriteOps.clear();
+                trimHistory = sTrimHistory;
+                sTrimHistory = false;
+                count = sEnqueuedCount;
+                sWriteScheduled = false;
+            }
+
+            if (!write(ops, trimHistory)) {
+                // Write them one by one, a bad write doesn't take others with it
+                for (WriteOp op : ops) {
+                    if (!write(Collections.singletonList(op), false)) {
+                        onWriteDropped();
+                    }
+                }
+                if (trimHistory && !write(Collections.<WriteOp>emptyList(), true)) {
+                    onWriteDropped();
+                }
+            }
+
+            synchronized (sWriteLock) {
+                sWrittenCount = count;
+                removePending(count);
+                sWriteLock.notifyAll();
+            }
+        }
+
+        // The last write error, only touched on the writer thread
+        private Throwable mError;
+
+        /**
+         * Runs the writes in one transaction, retries a few times if it fails.
+         */
+        private boolean write(final List<WriteOp> ops, final boolean trimHistory) {
+            for (int attempt = 0; attempt < MAX_WRITE_ATTEMPTS; attempt++) {
+                if (attempt > 0) {
+                    try {
+                        Thread.sleep(WRITE_RETRY_DELAY * attempt);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+
+                try {
+                    sDaoSession.runInTx(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (WriteOp op : ops) {
+                                op.run();
+                            }
+                            if (trimHistory) {
+                                trimHistory();
+                            }
+                        }
+                    });
+                    return true;
+                } catch (Throwable e) {
+                    ExceptionUtils.throwIfFatal(e);
+                    Log.w(TAG, "Can't write to database", e);
+                    mError = e;
+                }
+            }
+            return false;
+        }
+
+        private void onWriteDropped() {
+            Log.e(TAG, "Drop a database write", mError);
+            // Leave a trace the user can send
+            if (mError != null && Settings.getSaveCrashLog()) {
+                Crash.saveCrashLog(sContext, mError);
+            }
+        }
+    };
+
+    // Call it with sWriteLock
+    private static void scheduleWrite() {
+        sEnqueuedCount++;
+        if (!sWriteScheduled) {
+            sWriteScheduled = true;
+            sWriteExecutor.execute(sWriteTask);
+        }
+    }
+
+    private static void enqueueClear(final AbstractDao<?, ?> dao) {
+        synchronized (sWriteLock) {
+            sPendingWriteOps.add(new WriteOp() {
+                @Override
+                public void run() {
+                    dao.deleteAll();
+                }
+            });
+            scheduleWrite();
+            clearPending(dao);
+        }
+    }
+
+    /**
+     * @param entity a snapshot
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> void enqueueInsertOrReplace(AbstractDao<T, ?> dao, Object key, T entity) {
+        synchronized (sWriteLock) {
+            int size = sPendingWriteOps.size();
+            WriteOp last = size > 0 ? sPendingWriteOps.get(size - 1) : null;
+            InsertOrReplaceOp<T> op;
+            if (last instanceof InsertOrReplaceOp && ((InsertOrReplaceOp) last).mDao == dao) {
+                op = (InsertOrReplaceOp<T>) last;
+            } else {
+                op = new InsertOrReplaceOp<>(dao);
+                sPendingWriteOps.add(op);
+            }
+            op.mEntities.add(entity);
+            scheduleWrite();
+            putPending(dao, key, PendingEntity.PUT, entity);
+        }
+    }
+
+    /**
+     * @param entities snapshots
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends GalleryInfo> void enqueueInsertIfAbsent(AbstractDao<T, Long> dao, List<T> entities) {
+        synchronized (sWriteLock) {
+            int size = sPendingWriteOps.size();
+            WriteOp last = size > 0 ? sPendingWriteOps.get(size - 1) : null;
+            InsertIfAbsentOp<T> op;
+            if (last instanceof InsertIfAbsentOp && ((InsertIfAbsentOp) last).mDao == dao) {
+                op = (InsertIfAbsentOp<T>) last;
+            } else {
+                op = new InsertIfAbsentOp<>(dao);
+                sPendingWriteOps.add(op);
+            }
+            op.mEntities.addAll(entities);
+            scheduleWrite();
+            for (T entity : entities) {
+                putPending(dao, entity.gid, PendingEntity.PUT_IF_ABSENT, entity);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> void enqueueDeleteByKey(AbstractDao<?, K> dao, List<K> keys) {
+        synchronized (sWriteLock) {
+            int size = sPendingWriteOps.size();
+            WriteOp last = size > 0 ? sPendingWriteOps.get(size - 1) : null;
+            DeleteByKeyOp<K> op;
+            if (last instanceof DeleteByKeyOp && ((DeleteByKeyOp) last).mDao == dao) {
+                op = (DeleteByKeyOp<K>) last;
+            } else {
+                op = new DeleteByKeyOp<>(dao);
+                sPendingWriteOps.add(op);
+            }
+            op.mKeys.addAll(keys);
+            scheduleWrite();
+            for (K key : keys) {
+                putPending(dao, key, PendingEntity.DELETE, null);
+            }
+        }
+    }
+
+    /**
+     * Wait for all queued writes. Readers don't need it, it's for
+     * reading the database file. Do not call it on the writer thread.
+     */
+    public static void flush() {
+        synchronized (sWriteLock) {
+            long target = sEnqueuedCount;
+            while (sWrittenCount < target) {
+                try {
+                    sWriteLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
     }
 
     public static boolean needMerge() {
@@ -382,9 +867,10 @@ public class EhDB {
         }
     }
 
-    public static synchronized List<DownloadInfo> getAllDownloadInfo() {
+    public static List<DownloadInfo> getAllDownloadInfo() {
         DownloadsDao dao = sDaoSession.getDownloadsDao();
-        List<DownloadInfo> list = dao.queryBuilder().orderDesc(DownloadsDao.Properties.Time).list();
+        List<DownloadInfo> list = list(dao, dao.queryBuilder().orderDesc(DownloadsDao.Properties.Time),
+                null, EhDB::copyOf, DOWNLOAD_TIME_DESC);
         // Fix state
         for (DownloadInfo info: list) {
             if (info.state == DownloadInfo.STATE_WAIT || info.state == DownloadInfo.STATE_DOWNLOAD) {
@@ -395,25 +881,18 @@ public class EhDB {
     }
 
     // Insert or update
-    public static synchronized void putDownloadInfo(DownloadInfo downloadInfo) {
-        DownloadsDao dao = sDaoSession.getDownloadsDao();
-        if (null != dao.load(downloadInfo.gid)) {
-            // Update
-            dao.update(downloadInfo);
-        } else {
-            // Insert
-            dao.insert(downloadInfo);
-        }
+    public static void putDownloadInfo(DownloadInfo downloadInfo) {
+        enqueueInsertOrReplace(sDaoSession.getDownloadsDao(), downloadInfo.gid, copyOf(downloadInfo));
     }
 
-    public static synchronized void removeDownloadInfo(long gid) {
-        sDaoSession.getDownloadsDao().deleteByKey(gid);
+    public static void removeDownloadInfo(long gid) {
+        enqueueDeleteByKey(sDaoSession.getDownloadsDao(), Collections.singletonList(gid));
     }
 
     @Nullable
-    public static synchronized String getDownloadDirname(long gid) {
-        DownloadDirnameDao dao = sDaoSession.getDownloadDirnameDao();
-        DownloadDirname raw = dao.load(gid);
+    public static String getDownloadDirname(long gid) {
+        // Pending ones are never changed, no need to copy
+        DownloadDirname raw = load(sDaoSession.getDownloadDirnameDao(), gid, dirname -> dirname);
         if (raw != null) {
             return raw.getDirname();
         } else {
@@ -424,32 +903,23 @@ public class EhDB {
     /**
      * Insert or update
      */
-    public static synchronized void putDownloadDirname(long gid, String dirname) {
-        DownloadDirnameDao dao = sDaoSession.getDownloadDirnameDao();
-        DownloadDirname raw = dao.load(gid);
-        if (raw != null) { // Update
-            raw.setDirname(dirname);
-            dao.update(raw);
-        } else { // Insert
-            raw = new DownloadDirname();
-            raw.setGid(gid);
-            raw.setDirname(dirname);
-            dao.insert(raw);
-        }
+    public static void putDownloadDirname(long gid, String dirname) {
+        DownloadDirname raw = new DownloadDirname();
+        raw.setGid(gid);
+        raw.setDirname(dirname);
+        enqueueInsertOrReplace(sDaoSession.getDownloadDirnameDao(), gid, raw);
     }
 
-    public static synchronized void removeDownloadDirname(long gid) {
-        DownloadDirnameDao dao = sDaoSession.getDownloadDirnameDao();
-        dao.deleteByKey(gid);
+    public static void removeDownloadDirname(long gid) {
+        enqueueDeleteByKey(sDaoSession.getDownloadDirnameDao(), Collections.singletonList(gid));
     }
 
-    public static synchronized void clearDownloadDirname() {
-        DownloadDirnameDao dao = sDaoSession.getDownloadDirnameDao();
-        dao.deleteAll();
+    public static void clearDownloadDirname() {
+        enqueueClear(sDaoSession.getDownloadDirnameDao());
     }
 
     @NonNull
-    public static synchronized List<DownloadLabel> getAllDownloadLabelList() {
+    public static List<DownloadLabel> getAllDownloadLabelList() {
         DownloadLabelDao dao = sDaoSession.getDownloadLabelDao();
         return dao.queryBuilder().orderAsc(DownloadLabelDao.Properties.Time).list();
     }
@@ -506,61 +976,72 @@ public class EhDB {
         dao.delete(raw);
     }
 
-    public static synchronized List<GalleryInfo> getAllLocalFavorites() {
+    public static List<GalleryInfo> getAllLocalFavorites() {
         LocalFavoritesDao dao = sDaoSession.getLocalFavoritesDao();
-        List<LocalFavoriteInfo> list = dao.queryBuilder().orderDesc(LocalFavoritesDao.Properties.Time).list();
+        List<LocalFavoriteInfo> list = list(dao, dao.queryBuilder().orderDesc(LocalFavoritesDao.Properties.Time),
+                null, EhDB::copyOf, LOCAL_FAVORITE_TIME_DESC);
         List<GalleryInfo> result = new ArrayList<>();
         result.addAll(list);
         return result;
     }
 
-    public static synchronized List<GalleryInfo> searchLocalFavorites(String query) {
+    public static List<GalleryInfo> searchLocalFavorites(String query) {
+        // LIKE is case-insensitive for ASCII only
+        final String keyword = query.toLowerCase(Locale.ROOT);
         query = SqlUtils.sqlEscapeString("%" + query+ "%");
         LocalFavoritesDao dao = sDaoSession.getLocalFavoritesDao();
-        List<LocalFavoriteInfo> list = dao.queryBuilder().orderDesc(LocalFavoritesDao.Properties.Time)
-                .where(LocalFavoritesDao.Properties.Title.like(query)).list();
+        List<LocalFavoriteInfo> list = list(dao, dao.queryBuilder().orderDesc(LocalFavoritesDao.Properties.Time)
+                .where(LocalFavoritesDao.Properties.Title.like(query)),
+                info -> info.title != null && info.title.toLowerCase(Locale.ROOT).contains(keyword),
+                EhDB::copyOf, LOCAL_FAVORITE_TIME_DESC);
         List<GalleryInfo> result = new ArrayList<>();
         result.addAll(list);
         return result;
     }
 
-    public static synchronized void removeLocalFavorites(long gid) {
-        sDaoSession.getLocalFavoritesDao().deleteByKey(gid);
+    public static void removeLocalFavorites(long gid) {
+        enqueueDeleteByKey(sDaoSession.getLocalFavoritesDao(), Collections.singletonList(gid));
     }
 
-    public static synchronized void removeLocalFavorites(long[] gidArray) {
-        LocalFavoritesDao dao = sDaoSession.getLocalFavoritesDao();
+    public static void removeLocalFavorites(long[] gidArray) {
+        List<Long> keys = new ArrayList<>(gidArray.length);
         for (long gid: gidArray) {
-            dao.deleteByKey(gid);
+            keys.add(gid);
         }
+        enqueueDeleteByKey(sDaoSession.getLocalFavoritesDao(), keys);
     }
 
-    public static synchronized boolean containLocalFavorites(long gid) {
-        LocalFavoritesDao dao = sDaoSession.getLocalFavoritesDao();
-        return null != dao.load(gid);
+    public static boolean containLocalFavorites(long gid) {
+        // Only checks the existence, no need to copy
+        return null != load(sDaoSession.getLocalFavoritesDao(), gid, info -> info);
     }
 
-    public static synchronized void putLocalFavorites(GalleryInfo galleryInfo) {
-        LocalFavoritesDao dao = sDaoSession.getLocalFavoritesDao();
-        if (null == dao.load(galleryInfo.gid)) {
-            LocalFavoriteInfo info;
-            if (galleryInfo instanceof LocalFavoriteInfo) {
-                info = (LocalFavoriteInfo) galleryInfo;
-            } else {
-                info = new LocalFavoriteInfo(galleryInfo);
-                info.time = System.currentTimeMillis();
-            }
-            dao.insert(info);
+    // Returns a snapshot
+    private static LocalFavoriteInfo toLocalFavoriteInfo(GalleryInfo galleryInfo, long time) {
+        if (galleryInfo instanceof LocalFavoriteInfo) {
+            return copyOf((LocalFavoriteInfo) galleryInfo);
+        } else {
+            LocalFavoriteInfo info = new LocalFavoriteInfo(galleryInfo);
+            info.time = time;
+            return info;
         }
     }
 
-    public static synchronized void putLocalFavorites(List<GalleryInfo> galleryInfoList) {
+    public static void putLocalFavorites(GalleryInfo galleryInfo) {
+        enqueueInsertIfAbsent(sDaoSession.getLocalFavoritesDao(), Collections.singletonList(
+                toLocalFavoriteInfo(galleryInfo, System.currentTimeMillis())));
+    }
+
+    public static void putLocalFavorites(List<? extends GalleryInfo> galleryInfoList) {
+        long time = System.currentTimeMillis();
+        List<LocalFavoriteInfo> list = new ArrayList<>(galleryInfoList.size());
         for (GalleryInfo gi: galleryInfoList) {
-            putLocalFavorites(gi);
+            list.add(toLocalFavoriteInfo(gi, time));
         }
+        enqueueInsertIfAbsent(sDaoSession.getLocalFavoritesDao(), list);
     }
 
-    public static synchronized List<QuickSearch> getAllQuickSearch() {
+    public static List<QuickSearch> getAllQuickSearch() {
         QuickSearchDao dao = sDaoSession.getQuickSearchDao();
         return dao.queryBuilder().orderAsc(QuickSearchDao.Properties.Time).list();
     }
@@ -607,52 +1088,51 @@ public class EhDB {
         dao.updateInTx(list);
     }
 
-    public static synchronized LazyList<HistoryInfo> getHistoryLazyList() {
-        return sDaoSession.getHistoryDao().queryBuilder().orderDesc(HistoryDao.Properties.Time).listLazy();
-    }
-
-    public static synchronized void putHistoryInfo(GalleryInfo galleryInfo) {
+    /**
+     * History is trimmed to {@link #MAX_HISTORY_COUNT}, it's fine to read all of it.
+     */
+    public static List<HistoryInfo> getHistoryList() {
         HistoryDao dao = sDaoSession.getHistoryDao();
-        HistoryInfo info = dao.load(galleryInfo.gid);
-        if (null != info) {
-            // Update time
-            info.time = System.currentTimeMillis();
-            dao.update(info);
-        } else {
-            // New history
-            info = new HistoryInfo(galleryInfo);
-            info.time = System.currentTimeMillis();
-            dao.insert(info);
-            List<HistoryInfo> list = dao.queryBuilder().orderDesc(HistoryDao.Properties.Time)
-                    .limit(-1).offset(MAX_HISTORY_COUNT).list();
-            dao.deleteInTx(list);
+        List<HistoryInfo> list = list(dao, dao.queryBuilder().orderDesc(HistoryDao.Properties.Time),
+                null, EhDB::copyOf, HISTORY_TIME_DESC);
+        if (list.size() > MAX_HISTORY_COUNT) {
+            // Pending ones aren't trimmed yet
+            list = new ArrayList<>(list.subList(0, MAX_HISTORY_COUNT));
         }
+        return list;
     }
 
-    public static synchronized void putHistoryInfo(List<HistoryInfo> historyInfoList) {
-        HistoryDao dao = sDaoSession.getHistoryDao();
-        for (HistoryInfo info: historyInfoList) {
-            if (null == dao.load(info.gid)) {
-                dao.insert(info);
-            }
+    public static void putHistoryInfo(GalleryInfo galleryInfo) {
+        // Replace the old one, it refreshes gallery info and time
+        HistoryInfo info = new HistoryInfo(galleryInfo);
+        info.time = System.currentTimeMillis();
+        synchronized (sWriteLock) {
+            enqueueInsertOrReplace(sDaoSession.getHistoryDao(), info.gid, info);
+            // Trim history once for all queued writes
+            sTrimHistory = true;
         }
+    }
 
-        List<HistoryInfo> list = dao.queryBuilder().orderDesc(HistoryDao.Properties.Time)
-                .limit(-1).offset(MAX_HISTORY_COUNT).list();
-        dao.deleteInTx(list);
+    public static void putHistoryInfo(List<HistoryInfo> historyInfoList) {
+        List<HistoryInfo> list = new ArrayList<>(historyInfoList.size());
+        for (HistoryInfo info : historyInfoList) {
+            list.add(copyOf(info));
+        }
+        synchronized (sWriteLock) {
+            enqueueInsertIfAbsent(sDaoSession.getHistoryDao(), list);
+            sTrimHistory = true;
+        }
     }
 
-    public static synchronized void deleteHistoryInfo(HistoryInfo info) {
-        HistoryDao dao = sDaoSession.getHistoryDao();
-        dao.delete(info);
+    public static void deleteHistoryInfo(HistoryInfo info) {
+        enqueueDeleteByKey(sDaoSession.getHistoryDao(), Collections.singletonList(info.gid));
     }
 
-    public static synchronized void clearHistoryInfo() {
-        HistoryDao dao = sDaoSession.getHistoryDao();
-        dao.deleteAll();
+    public static void clearHistoryInfo() {
+        enqueueClear(sDaoSession.getHistoryDao());
     }
 
-    public static synchronized List<Filter> getAllFilter() {
+    public static List<Filter> getAllFilter() {
         return sDaoSession.getFilterDao().queryBuilder().list();
     }
 
@@ -684,6 +1164,8 @@ public class EhDB {
     public static synchronized boolean exportDB(Context context, File file) {
         final String ehExportName = "eh.export.db";
 
+        flush();
+
         // Delete old export db
         context.deleteDatabase(ehExportName);
 
@@ -789,9 +1271,7 @@ public class EhDB {
 
             // LocalFavorites
             List<LocalFavoriteInfo> localFavoriteInfoList = session.getLocalFavoritesDao().queryBuilder().list();
-            for (LocalFavoriteInfo info: localFavoriteInfoList) {
-                putLocalFavorites(info);
-            }
+            putLocalFavorites(localFavoriteInfoList);
 
             // Bookmarks
             // TODO
@@ -33,6 +33,8 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Hosts {
 
@@ -45,6 +47,8 @@ public class Hosts {
 
   private final SQLiteOpenHelper helper;
   private final SQLiteDatabase db;
+  // All valid entries in the table, lookups don't query the database
+  private final Map<String, InetAddress> map = new ConcurrentHashMap<>();
 
   public Hosts(Context context, String name) {
     helper = new MSQLiteBuilder()
@@ -54,6 +58,20 @@ public class Hosts {
         .insertColumn(TABLE_HOSTS, COLUMN_IP, String.class)
         .build(context, name, DB_VERSION);
     db = helper.getWritableDatabase();
+
+    Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE_HOSTS + ";", null);
+    try {
+      while (cursor.moveToNext()) {
+        String host = SqlUtils.getString(cursor, COLUMN_HOST, null);
+        String ip = SqlUtils.getString(cursor, COLUMN_IP, null);
+        InetAddress inetAddress = toInetAddress(host, ip);
+        if (inetAddress != null) {
+          map.put(host, inetAddress);
+        }
+      }
+    } finally {
+      cursor.close();
+    }
   }
 
   /**
@@ -65,17 +83,7 @@ public class Hosts {
       return null;
     }
 
-    Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE_HOSTS + " WHERE " + COLUMN_HOST  + " = ?;", new String[] {host});
-    try {
-      if (cursor.moveToNext()) {
-        String ip = SqlUtils.getString(cursor, COLUMN_IP, null);
-        return toInetAddress(host, ip);
-      } else {
-        return null;
-      }
-    } finally {
-      cursor.close();
-    }
+    return map.get(host);
   }
 
   private boolean contains(String host) {
@@ -105,6 +113,11 @@ public class Hosts {
       db.insert(TABLE_HOSTS, null, values);
     }
 
+    InetAddress inetAddress = toInetAddress(host, ip);
+    if (inetAddress != null) {
+      map.put(host, inetAddress);
+    }
+
     return true;
   }
 
@@ -113,6 +126,9 @@ public class Hosts {
    */
   public void delete(String host) {
     db.delete(TABLE_HOSTS, COLUMN_HOST + " = ?", new String[] { host });
+    if (host != null) {
+      map.remove(host);
+    }
   }
 
   /**
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Process;
+import androidx.annotation.Nullable;
+import com.hippo.database.MSQLiteBuilder;
+import com.hippo.util.SqlUtils;
+import com.hippo.yorozuya.thread.PriorityThreadFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reading progress of galleries, gid to start page and pages. All entries
+ * are kept in memory, so lookups never touch storage. Writes run on a
+ * writer thread.
+ */
+public class ReadingProgress {
+
+  private static final int VERSION_1 = 1;
+  private static final String TABLE_PROGRESS = "PROGRESS";
+  private static final String COLUMN_GID = "GID";
+  private static final String COLUMN_START_PAGE = "START_PAGE";
+  private static final String COLUMN_PAGES = "PAGES";
+
+  private static final int DB_VERSION = VERSION_1;
+
+  private static final ExecutorService sWriteExecutor = Executors.newSingleThreadExecutor(
+      new PriorityThreadFactory("ReadingProgress-Writer", Process.THREAD_PRIORITY_BACKGROUND));
+
+  private final SQLiteOpenHelper helper;
+  private final Map<Long, Progress> map = new ConcurrentHashMap<>();
+
+  public ReadingProgress(Context context, String name) {
+    helper = new MSQLiteBuilder()
+        .version(VERSION_1)
+        .createTable(TABLE_PROGRESS, COLUMN_GID, long.class)
+        .insertColumn(TABLE_PROGRESS, COLUMN_START_PAGE, int.class)
+        .insertColumn(TABLE_PROGRESS, COLUMN_PAGES, int.class)
+        .build(context, name, DB_VERSION);
+
+    SQLiteDatabase db = helper.getReadableDatabase();
+    Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE_PROGRESS + ";", null);
+    try {
+      while (cursor.moveToNext()) {
+        long gid = SqlUtils.getLong(cursor, COLUMN_GID, 0);
+        int startPage = SqlUtils.getInt(cursor, COLUMN_START_PAGE, 0);
+        int pages = SqlUtils.getInt(cursor, COLUMN_PAGES, 0);
+        map.put(gid, new Progress(startPage, pages));
+      }
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Returns null if the progress of the gallery is unknown.
+   */
+  @Nullable
+  public Progress get(long gid) {
+    return map.get(gid);
+  }
+
+  public void put(final long gid, int startPage, int pages) {
+    if (pages <= 0) {
+      return;
+    }
+    Progress progress = new Progress(startPage, pages);
+    if (progress.equals(map.put(gid, progress))) {
+      return;
+    }
+
+    sWriteExecutor.execute(() -> {
+      // Write the latest one, the executor runs tasks in order
+      Progress latest = map.get(gid);
+      if (latest == null) {
+        return;
+      }
+      ContentValues values = new ContentValues();
+      values.put(COLUMN_GID, gid);
+      values.put(COLUMN_START_PAGE, latest.startPage);
+      values.put(COLUMN_PAGES, latest.pages);
+      helper.getWritableDatabase().insertWithOnConflict(
+          TABLE_PROGRESS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    });
+  }
+
+  public void remove(final long gid) {
+    if (map.remove(gid) == null) {
+      return;
+    }
+
+    sWriteExecutor.execute(() -> {
+      if (!map.containsKey(gid)) {
+        helper.getWritableDatabase().delete(
+            TABLE_PROGRESS, COLUMN_GID + " = ?", new String[] { Long.toString(gid) });
+      }
+    });
+  }
+
+  public static class Progress {
+
+    // 0-based
+    public final int startPage;
+    public final int pages;
+
+    Progress(int startPage, int pages) {
+      this.startPage = startPage;
+      this.pages = pages;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Progress)) {
+        return false;
+      }
+      Progress progress = (Progress) obj;
+      return startPage == progress.startPage && pages == progress.pages;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * startPage + pages;
+    }
+  }
+}
@@ -720,6 +720,17 @@ public class Settings {
         putIntToStr(KEY_MULTI_THREAD_DOWNLOAD, value);
     }
 
+    private static final String KEY_CONCURRENT_DOWNLOAD = "concurrent_download";
+    private static final int DEFAULT_CONCURRENT_DOWNLOAD = 1;
+
+    public static int getConcurrentDownload() {
+        return getIntFromStr(KEY_CONCURRENT_DOWNLOAD, DEFAULT_CONCURRENT_DOWNLOAD);
+    }
+
+    public static void putConcurrentDownload(int value) {
+        putIntToStr(KEY_CONCURRENT_DOWNLOAD, value);
+    }
+
     private static final String KEY_DOWNLOAD_DELAY = "download_delay";
     private static final int DEFAULT_DOWNLOAD_DELAY = 0;
 
@@ -37,4 +37,8 @@ public class EhCacheKeyFactory {
     public static String getImageKey(long gid, int index) {
         return "image:" + gid + ":" + index;
     }
+
+    public static String getImageTypeKey(long gid, int index) {
+        return "image_type:" + gid + ":" + index;
+    }
 }
@@ -24,6 +24,9 @@ import com.hippo.util.ExceptionUtils;
 import com.hippo.util.IoThreadPoolExecutor;
 import com.hippo.yorozuya.SimpleHandler;
 import java.io.File;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
@@ -70,13 +73,15 @@ public class EhClient {
         }
     }
 
-    public class Task extends AsyncTask<Object, Void, Object> {
+    public class Task extends AsyncTask<Object, Object, Object> {
 
         private final int mMethod;
         private Callback mCallback;
         private EhConfig mEhConfig;
 
         private final AtomicReference<Call> mCall = new AtomicReference<>();
+        // Calls running at the same time
+        private final Set<Call> mCalls = Collections.newSetFromMap(new ConcurrentHashMap<Call, Boolean>());
         private final AtomicBoolean mStop = new AtomicBoolean();
 
         public Task(int method, Callback callback, EhConfig ehConfig) {
@@ -95,6 +100,23 @@ public class EhClient {
             }
         }
 
+        // Called in Job thread
+        public void addCall(Call call) throws CancelledException {
+            mCalls.add(call);
+            if (mStop.get()) {
+                // Stopped Job thread
+                mCalls.remove(call);
+                throw new CancelledException();
+            }
+        }
+
+        /**
+         * Deliver a partial result to {@link PartialCallback}. Called in any thread.
+         */
+        public void publishPartialResult(Object result) {
+            publishProgress(result);
+        }
+
         public EhConfig getEhConfig() {
             return mEhConfig;
         }
@@ -123,12 +145,16 @@ public class EhClient {
                     if (call != null) {
                         call.cancel();
                     }
+                    for (Call c : mCalls) {
+                        c.cancel();
+                    }
                 }
 
                 // Clear
                 mCallback = null;
                 mEhConfig = null;
                 mCall.lazySet(null);
+                mCalls.clear();
             }
         }
 
@@ -180,6 +206,14 @@ public class EhClient {
             }
         }
 
+        @SuppressWarnings("unchecked")
+        @Override
+        protected void onProgressUpdate(Object... values) {
+            if (mCallback instanceof PartialCallback) {
+                ((PartialCallback) mCallback).onPartialResult(values[0]);
+            }
+        }
+
         @SuppressWarnings("unchecked")
         @Override
         protected void onPostExecute(Object result) {
@@ -200,6 +234,7 @@ public class EhClient {
             mCallback = null;
             mEhConfig = null;
             mCall.lazySet(null);
+            mCalls.clear();
         }
     }
 
@@ -211,4 +246,12 @@ public class EhClient {
 
         void onCancel();
     }
+
+    /**
+     * A callback which gets partial results before the final one.
+     */
+    public interface PartialCallback<E> extends Callback<E> {
+
+        void onPartialResult(E result);
+    }
 }
@@ -24,15 +24,19 @@ import android.content.Context;
 import com.hippo.ehviewer.EhApplication;
 import com.hippo.ehviewer.Hosts;
 import com.hippo.ehviewer.Settings;
+import com.hippo.network.CachingDns;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import okhttp3.Dns;
+import okhttp3.EventListener;
 
+/**
+ * Looks up hosts, built-in hosts, then the system {@code Dns} through a {@link CachingDns}.
+ */
 public class EhDns implements Dns {
 
   private static final Map<String, InetAddress> builtInHosts;
@@ -57,9 +61,18 @@ public class EhDns implements Dns {
   }
 
   private final Hosts hosts;
+  private final CachingDns dns;
 
   public EhDns(Context context) {
     hosts = EhApplication.getHosts(context);
+    dns = new CachingDns();
+  }
+
+  /**
+   * Measures connect latency of addresses, so faster addresses are returned first.
+   */
+  public EventListener.Factory getEventListenerFactory() {
+    return dns.getEventListenerFactory();
   }
 
   @Override
@@ -78,13 +91,6 @@ public class EhDns implements Dns {
       }
     }
 
-    try {
-      return Arrays.asList(InetAddress.getAllByName(hostname));
-    } catch (NullPointerException e) {
-      UnknownHostException unknownHostException =
-          new UnknownHostException("Broken system behaviour for dns lookup of " + hostname);
-      unknownHostException.initCause(e);
-      throw unknownHostException;
-    }
+    return dns.lookup(hostname);
   }
 }
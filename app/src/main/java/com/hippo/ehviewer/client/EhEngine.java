@@ -50,8 +50,11 @@ import com.hippo.network.StatusCodeException;
 import com.hippo.util.ExceptionUtils;
 import com.hippo.yorozuya.AssertUtils;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import okhttp3.Call;
@@ -64,6 +67,7 @@ import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
@@ -178,7 +182,100 @@ public class EhEngine {
         }
     }
 
+    /**
+     * Receives rows of a gallery list before all API data arrives.
+     */
+    private interface ListPublisher {
+
+        /**
+         * Called on any thread. The list is owned by the publisher.
+         */
+        void publish(List<GalleryInfo> list);
+    }
+
+    @Nullable
+    private static ListPublisher newListPublisher(@Nullable final EhClient.Task task,
+            final GalleryListParser.Result result) {
+        if (task == null) {
+            return null;
+        }
+        return new ListPublisher() {
+            @Override
+            public void publish(List<GalleryInfo> list) {
+                GalleryListParser.Result partial = new GalleryListParser.Result();
+                partial.pages = result.pages;
+                partial.nextPage = result.nextPage;
+                partial.noWatchedTags = result.noWatchedTags;
+                partial.galleryInfoList = list;
+                task.publishPartialResult(partial);
+            }
+        };
+    }
+
+    private static boolean filterTags(GalleryInfo info) {
+        // Thumbnail mode need filter uploader again
+        return sEhFilter.filterUploader(info) && sEhFilter.filterTag(info) && sEhFilter.filterTagNamespace(info);
+    }
+
     private static void fillGalleryList(@Nullable EhClient.Task task, OkHttpClient okHttpClient, List<GalleryInfo> list, String url, boolean filter) throws Throwable {
+        fillGalleryList(task, okHttpClient, list, url, filter, null);
+    }
+
+    /**
+     * Whether API data may filter out more rows of the list.
+     */
+    private static boolean needFilterByApi(List<GalleryInfo> list) {
+        if (sEhFilter.needTags()) {
+            return true;
+        }
+        // Thumbnail mode has no uploader
+        if (!sEhFilter.getUploaderFilterList().isEmpty()) {
+            for (GalleryInfo info : list) {
+                if (info.uploader == null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies rows, so the copies can be read on other threads while API data
+     * is filled into the rows.
+     */
+    private static List<GalleryInfo> copyOf(List<GalleryInfo> list) {
+        List<GalleryInfo> result = new ArrayList<>(list.size());
+        for (GalleryInfo info : list) {
+            GalleryInfo copy = new GalleryInfo();
+            copy.gid = info.gid;
+            copy.token = info.token;
+            copy.title = info.title;
+            copy.titleJpn = info.titleJpn;
+            copy.thumb = info.thumb;
+            copy.category = info.category;
+            copy.posted = info.posted;
+            copy.uploader = info.uploader;
+            copy.rating = info.rating;
+            copy.rated = info.rated;
+            copy.simpleTags = info.simpleTags;
+            copy.pages = info.pages;
+            copy.thumbWidth = info.thumbWidth;
+            copy.thumbHeight = info.thumbHeight;
+            copy.simpleLanguage = info.simpleLanguage;
+            copy.favoriteSlot = info.favoriteSlot;
+            copy.favoriteName = info.favoriteName;
+            result.add(copy);
+        }
+        return result;
+    }
+
+    /**
+     * If publisher is not null, API data is needed and it can't filter out rows,
+     * copies of the rows are published at once, then copies of each batch are
+     * published when API data of the batch arrives.
+     */
+    private static void fillGalleryList(@Nullable EhClient.Task task, OkHttpClient okHttpClient, List<GalleryInfo> list,
+            String url, boolean filter, @Nullable final ListPublisher publisher) throws Throwable {
         // Filter title and uploader
         if (filter) {
             for (int i = 0, n = list.size(); i < n; i++) {
@@ -210,15 +307,32 @@ public class EhEngine {
                 (Settings.getShowGalleryPages() && !hasPages) ||
                 hasRated;
         if (needApi) {
-            fillGalleryListByApi(task, okHttpClient, list, url);
+            BatchListener listener = null;
+            // Rows can't be shown before API data if it may filter them out
+            if (publisher != null && !list.isEmpty() && !(filter && needFilterByApi(list))) {
+                for (GalleryInfo info : list) {
+                    info.thumb = EhUrl.getFixedPreviewThumbUrl(info.thumb);
+                }
+                publisher.publish(copyOf(list));
+
+                listener = new BatchListener() {
+                    @Override
+                    public void onBatchFilled(List<GalleryInfo> batch) {
+                        for (GalleryInfo info : batch) {
+                            info.thumb = EhUrl.getFixedPreviewThumbUrl(info.thumb);
+                        }
+                        publisher.publish(copyOf(batch));
+                    }
+                };
+            }
+            fillGalleryListByApi(task, okHttpClient, list, url, listener);
         }
 
         // Filter tag
         if (filter) {
             for (int i = 0, n = list.size(); i < n; i++) {
                 GalleryInfo info = list.get(i);
-                // Thumbnail mode need filter uploader again
-                if (!sEhFilter.filterUploader(info) || !sEhFilter.filterTag(info) || !sEhFilter.filterTagNamespace(info)) {
+                if (!filterTags(info)) {
                     list.remove(i);
                     i--;
                     n--;
@@ -259,29 +373,103 @@ public class EhEngine {
             throw e;
         }
 
-        fillGalleryList(task, okHttpClient, result.galleryInfoList, url, true);
+        fillGalleryList(task, okHttpClient, result.galleryInfoList, url, true, newListPublisher(task, result));
 
         return result;
     }
 
+    private interface BatchListener {
+
+        /**
+         * Called on OkHttp threads when API data of the batch is filled.
+         */
+        void onBatchFilled(List<GalleryInfo> batch);
+    }
+
     // At least, GalleryInfo contain valid gid and token
     public static List<GalleryInfo> fillGalleryListByApi(@Nullable EhClient.Task task, OkHttpClient okHttpClient,
             List<GalleryInfo> galleryInfoList, String referer) throws Throwable {
+        fillGalleryListByApi(task, okHttpClient, galleryInfoList, referer, null);
+        return galleryInfoList;
+    }
+
+    /**
+     * Requests all batches at the same time, and waits for them.
+     */
+    private static void fillGalleryListByApi(@Nullable EhClient.Task task, OkHttpClient okHttpClient,
+            List<GalleryInfo> galleryInfoList, String referer, @Nullable final BatchListener listener) throws Throwable {
         // We can only request 25 items one time at most
         final int MAX_REQUEST_SIZE = 25;
-        List<GalleryInfo> requestItems = new ArrayList<>(MAX_REQUEST_SIZE);
-        for (int i = 0, size = galleryInfoList.size(); i < size; i++) {
-            requestItems.add(galleryInfoList.get(i));
-            if (requestItems.size() == MAX_REQUEST_SIZE || i == size - 1) {
-                doFillGalleryListByApi(task, okHttpClient, requestItems, referer);
-                requestItems.clear();
+        int size = galleryInfoList.size();
+        if (size == 0) {
+            return;
+        }
+
+        final CountDownLatch latch = new CountDownLatch((size + MAX_REQUEST_SIZE - 1) / MAX_REQUEST_SIZE);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Call> calls = new ArrayList<>();
+        try {
+            for (int start = 0; start < size; start += MAX_REQUEST_SIZE) {
+                final List<GalleryInfo> batch = new ArrayList<>(
+                        galleryInfoList.subList(start, Math.min(size, start + MAX_REQUEST_SIZE)));
+                Call call = okHttpClient.newCall(newGalleryApiRequest(batch, referer));
+
+                // Put call
+                if (null != task) {
+                    task.addCall(call);
+                }
+
+                calls.add(call);
+                call.enqueue(new okhttp3.Callback() {
+                    @Override
+                    public void onFailure(Call call, IOException e) {
+                        error.compareAndSet(null, toException(call, -1, null, null, e));
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void onResponse(Call call, Response response) {
+                        String body = null;
+                        Headers headers = null;
+                        int code = -1;
+                        try {
+                            code = response.code();
+                            headers = response.headers();
+                            body = response.body().string();
+                            GalleryApiParser.parse(body, batch);
+                            if (listener != null) {
+                                listener.onBatchFilled(batch);
+                            }
+                        } catch (Throwable e) {
+                            ExceptionUtils.throwIfFatal(e);
+                            error.compareAndSet(null, toException(call, code, headers, body, e));
+                        } finally {
+                            response.close();
+                            latch.countDown();
+                        }
+                    }
+                });
+            }
+
+            latch.await();
+        } catch (Throwable e) {
+            // Cancelled or interrupted, stop other batches
+            for (Call call : calls) {
+                call.cancel();
             }
+            if (e instanceof InterruptedException) {
+                throw new CancelledException();
+            }
+            throw e;
+        }
+
+        Throwable e = error.get();
+        if (e != null) {
+            throw e;
         }
-        return galleryInfoList;
     }
 
-    private static void doFillGalleryListByApi(@Nullable EhClient.Task task, OkHttpClient okHttpClient,
-            List<GalleryInfo> galleryInfoList, String referer) throws Throwable {
+    private static Request newGalleryApiRequest(List<GalleryInfo> galleryInfoList, String referer) throws JSONException {
         JSONObject json = new JSONObject();
         json.put("method", "gdata");
         JSONArray ja = new JSONArray();
@@ -297,30 +485,19 @@ public class EhEngine {
         String url = EhUrl.getApiUrl();
         String origin = EhUrl.getOrigin();
         Log.d(TAG, url);
-        Request request = new EhRequestBuilder(url, referer, origin)
+        return new EhRequestBuilder(url, referer, origin)
                 .post(RequestBody.create(MEDIA_TYPE_JSON, json.toString()))
                 .build();
-        Call call = okHttpClient.newCall(request);
-
-        // Put call
-        if (null != task) {
-            task.setCall(call);
-        }
+    }
 
-        String body = null;
-        Headers headers = null;
-        int code = -1;
+    private static Throwable toException(Call call, int code, @Nullable Headers headers,
+            @Nullable String body, Throwable e) {
         try {
-            Response response = call.execute();
-            code = response.code();
-            headers = response.headers();
-            body = response.body().string();
-            GalleryApiParser.parse(body, galleryInfoList);
-        } catch (Throwable e) {
-            ExceptionUtils.throwIfFatal(e);
             throwException(call, code, headers, body, e);
-            throw e;
+        } catch (Throwable error) {
+            return error;
         }
+        return e;
     }
 
     public static GalleryDetail getGalleryDetail(@Nullable EhClient.Task task, OkHttpClient okHttpClient,
@@ -916,7 +1093,7 @@ public class EhEngine {
             throw e;
         }
 
-        fillGalleryList(task, okHttpClient, result.galleryInfoList, url, true);
+        fillGalleryList(task, okHttpClient, result.galleryInfoList, url, true, newListPublisher(task, result));
 
         return result;
     }
@@ -39,6 +39,9 @@ public final class EhFilter {
     private final List<Filter> mTagFilterList = new ArrayList<>();
     private final List<Filter> mTagNamespaceFilterList = new ArrayList<>();
 
+    // Rebuilt and swapped when filters are changed, matching doesn't lock
+    private volatile FilterMatcher mMatcher;
+
     private static EhFilter sInstance;
 
     public static EhFilter getInstance() {
@@ -73,6 +76,13 @@ public final class EhFilter {
                     break;
             }
         }
+
+        updateMatcher();
+    }
+
+    private void updateMatcher() {
+        mMatcher = new FilterMatcher(mTitleFilterList, mUploaderFilterList,
+                mTagFilterList, mTagNamespaceFilterList);
     }
 
     public List<Filter> getTitleFilterList() {
@@ -116,10 +126,14 @@ public final class EhFilter {
                 Log.d(TAG, "Unknown mode: " + filter.mode);
                 break;
         }
+
+        updateMatcher();
     }
 
     public synchronized void triggerFilter(Filter filter) {
         EhDB.triggerFilter(filter);
+
+        updateMatcher();
     }
 
     public synchronized void deleteFilter(Filter filter) {
@@ -142,101 +156,46 @@ public final class EhFilter {
                 Log.d(TAG, "Unknown mode: " + filter.mode);
                 break;
         }
+
+        updateMatcher();
     }
 
-    public synchronized boolean needTags() {
-        return 0 != mTagFilterList.size() || 0 != mTagNamespaceFilterList.size();
+    public boolean needTags() {
+        return mMatcher.hasTagFilters();
     }
 
-    public synchronized boolean filterTitle(GalleryInfo info) {
+    public boolean filterTitle(GalleryInfo info) {
         if (null == info) {
             return false;
         }
 
         // Title
         String title = info.title;
-        List<Filter> filters = mTitleFilterList;
-        if (null != title && filters.size() > 0) {
-            for (int i = 0, n = filters.size(); i < n; i++) {
-                if (filters.get(i).enable && title.toLowerCase().contains(filters.get(i).text)) {
-                    return false;
-                }
-            }
-        }
-
-        return true;
+        return null == title || !mMatcher.matchTitle(title);
     }
 
-    public synchronized boolean filterUploader(GalleryInfo info) {
+    public boolean filterUploader(GalleryInfo info) {
         if (null == info) {
             return false;
         }
 
         // Uploader
         String uploader = info.uploader;
-        List<Filter> filters = mUploaderFilterList;
-        if (null != uploader && filters.size() > 0) {
-            for (int i = 0, n = filters.size(); i < n; i++) {
-                if (filters.get(i).enable && uploader.equals(filters.get(i).text)) {
-                    return false;
-                }
-            }
-        }
-
-        return true;
-    }
-
-    private boolean matchTag(String tag, String filter) {
-        if (null == tag || null == filter) {
-            return false;
-        }
-
-        String tagNamespace;
-        String tagName;
-        String filterNamespace;
-        String filterName;
-        int index = tag.indexOf(':');
-        if (index < 0) {
-            tagNamespace = null;
-            tagName = tag;
-        } else {
-            tagNamespace = tag.substring(0, index);
-            tagName = tag.substring(index + 1);
-        }
-        index = filter.indexOf(':');
-        if (index < 0) {
-            filterNamespace = null;
-            filterName = filter;
-        } else {
-            filterNamespace = filter.substring(0, index);
-            filterName = filter.substring(index + 1);
-        }
-
-        if (null != tagNamespace && null != filterNamespace &&
-                !tagNamespace.equals(filterNamespace)) {
-            return false;
-        }
-        if (!tagName.equals(filterName)) {
-            return false;
-        }
-
-        return true;
+        return null == uploader || !mMatcher.matchUploader(uploader);
     }
 
-    public synchronized boolean filterTag(GalleryInfo info) {
+    public boolean filterTag(GalleryInfo info) {
         if (null == info) {
             return false;
         }
 
         // Tag
         String[] tags = info.simpleTags;
-        List<Filter> filters = mTagFilterList;
-        if (null != tags && filters.size() > 0) {
+        if (null != tags) {
+            FilterMatcher matcher = mMatcher;
             for (String tag: tags) {
-                for (int i = 0, n = filters.size(); i < n; i++) {
-                    if (filters.get(i).enable && matchTag(tag, filters.get(i).text)) {
-                        return false;
-                    }
+                if (null != tag && matcher.matchTag(tag)) {
+                    return false;
                 }
             }
         }
@@ -244,34 +203,17 @@ public final class EhFilter {
         return true;
     }
 
-    private boolean matchTagNamespace(String tag, String filter) {
-        if (null == tag || null == filter) {
-            return false;
-        }
-
-        String tagNamespace;
-        int index = tag.indexOf(':');
-        if (index >= 0) {
-            tagNamespace = tag.substring(0, index);
-            return tagNamespace.equals(filter);
-        } else {
-            return false;
-        }
-    }
-
-    public synchronized boolean filterTagNamespace(GalleryInfo info) {
+    public boolean filterTagNamespace(GalleryInfo info) {
         if (null == info) {
             return false;
         }
 
         String[] tags = info.simpleTags;
-        List<Filter> filters = mTagNamespaceFilterList;
-        if (null != tags && filters.size() > 0) {
+        if (null != tags) {
+            FilterMatcher matcher = mMatcher;
             for (String tag: tags) {
-                for (int i = 0, n = filters.size(); i < n; i++) {
-                    if (filters.get(i).enable && matchTagNamespace(tag, filters.get(i).text)) {
-                        return false;
-                    }
+                if (null != tag && matcher.matchTagNamespace(tag)) {
+                    return false;
                 }
             }
         }
@@ -18,6 +18,8 @@ package com.hippo.ehviewer.client;
 
 import android.content.Context;
 import android.util.Base64;
+import android.util.Pair;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.hippo.ehviewer.AppConfig;
 import com.hippo.ehviewer.EhApplication;
@@ -35,7 +37,10 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -49,83 +54,268 @@ import okio.Okio;
 
 public class EhTagDatabase {
 
+  private static final int NO_ENTRY = -1;
+
   private final String name;
-  private final byte[] tags;
+
+  // Entries sorted by key, keys and decoded values are stored in byte pools
+  private final int size;
+  private final byte[] keys;
+  private final int[] keyOffsets;
+  private final byte[] values;
+  private final int[] valueOffsets;
+
+  // A radix trie over UTF-8 keys. Children of a node are contiguous and
+  // sorted by the first byte of labels. A node covers entries [start, end).
+  private final int[] nodeLabel;
+  private final int[] nodeLabelLength;
+  private final int[] nodeFirstChild;
+  private final int[] nodeChildCount;
+  private final int[] nodeEntry;
+  private final int[] nodeStart;
+  private final int[] nodeEnd;
 
   public EhTagDatabase(String name, BufferedSource source) throws IOException {
     this.name = name;
     int totalBytes = source.readInt();
-    tags = new byte[totalBytes];
+    byte[] tags = new byte[totalBytes];
     source.readFully(tags);
-  }
 
-  public String getTranslation(String tag) {
-    return search(tags, tag.getBytes(TextUrl.UTF_8));
-  }
-
-  @Nullable
-  private String search(byte[] tags, byte[] tag) {
-    int low = 0;
-    int high = tags.length;
-    while (low < high) {
-      int start = (low + high) / 2;
-      // Look for the starting '\n'
-      while (start > -1 && tags[start] != '\n') {
-        start--;
+    // Each line is "key\rbase64(value)\n", sorted by key
+    int count = 0;
+    int keyBytes = 0;
+    int valueBytes = 0;
+    for (int i = 0, lineStart = 0, middle = -1; i < totalBytes; i++) {
+      byte b = tags[i];
+      if (b == '\r' && middle < 0) {
+        middle = i;
+      } else if (b == '\n') {
+        if (middle < 0) {
+          throw new IOException("Bad line at " + lineStart);
+        }
+        count++;
+        keyBytes += middle - lineStart;
+        valueBytes += (i - middle - 1) / 4 * 3 + 3;
+        lineStart = i + 1;
+        middle = -1;
       }
-      start++;
+    }
 
-      // Look for the middle '\r'.
-      int middle = 1;
-      while (tags[start + middle] != '\r') {
-        middle++;
+    size = count;
+    keys = new byte[keyBytes];
+    keyOffsets = new int[count + 1];
+    byte[] values = new byte[valueBytes];
+    valueOffsets = new int[count + 1];
+    int keyPosition = 0;
+    int valuePosition = 0;
+    for (int i = 0, index = 0, lineStart = 0, middle = -1; i < totalBytes; i++) {
+      byte b = tags[i];
+      if (b == '\r' && middle < 0) {
+        middle = i;
+      } else if (b == '\n') {
+        System.arraycopy(tags, lineStart, keys, keyPosition, middle - lineStart);
+        keyOffsets[index] = keyPosition;
+        keyPosition += middle - lineStart;
+
+        byte[] value = Base64.decode(tags, middle + 1, i - middle - 1, Base64.DEFAULT);
+        System.arraycopy(value, 0, values, valuePosition, value.length);
+        valueOffsets[index] = valuePosition;
+        valuePosition += value.length;
+
+        index++;
+        lineStart = i + 1;
+        middle = -1;
       }
+    }
+    keyOffsets[count] = keyPosition;
+    valueOffsets[count] = valuePosition;
+    this.values = valuePosition == values.length ? values : Arrays.copyOf(values, valuePosition);
+
+    // At most one node for each entry, and one for each branch
+    int capacity = 2 * count + 1;
+    nodeLabel = new int[capacity];
+    nodeLabelLength = new int[capacity];
+    nodeFirstChild = new int[capacity];
+    nodeChildCount = new int[capacity];
+    nodeEntry = new int[capacity];
+    nodeStart = new int[capacity];
+    nodeEnd = new int[capacity];
+    buildTrie();
+  }
 
-      // Look for the ending '\n'
-      int end = middle + 1;
-      while (tags[start + end] != '\n') {
-        end++;
-      }
+  private int keyLength(int entry) {
+    return keyOffsets[entry + 1] - keyOffsets[entry];
+  }
 
-      int compare;
-      int tagIndex = 0;
-      int curIndex = start;
+  private int keyByte(int entry, int index) {
+    return keys[keyOffsets[entry] + index] & 0xff;
+  }
 
-      for (;;) {
-        int tagByte = tag[tagIndex] & 0xff;
-        int curByte = tags[curIndex] & 0xff;
-        compare = tagByte - curByte;
-        if (compare != 0) {
-          break;
+  private void buildTrie() {
+    // Nodes are laid out in breadth-first order, each node is built with its range and depth
+    int nodeCount = 1;
+    nodeStart[0] = 0;
+    nodeEnd[0] = size;
+    int[] depths = new int[nodeStart.length];
+
+    for (int node = 0; node < nodeCount; node++) {
+      int lo = nodeStart[node];
+      int hi = nodeEnd[node];
+      int depth = depths[node];
+
+      nodeEntry[node] = NO_ENTRY;
+      if (lo < hi && keyLength(lo) == depth) {
+        nodeEntry[node] = lo;
+        lo++;
+        // Skip duplicated keys
+        while (lo < hi && keyLength(lo) == depth) {
+          lo++;
         }
+      }
 
-        tagIndex++;
-        curIndex++;
-        if (tagIndex == tag.length && curIndex == start + middle) {
-          break;
+      nodeFirstChild[node] = nodeCount;
+      while (lo < hi) {
+        // Group entries by the byte at depth
+        int b = keyByte(lo, depth);
+        int groupEnd = lo + 1;
+        while (groupEnd < hi && keyByte(groupEnd, depth) == b) {
+          groupEnd++;
         }
-        if (tagIndex == tag.length) {
-          compare = -1;
-          break;
-        }
-        if (curIndex == start + middle) {
-          compare = 1;
-          break;
+
+        // Entries are sorted, so the common prefix of the first and the last is the one of all
+        int first = lo;
+        int last = groupEnd - 1;
+        int lcp = depth + 1;
+        int limit = Math.min(keyLength(first), keyLength(last));
+        while (lcp < limit && keyByte(first, lcp) == keyByte(last, lcp)) {
+          lcp++;
         }
+
+        int child = nodeCount++;
+        nodeLabel[child] = keyOffsets[first] + depth;
+        nodeLabelLength[child] = lcp - depth;
+        nodeStart[child] = first;
+        nodeEnd[child] = groupEnd;
+        depths[child] = lcp;
+        lo = groupEnd;
       }
+      nodeChildCount[node] = nodeCount - nodeFirstChild[node];
+    }
+  }
 
-      if (compare < 0) {
-        high = start - 1;
-      } else if (compare > 0) {
-        low = start + end + 1;
+  private int findChild(int node, int b) {
+    int low = nodeFirstChild[node];
+    int high = low + nodeChildCount[node] - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int midByte = keys[nodeLabel[mid]] & 0xff;
+      if (midByte < b) {
+        low = mid + 1;
+      } else if (midByte > b) {
+        high = mid - 1;
       } else {
-        byte[] bytes = Base64.decode(tags, start + middle + 1, end - middle - 1, Base64.DEFAULT);
-        return new String(bytes, TextUrl.UTF_8);
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Walks down the trie.
+   *
+   * @param prefix true to stop at the end of the key even if it's in the middle of a label
+   * @return the node, or -1 if not found
+   */
+  private int findNode(byte[] key, boolean prefix) {
+    int node = 0;
+    int position = 0;
+    while (position < key.length) {
+      node = findChild(node, key[position] & 0xff);
+      if (node < 0) {
+        return -1;
+      }
+      int label = nodeLabel[node];
+      int labelLength = nodeLabelLength[node];
+      int remain = key.length - position;
+      if (remain < labelLength && !prefix) {
+        return -1;
+      }
+      for (int i = 1, n = Math.min(remain, labelLength); i < n; i++) {
+        if (key[position + i] != keys[label + i]) {
+          return -1;
+        }
+      }
+      position += labelLength;
+    }
+    return node;
+  }
+
+  private String getKey(int entry) {
+    return new String(keys, keyOffsets[entry], keyLength(entry), TextUrl.UTF_8);
+  }
+
+  private String getValue(int entry) {
+    return new String(values, valueOffsets[entry], valueOffsets[entry + 1] - valueOffsets[entry], TextUrl.UTF_8);
+  }
+
+  @Nullable
+  public String getTranslation(String tag) {
+    int node = findNode(tag.getBytes(TextUrl.UTF_8), false);
+    if (node < 0 || nodeEntry[node] == NO_ENTRY) {
+      return null;
+    }
+    return getValue(nodeEntry[node]);
+  }
+
+  private boolean containsAt(int entry, byte[] keyword) {
+    int offset = keyOffsets[entry];
+    int n = keyLength(entry) - keyword.length;
+    outer:
+    for (int i = 1; i <= n; i++) {
+      for (int j = 0; j < keyword.length; j++) {
+        if (keys[offset + i + j] != keyword[j]) {
+          continue outer;
+        }
       }
+      return true;
     }
-    return null;
+    return false;
   }
 
+  /**
+   * Finds entries whose key starts with the keyword, then entries whose key
+   * contains the keyword. Tags and translations are both keys.
+   *
+   * @return pairs of key and value, at most limit
+   */
+  @NonNull
+  public List<Pair<String, String>> suggest(@NonNull String keyword, int limit) {
+    List<Pair<String, String>> result = new ArrayList<>();
+    byte[] bytes = keyword.getBytes(TextUrl.UTF_8);
+    if (bytes.length == 0 || limit <= 0) {
+      return result;
+    }
+
+    // Keys with the prefix are contiguous
+    int start = 0;
+    int end = 0;
+    int node = findNode(bytes, true);
+    if (node >= 0) {
+      start = nodeStart[node];
+      end = nodeEnd[node];
+      for (int i = start; i < end && result.size() < limit; i++) {
+        result.add(new Pair<>(getKey(i), getValue(i)));
+      }
+    }
+
+    for (int i = 0; i < size && result.size() < limit; i++) {
+      if ((i < start || i >= end) && containsAt(i, bytes)) {
+        result.add(new Pair<>(getKey(i), getValue(i)));
+      }
+    }
+
+    return result;
+  }
 
   private static final Map<String, String> NAMESPACE_TO_PREFIX = new HashMap<>();
 
@@ -307,7 +497,7 @@ public class EhTagDatabase {
           }
         }
 
-        OkHttpClient client = EhApplication.getOkHttpClient(EhApplication.getInstance());
+        OkHttpClient client = EhApplication.getArchiveOkHttpClient(EhApplication.getInstance());
 
         // Save new sha1
         File tempSha1File = new File(dir, sha1Name + ".tmp");
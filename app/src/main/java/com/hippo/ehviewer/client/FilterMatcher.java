@@ -0,0 +1,300 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client;
+
+import androidx.annotation.NonNull;
+import com.hippo.ehviewer.dao.Filter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Enabled filters compiled for matching. It is immutable, so it can be
+ * used on any thread without lock, and matching allocates nothing.
+ */
+final class FilterMatcher {
+
+    // Title keywords, matched in lower case
+    private final TitleAutomaton mTitles;
+    // Uploader names
+    private final Set<String> mUploaders;
+    // Tag filters with namespace, "namespace:name"
+    private final Set<String> mNamespacedTags;
+    // Names of tag filters without namespace, they match tag of any namespace
+    private final RangeSet mBareTagNames;
+    // Names of all tag filters, they match tag without namespace
+    private final Set<String> mTagNames;
+    private final RangeSet mTagNamespaces;
+
+    FilterMatcher(@NonNull List<Filter> titleFilters, @NonNull List<Filter> uploaderFilters,
+            @NonNull List<Filter> tagFilters, @NonNull List<Filter> tagNamespaceFilters) {
+        List<String> titles = new ArrayList<>();
+        for (Filter filter : titleFilters) {
+            if (filter.enable && filter.text != null) {
+                titles.add(filter.text);
+            }
+        }
+        mTitles = new TitleAutomaton(titles);
+
+        mUploaders = new HashSet<>();
+        for (Filter filter : uploaderFilters) {
+            if (filter.enable && filter.text != null) {
+                mUploaders.add(filter.text);
+            }
+        }
+
+        mNamespacedTags = new HashSet<>();
+        mTagNames = new HashSet<>();
+        List<String> bareTagNames = new ArrayList<>();
+        for (Filter filter : tagFilters) {
+            String text = filter.text;
+            if (!filter.enable || text == null) {
+                continue;
+            }
+            int index = text.indexOf(':');
+            if (index < 0) {
+                bareTagNames.add(text);
+                mTagNames.add(text);
+            } else {
+                mNamespacedTags.add(text);
+                mTagNames.add(text.substring(index + 1));
+            }
+        }
+        mBareTagNames = new RangeSet(bareTagNames);
+
+        List<String> namespaces = new ArrayList<>();
+        for (Filter filter : tagNamespaceFilters) {
+            if (filter.enable && filter.text != null) {
+                namespaces.add(filter.text);
+            }
+        }
+        mTagNamespaces = new RangeSet(namespaces);
+    }
+
+    boolean hasTagFilters() {
+        return !mTagNames.isEmpty() || !mTagNamespaces.isEmpty();
+    }
+
+    boolean matchTitle(@NonNull String title) {
+        return mTitles.match(title);
+    }
+
+    boolean matchUploader(@NonNull String uploader) {
+        return mUploaders.contains(uploader);
+    }
+
+    boolean matchTag(@NonNull String tag) {
+        int index = tag.indexOf(':');
+        if (index < 0) {
+            return mTagNames.contains(tag);
+        } else {
+            return mNamespacedTags.contains(tag) ||
+                    mBareTagNames.contains(tag, index + 1, tag.length());
+        }
+    }
+
+    boolean matchTagNamespace(@NonNull String tag) {
+        int index = tag.indexOf(':');
+        return index >= 0 && mTagNamespaces.contains(tag, 0, index);
+    }
+
+    /**
+     * Aho-Corasick automaton of lower case keywords.
+     * Transitions of a state are sorted chars for binary search.
+     */
+    private static final class TitleAutomaton {
+
+        private static final char[] EMPTY_KEYS = new char[0];
+        private static final int[] EMPTY_TARGETS = new int[0];
+
+        private final char[][] mKeys;
+        private final int[][] mTargets;
+        private final int[] mFail;
+        // A keyword ends at the state or at one of its fail states
+        private final boolean[] mOutput;
+        // Empty keyword matches everything
+        private final boolean mMatchAll;
+
+        TitleAutomaton(List<String> keywords) {
+            // Build trie
+            List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+            List<Boolean> ends = new ArrayList<>();
+            trie.add(new TreeMap<Character, Integer>());
+            ends.add(false);
+            boolean matchAll = false;
+            for (String keyword : keywords) {
+                if (keyword.isEmpty()) {
+                    matchAll = true;
+                    continue;
+                }
+                int state = 0;
+                for (int i = 0, n = keyword.length(); i < n; i++) {
+                    char c = Character.toLowerCase(keyword.charAt(i));
+                    Integer next = trie.get(state).get(c);
+                    if (next == null) {
+                        next = trie.size();
+                        trie.add(new TreeMap<Character, Integer>());
+                        ends.add(false);
+                        trie.get(state).put(c, next);
+                    }
+                    state = next;
+                }
+                ends.set(state, true);
+            }
+            mMatchAll = matchAll;
+
+            int size = trie.size();
+            mKeys = new char[size][];
+            mTargets = new int[size][];
+            mFail = new int[size];
+            mOutput = new boolean[size];
+            for (int i = 0; i < size; i++) {
+                mOutput[i] = ends.get(i);
+                TreeMap<Character, Integer> map = trie.get(i);
+                if (map.isEmpty()) {
+                    mKeys[i] = EMPTY_KEYS;
+                    mTargets[i] = EMPTY_TARGETS;
+                    continue;
+                }
+                char[] keys = new char[map.size()];
+                int[] targets = new int[map.size()];
+                int j = 0;
+                for (Map.Entry<Character, Integer> entry : map.entrySet()) {
+                    keys[j] = entry.getKey();
+                    targets[j] = entry.getValue();
+                    j++;
+                }
+                mKeys[i] = keys;
+                mTargets[i] = targets;
+            }
+
+            // Fail links in breadth-first order
+            LinkedList<Integer> queue = new LinkedList<>();
+            for (int child : mTargets[0]) {
+                mFail[child] = 0;
+                queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                char[] keys = mKeys[state];
+                int[] targets = mTargets[state];
+                for (int i = 0; i < keys.length; i++) {
+                    int child = targets[i];
+                    int fail = mFail[state];
+                    int next;
+                    while ((next = next(fail, keys[i])) < 0 && fail != 0) {
+                        fail = mFail[fail];
+                    }
+                    mFail[child] = next >= 0 ? next : 0;
+                    mOutput[child] |= mOutput[mFail[child]];
+                    queue.add(child);
+                }
+            }
+        }
+
+        private int next(int state, char c) {
+            int index = Arrays.binarySearch(mKeys[state], c);
+            return index >= 0 ? mTargets[state][index] : -1;
+        }
+
+        boolean match(String text) {
+            if (mMatchAll) {
+                return true;
+            }
+            if (mKeys[0].length == 0) {
+                return false;
+            }
+
+            int state = 0;
+            for (int i = 0, n = text.length(); i < n; i++) {
+                char c = Character.toLowerCase(text.charAt(i));
+                int next;
+                while ((next = next(state, c)) < 0 && state != 0) {
+                    state = mFail[state];
+                }
+                state = next >= 0 ? next : 0;
+                if (mOutput[state]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A hash set of strings which can be queried with a part of a string.
+     */
+    private static final class RangeSet {
+
+        private final String[] mTable;
+        private final int mMask;
+        private final int mSize;
+
+        RangeSet(List<String> strings) {
+            int capacity = 1;
+            while (capacity < strings.size() * 2) {
+                capacity <<= 1;
+            }
+            mTable = new String[capacity];
+            mMask = capacity - 1;
+
+            int size = 0;
+            for (String s : strings) {
+                if (!contains(s, 0, s.length())) {
+                    int slot = hash(s, 0, s.length()) & mMask;
+                    while (mTable[slot] != null) {
+                        slot = (slot + 1) & mMask;
+                    }
+                    mTable[slot] = s;
+                    size++;
+                }
+            }
+            mSize = size;
+        }
+
+        // String.hashCode() of the range, spread
+        private static int hash(String s, int start, int end) {
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + s.charAt(i);
+            }
+            return h ^ (h >>> 16);
+        }
+
+        boolean isEmpty() {
+            return mSize == 0;
+        }
+
+        boolean contains(String s, int start, int end) {
+            int length = end - start;
+            int slot = hash(s, start, end) & mMask;
+            String candidate;
+            while ((candidate = mTable[slot]) != null) {
+                if (candidate.length() == length && candidate.regionMatches(0, s, start, length)) {
+                    return true;
+                }
+                slot = (slot + 1) & mMask;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.collection.LruCache;
+import com.hippo.beerbelly.SimpleDiskCache;
+import com.hippo.ehviewer.client.data.GalleryDetail;
+import com.hippo.ehviewer.client.data.GalleryDetailCodec;
+import com.hippo.streampipe.InputStreamPipe;
+import com.hippo.streampipe.OutputStreamPipe;
+import com.hippo.util.IoThreadPoolExecutor;
+import com.hippo.yorozuya.IOUtils;
+import com.hippo.yorozuya.SimpleHandler;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gallery details in memory and on disk. The memory tier is sized by bytes
+ * of serialized gallery details.
+ * <p>
+ * An entry is fresh for a while after put. A stale entry is still returned,
+ * the caller should show it and fetch the gallery detail again.
+ * <p>
+ * Only the memory tier is read on the caller thread, use
+ * {@link #load(long, LoadListener)} to read the disk tier.
+ */
+public class GalleryDetailCache {
+
+    private static final long FRESH_TIME = TimeUnit.MINUTES.toMillis(10);
+    // Entries older than it are dropped
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(7);
+
+    private final LruCache<Long, Entry> mMemoryCache;
+    private final SimpleDiskCache mDiskCache;
+
+    public GalleryDetailCache(int memoryCacheMaxSize, @NonNull SimpleDiskCache diskCache) {
+        mMemoryCache = new LruCache<Long, Entry>(memoryCacheMaxSize) {
+            @Override
+            protected int sizeOf(@NonNull Long key, @NonNull Entry value) {
+                return value.size;
+            }
+        };
+        mDiskCache = diskCache;
+    }
+
+    public interface LoadListener {
+
+        /**
+         * @param galleryDetail null if it's not cached
+         * @param stale true if the gallery detail should be fetched again
+         */
+        void onLoad(@Nullable GalleryDetail galleryDetail, boolean stale);
+    }
+
+    /**
+     * Gets from memory, then from disk on the IO executor. The entry read from
+     * disk is put to memory. The listener is called on the main thread.
+     */
+    public void load(final long gid, @NonNull final LoadListener listener) {
+        IoThreadPoolExecutor.getInstance().execute(() -> {
+            Entry entry = getEntry(gid);
+            GalleryDetail galleryDetail = entry != null ? entry.galleryDetail : null;
+            boolean stale = isStale(entry);
+            SimpleHandler.getInstance().post(() -> listener.onLoad(galleryDetail, stale));
+        });
+    }
+
+    @Nullable
+    public GalleryDetail getFromMemory(long gid) {
+        Entry entry = mMemoryCache.get(gid);
+        return entry != null ? entry.galleryDetail : null;
+    }
+
+    /**
+     * Returns {@code true} if the gallery detail is not in memory or should be fetched again.
+     */
+    public boolean isStale(long gid) {
+        return isStale(mMemoryCache.get(gid));
+    }
+
+    private static boolean isStale(@Nullable Entry entry) {
+        return entry == null || System.currentTimeMillis() - entry.time > FRESH_TIME;
+    }
+
+    @Nullable
+    private Entry getEntry(long gid) {
+        Entry entry = mMemoryCache.get(gid);
+        if (entry == null) {
+            entry = read(gid);
+            if (entry != null) {
+                mMemoryCache.put(gid, entry);
+            }
+        }
+        if (entry != null && System.currentTimeMillis() - entry.time > MAX_AGE) {
+            remove(gid);
+            return null;
+        }
+        return entry;
+    }
+
+    public void put(@NonNull GalleryDetail galleryDetail) {
+        final long gid = galleryDetail.gid;
+        final long time = System.currentTimeMillis();
+        final byte[] data = GalleryDetailCodec.encode(galleryDetail);
+        mMemoryCache.put(gid, new Entry(galleryDetail, time, data.length));
+        IoThreadPoolExecutor.getInstance().execute(() -> write(gid, time, data));
+    }
+
+    /**
+     * Writes the changed gallery detail to disk, it keeps the time of the entry.
+     * If it's not in memory anymore, the older one on disk is dropped.
+     */
+    public void update(long gid) {
+        final Entry entry = mMemoryCache.get(gid);
+        if (entry != null) {
+            final byte[] data = GalleryDetailCodec.encode(entry.galleryDetail);
+            IoThreadPoolExecutor.getInstance().execute(() -> write(gid, entry.time, data));
+        } else {
+            IoThreadPoolExecutor.getInstance().execute(() -> mDiskCache.remove(Long.toString(gid)));
+        }
+    }
+
+    public void remove(long gid) {
+        mMemoryCache.remove(gid);
+        mDiskCache.remove(Long.toString(gid));
+    }
+
+    public void evictMemory() {
+        mMemoryCache.evictAll();
+    }
+
+    @Nullable
+    private Entry read(long gid) {
+        InputStreamPipe pipe = mDiskCache.getInputStreamPipe(Long.toString(gid));
+        if (pipe == null) {
+            return null;
+        }
+        try {
+            pipe.obtain();
+            InputStream is = pipe.open();
+            DataInputStream dis = new DataInputStream(is);
+            long time = dis.readLong();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            IOUtils.copy(dis, baos);
+            byte[] data = baos.toByteArray();
+            GalleryDetail galleryDetail = GalleryDetailCodec.decode(data);
+            if (galleryDetail == null || galleryDetail.gid != gid) {
+                return null;
+            }
+            return new Entry(galleryDetail, time, data.length);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            pipe.close();
+            pipe.release();
+        }
+    }
+
+    private void write(long gid, long time, byte[] data) {
+        OutputStreamPipe pipe = mDiskCache.getOutputStreamPipe(Long.toString(gid));
+        try {
+            pipe.obtain();
+            DataOutputStream dos = new DataOutputStream(pipe.open());
+            dos.writeLong(time);
+            dos.write(data);
+            dos.flush();
+        } catch (IOException e) {
+            // Ignore
+        } finally {
+            pipe.close();
+            pipe.release();
+        }
+    }
+
+    private static class Entry {
+
+        final GalleryDetail galleryDetail;
+        // When the gallery detail is fetched
+        final long time;
+        final int size;
+
+        Entry(GalleryDetail galleryDetail, long time, int size) {
+            this.galleryDetail = galleryDetail;
+            this.time = time;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client.data;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Binary form of {@link GalleryDetail} for disk cache. Unlike {@code Parcel},
+ * the format is stable across platform versions.
+ */
+public final class GalleryDetailCodec {
+
+    private static final int MAGIC = 0x45484744; // EHGD
+    private static final int VERSION = 1;
+
+    private static final int PREVIEW_SET_NONE = 0;
+    private static final int PREVIEW_SET_LARGE = 1;
+    private static final int PREVIEW_SET_NORMAL = 2;
+
+    private GalleryDetailCodec() {}
+
+    @NonNull
+    public static byte[] encode(@NonNull GalleryDetail gd) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(4 * 1024);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            writeGalleryInfo(dos, gd);
+            writeGalleryDetail(dos, gd);
+            dos.flush();
+        } catch (IOException e) {
+            // ByteArrayOutputStream doesn't throw IOException
+            throw new IllegalStateException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * @return null if the data is in another version or broken
+     */
+    @Nullable
+    public static GalleryDetail decode(@NonNull byte[] data) {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+                return null;
+            }
+            GalleryDetail gd = new GalleryDetail();
+            readGalleryInfo(dis, gd);
+            readGalleryDetail(dis, gd);
+            return gd;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream dos, @Nullable String s) throws IOException {
+        if (s == null) {
+            dos.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes("UTF-8");
+            dos.writeInt(bytes.length);
+            dos.write(bytes);
+        }
+    }
+
+    @Nullable
+    private static String readString(DataInputStream dis) throws IOException {
+        int length = dis.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > dis.available()) {
+            throw new IOException("Bad string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        dis.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    // Each element takes one byte at least, it avoids huge arrays from broken data
+    private static int readSize(DataInputStream dis) throws IOException {
+        int size = dis.readInt();
+        if (size > dis.available()) {
+            throw new IOException("Bad size: " + size);
+        }
+        return size;
+    }
+
+    private static void writeGalleryInfo(DataOutputStream dos, GalleryInfo gi) throws IOException {
+        dos.writeLong(gi.gid);
+        writeString(dos, gi.token);
+        writeString(dos, gi.title);
+        writeString(dos, gi.titleJpn);
+        writeString(dos, gi.thumb);
+        dos.writeInt(gi.category);
+        writeString(dos, gi.posted);
+        writeString(dos, gi.uploader);
+        dos.writeFloat(gi.rating);
+        dos.writeBoolean(gi.rated);
+        String[] simpleTags = gi.simpleTags;
+        if (simpleTags == null) {
+            dos.writeInt(-1);
+        } else {
+            dos.writeInt(simpleTags.length);
+            for (String tag : simpleTags) {
+                writeString(dos, tag);
+            }
+        }
+        dos.writeInt(gi.pages);
+        dos.writeInt(gi.thumbWidth);
+        dos.writeInt(gi.thumbHeight);
+        writeString(dos, gi.simpleLanguage);
+        dos.writeInt(gi.favoriteSlot);
+        writeString(dos, gi.favoriteName);
+    }
+
+    private static void readGalleryInfo(DataInputStream dis, GalleryInfo gi) throws IOException {
+        gi.gid = dis.readLong();
+        gi.token = readString(dis);
+        gi.title = readString(dis);
+        gi.titleJpn = readString(dis);
+        gi.thumb = readString(dis);
+        gi.category = dis.readInt();
+        gi.posted = readString(dis);
+        gi.uploader = readString(dis);
+        gi.rating = dis.readFloat();
+        gi.rated = dis.readBoolean();
+        int size = readSize(dis);
+        if (size >= 0) {
+            String[] simpleTags = new String[size];
+            for (int i = 0; i < size; i++) {
+                simpleTags[i] = readString(dis);
+            }
+            gi.simpleTags = simpleTags;
+        }
+        gi.pages = dis.readInt();
+        gi.thumbWidth = dis.readInt();
+        gi.thumbHeight = dis.readInt();
+        gi.simpleLanguage = readString(dis);
+        gi.favoriteSlot = dis.readInt();
+        gi.favoriteName = readString(dis);
+    }
+
+    private static void writeGalleryDetail(DataOutputStream dos, GalleryDetail gd) throws IOException {
+        dos.writeLong(gd.apiUid);
+        writeString(dos, gd.apiKey);
+        dos.writeInt(gd.torrentCount);
+        writeString(dos, gd.torrentUrl);
+        writeString(dos, gd.archiveUrl);
+        writeString(dos, gd.parent);
+        writeString(dos, gd.visible);
+        writeString(dos, gd.language);
+        writeString(dos, gd.size);
+        dos.writeInt(gd.pages);
+        dos.writeInt(gd.favoriteCount);
+        dos.writeBoolean(gd.isFavorited);
+        dos.writeInt(gd.ratingCount);
+        dos.writeInt(gd.previewPages);
+
+        GalleryTagGroup[] tags = gd.tags;
+        if (tags == null) {
+            dos.writeInt(-1);
+        } else {
+            dos.writeInt(tags.length);
+            for (GalleryTagGroup group : tags) {
+                writeString(dos, group.groupName);
+                int size = group.size();
+                dos.writeInt(size);
+                for (int i = 0; i < size; i++) {
+                    writeString(dos, group.getTagAt(i));
+                }
+            }
+        }
+
+        GalleryCommentList commentList = gd.comments;
+        if (commentList == null) {
+            dos.writeBoolean(false);
+        } else {
+            dos.writeBoolean(true);
+            dos.writeBoolean(commentList.hasMore);
+            GalleryComment[] comments = commentList.comments;
+            if (comments == null) {
+                dos.writeInt(-1);
+            } else {
+                dos.writeInt(comments.length);
+                for (GalleryComment comment : comments) {
+                    writeComment(dos, comment);
+                }
+            }
+        }
+
+        PreviewSet previewSet = gd.previewSet;
+        if (previewSet instanceof LargePreviewSet) {
+            dos.writeByte(PREVIEW_SET_LARGE);
+        } else if (previewSet instanceof NormalPreviewSet) {
+            dos.writeByte(PREVIEW_SET_NORMAL);
+        } else {
+            dos.writeByte(PREVIEW_SET_NONE);
+            return;
+        }
+        int size = previewSet.size();
+        dos.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            GalleryPreview preview = previewSet.getGalleryPreview(gd.gid, i);
+            dos.writeInt(preview.position);
+            writeString(dos, preview.imageUrl);
+            writeString(dos, preview.pageUrl);
+            if (previewSet instanceof NormalPreviewSet) {
+                dos.writeInt(preview.offsetX);
+                dos.writeInt(preview.offsetY);
+                dos.writeInt(preview.clipWidth);
+                dos.writeInt(preview.clipHeight);
+            }
+        }
+    }
+
+    private static void readGalleryDetail(DataInputStream dis, GalleryDetail gd) throws IOException {
+        gd.apiUid = dis.readLong();
+        gd.apiKey = readString(dis);
+        gd.torrentCount = dis.readInt();
+        gd.torrentUrl = readString(dis);
+        gd.archiveUrl = readString(dis);
+        gd.parent = readString(dis);
+        gd.visible = readString(dis);
+        gd.language = readString(dis);
+        gd.size = readString(dis);
+        gd.pages = dis.readInt();
+        gd.favoriteCount = dis.readInt();
+        gd.isFavorited = dis.readBoolean();
+        gd.ratingCount = dis.readInt();
+        gd.previewPages = dis.readInt();
+
+        int size = readSize(dis);
+        if (size >= 0) {
+            GalleryTagGroup[] tags = new GalleryTagGroup[size];
+            for (int i = 0; i < size; i++) {
+                GalleryTagGroup group = new GalleryTagGroup();
+                group.groupName = readString(dis);
+                for (int j = 0, n = dis.readInt(); j < n; j++) {
+                    group.addTag(readString(dis));
+                }
+                tags[i] = group;
+            }
+            gd.tags = tags;
+        }
+
+        if (dis.readBoolean()) {
+            boolean hasMore = dis.readBoolean();
+            GalleryComment[] comments = null;
+            size = readSize(dis);
+            if (size >= 0) {
+                comments = new GalleryComment[size];
+                for (int i = 0; i < size; i++) {
+                    comments[i] = readComment(dis);
+                }
+            }
+            gd.comments = new GalleryCommentList(comments, hasMore);
+        }
+
+        int type = dis.readByte();
+        if (type == PREVIEW_SET_LARGE) {
+            LargePreviewSet previewSet = new LargePreviewSet();
+            for (int i = 0, n = dis.readInt(); i < n; i++) {
+                int position = dis.readInt();
+                String imageUrl = readString(dis);
+                String pageUrl = readString(dis);
+                previewSet.addItem(position, imageUrl, pageUrl);
+            }
+            gd.previewSet = previewSet;
+        } else if (type == PREVIEW_SET_NORMAL) {
+            NormalPreviewSet previewSet = new NormalPreviewSet();
+            for (int i = 0, n = dis.readInt(); i < n; i++) {
+                int position = dis.readInt();
+                String imageUrl = readString(dis);
+                String pageUrl = readString(dis);
+                int offsetX = dis.readInt();
+                int offsetY = dis.readInt();
+                int clipWidth = dis.readInt();
+                int clipHeight = dis.readInt();
+                previewSet.addItem(position, imageUrl, offsetX, offsetY, clipWidth, clipHeight, pageUrl);
+            }
+            gd.previewSet = previewSet;
+        }
+    }
+
+    private static void writeComment(DataOutputStream dos, GalleryComment comment) throws IOException {
+        dos.writeLong(comment.id);
+        dos.writeInt(comment.score);
+        dos.writeBoolean(comment.editable);
+        dos.writeBoolean(comment.voteUpAble);
+        dos.writeBoolean(comment.voteUpEd);
+        dos.writeBoolean(comment.voteDownAble);
+        dos.writeBoolean(comment.voteDownEd);
+        writeString(dos, comment.voteState);
+        dos.writeLong(comment.time);
+        writeString(dos, comment.user);
+        writeString(dos, comment.comment);
+        dos.writeLong(comment.lastEdited);
+    }
+
+    private static GalleryComment readComment(DataInputStream dis) throws IOException {
+        GalleryComment comment = new GalleryComment();
+        comment.id = dis.readLong();
+        comment.score = dis.readInt();
+        comment.editable = dis.readBoolean();
+        comment.voteUpAble = dis.readBoolean();
+        comment.voteUpEd = dis.readBoolean();
+        comment.voteDownAble = dis.readBoolean();
+        comment.voteDownEd = dis.readBoolean();
+        comment.voteState = readString(dis);
+        comment.time = dis.readLong();
+        comment.user = readString(dis);
+        comment.comment = readString(dis);
+        comment.lastEdited = dis.readLong();
+        return comment;
+    }
+}
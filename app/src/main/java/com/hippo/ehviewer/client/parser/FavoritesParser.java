@@ -47,8 +47,29 @@ public class FavoritesParser {
         String[] catArray = new String[10];
         int[] countArray = new int[10];
 
+        GalleryListParser.Result result;
         try {
+            result = GalleryListStreamParser.parse(body, catArray, countArray);
+        } catch (ParseException e) {
+            // Let jsoup fix the markup
             Document d = Jsoup.parse(body);
+            parseFavorites(d, catArray, countArray, body);
+            result = GalleryListParser.parse(d, body);
+        }
+
+        Result re = new Result();
+        re.catArray = catArray;
+        re.countArray = countArray;
+        re.pages = result.pages;
+        re.nextPage = result.nextPage;
+        re.galleryInfoList = result.galleryInfoList;
+
+        return re;
+    }
+
+    private static void parseFavorites(Document d, String[] catArray, int[] countArray,
+            String body) throws ParseException {
+        try {
             Element ido = JsoupUtils.getElementByClass(d, "ido");
             //noinspection ConstantConditions
             Elements fps = ido.getElementsByClass("fp");
@@ -65,16 +86,5 @@ public class FavoritesParser {
             e.printStackTrace();
             throw new ParseException("Parse favorites error", body);
         }
-
-        GalleryListParser.Result result = GalleryListParser.parse(body);
-
-        Result re = new Result();
-        re.catArray = catArray;
-        re.countArray = countArray;
-        re.pages = result.pages;
-        re.nextPage = result.nextPage;
-        re.galleryInfoList = result.galleryInfoList;
-
-        return re;
     }
 }
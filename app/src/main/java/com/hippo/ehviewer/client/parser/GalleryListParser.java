@@ -42,10 +42,10 @@ public class GalleryListParser {
     private static final String TAG = GalleryListParser.class.getSimpleName();
 
     private static final Pattern PATTERN_RATING = Pattern.compile("\\d+px");
-    private static final Pattern PATTERN_THUMB_SIZE = Pattern.compile("height:(\\d+)px;width:(\\d+)px");
+    static final Pattern PATTERN_THUMB_SIZE = Pattern.compile("height:(\\d+)px;width:(\\d+)px");
     private static final Pattern PATTERN_FAVORITE_SLOT = Pattern.compile("background-color:rgba\\((\\d+),(\\d+),(\\d+),");
-    private static final Pattern PATTERN_PAGES = Pattern.compile("(\\d+) page");
-    private static final Pattern PATTERN_NEXT_PAGE = Pattern.compile("page=(\\d+)");
+    static final Pattern PATTERN_PAGES = Pattern.compile("(\\d+) page");
+    static final Pattern PATTERN_NEXT_PAGE = Pattern.compile("page=(\\d+)");
 
     private static final String[][] FAVORITE_SLOT_RGB = new String[][] {
         new String[] { "0", "0", "0"},
@@ -77,7 +77,7 @@ public class GalleryListParser {
         }
     }
 
-    private static String parseRating(String ratingStyle) {
+    static String parseRating(String ratingStyle) {
         Matcher m = PATTERN_RATING.matcher(ratingStyle);
         int num1 = Integer.MIN_VALUE;
         int num2 = Integer.MIN_VALUE;
@@ -102,7 +102,7 @@ public class GalleryListParser {
         return re;
     }
 
-    private static int parseFavoriteSlot(String style) {
+    static int parseFavoriteSlot(String style) {
         Matcher m = PATTERN_FAVORITE_SLOT.matcher(style);
         if (m.find()) {
             String r = m.group(1);
@@ -295,8 +295,19 @@ public class GalleryListParser {
     }
 
     public static Result parse(@NonNull String body) throws Exception {
+        try {
+            return GalleryListStreamParser.parse(body);
+        } catch (ParseException e) {
+            // Let jsoup fix the markup
+            return parse(Jsoup.parse(body), body);
+        }
+    }
+
+    /**
+     * Parses the gallery list from the DOM.
+     */
+    static Result parse(@NonNull Document d, @NonNull String body) throws ParseException {
         Result result = new Result();
-        Document d = Jsoup.parse(body);
 
         try {
             Element ptt = d.getElementsByClass("ptt").first();
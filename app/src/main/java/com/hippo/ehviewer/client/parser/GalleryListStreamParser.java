@@ -0,0 +1,1235 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client.parser;
+
+import android.text.TextUtils;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.hippo.ehviewer.EhDB;
+import com.hippo.ehviewer.client.EhUtils;
+import com.hippo.ehviewer.client.data.GalleryInfo;
+import com.hippo.ehviewer.client.exception.ParseException;
+import com.hippo.util.ExceptionUtils;
+import com.hippo.yorozuya.NumberUtils;
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import org.ccil.cowan.tagsoup.HTMLScanner;
+import org.ccil.cowan.tagsoup.HTMLSchema;
+import org.ccil.cowan.tagsoup.ScanHandler;
+
+/**
+ * Parses gallery list pages with the tagsoup tokenizer instead of a jsoup DOM.
+ * Tags are handled as they are scanned, only the open elements and the fields
+ * of the current row are kept. It reads the same elements as
+ * {@link GalleryListParser}, which is still used if this one fails.
+ */
+final class GalleryListStreamParser implements ScanHandler {
+
+    private static final String TAG = GalleryListStreamParser.class.getSimpleName();
+
+    // Class names which are looked for
+    private static final String[] CLASS_NAMES = {
+        "itg", "ptt", "ido", "fp", "glname", "cn", "cs", "glthumb", "gl1e",
+        "gl3t", "ir", "irr", "irg", "irb", "glhide", "gl3e", "gl5t"
+    };
+    private static final int CLASS_ITG = 1;
+    private static final int CLASS_PTT = 1 << 1;
+    private static final int CLASS_IDO = 1 << 2;
+    private static final int CLASS_FP = 1 << 3;
+    private static final int CLASS_GLNAME = 1 << 4;
+    private static final int CLASS_CN = 1 << 5;
+    private static final int CLASS_CS = 1 << 6;
+    private static final int CLASS_GLTHUMB = 1 << 7;
+    private static final int CLASS_GL1E = 1 << 8;
+    private static final int CLASS_GL3T = 1 << 9;
+    private static final int CLASS_IR = 1 << 10;
+    private static final int CLASS_IRR = 1 << 11;
+    private static final int CLASS_IRG = 1 << 12;
+    private static final int CLASS_IRB = 1 << 13;
+    private static final int CLASS_GLHIDE = 1 << 14;
+    private static final int CLASS_GL3E = 1 << 15;
+    private static final int CLASS_GL5T = 1 << 16;
+
+    // Tag names are interned to these, others are created as they are
+    private static final String[] TAG_NAMES = {
+        "div", "a", "img", "td", "tr", "th", "table", "tbody", "thead", "tfoot",
+        "span", "p", "br", "input", "option", "select", "form", "script", "style",
+        "link", "meta", "hr", "ul", "ol", "li", "h1", "h2", "h3", "h4", "h5", "h6",
+        "b", "i", "s", "label", "button", "textarea", "html", "head", "body", "title"
+    };
+    private static final String[] VOID_TAGS = {
+        "area", "base", "br", "col", "embed", "hr", "img", "input", "link",
+        "meta", "param", "source", "track", "wbr"
+    };
+    // Text of these elements is separated from text around them
+    private static final String[] BLOCK_TAGS = {
+        "div", "p", "br", "table", "tbody", "thead", "tfoot", "tr", "td", "th",
+        "ul", "ol", "li", "h1", "h2", "h3", "h4", "h5", "h6", "hr", "form",
+        "dl", "dt", "dd", "pre", "blockquote"
+    };
+
+    private static final int ATTR_NONE = 0;
+    private static final int ATTR_CLASS = 1;
+    private static final int ATTR_ID = 2;
+    private static final int ATTR_STYLE = 3;
+    private static final int ATTR_HREF = 4;
+    private static final int ATTR_SRC = 5;
+    private static final int ATTR_DATA_SRC = 6;
+
+    private static final int FAVORITE_CATEGORY_COUNT = 10;
+
+    private static HTMLSchema sSchema;
+
+    // Only for named entities
+    private static synchronized HTMLSchema getSchema() {
+        if (sSchema == null) {
+            sSchema = new HTMLSchema();
+        }
+        return sSchema;
+    }
+
+    private static final class Node {
+        String name;
+        int classes;
+        @Nullable
+        String href;
+        // 1-based index in element siblings
+        int index;
+        int childCount;
+    }
+
+    /**
+     * Text of an element, whitespace is collapsed like jsoup {@code Element.text()}.
+     */
+    private static final class Text {
+        final StringBuilder sb = new StringBuilder();
+        // Depth of the element, -1 if it is not open
+        int depth = -1;
+        boolean seen;
+
+        void reset() {
+            sb.setLength(0);
+            depth = -1;
+            seen = false;
+        }
+
+        void append(char[] buff, int offset, int length) {
+            StringBuilder sb = this.sb;
+            for (int i = offset, n = offset + length; i < n; i++) {
+                char c = buff[i];
+                if (c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r' || c == 160) {
+                    int len = sb.length();
+                    if (len != 0 && sb.charAt(len - 1) != ' ') {
+                        sb.append(' ');
+                    }
+                } else if (c != 8203 && c != 173) {
+                    sb.append(c);
+                }
+            }
+        }
+
+        void appendSpace() {
+            int len = sb.length();
+            if (len != 0 && sb.charAt(len - 1) != ' ') {
+                sb.append(' ');
+            }
+        }
+
+        String text() {
+            return sb.toString().trim();
+        }
+    }
+
+    /**
+     * HTMLScanner reads char by char, and it wraps other readers in a BufferedReader.
+     * This one reads the string without the locks of BufferedReader and StringReader.
+     */
+    private static final class StringBufferedReader extends BufferedReader {
+
+        private final String mString;
+        private int mPosition;
+
+        StringBufferedReader(String string) {
+            super(new StringReader(""), 1);
+            mString = string;
+        }
+
+        @Override
+        public int read() {
+            return mPosition < mString.length() ? mString.charAt(mPosition++) : -1;
+        }
+
+        @Override
+        public int read(@NonNull char[] buffer, int offset, int length) {
+            int remain = mString.length() - mPosition;
+            if (remain <= 0) {
+                return -1;
+            }
+            int n = Math.min(length, remain);
+            mString.getChars(mPosition, mPosition + n, buffer, offset);
+            mPosition += n;
+            return n;
+        }
+    }
+
+    @NonNull
+    private final String mBody;
+    @Nullable
+    private final String[] mCatArray;
+    @Nullable
+    private final int[] mCountArray;
+    private HTMLScanner mScanner;
+
+    // Open elements, mStack[0] is the document
+    private Node[] mStack = new Node[32];
+    private int mDepth;
+    // The open element whose content isn't markup
+    @Nullable
+    private String mRawTextTag;
+
+    // The start tag being scanned
+    @Nullable
+    private String mTagName;
+    private int mAttr;
+    private String mClass;
+    private String mId;
+    private String mStyle;
+    private String mHref;
+    private String mSrc;
+    private String mDataSrc;
+    private int mEntity;
+
+    // Texts being collected
+    private Text[] mActiveTexts = new Text[8];
+    private int mActiveTextCount;
+
+    // Pages
+    private int mPttDepth = -1;
+    private boolean mPttSeen;
+    private int mPttRowDepth = -1;
+    private boolean mPttRowSeen;
+    private int mPttCellDepth = -1;
+    private int mPttCellCount;
+    private final Text mPttLastCell = new Text();
+    private final StringBuilder mPttSecondLastCell = new StringBuilder();
+    @Nullable
+    private String mPttLastHref;
+
+    // Favorite categories
+    private int mIdoDepth = -1;
+    private boolean mIdoSeen;
+    private int mFpDepth = -1;
+    private int mFpCount;
+    private boolean mFpBroken;
+    private final Text mFpCountText = new Text();
+    private final Text mFpNameText = new Text();
+
+    // Gallery list
+    private int mItgDepth = -1;
+    private boolean mItgSeen;
+    private boolean mItgTable;
+    private int mRowDepth = -1;
+    private final List<GalleryInfo> mList = new ArrayList<>();
+    @Nullable
+    private Throwable mRowError;
+
+    // Fields of the current row
+    private int mGlnameDepth = -1;
+    private boolean mGlnameSeen;
+    @Nullable
+    private String mGlnameHref;
+    @Nullable
+    private String mGlnameParentHref;
+    private final Text mTitle = new Text();
+    private boolean mTitleFrozen;
+    @Nullable
+    private String mTitleResult;
+    private int mTagTableDepth = -1;
+    @Nullable
+    private ArrayList<String> mTags;
+    private int mTagGroupDepth = -1;
+    private int mTagCellDepth = -1;
+    private final ArrayList<String> mGroupTags = new ArrayList<>();
+    private final Text mNamespace = new Text();
+    private final Text mTag = new Text();
+
+    private final Text mCn = new Text();
+    private final Text mCs = new Text();
+
+    private int mGlthumbDepth = -1;
+    private boolean mGlthumbSeen;
+    private boolean mGlthumbImgSeen;
+    private String mGlthumbImgStyle;
+    private String mGlthumbImgSrc;
+    private String mGlthumbImgDataSrc;
+    private final Text mGlthumbPages = new Text();
+
+    private int mGl1eDepth = -1;
+    private boolean mGl1eSeen;
+    private boolean mGl1eImgSeen;
+    private String mGl1eImgStyle;
+    private String mGl1eImgSrc;
+    private int mGl3tDepth = -1;
+    private boolean mGl3tSeen;
+    private boolean mGl3tImgSeen;
+    private String mGl3tImgStyle;
+    private String mGl3tImgSrc;
+
+    private boolean mPostedSeen;
+    private String mPostedId;
+    private String mPostedStyle;
+    private final Text mPosted = new Text();
+
+    private boolean mIrSeen;
+    private String mIrStyle;
+    private boolean mRated;
+
+    private int mGlhideDepth = -1;
+    private boolean mGlhideSeen;
+    private int mGlhideUploaderDepth = -1;
+    private final Text mGlhideUploader = new Text();
+    private final Text mGlhidePages = new Text();
+    private int mGl3eDepth = -1;
+    private boolean mGl3eSeen;
+    private int mGl3eUploaderDepth = -1;
+    private final Text mGl3eUploader = new Text();
+    private final Text mGl3ePages = new Text();
+
+    private int mGl5tDepth = -1;
+    private final Text mGl5tPages = new Text();
+
+    private GalleryListStreamParser(@NonNull String body,
+            @Nullable String[] catArray, @Nullable int[] countArray) {
+        mBody = body;
+        mCatArray = catArray;
+        mCountArray = countArray;
+        mStack[0] = new Node();
+    }
+
+    static GalleryListParser.Result parse(@NonNull String body) throws ParseException {
+        return parse(body, null, null);
+    }
+
+    /**
+     * Parses the gallery list, and favorite categories if catArray and countArray are not null.
+     */
+    static GalleryListParser.Result parse(@NonNull String body,
+            @Nullable String[] catArray, @Nullable int[] countArray) throws ParseException {
+        GalleryListStreamParser parser = new GalleryListStreamParser(body, catArray, countArray);
+        try {
+            parser.mScanner = new HTMLScanner();
+            parser.mScanner.scan(new StringBufferedReader(body), parser);
+        } catch (Throwable e) {
+            ExceptionUtils.throwIfFatal(e);
+            throw new ParseException("Can't parse gallery list", body, e);
+        }
+        if (catArray != null && (parser.mFpCount != FAVORITE_CATEGORY_COUNT + 1 || parser.mFpBroken)) {
+            throw new ParseException("Parse favorites error", body);
+        }
+        return parser.getResult();
+    }
+
+    private GalleryListParser.Result getResult() throws ParseException {
+        GalleryListParser.Result result = new GalleryListParser.Result();
+
+        try {
+            if (mPttCellCount < 2) {
+                throw new ParseException("Can't parse gallery list pages", mBody);
+            }
+            result.pages = Integer.parseInt(mPttSecondLastCell.toString().trim());
+
+            if (mPttLastHref != null) {
+                Matcher matcher = GalleryListParser.PATTERN_NEXT_PAGE.matcher(mPttLastHref);
+                if (matcher.find()) {
+                    result.nextPage = NumberUtils.parseIntSafely(matcher.group(1), 0);
+                }
+            }
+        } catch (Throwable e) {
+            ExceptionUtils.throwIfFatal(e);
+            result.noWatchedTags = mBody.contains("<p>You do not have any watched tags");
+            if (mBody.contains("No hits found</p>")) {
+                result.pages = 0;
+                //noinspection unchecked
+                result.galleryInfoList = Collections.EMPTY_LIST;
+                return result;
+            } else if (!mPttSeen) {
+                result.pages = 1;
+            } else {
+                result.pages = Integer.MAX_VALUE;
+            }
+        }
+
+        if (mRowError != null) {
+            throw new ParseException("Can't parse gallery list", mBody, mRowError);
+        }
+        if (mList.isEmpty()) {
+            throw new ParseException("Can't parse gallery list", mBody);
+        }
+        result.galleryInfoList = mList;
+        return result;
+    }
+
+    private static int getClasses(@Nullable String className) {
+        if (className == null) {
+            return 0;
+        }
+        int classes = 0;
+        int length = className.length();
+        int start = 0;
+        while (start < length) {
+            while (start < length && Character.isWhitespace(className.charAt(start))) {
+                start++;
+            }
+            int end = start;
+            while (end < length && !Character.isWhitespace(className.charAt(end))) {
+                end++;
+            }
+            int tokenLength = end - start;
+            if (tokenLength > 0) {
+                for (int i = 0; i < CLASS_NAMES.length; i++) {
+                    String name = CLASS_NAMES[i];
+                    if (name.length() == tokenLength && className.regionMatches(true, start, name, 0, tokenLength)) {
+                        classes |= 1 << i;
+                        break;
+                    }
+                }
+            }
+            start = end;
+        }
+        return classes;
+    }
+
+    private static boolean regionEquals(char[] buff, int offset, int length, String name) {
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (Character.toLowerCase(buff[offset + i]) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String getTagName(char[] buff, int offset, int length) {
+        for (String name : TAG_NAMES) {
+            if (regionEquals(buff, offset, length, name)) {
+                return name;
+            }
+        }
+        return new String(buff, offset, length).toLowerCase();
+    }
+
+    private static boolean contains(String[] names, String name) {
+        for (String n : names) {
+            if (n.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int lookupEntity(char[] buff, int offset, int length) {
+        if (length < 1) {
+            return 0;
+        }
+        if (buff[offset] == '#') {
+            try {
+                if (length > 1 && (buff[offset + 1] == 'x' || buff[offset + 1] == 'X')) {
+                    return Integer.parseInt(new String(buff, offset + 2, length - 2), 16);
+                } else {
+                    return Integer.parseInt(new String(buff, offset + 1, length - 1), 10);
+                }
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return getSchema().getEntity(new String(buff, offset, length));
+    }
+
+    // Attribute values are reported without entities resolved
+    private String decodeAttribute(char[] buff, int offset, int length) {
+        int end = offset + length;
+        int amp = -1;
+        for (int i = offset; i < end; i++) {
+            if (buff[i] == '&') {
+                amp = i;
+                break;
+            }
+        }
+        if (amp < 0) {
+            return new String(buff, offset, length);
+        }
+
+        StringBuilder sb = new StringBuilder(length);
+        sb.append(buff, offset, amp - offset);
+        int i = amp;
+        while (i < end) {
+            char c = buff[i];
+            if (c == '&') {
+                int j = i + 1;
+                while (j < end && (Character.isLetterOrDigit(buff[j]) || buff[j] == '#')) {
+                    j++;
+                }
+                int entity;
+                if (j < end && buff[j] == ';' && (entity = lookupEntity(buff, i + 1, j - i - 1)) != 0) {
+                    sb.appendCodePoint(entity);
+                    i = j + 1;
+                    continue;
+                }
+            }
+            sb.append(c);
+            i++;
+        }
+        return sb.toString();
+    }
+
+    private void startText(Text text, int depth) {
+        text.sb.setLength(0);
+        text.depth = depth;
+        text.seen = true;
+        if (mActiveTextCount == mActiveTexts.length) {
+            Text[] texts = new Text[mActiveTextCount * 2];
+            System.arraycopy(mActiveTexts, 0, texts, 0, mActiveTextCount);
+            mActiveTexts = texts;
+        }
+        mActiveTexts[mActiveTextCount++] = text;
+    }
+
+    @Override
+    public void adup(char[] buff, int offset, int length) {
+        mAttr = ATTR_NONE;
+    }
+
+    @Override
+    public void aname(char[] buff, int offset, int length) {
+        if (regionEquals(buff, offset, length, "class")) {
+            mAttr = ATTR_CLASS;
+        } else if (regionEquals(buff, offset, length, "id")) {
+            mAttr = ATTR_ID;
+        } else if (regionEquals(buff, offset, length, "style")) {
+            mAttr = ATTR_STYLE;
+        } else if (regionEquals(buff, offset, length, "href")) {
+            mAttr = ATTR_HREF;
+        } else if (regionEquals(buff, offset, length, "src")) {
+            mAttr = ATTR_SRC;
+        } else if (regionEquals(buff, offset, length, "data-src")) {
+            mAttr = ATTR_DATA_SRC;
+        } else {
+            mAttr = ATTR_NONE;
+        }
+    }
+
+    @Override
+    public void aval(char[] buff, int offset, int length) {
+        // The first one wins if an attribute is duplicated
+        switch (mAttr) {
+            case ATTR_CLASS:
+                if (mClass == null) {
+                    mClass = decodeAttribute(buff, offset, length);
+                }
+                break;
+            case ATTR_ID:
+                if (mId == null) {
+                    mId = decodeAttribute(buff, offset, length);
+                }
+                break;
+            case ATTR_STYLE:
+                if (mStyle == null) {
+                    mStyle = decodeAttribute(buff, offset, length);
+                }
+                break;
+            case ATTR_HREF:
+                if (mHref == null) {
+                    mHref = decodeAttribute(buff, offset, length);
+                }
+                break;
+            case ATTR_SRC:
+                if (mSrc == null) {
+                    mSrc = decodeAttribute(buff, offset, length);
+                }
+                break;
+            case ATTR_DATA_SRC:
+                if (mDataSrc == null) {
+                    mDataSrc = decodeAttribute(buff, offset, length);
+                }
+                break;
+        }
+        mAttr = ATTR_NONE;
+    }
+
+    @Override
+    public void cdsect(char[] buff, int offset, int length) {
+        pcdata(buff, offset, length);
+    }
+
+    @Override
+    public void decl(char[] buff, int offset, int length) {}
+
+    @Override
+    public void entity(char[] buff, int offset, int length) {
+        mEntity = lookupEntity(buff, offset, length);
+    }
+
+    @Override
+    public int getEntity() {
+        return mEntity;
+    }
+
+    @Override
+    public void eof(char[] buff, int offset, int length) {
+        while (mDepth > 0) {
+            pop();
+        }
+    }
+
+    @Override
+    public void etag(char[] buff, int offset, int length) {
+        if (mRawTextTag != null) {
+            if (regionEquals(buff, offset, length, mRawTextTag)) {
+                mRawTextTag = null;
+                pop();
+            } else {
+                // Not the end of it, keep scanning raw text
+                mScanner.startCDATA();
+            }
+            return;
+        }
+
+        String name = getTagName(buff, offset, length);
+        for (int i = mDepth; i > 0; i--) {
+            if (name.equals(mStack[i].name)) {
+                while (mDepth >= i) {
+                    pop();
+                }
+                return;
+            }
+        }
+        // Unmatched end tag, ignore it
+    }
+
+    @Override
+    public void gi(char[] buff, int offset, int length) {
+        mTagName = length > 0 ? getTagName(buff, offset, length) : null;
+        mAttr = ATTR_NONE;
+        mClass = null;
+        mId = null;
+        mStyle = null;
+        mHref = null;
+        mSrc = null;
+        mDataSrc = null;
+    }
+
+    @Override
+    public void pcdata(char[] buff, int offset, int length) {
+        if (length == 0 || mRawTextTag != null) {
+            return;
+        }
+        for (int i = 0; i < mActiveTextCount; i++) {
+            mActiveTexts[i].append(buff, offset, length);
+        }
+        if (!mTitleFrozen && mTitle.depth == mDepth) {
+            mTitle.append(buff, offset, length);
+        }
+    }
+
+    @Override
+    public void pi(char[] buff, int offset, int length) {}
+
+    @Override
+    public void pitarget(char[] buff, int offset, int length) {}
+
+    @Override
+    public void stagc(char[] buff, int offset, int length) {
+        String name = mTagName;
+        mTagName = null;
+        if (name == null) {
+            return;
+        }
+        push(name);
+        if (contains(VOID_TAGS, name)) {
+            pop();
+        } else if ("script".equals(name) || "style".equals(name)) {
+            mRawTextTag = name;
+            mScanner.startCDATA();
+        }
+    }
+
+    @Override
+    public void stage(char[] buff, int offset, int length) {
+        String name = mTagName;
+        mTagName = null;
+        if (name == null) {
+            return;
+        }
+        push(name);
+        pop();
+    }
+
+    @Override
+    public void cmnt(char[] buff, int offset, int length) {}
+
+    // Closes elements which are closed implicitly by the new one
+    private void closeImplicitly(String name) {
+        boolean isRow = "tr".equals(name);
+        boolean isCell = "td".equals(name) || "th".equals(name);
+        if (!isRow && !isCell) {
+            return;
+        }
+        for (int i = mDepth; i > 0; i--) {
+            String n = mStack[i].name;
+            if ("table".equals(n) || (isCell && "tr".equals(n))) {
+                return;
+            }
+            if (isRow ? "tr".equals(n) : ("td".equals(n) || "th".equals(n))) {
+                while (mDepth >= i) {
+                    pop();
+                }
+                return;
+            }
+        }
+    }
+
+    private void push(String name) {
+        closeImplicitly(name);
+
+        Node parent = mStack[mDepth];
+        parent.childCount++;
+        int depth = ++mDepth;
+        if (depth == mStack.length) {
+            Node[] stack = new Node[depth * 2];
+            System.arraycopy(mStack, 0, stack, 0, depth);
+            mStack = stack;
+        }
+        Node node = mStack[depth];
+        if (node == null) {
+            node = new Node();
+            mStack[depth] = node;
+        }
+        int classes = getClasses(mClass);
+        node.name = name;
+        node.classes = classes;
+        node.href = mHref;
+        node.index = parent.childCount;
+        node.childCount = 0;
+
+        if (mActiveTextCount != 0 && contains(BLOCK_TAGS, name)) {
+            for (int i = 0; i < mActiveTextCount; i++) {
+                mActiveTexts[i].appendSpace();
+            }
+        }
+
+        // Pages
+        if (!mPttSeen && (classes & CLASS_PTT) != 0) {
+            mPttSeen = true;
+            mPttDepth = depth;
+        } else if (mPttDepth >= 0 && !mPttRowSeen && "tr".equals(name)) {
+            mPttRowSeen = true;
+            mPttRowDepth = depth;
+        } else if (mPttRowDepth >= 0 && depth == mPttRowDepth + 1) {
+            if (mPttCellCount > 0) {
+                mPttSecondLastCell.setLength(0);
+                mPttSecondLastCell.append(mPttLastCell.sb);
+            }
+            mPttCellCount++;
+            mPttCellDepth = depth;
+            mPttLastHref = null;
+            startText(mPttLastCell, depth);
+        } else if (mPttCellDepth >= 0 && depth == mPttCellDepth + 1 && node.index == 1) {
+            mPttLastHref = mHref != null ? mHref : "";
+        }
+
+        // Favorite categories
+        if (mCatArray != null) {
+            if (!mIdoSeen && (classes & CLASS_IDO) != 0) {
+                mIdoSeen = true;
+                mIdoDepth = depth;
+            } else if (mIdoDepth >= 0 && (classes & CLASS_FP) != 0) {
+                if (mFpCount < FAVORITE_CATEGORY_COUNT) {
+                    mFpDepth = depth;
+                    mFpCountText.reset();
+                    mFpNameText.reset();
+                }
+                mFpCount++;
+            } else if (mFpDepth >= 0 && depth == mFpDepth + 1) {
+                if (node.index == 1) {
+                    startText(mFpCountText, depth);
+                } else if (node.index == 3) {
+                    startText(mFpNameText, depth);
+                }
+            }
+        }
+
+        // Gallery list
+        if (mRowDepth >= 0) {
+            pushRowElement(node, depth);
+        } else if (mItgDepth >= 0) {
+            boolean isRow;
+            if (mItgTable) {
+                Node p = mStack[depth - 1];
+                isRow = "tr".equals(name) && (depth == mItgDepth + 1 ||
+                    (depth == mItgDepth + 2 && "tbody".equals(p.name) && p.index == 1));
+            } else {
+                isRow = depth == mItgDepth + 1;
+            }
+            if (isRow) {
+                startRow(depth);
+            }
+        } else if (!mItgSeen && (classes & CLASS_ITG) != 0) {
+            mItgSeen = true;
+            mItgDepth = depth;
+            mItgTable = "table".equals(name);
+        }
+    }
+
+    private void startRow(int depth) {
+        mRowDepth = depth;
+
+        mGlnameDepth = -1;
+        mGlnameSeen = false;
+        mGlnameHref = null;
+        mGlnameParentHref = null;
+        mTitle.reset();
+        mTitleFrozen = false;
+        mTitleResult = null;
+        mTagTableDepth = -1;
+        mTags = null;
+        mTagGroupDepth = -1;
+        mTagCellDepth = -1;
+
+        mCn.reset();
+        mCs.reset();
+
+        mGlthumbDepth = -1;
+        mGlthumbSeen = false;
+        mGlthumbImgSeen = false;
+        mGlthumbImgStyle = null;
+        mGlthumbImgSrc = null;
+        mGlthumbImgDataSrc = null;
+        mGlthumbPages.reset();
+
+        mGl1eDepth = -1;
+        mGl1eSeen = false;
+        mGl1eImgSeen = false;
+        mGl1eImgStyle = null;
+        mGl1eImgSrc = null;
+        mGl3tDepth = -1;
+        mGl3tSeen = false;
+        mGl3tImgSeen = false;
+        mGl3tImgStyle = null;
+        mGl3tImgSrc = null;
+
+        mPostedSeen = false;
+        mPostedId = null;
+        mPostedStyle = null;
+        mPosted.reset();
+
+        mIrSeen = false;
+        mIrStyle = null;
+        mRated = false;
+
+        mGlhideDepth = -1;
+        mGlhideSeen = false;
+        mGlhideUploaderDepth = -1;
+        mGlhideUploader.reset();
+        mGlhidePages.reset();
+        mGl3eDepth = -1;
+        mGl3eSeen = false;
+        mGl3eUploaderDepth = -1;
+        mGl3eUploader.reset();
+        mGl3ePages.reset();
+
+        mGl5tDepth = -1;
+        mGl5tPages.reset();
+    }
+
+    private void pushRowElement(Node node, int depth) {
+        String name = node.name;
+        int classes = node.classes;
+        Node parent = mStack[depth - 1];
+
+        // Title, gid, token, tags
+        if (!mGlnameSeen && (classes & CLASS_GLNAME) != 0) {
+            mGlnameSeen = true;
+            mGlnameDepth = depth;
+            if ("a".equals(parent.name)) {
+                mGlnameParentHref = parent.href != null ? parent.href : "";
+            }
+            // Title is the text of the deepest first child
+            mTitle.sb.setLength(0);
+            mTitle.depth = depth;
+        } else if (mGlnameDepth >= 0) {
+            if (!mTitleFrozen && depth == mTitle.depth + 1) {
+                mTitle.sb.setLength(0);
+                mTitle.depth = depth;
+            }
+            if (mGlnameHref == null && "a".equals(name)) {
+                mGlnameHref = mHref != null ? mHref : "";
+            }
+            if (mTags == null && "table".equals(name)) {
+                mTagTableDepth = depth;
+                mTags = new ArrayList<>();
+            } else if (mTagTableDepth >= 0 && "tr".equals(name) && (depth == mTagTableDepth + 1 ||
+                (depth == mTagTableDepth + 2 && "tbody".equals(parent.name) && parent.index == 1))) {
+                mTagGroupDepth = depth;
+                mTagCellDepth = -1;
+                mGroupTags.clear();
+                mNamespace.reset();
+            } else if (mTagGroupDepth >= 0 && depth == mTagGroupDepth + 1) {
+                if (node.index == 1) {
+                    startText(mNamespace, depth);
+                } else if (node.index == 2) {
+                    mTagCellDepth = depth;
+                }
+            } else if (mTagCellDepth >= 0 && depth == mTagCellDepth + 1) {
+                startText(mTag, depth);
+            }
+        }
+
+        // Category
+        if (!mCn.seen && (classes & CLASS_CN) != 0) {
+            startText(mCn, depth);
+        }
+        if (!mCs.seen && (classes & CLASS_CS) != 0) {
+            startText(mCs, depth);
+        }
+
+        // Thumb
+        if (!mGlthumbSeen && (classes & CLASS_GLTHUMB) != 0) {
+            mGlthumbSeen = true;
+            mGlthumbDepth = depth;
+        } else if (mGlthumbDepth >= 0) {
+            // div:nth-child(1)>img
+            if (!mGlthumbImgSeen && "img".equals(name) && "div".equals(parent.name) && parent.index == 1) {
+                mGlthumbImgSeen = true;
+                mGlthumbImgStyle = mStyle;
+                mGlthumbImgSrc = mSrc;
+                mGlthumbImgDataSrc = mDataSrc;
+            }
+            // div:nth-child(2)>div:nth-child(2)>div:nth-child(2)
+            if (!mGlthumbPages.seen && depth - 2 >= mGlthumbDepth && isNthDiv(depth, 2) &&
+                isNthDiv(depth - 1, 2) && isNthDiv(depth - 2, 2)) {
+                startText(mGlthumbPages, depth);
+            }
+        }
+        if (!mGl1eSeen && (classes & CLASS_GL1E) != 0) {
+            mGl1eSeen = true;
+            mGl1eDepth = depth;
+        } else if (mGl1eDepth >= 0 && !mGl1eImgSeen && "img".equals(name)) {
+            mGl1eImgSeen = true;
+            mGl1eImgStyle = mStyle;
+            mGl1eImgSrc = mSrc;
+        }
+        if (!mGl3tSeen && (classes & CLASS_GL3T) != 0) {
+            mGl3tSeen = true;
+            mGl3tDepth = depth;
+        } else if (mGl3tDepth >= 0 && !mGl3tImgSeen && "img".equals(name)) {
+            mGl3tImgSeen = true;
+            mGl3tImgStyle = mStyle;
+            mGl3tImgSrc = mSrc;
+        }
+
+        // Posted, gid is unknown yet
+        if (!mPostedSeen && mId != null && mId.startsWith("posted_")) {
+            mPostedSeen = true;
+            mPostedId = mId;
+            mPostedStyle = mStyle;
+            startText(mPosted, depth);
+        }
+
+        // Rating
+        if (!mIrSeen && (classes & CLASS_IR) != 0) {
+            mIrSeen = true;
+            mIrStyle = mStyle;
+            mRated = (classes & (CLASS_IRR | CLASS_IRG | CLASS_IRB)) != 0;
+        }
+
+        // Uploader and pages
+        if (!mGlhideSeen && (classes & CLASS_GLHIDE) != 0) {
+            mGlhideSeen = true;
+            mGlhideDepth = depth;
+        } else if (mGlhideDepth >= 0 && depth == mGlhideDepth + 1) {
+            if (node.index == 1) {
+                mGlhideUploaderDepth = depth;
+            } else if (node.index == 2) {
+                startText(mGlhidePages, depth);
+            }
+        } else if (mGlhideUploaderDepth >= 0 && depth == mGlhideUploaderDepth + 1 && node.index == 1) {
+            startText(mGlhideUploader, depth);
+        }
+        if (!mGl3eSeen && (classes & CLASS_GL3E) != 0) {
+            mGl3eSeen = true;
+            mGl3eDepth = depth;
+        } else if (mGl3eDepth >= 0 && depth == mGl3eDepth + 1) {
+            if (node.index == 4) {
+                mGl3eUploaderDepth = depth;
+            } else if (node.index == 5) {
+                startText(mGl3ePages, depth);
+            }
+        } else if (mGl3eUploaderDepth >= 0 && depth == mGl3eUploaderDepth + 1 && node.index == 1) {
+            startText(mGl3eUploader, depth);
+        }
+
+        // Pages for thumbnail, div:nth-child(2)>div:nth-child(2)
+        if (mGl5tDepth < 0 && !mGl5tPages.seen && (classes & CLASS_GL5T) != 0) {
+            mGl5tDepth = depth;
+        } else if (mGl5tDepth >= 0 && !mGl5tPages.seen && depth - 1 >= mGl5tDepth &&
+            isNthDiv(depth, 2) && isNthDiv(depth - 1, 2)) {
+            startText(mGl5tPages, depth);
+        }
+    }
+
+    private boolean isNthDiv(int depth, int index) {
+        Node node = mStack[depth];
+        return node.index == index && "div".equals(node.name);
+    }
+
+    private void pop() {
+        int depth = mDepth;
+        Node node = mStack[depth];
+
+        for (int i = mActiveTextCount - 1; i >= 0; i--) {
+            Text text = mActiveTexts[i];
+            if (text.depth == depth) {
+                text.depth = -1;
+                mActiveTextCount--;
+                System.arraycopy(mActiveTexts, i + 1, mActiveTexts, i, mActiveTextCount - i);
+            }
+        }
+        if (mTitle.depth == depth && !mTitleFrozen) {
+            // It has no child, so it's the deepest
+            mTitleFrozen = true;
+        }
+
+        // Pages
+        if (depth == mPttCellDepth) {
+            mPttCellDepth = -1;
+        } else if (depth == mPttRowDepth) {
+            mPttRowDepth = -1;
+        } else if (depth == mPttDepth) {
+            mPttDepth = -1;
+        }
+
+        // Favorite categories
+        if (depth == mFpDepth) {
+            mFpDepth = -1;
+            if (node.childCount < 3) {
+                mFpBroken = true;
+            } else if (mCatArray != null && mCountArray != null) {
+                int i = mFpCount - 1;
+                mCountArray[i] = ParserUtils.parseInt(mFpCountText.text(), 0);
+                mCatArray[i] = ParserUtils.trim(mFpNameText.text());
+            }
+        } else if (depth == mIdoDepth) {
+            mIdoDepth = -1;
+        }
+
+        // Gallery list
+        if (mRowDepth >= 0) {
+            if (depth == mRowDepth) {
+                mRowDepth = -1;
+                try {
+                    GalleryInfo gi = finishRow();
+                    if (gi != null) {
+                        mList.add(gi);
+                    }
+                } catch (Throwable e) {
+                    ExceptionUtils.throwIfFatal(e);
+                    mRowError = e;
+                }
+            } else {
+                popRowElement(node, depth);
+            }
+        } else if (depth == mItgDepth) {
+            mItgDepth = -1;
+        }
+
+        node.name = null;
+        node.href = null;
+        mDepth--;
+    }
+
+    private void popRowElement(Node node, int depth) {
+        if (depth == mTagCellDepth + 1 && mTagCellDepth >= 0) {
+            String tag = mTag.text();
+            // Sometimes parody tag is followed with '|' and english translate, just remove them
+            int index = tag.indexOf('|');
+            if (index >= 0) {
+                tag = tag.substring(0, index).trim();
+            }
+            mGroupTags.add(tag);
+        } else if (depth == mTagCellDepth) {
+            mTagCellDepth = -1;
+        } else if (depth == mTagGroupDepth) {
+            mTagGroupDepth = -1;
+            String namespace = mNamespace.text();
+            if (mTags != null && mNamespace.seen && !namespace.isEmpty() && !mGroupTags.isEmpty()) {
+                // Remove last ':'
+                namespace = namespace.substring(0, namespace.length() - 1);
+                for (String tag : mGroupTags) {
+                    mTags.add(namespace + ":" + tag);
+                }
+            }
+        } else if (depth == mTagTableDepth) {
+            mTagTableDepth = -1;
+        } else if (depth == mGlnameDepth) {
+            mGlnameDepth = -1;
+            mTitleFrozen = true;
+            mTitleResult = mTitle.text();
+        } else if (depth == mGlthumbDepth) {
+            mGlthumbDepth = -1;
+        } else if (depth == mGl1eDepth) {
+            mGl1eDepth = -1;
+        } else if (depth == mGl3tDepth) {
+            mGl3tDepth = -1;
+        } else if (depth == mGlhideUploaderDepth) {
+            mGlhideUploaderDepth = -1;
+        } else if (depth == mGlhideDepth) {
+            mGlhideDepth = -1;
+        } else if (depth == mGl3eUploaderDepth) {
+            mGl3eUploaderDepth = -1;
+        } else if (depth == mGl3eDepth) {
+            mGl3eDepth = -1;
+        } else if (depth == mGl5tDepth) {
+            mGl5tDepth = -1;
+        }
+    }
+
+    private static void setThumbSize(GalleryInfo gi, @Nullable String style) {
+        Matcher m = GalleryListParser.PATTERN_THUMB_SIZE.matcher(style != null ? style : "");
+        if (m.find()) {
+            gi.thumbWidth = NumberUtils.parseIntSafely(m.group(2), 0);
+            gi.thumbHeight = NumberUtils.parseIntSafely(m.group(1), 0);
+        } else {
+            Log.w(TAG, "Can't parse gallery info thumb size");
+            gi.thumbWidth = 0;
+            gi.thumbHeight = 0;
+        }
+    }
+
+    private static void setPages(GalleryInfo gi, Text text) {
+        Matcher matcher = GalleryListParser.PATTERN_PAGES.matcher(text.text());
+        if (matcher.find()) {
+            gi.pages = NumberUtils.parseIntSafely(matcher.group(1), 0);
+        }
+    }
+
+    @Nullable
+    private GalleryInfo finishRow() {
+        if (mTitleResult == null) {
+            return null;
+        }
+
+        GalleryInfo gi = new GalleryInfo();
+
+        // Title, gid, token (required), tags
+        String href = mGlnameHref != null ? mGlnameHref : mGlnameParentHref;
+        if (href != null) {
+            GalleryDetailUrlParser.Result result = GalleryDetailUrlParser.parse(href);
+            if (result != null) {
+                gi.gid = result.gid;
+                gi.token = result.token;
+            }
+        }
+        gi.title = mTitleResult;
+        if (mTags != null) {
+            gi.simpleTags = mTags.toArray(new String[mTags.size()]);
+        }
+
+        // Category
+        gi.category = EhUtils.UNKNOWN;
+        Text ce = mCn.seen ? mCn : mCs.seen ? mCs : null;
+        if (ce != null) {
+            gi.category = EhUtils.getCategory(ce.text());
+        }
+
+        // Thumb
+        if (mGlthumbSeen) {
+            if (mGlthumbImgSeen) {
+                setThumbSize(gi, mGlthumbImgStyle);
+                String url = mGlthumbImgDataSrc;
+                if (TextUtils.isEmpty(url)) {
+                    url = mGlthumbImgSrc;
+                }
+                if (TextUtils.isEmpty(url)) {
+                    url = null;
+                }
+                gi.thumb = EhUtils.handleThumbUrlResolution(url);
+            }
+            if (mGlthumbPages.seen) {
+                setPages(gi, mGlthumbPages);
+            }
+        }
+        // Try extended and thumbnail version
+        if (gi.thumb == null && (mGl1eSeen || mGl3tSeen)) {
+            boolean imgSeen = mGl1eSeen ? mGl1eImgSeen : mGl3tImgSeen;
+            if (imgSeen) {
+                setThumbSize(gi, mGl1eSeen ? mGl1eImgStyle : mGl3tImgStyle);
+                String src = mGl1eSeen ? mGl1eImgSrc : mGl3tImgSrc;
+                gi.thumb = EhUtils.handleThumbUrlResolution(src != null ? src : "");
+            }
+        }
+
+        // Posted
+        gi.favoriteSlot = -2;
+        if (mPostedSeen && mPostedId.equals("posted_" + gi.gid)) {
+            gi.posted = mPosted.text();
+            gi.favoriteSlot = GalleryListParser.parseFavoriteSlot(mPostedStyle != null ? mPostedStyle : "");
+        }
+        if (gi.favoriteSlot == -2) {
+            gi.favoriteSlot = EhDB.containLocalFavorites(gi.gid) ? -1 : -2;
+        }
+
+        // Rating
+        if (mIrSeen) {
+            gi.rating = NumberUtils.parseFloatSafely(
+                GalleryListParser.parseRating(mIrStyle != null ? mIrStyle : ""), -1.0f);
+            gi.rated = mRated;
+        }
+
+        // Uploader and pages
+        if (mGlhideSeen) {
+            if (mGlhideUploader.seen) {
+                gi.uploader = mGlhideUploader.text();
+            }
+            if (mGlhidePages.seen) {
+                setPages(gi, mGlhidePages);
+            }
+        } else if (mGl3eSeen) {
+            // For extended
+            if (mGl3eUploader.seen) {
+                gi.uploader = mGl3eUploader.text();
+            }
+            if (mGl3ePages.seen) {
+                setPages(gi, mGl3ePages);
+            }
+        }
+        // For thumbnail
+        if (mGl5tPages.seen) {
+            setPages(gi, mGl5tPages);
+        }
+
+        gi.generateSLang();
+
+        return gi;
+    }
+}
@@ -22,12 +22,17 @@ import android.os.AsyncTask;
 import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import com.hippo.ehviewer.EhApplication;
 import com.hippo.ehviewer.EhDB;
+import com.hippo.ehviewer.ReadingProgress;
+import com.hippo.ehviewer.Settings;
 import com.hippo.ehviewer.client.data.GalleryInfo;
 import com.hippo.ehviewer.dao.DownloadInfo;
 import com.hippo.ehviewer.dao.DownloadLabel;
 import com.hippo.ehviewer.spider.SpiderDen;
 import com.hippo.ehviewer.spider.SpiderInfo;
+import com.hippo.ehviewer.spider.SpiderPageStates;
+import com.hippo.ehviewer.spider.SpiderProgress;
 import com.hippo.ehviewer.spider.SpiderQueen;
 import com.hippo.image.Image;
 import com.hippo.unifile.UniFile;
@@ -48,11 +53,14 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
-public class DownloadManager implements SpiderQueen.OnSpiderListener {
+public class DownloadManager {
 
     private static final String TAG = DownloadManager.class.getSimpleName();
 
+    private static final int MAX_CONCURRENT_DOWNLOAD = 4;
+
     private final Context mContext;
 
     // All download info list
@@ -67,18 +75,16 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
     private final LinkedList<DownloadInfo> mDefaultInfoList;
     // Store download info wait to start
     private final LinkedList<DownloadInfo> mWaitList;
-
-    private final SpeedReminder mSpeedReminder;
+    // Store running download task
+    private final LinkedList<DownloadTask> mActiveTasks;
+    // The label of the last started task, for fair scheduling between labels
+    @Nullable
+    private String mLastStartedLabel;
 
     @Nullable
     private DownloadListener mDownloadListener;
     private final List<DownloadInfoListener> mDownloadInfoListeners;
 
-    @Nullable
-    private DownloadInfo mCurrentTask;
-    @Nullable
-    private SpiderQueen mCurrentSpider;
-
     private final ConcurrentPool<NotifyTask> mNotifyTaskPool = new ConcurrentPool<>(5);
 
     public DownloadManager(Context context) {
@@ -127,7 +133,7 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         }
 
         mWaitList = new LinkedList<>();
-        mSpeedReminder = new SpeedReminder();
+        mActiveTasks = new LinkedList<>();
         mDownloadInfoListeners = new ArrayList<>();
     }
 
@@ -199,19 +205,62 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         mDownloadListener = listener;
     }
 
-    private void ensureDownload() {
-        if (mCurrentTask != null) {
-            // Only one download
-            return;
+    @Nullable
+    private DownloadTask getActiveTask(long gid) {
+        for (DownloadTask task : mActiveTasks) {
+            if (task.mInfo.gid == gid) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    private int getActiveTaskCount(String label) {
+        int count = 0;
+        for (DownloadTask task : mActiveTasks) {
+            if (ObjectUtils.equal(task.mInfo.label, label)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Remove and return the next download info to start.
+     * Labels with less running tasks go first, and the label
+     * started last time gives way to the others on a tie.
+     */
+    private DownloadInfo pollWaitList() {
+        DownloadInfo target = null;
+        int targetScore = Integer.MAX_VALUE;
+        for (DownloadInfo info : mWaitList) {
+            int score = getActiveTaskCount(info.label) * 2;
+            if (ObjectUtils.equal(info.label, mLastStartedLabel)) {
+                score++;
+            }
+            if (score < targetScore) {
+                target = info;
+                targetScore = score;
+                if (score == 0) {
+                    break;
+                }
+            }
         }
+        mWaitList.remove(target);
+        return target;
+    }
+
+    private void ensureDownload() {
+        int maxTasks = MathUtils.clamp(Settings.getConcurrentDownload(), 1, MAX_CONCURRENT_DOWNLOAD);
 
         // Get download from wait list
-        if (!mWaitList.isEmpty()) {
-            DownloadInfo info = mWaitList.removeFirst();
+        while (mActiveTasks.size() < maxTasks && !mWaitList.isEmpty()) {
+            DownloadInfo info = pollWaitList();
             SpiderQueen spider = SpiderQueen.obtainSpiderQueen(mContext, info, SpiderQueen.MODE_DOWNLOAD);
-            mCurrentTask = info;
-            mCurrentSpider = spider;
-            spider.addOnSpiderListener(this);
+            DownloadTask task = new DownloadTask(info, spider);
+            mActiveTasks.add(task);
+            mLastStartedLabel = info.label;
+            spider.addOnSpiderListener(task);
             info.state = DownloadInfo.STATE_DOWNLOAD;
             info.speed = -1;
             info.remaining = -1;
@@ -221,7 +270,7 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
             // Update in DB
             EhDB.putDownloadInfo(info);
             // Start speed count
-            mSpeedReminder.start();
+            task.mSpeedReminder.start();
             // Notify start downloading
             if (mDownloadListener != null) {
                 mDownloadListener.onStart(info);
@@ -237,8 +286,8 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
     }
 
     void startDownload(GalleryInfo galleryInfo, @Nullable String label) {
-        if (mCurrentTask != null && mCurrentTask.gid == galleryInfo.gid) {
-            // It is current task
+        if (getActiveTask(galleryInfo.gid) != null) {
+            // It is running
             return;
         }
 
@@ -465,18 +514,19 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
     }
 
     void stopCurrentDownload() {
-        DownloadInfo info = stopCurrentDownloadInternal();
-        if (info != null) {
-            // Update listener
-            List<DownloadInfo> list = getInfoListForLabel(info.label);
-            if (list != null) {
-                for (DownloadInfoListener l: mDownloadInfoListeners) {
-                    l.onUpdate(info, list);
-                }
-            }
-            // Ensure download
-            ensureDownload();
+        if (mActiveTasks.isEmpty()) {
+            return;
+        }
+
+        stopActiveTasksInternal();
+
+        // Update listener
+        for (DownloadInfoListener l: mDownloadInfoListeners) {
+            l.onUpdateAll();
         }
+
+        // Ensure download
+        ensureDownload();
     }
 
     public void stopRangeDownload(LongList gidList) {
@@ -500,8 +550,8 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         }
         mWaitList.clear();
 
-        // Stop current
-        stopCurrentDownloadInternal();
+        // Stop running
+        stopActiveTasksInternal();
 
         // Notify mDownloadInfoListener
         for (DownloadInfoListener l: mDownloadInfoListeners) {
@@ -515,6 +565,7 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         if (info != null) {
             // Remove from DB
             EhDB.removeDownloadInfo(info.gid);
+            EhApplication.getReadingProgress(mContext).remove(info.gid);
 
             // Remove all list and map
             mAllInfoList.remove(info);
@@ -541,6 +592,7 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
     public void deleteRangeDownload(LongList gidList) {
         stopRangeDownloadInternal(gidList);
 
+        ReadingProgress readingProgress = EhApplication.getReadingProgress(mContext);
         for (int i = 0, n = gidList.size(); i < n; i++) {
             long gid = gidList.get(i);
             DownloadInfo info = mAllInfoMap.get(gid);
@@ -551,6 +603,7 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
 
             // Remove from DB
             EhDB.removeDownloadInfo(info.gid);
+            readingProgress.remove(info.gid);
 
             // Remove from all info map
             mAllInfoList.remove(info);
@@ -576,6 +629,15 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
     public void resetAllReadingProgress() {
         LinkedList<DownloadInfo> list = new LinkedList<>(mAllInfoList);
 
+        // Index first, so the list shows it at once
+        ReadingProgress readingProgress = EhApplication.getReadingProgress(mContext);
+        for (DownloadInfo downloadInfo : list) {
+            ReadingProgress.Progress progress = readingProgress.get(downloadInfo.gid);
+            if (progress != null) {
+                readingProgress.put(downloadInfo.gid, 0, progress.pages);
+            }
+        }
+
         new AsyncTask<Void, Void, Void>() {
             @Override
             protected Void doInBackground(Void... voids) {
@@ -604,6 +666,10 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
                     }
                     spiderInfo.startPage = 0;
 
+                    // Only header
+                    if (spiderInfo.update(file, 0, 0)) {
+                        continue;
+                    }
                     try {
                         spiderInfo.write(file.openOutputStream());
                     } catch (IOException e) {
@@ -615,14 +681,69 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         }.executeOnExecutor(IoThreadPoolExecutor.getInstance());
     }
 
+    /**
+     * Checks page files of finished and failed downloads against their page
+     * states, in parallel. Missing and broken pages are downloaded again.
+     * Other downloads are skipped.
+     */
+    @SuppressLint("StaticFieldLeak")
+    public void verifyDownloads(@NonNull List<DownloadInfo> infoList, @Nullable OnVerifyListener listener) {
+        List<DownloadInfo> list = new ArrayList<>(infoList.size());
+        for (DownloadInfo info : infoList) {
+            // Don't start downloads not started or stopped by user
+            if (info.state == DownloadInfo.STATE_FINISH || info.state == DownloadInfo.STATE_FAILED) {
+                list.add(info);
+            }
+        }
+
+        new AsyncTask<Void, Void, LongList>() {
+            @Override
+            protected LongList doInBackground(Void... voids) {
+                LongList gidList = new LongList();
+                ExecutorService executor = SpiderPageStates.newVerifyExecutor();
+                try {
+                    for (DownloadInfo info : list) {
+                        UniFile downloadDir = SpiderDen.getGalleryDownloadDir(info);
+                        if (downloadDir == null || !downloadDir.isDirectory()) {
+                            continue;
+                        }
+                        SpiderInfo spiderInfo = SpiderInfo.read(downloadDir.findFile(SpiderQueen.SPIDER_INFO_FILENAME));
+                        int pages = spiderInfo != null ? spiderInfo.pages : info.pages;
+                        if (pages <= 0) {
+                            continue;
+                        }
+                        SpiderPageStates states = SpiderPageStates.read(
+                                downloadDir.findFile(SpiderPageStates.FILENAME), info.gid, pages);
+                        if (states == null) {
+                            states = SpiderPageStates.create(info.gid, pages);
+                        }
+                        if (SpiderPageStates.verify(downloadDir, states, executor) < pages) {
+                            gidList.add(info.gid);
+                        }
+                    }
+                } finally {
+                    executor.shutdown();
+                }
+                return gidList;
+            }
+
+            @Override
+            protected void onPostExecute(LongList gidList) {
+                if (listener != null) {
+                    listener.onVerify(list.size(), gidList);
+                }
+            }
+        }.executeOnExecutor(IoThreadPoolExecutor.getInstance());
+    }
+
     // Update in DB
     // Update listener
     // No ensureDownload
     private DownloadInfo stopDownloadInternal(long gid) {
-        // Check current task
-        if (mCurrentTask != null && mCurrentTask.gid == gid) {
-            // Stop current
-            return stopCurrentDownloadInternal();
+        // Check running task
+        DownloadTask task = getActiveTask(gid);
+        if (task != null) {
+            return stopTaskInternal(task);
         }
 
         for (Iterator<DownloadInfo> iterator = mWaitList.iterator(); iterator.hasNext();) {
@@ -642,22 +763,12 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
 
     // Update in DB
     // Update mDownloadListener
-    private DownloadInfo stopCurrentDownloadInternal() {
-        DownloadInfo info = mCurrentTask;
-        SpiderQueen spider = mCurrentSpider;
-        // Release spider
-        if (spider != null) {
-            spider.removeOnSpiderListener(DownloadManager.this);
-            SpiderQueen.releaseSpiderQueen(spider, SpiderQueen.MODE_DOWNLOAD);
-        }
-        mCurrentTask = null;
-        mCurrentSpider = null;
-        // Stop speed reminder
-        mSpeedReminder.stop();
-        if (info == null) {
-            return null;
-        }
+    private DownloadInfo stopTaskInternal(DownloadTask task) {
+        mActiveTasks.remove(task);
+        // Release spider and stop speed reminder
+        task.release();
 
+        DownloadInfo info = task.mInfo;
         // Update state
         info.state = DownloadInfo.STATE_NONE;
         // Update in DB
@@ -669,6 +780,14 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         return info;
     }
 
+    // Update in DB
+    // Update mDownloadListener
+    private void stopActiveTasksInternal() {
+        for (DownloadTask task : new ArrayList<>(mActiveTasks)) {
+            stopTaskInternal(task);
+        }
+    }
+
     // Update in DB
     // Update mDownloadListener
     private void stopRangeDownloadInternal(LongList gidList) {
@@ -678,10 +797,11 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
                 stopDownloadInternal(gidList.get(i));
             }
         } else {
-            // Check current task
-            if (mCurrentTask != null && gidList.contains(mCurrentTask.gid)) {
-                // Stop current
-                stopCurrentDownloadInternal();
+            // Check running task
+            for (DownloadTask task : new ArrayList<>(mActiveTasks)) {
+                if (gidList.contains(task.mInfo.gid)) {
+                    stopTaskInternal(task);
+                }
             }
 
             // Check all in wait list
@@ -837,100 +957,116 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
     }
 
     boolean isIdle() {
-        return mCurrentTask == null && mWaitList.isEmpty();
+        return mActiveTasks.isEmpty() && mWaitList.isEmpty();
     }
 
-    @Override
-    public void onGetPages(int pages) {
-        NotifyTask task = mNotifyTaskPool.pop();
-        if (task == null) {
-            task = new NotifyTask();
-        }
-        task.setOnGetPagesData(pages);
-        SimpleHandler.getInstance().post(task);
+    boolean isDownloading() {
+        return !mActiveTasks.isEmpty();
     }
 
-    @Override
-    public void onGet509(int index) {
-        NotifyTask task = mNotifyTaskPool.pop();
-        if (task == null) {
-            task = new NotifyTask();
+    private class DownloadTask implements SpiderQueen.OnSpiderListener {
+
+        private final DownloadInfo mInfo;
+        private final SpiderQueen mSpider;
+        private final SpeedReminder mSpeedReminder;
+
+        public DownloadTask(DownloadInfo info, SpiderQueen spider) {
+            mInfo = info;
+            mSpider = spider;
+            mSpeedReminder = new SpeedReminder(info);
         }
-        task.setOnGet509Data(index);
-        SimpleHandler.getInstance().post(task);
-    }
 
-    @Override
-    public void onPageDownload(int index, long contentLength, long receivedSize, int bytesRead) {
-        NotifyTask task = mNotifyTaskPool.pop();
-        if (task == null) {
-            task = new NotifyTask();
+        public void release() {
+            mSpider.removeOnSpiderListener(this);
+            SpiderQueen.releaseSpiderQueen(mSpider, SpiderQueen.MODE_DOWNLOAD);
+            mSpeedReminder.stop();
         }
-        task.setOnPageDownloadData(index, contentLength, receivedSize, bytesRead);
-        SimpleHandler.getInstance().post(task);
-    }
 
-    @Override
-    public void onPageSuccess(int index, int finished, int downloaded, int total) {
-        NotifyTask task = mNotifyTaskPool.pop();
-        if (task == null) {
-            task = new NotifyTask();
+        private NotifyTask obtainNotifyTask() {
+            NotifyTask task = mNotifyTaskPool.pop();
+            if (task == null) {
+                task = new NotifyTask();
+            }
+            task.setDownloadTask(this);
+            return task;
         }
-        task.setOnPageSuccessData(index, finished, downloaded, total);
-        SimpleHandler.getInstance().post(task);
-    }
 
-    @Override
-    public void onPageFailure(int index, String error, int finished, int downloaded, int total) {
-        NotifyTask task = mNotifyTaskPool.pop();
-        if (task == null) {
-            task = new NotifyTask();
+        @Override
+        public void onGetPages(int pages) {
+            NotifyTask task = obtainNotifyTask();
+            task.setOnGetPagesData(pages);
+            SimpleHandler.getInstance().post(task);
         }
-        task.setOnPageFailureDate(index, error, finished, downloaded, total);
-        SimpleHandler.getInstance().post(task);
-    }
 
-    @Override
-    public void onFinish(int finished, int downloaded, int total) {
-        NotifyTask task = mNotifyTaskPool.pop();
-        if (task == null) {
-            task = new NotifyTask();
+        @Override
+        public void onGet509(int index) {
+            NotifyTask task = obtainNotifyTask();
+            task.setOnGet509Data(index);
+            SimpleHandler.getInstance().post(task);
         }
-        task.setOnFinishDate(finished, downloaded, total);
-        SimpleHandler.getInstance().post(task);
-    }
 
-    @Override
-    public void onGetImageSuccess(int index, Image image) {
-        // Ignore
-    }
+        @Override
+        public void onDownloadProgress(@NonNull SpiderProgress.Snapshot snapshot) {
+            // Already on UI thread, no need to post
+            if (mActiveTasks.contains(this)) {
+                mSpeedReminder.onDownload(snapshot);
+            }
+        }
+
+        @Override
+        public void onPageSuccess(int index, int finished, int downloaded, int total) {
+            NotifyTask task = obtainNotifyTask();
+            task.setOnPageSuccessData(index, finished, downloaded, total);
+            SimpleHandler.getInstance().post(task);
+        }
 
-    @Override
-    public void onGetImageFailure(int index, String error) {
-        // Ignore
+        @Override
+        public void onPageFailure(int index, String error, int finished, int downloaded, int total) {
+            NotifyTask task = obtainNotifyTask();
+            task.setOnPageFailureDate(index, error, finished, downloaded, total);
+            SimpleHandler.getInstance().post(task);
+        }
+
+        @Override
+        public void onFinish(int finished, int downloaded, int total) {
+            NotifyTask task = obtainNotifyTask();
+            task.setOnFinishDate(finished, downloaded, total);
+            SimpleHandler.getInstance().post(task);
+        }
+
+        @Override
+        public void onGetImageSuccess(int index, Image image) {
+            // Ignore
+        }
+
+        @Override
+        public void onGetImageFailure(int index, String error) {
+            // Ignore
+        }
     }
 
     private class NotifyTask implements Runnable {
 
         public static final int TYPE_ON_GET_PAGES = 0;
         public static final int TYPE_ON_GET_509 = 1;
-        public static final int TYPE_ON_PAGE_DOWNLOAD = 2;
-        public static final int TYPE_ON_PAGE_SUCCESS = 3;
-        public static final int TYPE_ON_PAGE_FAILURE = 4;
-        public static final int TYPE_ON_FINISH = 5;
+        public static final int TYPE_ON_PAGE_SUCCESS = 2;
+        public static final int TYPE_ON_PAGE_FAILURE = 3;
+        public static final int TYPE_ON_FINISH = 4;
 
+        private DownloadTask mDownloadTask;
         private int mType;
         private int mPages;
         private int mIndex;
-        private long mContentLength;
-        private long mReceivedSize;
-        private int mBytesRead;
         @SuppressWarnings("unused")
         private String mError;
         private int mFinished;
         private int mDownloaded;
         private int mTotal;
 
+        public void setDownloadTask(DownloadTask downloadTask) {
+            mDownloadTask = downloadTask;
+        }
+
         public void setOnGetPagesData(int pages) {
             mType = TYPE_ON_GET_PAGES;
             mPages = pages;
@@ -941,14 +1077,6 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
             mIndex = index;
         }
 
-        public void setOnPageDownloadData(int index, long contentLength, long receivedSize, int bytesRead) {
-            mType = TYPE_ON_PAGE_DOWNLOAD;
-            mIndex = index;
-            mContentLength = contentLength;
-            mReceivedSize = receivedSize;
-            mBytesRead = bytesRead;
-        }
-
         public void setOnPageSuccessData(int index, int finished, int downloaded, int total) {
             mType = TYPE_ON_PAGE_SUCCESS;
             mIndex = index;
@@ -975,18 +1103,26 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
 
         @Override
         public void run() {
+            DownloadTask task = mDownloadTask;
+            mDownloadTask = null;
+
+            // The task might be stopped before the notification comes
+            if (task != null && mActiveTasks.contains(task)) {
+                handle(task);
+            }
+
+            mNotifyTaskPool.push(this);
+        }
+
+        private void handle(DownloadTask task) {
+            DownloadInfo info = task.mInfo;
             switch (mType) {
                 case TYPE_ON_GET_PAGES: {
-                    DownloadInfo info = mCurrentTask;
-                    if (info == null) {
-                        Log.e(TAG, "Current task is null, but it should not be");
-                    } else {
-                        info.total = mPages;
-                        List<DownloadInfo> list = getInfoListForLabel(info.label);
-                        if (list != null) {
-                            for (DownloadInfoListener l: mDownloadInfoListeners) {
-                                l.onUpdate(info, list);
-                            }
+                    info.total = mPages;
+                    List<DownloadInfo> list = getInfoListForLabel(info.label);
+                    if (list != null) {
+                        for (DownloadInfoListener l: mDownloadInfoListeners) {
+                            l.onUpdate(info, list);
                         }
                     }
                     break;
@@ -997,68 +1133,41 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
                     }
                     break;
                 }
-                case TYPE_ON_PAGE_DOWNLOAD: {
-                    mSpeedReminder.onDownload(mIndex, mContentLength, mReceivedSize, mBytesRead);
-                    break;
-                }
                 case TYPE_ON_PAGE_SUCCESS: {
-                    mSpeedReminder.onDone(mIndex);
-                    DownloadInfo info = mCurrentTask;
-                    if (info == null) {
-                        Log.e(TAG, "Current task is null, but it should not be");
-                    } else {
-                        info.finished = mFinished;
-                        info.downloaded = mDownloaded;
-                        info.total = mTotal;
-                        if (mDownloadListener != null) {
-                            mDownloadListener.onGetPage(info);
-                        }
-                        List<DownloadInfo> list = getInfoListForLabel(info.label);
-                        if (list != null) {
-                            for (DownloadInfoListener l: mDownloadInfoListeners) {
-                                l.onUpdate(info, list);
-                            }
+                    task.mSpeedReminder.onDone(mIndex);
+                    info.finished = mFinished;
+                    info.downloaded = mDownloaded;
+                    info.total = mTotal;
+                    if (mDownloadListener != null) {
+                        mDownloadListener.onGetPage(info);
+                    }
+                    List<DownloadInfo> list = getInfoListForLabel(info.label);
+                    if (list != null) {
+                        for (DownloadInfoListener l: mDownloadInfoListeners) {
+                            l.onUpdate(info, list);
                         }
                     }
                     break;
                 }
                 case TYPE_ON_PAGE_FAILURE: {
-                    mSpeedReminder.onDone(mIndex);
-                    DownloadInfo info = mCurrentTask;
-                    if (info == null) {
-                        Log.e(TAG, "Current task is null, but it should not be");
-                    } else {
-                        info.finished = mFinished;
-                        info.downloaded = mDownloaded;
-                        info.total = mTotal;
-                        List<DownloadInfo> list = getInfoListForLabel(info.label);
-                        if (list != null) {
-                            for (DownloadInfoListener l: mDownloadInfoListeners) {
-                                l.onUpdate(info, list);
-                            }
+                    task.mSpeedReminder.onDone(mIndex);
+                    info.finished = mFinished;
+                    info.downloaded = mDownloaded;
+                    info.total = mTotal;
+                    List<DownloadInfo> list = getInfoListForLabel(info.label);
+                    if (list != null) {
+                        for (DownloadInfoListener l: mDownloadInfoListeners) {
+                            l.onUpdate(info, list);
                         }
                     }
                     break;
                 }
                 case TYPE_ON_FINISH: {
-                    mSpeedReminder.onFinish();
+                    task.mSpeedReminder.onFinish();
                     // Download done
-                    DownloadInfo info = mCurrentTask;
-                    mCurrentTask = null;
-                    SpiderQueen spider = mCurrentSpider;
-                    mCurrentSpider = null;
-                    // Release spider
-                    if (spider != null) {
-                        spider.removeOnSpiderListener(DownloadManager.this);
-                        SpiderQueen.releaseSpiderQueen(spider, SpiderQueen.MODE_DOWNLOAD);
-                    }
-                    // Check null
-                    if (info == null || spider == null) {
-                        Log.e(TAG, "Current stuff is null, but it should not be");
-                        break;
-                    }
-                    // Stop speed count
-                    mSpeedReminder.stop();
+                    mActiveTasks.remove(task);
+                    // Release spider and stop speed count
+                    task.release();
                     // Update state
                     info.finished = mFinished;
                     info.downloaded = mDownloaded;
@@ -1086,14 +1195,14 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
                     break;
                 }
             }
-
-            mNotifyTaskPool.push(this);
         }
     }
 
 
     class SpeedReminder implements Runnable {
 
+        private final DownloadInfo mInfo;
+
         private boolean mStop = true;
 
         private long mBytesRead;
@@ -1102,6 +1211,10 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         private final SparseIJArray mContentLengthMap = new SparseIJArray();
         private final SparseIJArray mReceivedSizeMap = new SparseIJArray();
 
+        public SpeedReminder(DownloadInfo info) {
+            mInfo = info;
+        }
+
         public void start() {
             if (mStop) {
                 mStop = false;
@@ -1120,10 +1233,13 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
             }
         }
 
-        public void onDownload(int index, long contentLength, long receivedSize, int bytesRead) {
-            mContentLengthMap.put(index, contentLength);
-            mReceivedSizeMap.put(index, receivedSize);
-            mBytesRead += bytesRead;
+        public void onDownload(SpiderProgress.Snapshot snapshot) {
+            for (int i = 0, n = snapshot.size(); i < n; i++) {
+                int index = snapshot.getIndex(i);
+                mContentLengthMap.put(index, snapshot.getContentLength(i));
+                mReceivedSizeMap.put(index, snapshot.getReceivedSize(i));
+            }
+            mBytesRead += snapshot.getBytesRead();
         }
 
         public void onDone(int index) {
@@ -1138,44 +1254,42 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
 
         @Override
         public void run() {
-            DownloadInfo info = mCurrentTask;
-            if (info != null) {
-                long newSpeed = mBytesRead / 2;
-                if (oldSpeed != -1) {
-                    newSpeed = (long) MathUtils.lerp(oldSpeed, newSpeed, 0.75f);
-                }
-                oldSpeed = newSpeed;
-                info.speed = newSpeed;
-
-                // Calculate remaining
-                if (info.total <= 0) {
-                    info.remaining = -1;
-                } else if (newSpeed == 0) {
-                    info.remaining = 300L * 24L * 60L * 60L * 1000L; // 300 days
-                } else {
-                    int downloadingCount = 0;
-                    long downloadingContentLengthSum = 0;
-                    long totalSize = 0;
-                    for (int i = 0, n = Math.max(mContentLengthMap.size(), mReceivedSizeMap.size()); i < n; i++) {
-                        long contentLength = mContentLengthMap.valueAt(i);
-                        long receivedSize = mReceivedSizeMap.valueAt(i);
-                        downloadingCount++;
-                        downloadingContentLengthSum += contentLength;
-                        totalSize += contentLength - receivedSize;
-                    }
-                    if (downloadingCount != 0) {
-                        totalSize += downloadingContentLengthSum * (info.total - info.downloaded - downloadingCount) / downloadingCount;
-                        info.remaining = totalSize / newSpeed * 1000;
-                    }
+            DownloadInfo info = mInfo;
+            long newSpeed = mBytesRead / 2;
+            if (oldSpeed != -1) {
+                newSpeed = (long) MathUtils.lerp(oldSpeed, newSpeed, 0.75f);
+            }
+            oldSpeed = newSpeed;
+            info.speed = newSpeed;
+
+            // Calculate remaining
+            if (info.total <= 0) {
+                info.remaining = -1;
+            } else if (newSpeed == 0) {
+                info.remaining = 300L * 24L * 60L * 60L * 1000L; // 300 days
+            } else {
+                int downloadingCount = 0;
+                long downloadingContentLengthSum = 0;
+                long totalSize = 0;
+                for (int i = 0, n = Math.max(mContentLengthMap.size(), mReceivedSizeMap.size()); i < n; i++) {
+                    long contentLength = mContentLengthMap.valueAt(i);
+                    long receivedSize = mReceivedSizeMap.valueAt(i);
+                    downloadingCount++;
+                    downloadingContentLengthSum += contentLength;
+                    totalSize += contentLength - receivedSize;
                 }
-                if (mDownloadListener != null) {
-                    mDownloadListener.onDownload(info);
+                if (downloadingCount != 0) {
+                    totalSize += downloadingContentLengthSum * (info.total - info.downloaded - downloadingCount) / downloadingCount;
+                    info.remaining = totalSize / newSpeed * 1000;
                 }
-                List<DownloadInfo> list = getInfoListForLabel(info.label);
-                if (list != null) {
-                    for (DownloadInfoListener l: mDownloadInfoListeners) {
-                        l.onUpdate(info, list);
-                    }
+            }
+            if (mDownloadListener != null) {
+                mDownloadListener.onDownload(info);
+            }
+            List<DownloadInfo> list = getInfoListForLabel(info.label);
+            if (list != null) {
+                for (DownloadInfoListener l: mDownloadInfoListeners) {
+                    l.onUpdate(info, list);
                 }
             }
 
@@ -1234,6 +1348,15 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         void onUpdateLabels();
     }
 
+    public interface OnVerifyListener {
+
+        /**
+         * @param verified the number of verified downloads
+         * @param gidList the downloads with missing or broken pages
+         */
+        void onVerify(int verified, @NonNull LongList gidList);
+    }
+
     public interface DownloadListener {
 
         /**
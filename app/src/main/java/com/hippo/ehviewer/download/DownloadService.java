@@ -356,7 +356,8 @@ public class DownloadService extends Service implements DownloadManager.Download
             return;
         }
 
-        if (null != mDownloadingDelay) {
+        // Other galleries may still be downloading
+        if (null != mDownloadingDelay && (mDownloadManager == null || !mDownloadManager.isDownloading())) {
             mDownloadingDelay.cancel();
         }
 
@@ -456,7 +457,8 @@ public class DownloadService extends Service implements DownloadManager.Download
             return;
         }
 
-        if (null != mDownloadingDelay) {
+        // Other galleries may still be downloading
+        if (null != mDownloadingDelay && (mDownloadManager == null || !mDownloadManager.isDownloading())) {
             mDownloadingDelay.cancel();
         }
 
@@ -511,7 +513,7 @@ public class DownloadService extends Service implements DownloadManager.Download
             if (mPosted) {
                 mOps = OPS_NOTIFY;
             } else {
-                long now = SystemClock.currentThreadTimeMillis();
+                long now = SystemClock.uptimeMillis();
                 if (now - mLastTime > DELAY) {
                     // Wait long enough, do it now
                     mNotifyManager.notify(mId, mBuilder.build());
@@ -529,7 +531,7 @@ public class DownloadService extends Service implements DownloadManager.Download
             if (mPosted) {
                 mOps = OPS_CANCEL;
             } else {
-                long now = SystemClock.currentThreadTimeMillis();
+                long now = SystemClock.uptimeMillis();
                 if (now - mLastTime > DELAY) {
                     // Wait long enough, do it now
                     mNotifyManager.cancel(mId);
@@ -546,7 +548,7 @@ public class DownloadService extends Service implements DownloadManager.Download
             if (mPosted) {
                 mOps = OPS_START_FOREGROUND;
             } else {
-                long now = SystemClock.currentThreadTimeMillis();
+                long now = SystemClock.uptimeMillis();
                 if (now - mLastTime > DELAY) {
                     // Wait long enough, do it now
                     if (mService != null) {
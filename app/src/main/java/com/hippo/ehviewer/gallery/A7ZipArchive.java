@@ -16,6 +16,7 @@
 
 package com.hippo.ehviewer.gallery;
 
+import androidx.annotation.Nullable;
 import com.hippo.a7zip.ArchiveException;
 import com.hippo.a7zip.InArchive;
 import com.hippo.a7zip.InStream;
@@ -27,10 +28,13 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 class A7ZipArchive implements Closeable {
 
+  private static final byte[] ZIP_SIGNATURE = { 'P', 'K', 3, 4 };
+
   private InArchive archive;
 
   private A7ZipArchive(InArchive archive) {
@@ -69,6 +73,52 @@ class A7ZipArchive implements Closeable {
     return entries;
   }
 
+  /**
+   * Create entries from a cached index.
+   *
+   * @return null if the index doesn't match this archive
+   */
+  @Nullable
+  List<A7ZipArchiveEntry> getArchiveEntries(ArchiveIndex index) {
+    int number = archive.getNumberOfEntries();
+    List<A7ZipArchiveEntry> entries = new ArrayList<>(index.size());
+    for (int i = 0, n = index.size(); i < n; i++) {
+      int entryIndex = index.indexes[i];
+      if (entryIndex < 0 || entryIndex >= number) {
+        return null;
+      }
+      entries.add(new A7ZipArchiveEntry(archive, entryIndex, index.paths[i]));
+    }
+    return entries;
+  }
+
+  /**
+   * Extract the entry with this archive. The entry could be
+   * got from another archive opened from the same file.
+   */
+  void extract(A7ZipArchiveEntry entry, OutputStream os) throws ArchiveException {
+    archive.extractEntry(entry.index, new OutputStreamSequentialOutStream(os));
+  }
+
+  /**
+   * Check the local file header signature. Entries of zip
+   * can be extracted independently.
+   */
+  static boolean isZip(UniRandomAccessFile file) throws IOException {
+    byte[] signature = new byte[ZIP_SIGNATURE.length];
+    file.seek(0);
+    int read = 0;
+    while (read < signature.length) {
+      int n = file.read(signature, read, signature.length - read);
+      if (n < 0) {
+        break;
+      }
+      read += n;
+    }
+    file.seek(0);
+    return read == signature.length && Arrays.equals(signature, ZIP_SIGNATURE);
+  }
+
   static A7ZipArchive create(UniRandomAccessFile file) throws ArchiveException {
     InStream store = new UniRandomAccessFileInStream(file);
     InArchive archive = InArchive.open(store);
@@ -92,6 +142,10 @@ class A7ZipArchive implements Closeable {
       this.path = path;
     }
 
+    int getIndex() {
+      return index;
+    }
+
     String getPath() {
       return path;
     }
@@ -22,22 +22,27 @@ import android.os.Process;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.hippo.a7zip.ArchiveException;
+import com.hippo.beerbelly.SimpleDiskCache;
+import com.hippo.ehviewer.EhApplication;
 import com.hippo.ehviewer.GetText;
 import com.hippo.ehviewer.R;
-import com.hippo.glgallery.GalleryPageView;
 import com.hippo.image.Image;
 import com.hippo.unifile.UniFile;
 import com.hippo.unifile.UniRandomAccessFile;
 import com.hippo.util.NaturalComparator;
+import com.hippo.yorozuya.IOUtils;
+import com.hippo.yorozuya.MathUtils;
 import com.hippo.yorozuya.thread.PriorityThread;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -45,49 +50,71 @@ public class ArchiveGalleryProvider extends GalleryProvider2 {
 
   private static final AtomicInteger sIdGenerator = new AtomicInteger();
 
+  // Extract threads for zip
+  private static final int WORKER_NUM =
+      MathUtils.clamp(Runtime.getRuntime().availableProcessors() - 1, 1, 3);
+
   private final UniFile file;
+  private final SimpleDiskCache indexCache;
 
-  private Thread archiveThread;
-  private Thread decodeThread;
+  private int id;
+  private final List<Thread> threads = new ArrayList<>();
+  private boolean stopped;
 
   private volatile int size = STATE_WAIT;
   private String error;
 
   private final Stack<Integer> requests = new Stack<>();
-  private final AtomicInteger extractingIndex = new AtomicInteger(GalleryPageView.INVALID_INDEX);
-  private final LinkedHashMap<Integer, InputStream> streams = new LinkedHashMap<>();
-  private final AtomicInteger decodingIndex = new AtomicInteger(GalleryPageView.INVALID_INDEX);
+  private final Set<Integer> extractingIndexes = new HashSet<>();
+  // Extracting streams waiting for decoding
+  private final Map<Integer, InputStream> streams = new HashMap<>();
+  private final GalleryDecoder decoder = new GalleryDecoder(this::decode);
 
   public ArchiveGalleryProvider(Context context, Uri uri) {
     file = UniFile.fromUri(context, uri);
+    indexCache = EhApplication.getArchiveIndexCache(context);
   }
 
   @Override
   public void start() {
     super.start();
 
-    int id = sIdGenerator.incrementAndGet();
+    id = sIdGenerator.incrementAndGet();
 
-    archiveThread = new PriorityThread(
-        new ArchiveTask(), "ArchiveTask" + '-' + id, Process.THREAD_PRIORITY_BACKGROUND);
-    archiveThread.start();
+    startThread(new ArchiveTask(), "ArchiveTask" + '-' + id);
+  }
 
-    decodeThread = new PriorityThread(
-        new DecodeTask(), "DecodeTask" + '-' + id, Process.THREAD_PRIORITY_BACKGROUND);
-    decodeThread.start();
+  private void startThread(Runnable runnable, String name) {
+    synchronized (threads) {
+      if (stopped) {
+        return;
+      }
+      Thread thread = new PriorityThread(runnable, name, Process.THREAD_PRIORITY_BACKGROUND);
+      threads.add(thread);
+      thread.start();
+    }
   }
 
   @Override
   public void stop() {
     super.stop();
 
-    if (archiveThread != null) {
-      archiveThread.interrupt();
-      archiveThread = null;
+    synchronized (threads) {
+      stopped = true;
+      for (Thread thread : threads) {
+        thread.interrupt();
+      }
+      threads.clear();
     }
-    if (decodeThread != null) {
-      decodeThread.interrupt();
-      decodeThread = null;
+
+    decoder.release();
+    List<InputStream> list;
+    synchronized (streams) {
+      list = new ArrayList<>(streams.values());
+      streams.clear();
+    }
+    for (InputStream stream : list) {
+      IOUtils.closeQuietly(stream);
     }
   }
 
@@ -100,11 +127,11 @@ public class ArchiveGalleryProvider extends GalleryProvider2 {
   protected void onRequest(int index) {
     boolean inDecodeTask;
     synchronized (streams) {
-      inDecodeTask = streams.keySet().contains(index) || index == decodingIndex.get();
+      inDecodeTask = streams.containsKey(index) || decoder.contains(index);
     }
 
     synchronized (requests) {
-      boolean inArchiveTask = requests.contains(index) || index == extractingIndex.get();
+      boolean inArchiveTask = requests.contains(index) || extractingIndexes.contains(index);
       if (!inArchiveTask && !inDecodeTask) {
         requests.add(index);
         requests.notify();
@@ -123,6 +150,18 @@ public class ArchiveGalleryProvider extends GalleryProvider2 {
     synchronized (requests) {
       requests.remove(Integer.valueOf(index));
     }
+
+    // The page is extracted but not decoded, close the stream to stop extracting
+    if (decoder.cancel(index)) {
+      InputStream stream;
+      synchronized (streams) {
+        stream = streams.remove(index);
+      }
+      IOUtils.closeQuietly(stream);
+      synchronized (requests) {
+        extractingIndexes.remove(index);
+      }
+    }
   }
 
   @Override
@@ -150,17 +189,84 @@ public class ArchiveGalleryProvider extends GalleryProvider2 {
     return null;
   }
 
+  @Nullable
+  private UniRandomAccessFile openFile() {
+    if (file != null) {
+      try {
+        return file.createRandomAccessFile("r");
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    return null;
+  }
+
+  private static void closeQuietly(UniRandomAccessFile uraf) {
+    try {
+      uraf.close();
+    } catch (IOException e) {
+      // Ignore
+    }
+  }
+
+  /**
+   * Extract requested entries until interrupted.
+   */
+  private void extract(A7ZipArchive archive, List<A7ZipArchive.A7ZipArchiveEntry> entries) {
+    while (!Thread.currentThread().isInterrupted()) {
+      int index;
+      synchronized (requests) {
+        if (requests.isEmpty()) {
+          try {
+            requests.wait();
+          } catch (InterruptedException e) {
+            // Interrupted
+            break;
+          }
+          continue;
+        }
+        index = requests.pop();
+        extractingIndexes.add(index);
+      }
+
+      // Check index valid
+      if (index < 0 || index >= entries.size()) {
+        synchronized (requests) {
+          extractingIndexes.remove(index);
+        }
+        notifyPageFailed(index, GetText.getString(R.string.error_out_of_range));
+        continue;
+      }
+
+      PooledPipe pipe = new PooledPipe();
+
+      synchronized (streams) {
+        if (streams.get(index) != null) {
+          synchronized (requests) {
+            extractingIndexes.remove(index);
+          }
+          continue;
+        }
+        streams.put(index, pipe.getInputStream());
+      }
+      decoder.request(index, getDecodeWidth(), getDecodeHeight());
+
+      try {
+        archive.extract(entries.get(index), pipe.getOutputStream());
+      } catch (ArchiveException e) {
+        e.printStackTrace();
+      } finally {
+        synchronized (requests) {
+          extractingIndexes.remove(index);
+        }
+      }
+    }
+  }
+
   private class ArchiveTask implements Runnable {
     @Override
     public void run() {
-      UniRandomAccessFile uraf = null;
-      if (file != null) {
-        try {
-          uraf = file.createRandomAccessFile("r");
-        } catch (IOException e) {
-          e.printStackTrace();
-        }
-      }
+      UniRandomAccessFile uraf = openFile();
       if (uraf == null) {
         size = STATE_ERROR;
         error = GetText.getString(R.string.error_reading_failed);
@@ -168,6 +274,24 @@ public class ArchiveGalleryProvider extends GalleryProvider2 {
         return;
       }
 
+      boolean zip = false;
+      try {
+        zip = A7ZipArchive.isZip(uraf);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+
+      // Show page count from the cached index before opening the archive
+      String key = ArchiveIndex.getKey(file.getUri().toString(), file.length(), file.lastModified());
+      ArchiveIndex index = null;
+      if (key != null) {
+        index = ArchiveIndex.read(indexCache, key);
+      }
+      if (index != null) {
+        size = index.size();
+        notifyDataChanged();
+      }
+
       A7ZipArchive archive = null;
       try {
         archive = A7ZipArchive.create(uraf);
@@ -175,102 +299,106 @@ public class ArchiveGalleryProvider extends GalleryProvider2 {
         e.printStackTrace();
       }
       if (archive == null) {
+        closeQuietly(uraf);
         size = STATE_ERROR;
         error = GetText.getString(R.string.error_invalid_archive);
         notifyDataChanged();
         return;
       }
 
-      List<A7ZipArchive.A7ZipArchiveEntry> entries = archive.getArchiveEntries();
-      Collections.sort(entries, naturalComparator);
+      List<A7ZipArchive.A7ZipArchiveEntry> entries = null;
+      if (index != null) {
+        entries = archive.getArchiveEntries(index);
+      }
+      if (entries == null) {
+        entries = archive.getArchiveEntries();
+        Collections.sort(entries, naturalComparator);
+        if (key != null) {
+          ArchiveIndex.write(indexCache, key, ArchiveIndex.from(entries));
+        }
+      }
 
       // Update size and notify changed
-      size = entries.size();
-      notifyDataChanged();
+      if (size != entries.size()) {
+        size = entries.size();
+        notifyDataChanged();
+      }
 
-      while (!Thread.currentThread().isInterrupted()) {
-        int index;
-        synchronized (requests) {
-          if (requests.isEmpty()) {
-            try {
-              requests.wait();
-            } catch (InterruptedException e) {
-              // Interrupted
-              break;
-            }
-            continue;
-          }
-          index = requests.pop();
-          extractingIndex.lazySet(index);
+      // Entries of zip can be extracted independently,
+      // extract them with more file handles at the same time
+      if (zip) {
+        for (int i = 1; i < WORKER_NUM; i++) {
+          startThread(new ZipExtractTask(entries), "ArchiveTask" + '-' + id + '-' + i);
         }
+      }
 
-        // Check index valid
-        if (index < 0 || index >= entries.size()) {
-          extractingIndex.lazySet(GalleryPageView.INVALID_INDEX);
-          notifyPageFailed(index, GetText.getString(R.string.error_out_of_range));
-          continue;
-        }
+      try {
+        extract(archive, entries);
+      } finally {
+        archive.close();
+      }
+    }
+  }
 
-        Pipe pipe = new Pipe(4 * 1024);
+  private class ZipExtractTask implements Runnable {
 
-        synchronized (streams) {
-          if (streams.get(index) != null) {
-            continue;
-          }
-          streams.put(index, pipe.getInputStream());
-          streams.notify();
-        }
+    private final List<A7ZipArchive.A7ZipArchiveEntry> entries;
 
-        try {
-          entries.get(index).extract(pipe.getOutputStream());
-        } catch (ArchiveException e) {
-          e.printStackTrace();
-        } finally {
-          extractingIndex.lazySet(GalleryPageView.INVALID_INDEX);
-        }
-      }
+    private ZipExtractTask(List<A7ZipArchive.A7ZipArchiveEntry> entries) {
+      this.entries = entries;
     }
-  }
 
-  private class DecodeTask implements Runnable {
     @Override
     public void run() {
-      while (!Thread.currentThread().isInterrupted()) {
-        int index;
-        InputStream stream;
-        synchronized (streams) {
-          if (streams.isEmpty()) {
-            try {
-              streams.wait();
-            } catch (InterruptedException e) {
-              // Interrupted
-              break;
-            }
-            continue;
-          }
+      UniRandomAccessFile uraf = openFile();
+      if (uraf == null) {
+        return;
+      }
 
-          Iterator<Map.Entry<Integer, InputStream>> iterator = streams.entrySet().iterator();
-          Map.Entry<Integer, InputStream> entry = iterator.next();
-          iterator.remove();
-          index = entry.getKey();
-          stream = entry.getValue();
-          decodingIndex.lazySet(index);
-        }
+      A7ZipArchive archive = null;
+      try {
+        archive = A7ZipArchive.create(uraf);
+      } catch (ArchiveException e) {
+        e.printStackTrace();
+      }
+      if (archive == null) {
+        closeQuietly(uraf);
+        return;
+      }
 
-        try {
-          Image image = Image.decode(stream, true);
-          if (image != null) {
-            notifyPageSucceed(index, image);
-          } else {
-            notifyPageFailed(index, GetText.getString(R.string.error_decoding_failed));
-          }
-        } finally {
-          decodingIndex.lazySet(GalleryPageView.INVALID_INDEX);
-        }
+      try {
+        extract(archive, entries);
+      } finally {
+        archive.close();
       }
     }
   }
 
+  private void decode(int index, int targetWidth, int targetHeight) {
+    InputStream stream;
+    synchronized (streams) {
+      stream = streams.remove(index);
+    }
+    if (stream == null) {
+      // Cancelled
+      return;
+    }
+
+    Image image;
+    try {
+      image = GalleryDecoder.decode(stream, targetWidth, targetHeight);
+    } catch (IOException e) {
+      IOUtils.closeQuietly(stream);
+      notifyPageFailed(index, GetText.getString(R.string.error_reading_failed));
+      return;
+    }
+    if (image != null) {
+      notifyPageSucceed(index, image);
+    } else {
+      notifyPageFailed(index, GetText.getString(R.string.error_decoding_failed));
+    }
+  }
+
   private static Comparator<A7ZipArchive.A7ZipArchiveEntry> naturalComparator = new Comparator<A7ZipArchive.A7ZipArchiveEntry>() {
     private NaturalComparator comparator = new NaturalComparator();
     @Override
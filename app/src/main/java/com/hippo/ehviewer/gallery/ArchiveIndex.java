@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.gallery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.hippo.beerbelly.SimpleDiskCache;
+import com.hippo.streampipe.InputStreamPipe;
+import com.hippo.streampipe.OutputStreamPipe;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * The sorted image entry table of an archive. It is cached on disk, keyed
+ * by uri, length and last modified time, so reopening an archive doesn't
+ * need to list and sort entries again.
+ */
+class ArchiveIndex {
+
+  private static final int MAGIC = 0x45484149; // EHAI
+  private static final int VERSION = 1;
+
+  // Index of entry in archive, in display order
+  final int[] indexes;
+  final String[] paths;
+
+  ArchiveIndex(int[] indexes, String[] paths) {
+    this.indexes = indexes;
+    this.paths = paths;
+  }
+
+  static ArchiveIndex from(List<A7ZipArchive.A7ZipArchiveEntry> entries) {
+    int size = entries.size();
+    int[] indexes = new int[size];
+    String[] paths = new String[size];
+    for (int i = 0; i < size; i++) {
+      A7ZipArchive.A7ZipArchiveEntry entry = entries.get(i);
+      indexes[i] = entry.getIndex();
+      paths[i] = entry.getPath();
+    }
+    return new ArchiveIndex(indexes, paths);
+  }
+
+  int size() {
+    return indexes.length;
+  }
+
+  /**
+   * @return null if the key can't be generated
+   */
+  @Nullable
+  static String getKey(@NonNull String uri, long length, long lastModified) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      byte[] hash = digest.digest((uri + '\n' + length + '\n' + lastModified).getBytes("UTF-8"));
+      StringBuilder sb = new StringBuilder(hash.length * 2);
+      for (byte b : hash) {
+        sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+        sb.append(Character.forDigit(b & 0xf, 16));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException | IOException e) {
+      return null;
+    }
+  }
+
+  @Nullable
+  static ArchiveIndex read(@NonNull SimpleDiskCache cache, @NonNull String key) {
+    InputStreamPipe pipe = cache.getInputStreamPipe(key);
+    if (pipe == null) {
+      return null;
+    }
+    try {
+      pipe.obtain();
+      return read(pipe.open());
+    } catch (IOException e) {
+      return null;
+    } finally {
+      pipe.close();
+      pipe.release();
+    }
+  }
+
+  static void write(@NonNull SimpleDiskCache cache, @NonNull String key, @NonNull ArchiveIndex index) {
+    OutputStreamPipe pipe = cache.getOutputStreamPipe(key);
+    try {
+      pipe.obtain();
+      index.write(pipe.open());
+    } catch (IOException e) {
+      // Ignore
+    } finally {
+      pipe.close();
+      pipe.release();
+    }
+  }
+
+  @Nullable
+  static ArchiveIndex read(@NonNull InputStream is) throws IOException {
+    DataInputStream dis = new DataInputStream(new BufferedInputStream(is));
+    if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+      return null;
+    }
+    int size = dis.readInt();
+    if (size < 0) {
+      return null;
+    }
+    int[] indexes = new int[size];
+    String[] paths = new String[size];
+    for (int i = 0; i < size; i++) {
+      indexes[i] = dis.readInt();
+      paths[i] = dis.readUTF();
+    }
+    return new ArchiveIndex(indexes, paths);
+  }
+
+  void write(@NonNull OutputStream os) throws IOException {
+    DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(os));
+    dos.writeInt(MAGIC);
+    dos.writeInt(VERSION);
+    dos.writeInt(indexes.length);
+    for (int i = 0; i < indexes.length; i++) {
+      dos.writeInt(indexes[i]);
+      dos.writeUTF(paths[i]);
+    }
+    dos.flush();
+  }
+}
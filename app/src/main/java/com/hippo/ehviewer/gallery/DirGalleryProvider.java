@@ -22,7 +22,6 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.hippo.ehviewer.GetText;
 import com.hippo.ehviewer.R;
-import com.hippo.glgallery.GalleryPageView;
 import com.hippo.image.Image;
 import com.hippo.unifile.FilenameFilter;
 import com.hippo.unifile.UniFile;
@@ -36,7 +35,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.Stack;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -46,8 +46,9 @@ public class DirGalleryProvider extends GalleryProvider2 implements Runnable {
     private static final AtomicInteger sIdGenerator = new AtomicInteger();
 
     private final UniFile mDir;
-    private final Stack<Integer> mRequests = new Stack<>();
-    private final AtomicInteger mDecodingIndex = new AtomicInteger(GalleryPageView.INVALID_INDEX);
+    private final GalleryDecoder mDecoder = new GalleryDecoder(this::decode);
+    // Requests before files are listed, guarded by itself
+    private final Set<Integer> mPendingRequests = new HashSet<>();
     private final AtomicReference<UniFile[]> mFileList = new AtomicReference<>();
     @Nullable
     private Thread mBgThread;
@@ -75,6 +76,7 @@ public class DirGalleryProvider extends GalleryProvider2 implements Runnable {
             mBgThread.interrupt();
             mBgThread = null;
         }
+        mDecoder.release();
     }
 
     @Override
@@ -84,10 +86,11 @@ public class DirGalleryProvider extends GalleryProvider2 implements Runnable {
 
     @Override
     protected void onRequest(int index) {
-        synchronized (mRequests) {
-            if (!mRequests.contains(index) && index != mDecodingIndex.get()) {
-                mRequests.add(index);
-                mRequests.notify();
+        synchronized (mPendingRequests) {
+            if (mFileList.get() == null) {
+                mPendingRequests.add(index);
+            } else {
+                mDecoder.request(index, getDecodeWidth(), getDecodeHeight());
             }
         }
         notifyPageWait(index);
@@ -100,9 +103,10 @@ public class DirGalleryProvider extends GalleryProvider2 implements Runnable {
 
     @Override
     public void onCancelRequest(int index) {
-        synchronized (mRequests) {
-            mRequests.remove(Integer.valueOf(index));
+        synchronized (mPendingRequests) {
+            mPendingRequests.remove(index);
         }
+        mDecoder.cancel(index);
     }
 
     @Override
@@ -188,59 +192,42 @@ public class DirGalleryProvider extends GalleryProvider2 implements Runnable {
         // Sort it
         Arrays.sort(files, naturalComparator);
 
-        // Put file list
-        mFileList.lazySet(files);
+        // Put file list, then decode pages requested before
+        synchronized (mPendingRequests) {
+            mFileList.lazySet(files);
+            for (int index : mPendingRequests) {
+                mDecoder.request(index, getDecodeWidth(), getDecodeHeight());
+            }
+            mPendingRequests.clear();
+        }
 
         // Set state normal and notify
         mSize = files.length;
         notifyDataChanged();
+    }
 
-        while (!Thread.currentThread().isInterrupted()) {
-            int index;
-            synchronized (mRequests) {
-                if (mRequests.isEmpty()) {
-                    try {
-                        mRequests.wait();
-                    } catch (InterruptedException e) {
-                        // Interrupted
-                        break;
-                    }
-                    continue;
-                }
-                index = mRequests.pop();
-                mDecodingIndex.lazySet(index);
-            }
-
-            // Check index valid
-            if (index < 0 || index >= files.length) {
-                mDecodingIndex.lazySet(GalleryPageView.INVALID_INDEX);
-                notifyPageFailed(index, GetText.getString(R.string.error_out_of_range));
-                continue;
-            }
+    private void decode(int index, int targetWidth, int targetHeight) {
+        UniFile[] files = mFileList.get();
+        // Check index valid
+        if (files == null || index < 0 || index >= files.length) {
+            notifyPageFailed(index, GetText.getString(R.string.error_out_of_range));
+            return;
+        }
 
-            InputStream is = null;
-            try {
-                is = files[index].openInputStream();
-                Image image = Image.decode(is, true);
-                mDecodingIndex.lazySet(GalleryPageView.INVALID_INDEX);
-                if (image != null) {
-                    notifyPageSucceed(index, image);
-                } else {
-                    notifyPageFailed(index, GetText.getString(R.string.error_decoding_failed));
-                }
-            } catch (IOException e) {
-                mDecodingIndex.lazySet(GalleryPageView.INVALID_INDEX);
-                notifyPageFailed(index, GetText.getString(R.string.error_reading_failed));
-            } finally {
-                IOUtils.closeQuietly(is);
+        InputStream is = null;
+        try {
+            is = files[index].openInputStream();
+            Image image = GalleryDecoder.decode(is, targetWidth, targetHeight);
+            if (image != null) {
+                notifyPageSucceed(index, image);
+            } else {
+                notifyPageFailed(index, GetText.getString(R.string.error_decoding_failed));
             }
-            mDecodingIndex.lazySet(GalleryPageView.INVALID_INDEX);
+        } catch (IOException e) {
+            notifyPageFailed(index, GetText.getString(R.string.error_reading_failed));
+        } finally {
+            IOUtils.closeQuietly(is);
         }
-
-        // Clear file list
-        mFileList.lazySet(null);
-
-        Log.i(TAG, "ImageDecoder end");
     }
 
     private static FilenameFilter imageFilter =
@@ -20,6 +20,7 @@ import android.content.Context;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.hippo.ehviewer.client.data.GalleryInfo;
+import com.hippo.ehviewer.spider.SpiderProgress;
 import com.hippo.ehviewer.spider.SpiderQueen;
 import com.hippo.glgallery.GalleryProvider;
 import com.hippo.image.Image;
@@ -44,6 +45,7 @@ public class EhGalleryProvider extends GalleryProvider2 implements SpiderQueen.O
         super.start();
 
         mSpiderQueen = SpiderQueen.obtainSpiderQueen(mContext, mGalleryInfo, SpiderQueen.MODE_READ);
+        mSpiderQueen.setDecodeSize(getDecodeWidth(), getDecodeHeight());
         mSpiderQueen.addOnSpiderListener(this);
     }
 
@@ -164,9 +166,12 @@ public class EhGalleryProvider extends GalleryProvider2 implements SpiderQueen.O
     }
 
     @Override
-    public void onPageDownload(int index, long contentLength, long receivedSize, int bytesRead) {
-        if (contentLength > 0) {
-            notifyPagePercent(index, (float) receivedSize / contentLength);
+    public void onDownloadProgress(@NonNull SpiderProgress.Snapshot snapshot) {
+        for (int i = 0, n = snapshot.size(); i < n; i++) {
+            long contentLength = snapshot.getContentLength(i);
+            if (contentLength > 0) {
+                notifyPagePercent(snapshot.getIndex(i), (float) snapshot.getReceivedSize(i) / contentLength);
+            }
         }
     }
 
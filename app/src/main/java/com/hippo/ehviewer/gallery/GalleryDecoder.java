@@ -0,0 +1,283 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.gallery;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Process;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.hippo.image.Image;
+import com.hippo.yorozuya.IOUtils;
+import com.hippo.yorozuya.MathUtils;
+import com.hippo.yorozuya.thread.PriorityThreadFactory;
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decodes pages of gallery providers on a thread pool shared by all of them,
+ * so several providers don't multiply decode threads and bitmaps in memory.
+ * <p>
+ * The latest request goes first, it's usually the page on screen.
+ * A queued request can be cancelled, a running one can't.
+ * <p>
+ * A page much larger than the target size is subsampled, see
+ * {@link #decode(InputStream, int, int)}.
+ */
+public class GalleryDecoder {
+
+    // A large page takes tens of megabytes while decoding,
+    // so the pool is bounded by heap size as well as processors
+    private static final int THREAD_NUM = MathUtils.clamp(Math.min(
+            Runtime.getRuntime().availableProcessors() / 2,
+            (int) (Runtime.getRuntime().maxMemory() / (64 * 1024 * 1024))), 1, 3);
+
+    // Image headers are read again after getting the bounds
+    private static final int BOUNDS_MARK_LIMIT = 1024 * 1024;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final ThreadPoolExecutor sExecutor;
+    private static final AtomicLong sSequence = new AtomicLong();
+
+    static {
+        sExecutor = new ThreadPoolExecutor(THREAD_NUM, THREAD_NUM, 10, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(),
+                new PriorityThreadFactory("GalleryDecoder", Process.THREAD_PRIORITY_DEFAULT));
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public interface Task {
+
+        /**
+         * Decodes the page and notifies the result. Called on decode threads.
+         *
+         * @param targetWidth the target width, 0 for full size
+         * @param targetHeight the target height, 0 for full size
+         */
+        void decode(int index, int targetWidth, int targetHeight);
+    }
+
+    private final Task mTask;
+    // Queued and running requests, guarded by itself
+    private final Map<Integer, Request> mRequests = new HashMap<>();
+    private boolean mReleased;
+
+    public GalleryDecoder(@NonNull Task task) {
+        mTask = task;
+    }
+
+    /**
+     * Puts the page at the head of the queue.
+     *
+     * @param targetWidth the target width, 0 for full size
+     * @param targetHeight the target height, 0 for full size
+     * @return {@code false} if the page is decoding or the decoder is released
+     */
+    public boolean request(int index, int targetWidth, int targetHeight) {
+        Request request;
+        synchronized (mRequests) {
+            if (mReleased) {
+                return false;
+            }
+            Request old = mRequests.get(index);
+            if (old != null) {
+                if (old.mRunning) {
+                    return false;
+                }
+                // Requested again, move it to the head
+                sExecutor.remove(old);
+            }
+            request = new Request(index, targetWidth, targetHeight);
+            mRequests.put(index, request);
+        }
+        sExecutor.execute(request);
+        return true;
+    }
+
+    /**
+     * @return {@code true} if the page was queued and is cancelled
+     */
+    public boolean cancel(int index) {
+        Request request;
+        synchronized (mRequests) {
+            request = mRequests.get(index);
+            if (request == null || request.mRunning) {
+                return false;
+            }
+            mRequests.remove(index);
+        }
+        sExecutor.remove(request);
+        return true;
+    }
+
+    /**
+     * Returns {@code true} if the page is queued or decoding.
+     */
+    public boolean contains(int index) {
+        synchronized (mRequests) {
+            return mRequests.containsKey(index);
+        }
+    }
+
+    /**
+     * Cancels all queued requests and ignores new ones.
+     */
+    public void release() {
+        synchronized (mRequests) {
+            mReleased = true;
+            for (Request request : mRequests.values()) {
+                sExecutor.remove(request);
+            }
+            mRequests.clear();
+        }
+    }
+
+    /**
+     * Returns the largest power of 2 sample size which keeps both sides
+     * not smaller than the target, 1 if any size is unknown.
+     */
+    static int getSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        if (width <= 0 || height <= 0 || targetWidth <= 0 || targetHeight <= 0) {
+            return 1;
+        }
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Decodes the image. If it's at least twice as large as the target size,
+     * it's subsampled with {@link BitmapFactory}, so the full size bitmap is
+     * never in memory. Animated images are always decoded at full size.
+     *
+     * @param targetWidth the target width, 0 for full size
+     * @param targetHeight the target height, 0 for full size
+     * @return null if it can't be decoded
+     */
+    @Nullable
+    public static Image decode(@NonNull InputStream is, int targetWidth, int targetHeight)
+            throws IOException {
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return Image.decode(is, true);
+        }
+
+        if (!is.markSupported()) {
+            is = new BufferedInputStream(is, BUFFER_SIZE);
+        }
+        is.mark(BOUNDS_MARK_LIMIT);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        // BitmapFactory marks a markable stream itself, hide the mark from it
+        BitmapFactory.decodeStream(new UnmarkableInputStream(is), null, options);
+        is.reset();
+
+        int sampleSize = getSampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight);
+        if (sampleSize <= 1 || "image/gif".equals(options.outMimeType)) {
+            return Image.decode(is, true);
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeStream(is, null, options);
+        } catch (OutOfMemoryError e) {
+            return null;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+        if (bitmap == null) {
+            return null;
+        }
+        try {
+            return Image.create(bitmap);
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    private static class UnmarkableInputStream extends FilterInputStream {
+
+        UnmarkableInputStream(InputStream is) {
+            super(is);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+            // The stream is read again
+        }
+    }
+
+    private class Request implements Runnable, Comparable<Request> {
+
+        private final int mIndex;
+        private final int mTargetWidth;
+        private final int mTargetHeight;
+        private final long mSequence = sSequence.incrementAndGet();
+        // Guarded by mRequests
+        private boolean mRunning;
+
+        Request(int index, int targetWidth, int targetHeight) {
+            mIndex = index;
+            mTargetWidth = targetWidth;
+            mTargetHeight = targetHeight;
+        }
+
+        @Override
+        public void run() {
+            synchronized (mRequests) {
+                if (mRequests.get(mIndex) != this) {
+                    // Cancelled
+                    return;
+                }
+                mRunning = true;
+            }
+
+            try {
+                mTask.decode(mIndex, mTargetWidth, mTargetHeight);
+            } finally {
+                synchronized (mRequests) {
+                    if (mRequests.get(mIndex) == this) {
+                        mRequests.remove(mIndex);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(@NonNull Request another) {
+            // The latest first
+            return mSequence > another.mSequence ? -1 : (mSequence < another.mSequence ? 1 : 0);
+        }
+    }
+}
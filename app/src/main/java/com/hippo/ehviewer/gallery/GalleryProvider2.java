@@ -31,6 +31,32 @@ public abstract class GalleryProvider2 extends GalleryProvider {
             ".gif", // Graphics Interchange Format
     };
 
+    private volatile int mDecodeWidth;
+    private volatile int mDecodeHeight;
+
+    /**
+     * Pages at least twice as large as the size are subsampled when decoding.
+     * Set it before {@link #start()}.
+     */
+    public void setDecodeSize(int width, int height) {
+        mDecodeWidth = width;
+        mDecodeHeight = height;
+    }
+
+    /**
+     * @return 0 for full size
+     */
+    public int getDecodeWidth() {
+        return mDecodeWidth;
+    }
+
+    /**
+     * @return 0 for full size
+     */
+    public int getDecodeHeight() {
+        return mDecodeHeight;
+    }
+
     public int getStartPage() {
         return 0;
     }
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.gallery;
+
+import androidx.annotation.NonNull;
+import com.hippo.yorozuya.ConcurrentPool;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A pipe for one writer thread and one reader thread. The ring buffer is
+ * taken from a pool and returned when both sides are closed. Positions are
+ * published with volatile writes, a side only parks when the buffer is
+ * empty or full.
+ */
+class PooledPipe {
+
+  // Must be power of 2
+  private static final int BUFFER_SIZE = 256 * 1024;
+  private static final ConcurrentPool<byte[]> sBufferPool = new ConcurrentPool<>(4);
+
+  private final byte[] buffer;
+  private final int mask;
+
+  // Total bytes read and written, only updated by its own side
+  private volatile long readPosition = 0;
+  private volatile long writePosition = 0;
+
+  private volatile boolean inClosed = false;
+  private volatile boolean outClosed = false;
+  private final AtomicInteger closedCount = new AtomicInteger();
+
+  // The thread parked for data or space
+  private volatile Thread waitingReader;
+  private volatile Thread waitingWriter;
+
+  private final InputStream inputStream = new InputStream() {
+
+    private final byte[] singleByte = new byte[1];
+
+    @Override
+    public int read() throws IOException {
+      if (read(singleByte, 0, 1) != -1) {
+        return singleByte[0] & 0xff;
+      } else {
+        return -1;
+      }
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+
+      for (;;) {
+        if (inClosed) {
+          throw new IOException("The InputStream is closed");
+        }
+
+        long read = readPosition;
+        int available = (int) (writePosition - read);
+        if (available > 0) {
+          int n = Math.min(len, available);
+          int start = (int) (read & mask);
+          int first = Math.min(n, buffer.length - start);
+          System.arraycopy(buffer, start, b, off, first);
+          if (n > first) {
+            System.arraycopy(buffer, 0, b, off + first, n - first);
+          }
+          readPosition = read + n;
+          unpark(waitingWriter);
+          return n;
+        }
+
+        if (outClosed) {
+          if (writePosition == read) {
+            // No bytes available and the OutputStream is closed. So it's the end.
+            return -1;
+          } else {
+            continue;
+          }
+        }
+
+        // Wait for OutputStream write bytes
+        waitingReader = Thread.currentThread();
+        if (writePosition == read && !outClosed && !inClosed) {
+          LockSupport.park(PooledPipe.this);
+        }
+        waitingReader = null;
+        if (Thread.currentThread().isInterrupted()) {
+          throw new InterruptedIOException("The thread interrupted");
+        }
+      }
+    }
+
+    @Override
+    public int available() {
+      return inClosed ? 0 : (int) (writePosition - readPosition);
+    }
+
+    @Override
+    public void close() {
+      if (!inClosed) {
+        inClosed = true;
+        unpark(waitingWriter);
+        onClosed();
+      }
+    }
+  };
+
+  private final OutputStream outputStream = new OutputStream() {
+
+    private final byte[] singleByte = new byte[1];
+
+    @Override
+    public void write(int b) throws IOException {
+      singleByte[0] = (byte) b;
+      write(singleByte, 0, 1);
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+      while (len != 0) {
+        if (outClosed) {
+          throw new IOException("The OutputStream is closed");
+        }
+        if (inClosed) {
+          throw new IOException("The InputStream is closed");
+        }
+
+        long write = writePosition;
+        int space = buffer.length - (int) (write - readPosition);
+        if (space > 0) {
+          int n = Math.min(len, space);
+          int start = (int) (write & mask);
+          int first = Math.min(n, buffer.length - start);
+          System.arraycopy(b, off, buffer, start, first);
+          if (n > first) {
+            System.arraycopy(b, off + first, buffer, 0, n - first);
+          }
+          off += n;
+          len -= n;
+          writePosition = write + n;
+          unpark(waitingReader);
+          continue;
+        }
+
+        // The buffer is full, wait for InputStream read bytes
+        waitingWriter = Thread.currentThread();
+        if (buffer.length == (int) (write - readPosition) && !inClosed) {
+          LockSupport.park(PooledPipe.this);
+        }
+        waitingWriter = null;
+        if (Thread.currentThread().isInterrupted()) {
+          throw new InterruptedIOException("The thread interrupted");
+        }
+      }
+    }
+
+    @Override
+    public void close() {
+      if (!outClosed) {
+        outClosed = true;
+        unpark(waitingReader);
+        onClosed();
+      }
+    }
+  };
+
+  PooledPipe() {
+    byte[] buffer = sBufferPool.pop();
+    if (buffer == null) {
+      buffer = new byte[BUFFER_SIZE];
+    }
+    this.buffer = buffer;
+    this.mask = buffer.length - 1;
+  }
+
+  private static void unpark(Thread thread) {
+    if (thread != null) {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  private void onClosed() {
+    // Both sides are closed, nobody touches the buffer now
+    if (closedCount.incrementAndGet() == 2) {
+      sBufferPool.push(buffer);
+    }
+  }
+
+  InputStream getInputStream() {
+    return inputStream;
+  }
+
+  OutputStream getOutputStream() {
+    return outputStream;
+  }
+}
@@ -18,6 +18,7 @@ package com.hippo.ehviewer.spider;
 
 import android.content.Context;
 import android.graphics.BitmapFactory;
+import android.util.SparseArray;
 import android.webkit.MimeTypeMap;
 import androidx.annotation.Nullable;
 import com.hippo.beerbelly.SimpleDiskCache;
@@ -38,8 +39,12 @@ import com.hippo.yorozuya.IOUtils;
 import com.hippo.yorozuya.MathUtils;
 import com.hippo.yorozuya.Utilities;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.util.Locale;
 
 public final class SpiderDen {
@@ -48,6 +53,10 @@ public final class SpiderDen {
     private final UniFile mDownloadDir;
     private volatile int mMode = SpiderQueen.MODE_READ;
     private final long mGid;
+    // Image files in download dir, page index to file. The dir is listed once,
+    // then it's updated when files are created or deleted. Guarded by this.
+    @Nullable
+    private SparseArray<UniFile> mDownloadFiles;
 
     @Nullable
     private static SimpleDiskCache sCache;
@@ -165,26 +174,96 @@ public final class SpiderDen {
         return String.format(Locale.US, "%08d%s", index + 1, extension);
     }
 
+    /**
+     * Returns the order of the extension in {@link GalleryProvider2#SUPPORT_IMAGE_EXTENSIONS},
+     * or -1 if it's not an image filename generated by {@link #generateImageFilename(int, String)}.
+     */
+    private static int getImageFilenameExtensionOrder(String filename) {
+        if (filename == null || filename.length() <= 8) {
+            return -1;
+        }
+        for (int i = 0; i < 8; i++) {
+            char c = filename.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+        }
+        String extension = filename.substring(8);
+        String[] extensions = GalleryProvider2.SUPPORT_IMAGE_EXTENSIONS;
+        for (int i = 0; i < extensions.length; i++) {
+            if (extensions[i].equals(extension)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static SparseArray<UniFile> listImageFiles(UniFile dir) {
+        SparseArray<UniFile> result = new SparseArray<>();
+        UniFile[] files = dir.listFiles();
+        if (files == null) {
+            return result;
+        }
+
+        // Same index with many extensions, take the first extension like findFile() one by one
+        SparseArray<Integer> orders = new SparseArray<>();
+        for (UniFile file : files) {
+            String filename = file.getName();
+            int order = getImageFilenameExtensionOrder(filename);
+            if (order < 0) {
+                continue;
+            }
+            int index = Integer.parseInt(filename.substring(0, 8)) - 1;
+            if (index < 0) {
+                continue;
+            }
+            Integer oldOrder = orders.get(index);
+            if (oldOrder == null || order < oldOrder) {
+                orders.put(index, order);
+                result.put(index, file);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns null if download dir is not available.
+     */
     @Nullable
-    private static UniFile findImageFile(UniFile dir, int index) {
-        for (String extension : GalleryProvider2.SUPPORT_IMAGE_EXTENSIONS) {
-            String filename = generateImageFilename(index, extension);
-            UniFile file = dir.findFile(filename);
-            if (file != null) {
-                return file;
+    private synchronized SparseArray<UniFile> getDownloadFiles() {
+        if (mDownloadFiles == null) {
+            UniFile dir = getDownloadDir();
+            if (dir == null) {
+                return null;
             }
+            mDownloadFiles = listImageFiles(dir);
         }
-        return null;
+        return mDownloadFiles;
     }
 
-    private boolean containInDownloadDir(int index) {
-        UniFile dir = getDownloadDir();
-        if (dir == null) {
-            return false;
+    @Nullable
+    synchronized UniFile findImageFile(int index) {
+        SparseArray<UniFile> files = getDownloadFiles();
+        return files != null ? files.get(index) : null;
+    }
+
+    @Nullable
+    private UniFile createImageFile(UniFile dir, int index, String extension) {
+        UniFile file = dir.createFile(generateImageFilename(index, extension));
+        if (file != null) {
+            synchronized (this) {
+                SparseArray<UniFile> files = getDownloadFiles();
+                if (files != null) {
+                    files.put(index, file);
+                }
+            }
         }
+        return file;
+    }
 
+    private boolean containInDownloadDir(int index) {
         // Find image file in download dir
-        return findImageFile(dir, index) != null;
+        return findImageFile(index) != null;
     }
 
     /**
@@ -198,6 +277,100 @@ public final class SpiderDen {
         }
     }
 
+    /**
+     * Returns the extension of the image in cache, with dot,
+     * or null if it's not recorded.
+     */
+    @Nullable
+    private String readCacheExtension(int index) {
+        if (sCache == null) {
+            return null;
+        }
+
+        String key = EhCacheKeyFactory.getImageTypeKey(mGid, index);
+        InputStreamPipe pipe = sCache.getInputStreamPipe(key);
+        if (pipe == null) {
+            return null;
+        }
+        try {
+            pipe.obtain();
+            String extension = IOUtils.readAsciiLine(pipe.open());
+            return Utilities.contain(GalleryProvider2.SUPPORT_IMAGE_EXTENSIONS, extension) ? extension : null;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            pipe.close();
+            pipe.release();
+        }
+    }
+
+    /**
+     * @param extension with dot
+     */
+    private void writeCacheExtension(int index, String extension) {
+        if (sCache == null) {
+            return;
+        }
+
+        String key = EhCacheKeyFactory.getImageTypeKey(mGid, index);
+        OutputStreamPipe pipe = sCache.getOutputStreamPipe(key);
+        try {
+            pipe.obtain();
+            OutputStream os = pipe.open();
+            os.write((extension + '\n').getBytes("US-ASCII"));
+            os.flush();
+        } catch (IOException e) {
+            // Ignore
+        } finally {
+            pipe.close();
+            pipe.release();
+        }
+    }
+
+    /**
+     * Gets the extension from the image header, for images cached
+     * before the extension is recorded.
+     *
+     * @return the extension with dot, null for unknown
+     */
+    @Nullable
+    private static String decodeExtension(InputStreamPipe pipe) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try {
+            BitmapFactory.decodeStream(pipe.open(), null, options);
+        } finally {
+            pipe.close();
+        }
+        String extension = MimeTypeMap.getSingleton().getExtensionFromMimeType(options.outMimeType);
+        return extension != null ? '.' + extension : null;
+    }
+
+    /**
+     * Copies with channel transfer if both sides are local files.
+     */
+    private static void copy(InputStream is, OutputStream os) throws IOException {
+        if (is instanceof FileInputStream && os instanceof FileOutputStream) {
+            FileChannel in = ((FileInputStream) is).getChannel();
+            FileChannel out = ((FileOutputStream) os).getChannel();
+            long position = in.position();
+            long size = in.size();
+            while (position < size) {
+                long count = in.transferTo(position, size - position, out);
+                if (count <= 0) {
+                    // Copy the rest with streams
+                    in.position(position);
+                    break;
+                }
+                position += count;
+            }
+            if (position >= size) {
+                return;
+            }
+        }
+        IOUtils.copy(is, os);
+    }
+
     private boolean copyFromCacheToDownloadDir(int index) {
         if (sCache == null) {
             return false;
@@ -213,32 +386,35 @@ public final class SpiderDen {
             return false;
         }
 
+        UniFile file = null;
         OutputStream os = null;
         try {
-            // Get extension
-            String extension;
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inJustDecodeBounds = true;
             pipe.obtain();
-            BitmapFactory.decodeStream(pipe.open(), null, options);
-            pipe.close();
-            extension = MimeTypeMap.getSingleton().getExtensionFromMimeType(options.outMimeType);
-            if (extension != null) {
-                extension = '.' + extension;
-            } else {
-                return false;
+            // Get extension, recorded when the image is cached
+            String extension = readCacheExtension(index);
+            if (extension == null) {
+                extension = decodeExtension(pipe);
+                if (extension == null) {
+                    return false;
+                }
             }
             // Fix extension
             extension = fixExtension(extension);
             // Copy from cache to download dir
-            UniFile file = dir.createFile(generateImageFilename(index, extension));
+            file = createImageFile(dir, index, extension);
             if (file == null) {
                 return false;
             }
             os = file.openOutputStream();
-            IOUtils.copy(pipe.open(), os);
+            copy(pipe.open(), os);
             return true;
         } catch (IOException e) {
+            IOUtils.closeQuietly(os);
+            os = null;
+            if (file != null) {
+                // Don't leave a broken image
+                removeFromDownloadDir(index);
+            }
             return false;
         } finally {
             IOUtils.closeQuietly(os);
@@ -263,15 +439,21 @@ public final class SpiderDen {
         }
 
         String key = EhCacheKeyFactory.getImageKey(mGid, index);
+        sCache.remove(EhCacheKeyFactory.getImageTypeKey(mGid, index));
         return sCache.remove(key);
     }
 
-    private boolean removeFromDownloadDir(int index) {
+    private synchronized boolean removeFromDownloadDir(int index) {
         UniFile dir = getDownloadDir();
         if (dir == null) {
             return false;
         }
 
+        if (mDownloadFiles != null) {
+            mDownloadFiles.remove(index);
+        }
+
+        // The image may be saved with many extensions, remove all of them
         boolean result = false;
         for (int i = 0, n = GalleryProvider2.SUPPORT_IMAGE_EXTENSIONS.length; i < n; i++) {
             String filename = generateImageFilename(index, GalleryProvider2.SUPPORT_IMAGE_EXTENSIONS[i]);
@@ -289,18 +471,31 @@ public final class SpiderDen {
         return result;
     }
 
+    /**
+     * @param extension without dot, null if unknown
+     */
     @Nullable
-    private OutputStreamPipe openCacheOutputStreamPipe(int index) {
+    private OutputStreamPipe openCacheOutputStreamPipe(int index, @Nullable String extension) {
         if (sCache == null) {
             return null;
         }
 
+        // Record the extension, so the image can be copied to download dir without decoding.
+        // It's removed with the image if the image is broken.
+        String dotExtension = extension != null ? '.' + extension : null;
+        if (Utilities.contain(GalleryProvider2.SUPPORT_IMAGE_EXTENSIONS, dotExtension)) {
+            writeCacheExtension(index, dotExtension);
+        } else {
+            // Unknown, decode the image to get it when it's copied
+            sCache.remove(EhCacheKeyFactory.getImageTypeKey(mGid, index));
+        }
+
         String key = EhCacheKeyFactory.getImageKey(mGid, index);
         return sCache.getOutputStreamPipe(key);
     }
 
     /**
-     * @param extension without dot
+     * @param extension without dot, null if unknown
      */
     @Nullable
     private OutputStreamPipe openDownloadOutputStreamPipe(int index, @Nullable String extension) {
@@ -309,8 +504,9 @@ public final class SpiderDen {
             return null;
         }
 
-        extension = fixExtension('.' + extension);
-        UniFile file = dir.createFile(generateImageFilename(index, extension));
+        // Unknown type is saved with the first extension
+        extension = extension != null ? fixExtension('.' + extension) : GalleryProvider2.SUPPORT_IMAGE_EXTENSIONS[0];
+        UniFile file = createImageFile(dir, index, extension);
         if (file != null) {
             return new UniFileOutputStreamPipe(file);
         } else {
@@ -318,13 +514,16 @@ public final class SpiderDen {
         }
     }
 
+    /**
+     * @param extension without dot, null if unknown
+     */
     @Nullable
     public OutputStreamPipe openOutputStreamPipe(int index, @Nullable String extension) {
         if (mMode == SpiderQueen.MODE_READ) {
             // Return the download pipe is the gallery has been downloaded
             OutputStreamPipe pipe = openDownloadOutputStreamPipe(index, extension);
             if (pipe == null) {
-                pipe = openCacheOutputStreamPipe(index);
+                pipe = openCacheOutputStreamPipe(index, extension);
             }
             return pipe;
         } else if (mMode == SpiderQueen.MODE_DOWNLOAD) {
@@ -347,13 +546,8 @@ public final class SpiderDen {
 
     @Nullable
     public InputStreamPipe openDownloadInputStreamPipe(int index) {
-        UniFile dir = getDownloadDir();
-        if (dir == null) {
-            return null;
-        }
-
         for (int i = 0; i < 2; i++) {
-            UniFile file = findImageFile(dir, index);
+            UniFile file = findImageFile(index);
             if (file != null) {
                 return new UniFileInputStreamPipe(file);
             } else if (!copyFromCacheToDownloadDir(index)) {
@@ -22,13 +22,23 @@ import android.util.SparseArray;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.hippo.unifile.UniFile;
+import com.hippo.unifile.UniRandomAccessFile;
 import com.hippo.yorozuya.IOUtils;
+import com.hippo.yorozuya.MathUtils;
 import com.hippo.yorozuya.NumberUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
+/**
+ * Spider info is stored in a binary format: a fixed size header, then
+ * a fixed size pToken slot for each page, so a new pToken can be
+ * written in place. Text format of version 1 and 2 can still be read.
+ */
 public class SpiderInfo {
 
     private static final String TAG = SpiderInfo.class.getSimpleName();
@@ -36,6 +46,24 @@ public class SpiderInfo {
     private static final String VERSION_STR = "VERSION";
     private static final int VERSION = 2;
 
+    private static final int BINARY_MAGIC = 0x45485349; // EHSI
+    private static final int BINARY_VERSION = 3;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_START_PAGE = 8;
+    private static final int OFFSET_GID = 12;
+    private static final int OFFSET_PREVIEW_PAGES = 20;
+    private static final int OFFSET_PREVIEW_PER_PAGE = 24;
+    private static final int OFFSET_PAGES = 28;
+    private static final int OFFSET_TOKEN = 32;
+    private static final int TOKEN_SIZE = 32;
+    private static final int HEADER_SIZE = OFFSET_TOKEN + TOKEN_SIZE;
+    // One byte for length, the rest for pToken
+    private static final int PTOKEN_SLOT_SIZE = 16;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
     static final String TOKEN_FAILED = "failed";
 
     public int startPage = 0;
@@ -93,12 +121,84 @@ public class SpiderInfo {
     }
 
     @Nullable
-    @SuppressWarnings("InfiniteLoopStatement")
     public static SpiderInfo read(@Nullable InputStream is) {
         if (null == is) {
             return null;
         }
 
+        byte[] data;
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            IOUtils.copy(is, os);
+            data = os.toByteArray();
+        } catch (IOException e) {
+            return null;
+        }
+
+        if (isBinary(data)) {
+            return readBinary(data);
+        } else {
+            return readText(new ByteArrayInputStream(data));
+        }
+    }
+
+    private static boolean isBinary(byte[] data) {
+        return data.length >= HEADER_SIZE && ByteBuffer.wrap(data).getInt(OFFSET_MAGIC) == BINARY_MAGIC;
+    }
+
+    @Nullable
+    private static String getString(byte[] data, int offset, int size) {
+        int length = data[offset] & 0xff;
+        if (length == 0 || length >= size) {
+            return null;
+        }
+        return new String(data, offset + 1, length, ASCII);
+    }
+
+    private static void putString(byte[] data, int offset, int size, @Nullable String str) {
+        byte[] bytes = str != null ? str.getBytes(ASCII) : null;
+        if (bytes == null || bytes.length >= size) {
+            // Leave it empty
+            data[offset] = 0;
+        } else {
+            data[offset] = (byte) bytes.length;
+            System.arraycopy(bytes, 0, data, offset + 1, bytes.length);
+        }
+    }
+
+    @Nullable
+    private static SpiderInfo readBinary(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.getInt(OFFSET_VERSION) != BINARY_VERSION) {
+            // Invalid version
+            return null;
+        }
+
+        SpiderInfo spiderInfo = new SpiderInfo();
+        spiderInfo.startPage = Math.max(buffer.getInt(OFFSET_START_PAGE), 0);
+        spiderInfo.gid = buffer.getLong(OFFSET_GID);
+        spiderInfo.previewPages = buffer.getInt(OFFSET_PREVIEW_PAGES);
+        spiderInfo.previewPerPage = buffer.getInt(OFFSET_PREVIEW_PER_PAGE);
+        spiderInfo.pages = buffer.getInt(OFFSET_PAGES);
+        spiderInfo.token = getString(data, OFFSET_TOKEN, TOKEN_SIZE);
+        if (spiderInfo.pages <= 0 || spiderInfo.token == null) {
+            return null;
+        }
+
+        spiderInfo.pTokenMap = new SparseArray<>(spiderInfo.pages);
+        for (int i = 0, n = Math.min(spiderInfo.pages, (data.length - HEADER_SIZE) / PTOKEN_SLOT_SIZE); i < n; i++) {
+            String pToken = getString(data, HEADER_SIZE + i * PTOKEN_SLOT_SIZE, PTOKEN_SLOT_SIZE);
+            if (pToken != null) {
+                spiderInfo.pTokenMap.append(i, pToken);
+            }
+        }
+
+        return spiderInfo;
+    }
+
+    @Nullable
+    @SuppressWarnings("InfiniteLoopStatement")
+    private static SpiderInfo readText(@NonNull InputStream is) {
         SpiderInfo spiderInfo = null;
         try {
             spiderInfo = new SpiderInfo();
@@ -164,44 +264,114 @@ public class SpiderInfo {
         }
     }
 
+    private void putHeader(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.putInt(OFFSET_MAGIC, BINARY_MAGIC);
+        buffer.putInt(OFFSET_VERSION, BINARY_VERSION);
+        buffer.putInt(OFFSET_START_PAGE, startPage >= 0 ? startPage : 0); // Avoid negative
+        buffer.putLong(OFFSET_GID, gid);
+        buffer.putInt(OFFSET_PREVIEW_PAGES, previewPages);
+        buffer.putInt(OFFSET_PREVIEW_PER_PAGE, previewPerPage);
+        buffer.putInt(OFFSET_PAGES, pages);
+        putString(data, OFFSET_TOKEN, TOKEN_SIZE, token);
+    }
+
+    /**
+     * Put pToken slots in [start, end) to data, from offset.
+     */
+    private void putPTokens(byte[] data, int offset, int start, int end) {
+        for (int i = start; i < end; i++) {
+            String pToken = pTokenMap.get(i);
+            if (TOKEN_FAILED.equals(pToken)) {
+                pToken = null;
+            }
+            putString(data, offset + (i - start) * PTOKEN_SLOT_SIZE, PTOKEN_SLOT_SIZE, pToken);
+        }
+    }
+
     public void write(@NonNull OutputStream os) {
-        OutputStreamWriter writer = null;
         try {
-            writer = new OutputStreamWriter(os);
-            writer.write(VERSION_STR);
-            writer.write(Integer.toString(VERSION));
-            writer.write("\n");
-            writer.write(String.format("%08x", startPage >= 0 ? startPage : 0)); // Avoid negative
-            writer.write("\n");
-            writer.write(Long.toString(gid));
-            writer.write("\n");
-            writer.write(token);
-            writer.write("\n");
-            writer.write("1");
-            writer.write("\n");
-            writer.write(Integer.toString(previewPages));
-            writer.write("\n");
-            writer.write(Integer.toString(previewPerPage));
-            writer.write("\n");
-            writer.write(Integer.toString(pages));
-            writer.write("\n");
-            for (int i = 0; i < pTokenMap.size(); i++) {
-                Integer key = pTokenMap.keyAt(i);
-                String value = pTokenMap.valueAt(i);
-                if (TOKEN_FAILED.equals(value) || TextUtils.isEmpty(value)) {
-                    continue;
-                }
-                writer.write(Integer.toString(key));
-                writer.write(" ");
-                writer.write(value);
-                writer.write("\n");
-            }
-            writer.flush();
+            int slots = Math.max(pages, 0);
+            byte[] data = new byte[HEADER_SIZE + slots * PTOKEN_SLOT_SIZE];
+            putHeader(data);
+            putPTokens(data, HEADER_SIZE, 0, slots);
+            os.write(data);
+            os.flush();
         } catch (IOException e) {
             // Ignore
         } finally {
-            IOUtils.closeQuietly(writer);
             IOUtils.closeQuietly(os);
         }
     }
+
+    private static boolean readFully(UniRandomAccessFile file, byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int read = file.read(buffer, offset, buffer.length - offset);
+            if (read < 0) {
+                return false;
+            }
+            offset += read;
+        }
+        return true;
+    }
+
+    /**
+     * Write the header and pToken slots in [start, end) to the file in place.
+     *
+     * @return {@code false} if the file isn't a binary spider info file
+     * of this gallery, write the whole spider info instead
+     */
+    public boolean update(@Nullable UniFile file, int start, int end) {
+        if (file == null || pTokenMap == null || pages <= 0) {
+            return false;
+        }
+
+        UniRandomAccessFile raf = null;
+        try {
+            raf = file.createRandomAccessFile("rw");
+            if (raf.length() != HEADER_SIZE + (long) pages * PTOKEN_SLOT_SIZE) {
+                return false;
+            }
+
+            // Check header
+            byte[] header = new byte[HEADER_SIZE];
+            if (!readFully(raf, header)) {
+                return false;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(header);
+            if (buffer.getInt(OFFSET_MAGIC) != BINARY_MAGIC ||
+                    buffer.getInt(OFFSET_VERSION) != BINARY_VERSION ||
+                    buffer.getLong(OFFSET_GID) != gid ||
+                    buffer.getInt(OFFSET_PAGES) != pages) {
+                return false;
+            }
+
+            // Write header
+            putHeader(header);
+            raf.seek(0);
+            raf.write(header, 0, HEADER_SIZE);
+
+            // Write pToken slots
+            start = MathUtils.clamp(start, 0, pages);
+            end = MathUtils.clamp(end, start, pages);
+            if (start < end) {
+                byte[] data = new byte[(end - start) * PTOKEN_SLOT_SIZE];
+                putPTokens(data, 0, start, end);
+                raf.seek(HEADER_SIZE + (long) start * PTOKEN_SLOT_SIZE);
+                raf.write(data, 0, data.length);
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
 }
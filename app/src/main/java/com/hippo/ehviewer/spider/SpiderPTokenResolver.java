@@ -0,0 +1,257 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import android.os.Process;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.hippo.yorozuya.thread.PriorityThreadFactory;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves pTokens by fetching several preview pages at the same time.
+ * Preview pages requested by workers are fetched first, then the preview
+ * pages ahead of the read position in the read direction.
+ * <p>
+ * All states are guarded by the pToken lock, which also guards
+ * {@link SpiderInfo#pTokenMap}.
+ */
+final class SpiderPTokenResolver {
+
+    interface PreviewFetcher {
+
+        /**
+         * Fetch the preview page and put the pTokens to spider info.
+         * Called on resolver threads.
+         */
+        void fetchPreviewPage(int previewIndex);
+    }
+
+    private static final int THREAD_NUM = 3;
+    // Preview pages to fetch ahead of the read position
+    private static final int PREFETCH_PREVIEW_PAGES = 2;
+    // Preview size may changed, so try to get pToken twice
+    private static final int MAX_ATTEMPTS = 2;
+
+    @NonNull
+    private final SpiderInfo mSpiderInfo;
+    @NonNull
+    private final Object mLock;
+    @NonNull
+    private final PreviewFetcher mFetcher;
+    private final ThreadPoolExecutor mExecutor;
+
+    private final LinkedList<Integer> mRequestQueue = new LinkedList<>();
+    private final LinkedList<Integer> mPrefetchQueue = new LinkedList<>();
+    // Preview pages in queues or being fetched
+    private final Set<Integer> mFetchingSet = new HashSet<>();
+    // Preview pages fetched for prefetch, never prefetch them again
+    private final Set<Integer> mPrefetchedSet = new HashSet<>();
+
+    private int mReadIndex = -1;
+    private int mReadDirection = 1;
+    private boolean mShutdown;
+
+    private final Runnable mFetchTask = new Runnable() {
+        @Override
+        public void run() {
+            Integer previewIndex;
+            synchronized (mLock) {
+                previewIndex = mRequestQueue.poll();
+                if (previewIndex == null) {
+                    previewIndex = mPrefetchQueue.poll();
+                }
+            }
+            if (previewIndex == null) {
+                return;
+            }
+
+            try {
+                mFetcher.fetchPreviewPage(previewIndex);
+            } finally {
+                synchronized (mLock) {
+                    mFetchingSet.remove(previewIndex);
+                    mLock.notifyAll();
+                }
+            }
+        }
+    };
+
+    SpiderPTokenResolver(@NonNull SpiderInfo spiderInfo, @NonNull Object lock,
+            @NonNull PreviewFetcher fetcher) {
+        mSpiderInfo = spiderInfo;
+        mLock = lock;
+        mFetcher = fetcher;
+        mExecutor = new ThreadPoolExecutor(THREAD_NUM, THREAD_NUM,
+                0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new PriorityThreadFactory(SpiderPTokenResolver.class.getSimpleName(),
+                        Process.THREAD_PRIORITY_BACKGROUND));
+    }
+
+    /**
+     * Update read position, and prefetch preview pages ahead of it.
+     */
+    public void onRead(int index) {
+        synchronized (mLock) {
+            if (mShutdown) {
+                return;
+            }
+            if (mReadIndex >= 0 && index != mReadIndex) {
+                mReadDirection = index > mReadIndex ? 1 : -1;
+            }
+            mReadIndex = index;
+
+            // Read position changed, old prefetch is useless
+            for (Integer previewIndex : mPrefetchQueue) {
+                mFetchingSet.remove(previewIndex);
+                mPrefetchedSet.remove(previewIndex);
+            }
+            mPrefetchQueue.clear();
+
+            prefetch(index);
+        }
+    }
+
+    /**
+     * Block until the pToken of the page is got.
+     *
+     * @return the pToken, {@link SpiderInfo#TOKEN_FAILED} for failed,
+     * null for interrupted
+     */
+    @Nullable
+    public String getPToken(int index) {
+        int attempts = 0;
+        synchronized (mLock) {
+            for (;;) {
+                String pToken = mSpiderInfo.pTokenMap.get(index);
+                if (pToken != null) {
+                    return pToken;
+                }
+                if (mShutdown) {
+                    return null;
+                }
+
+                int previewIndex = getPreviewIndex(index);
+                if (!mFetchingSet.contains(previewIndex)) {
+                    if (attempts >= MAX_ATTEMPTS) {
+                        mSpiderInfo.pTokenMap.put(index, SpiderInfo.TOKEN_FAILED);
+                        return SpiderInfo.TOKEN_FAILED;
+                    }
+                    attempts++;
+                    request(previewIndex);
+                    if (mShutdown) {
+                        // Rejected by the executor
+                        return null;
+                    }
+                    prefetch(index);
+                } else if (mPrefetchQueue.remove((Integer) previewIndex)) {
+                    // Someone is waiting for it now
+                    mRequestQueue.add(previewIndex);
+                }
+
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop fetching. Pending and later {@link #getPToken(int)} calls
+     * which miss the pToken return null.
+     */
+    public void shutdown() {
+        synchronized (mLock) {
+            mShutdown = true;
+            mExecutor.shutdownNow();
+            mLock.notifyAll();
+        }
+    }
+
+    private int getPreviewIndex(int index) {
+        int previewIndex;
+        if (mSpiderInfo.previewPerPage > 0) {
+            previewIndex = index / mSpiderInfo.previewPerPage;
+        } else {
+            previewIndex = 0;
+        }
+        if (mSpiderInfo.previewPages > 0) {
+            previewIndex = Math.min(previewIndex, mSpiderInfo.previewPages - 1);
+        }
+        return previewIndex;
+    }
+
+    private boolean isPreviewPageResolved(int previewIndex) {
+        int previewPerPage = mSpiderInfo.previewPerPage;
+        for (int i = previewIndex * previewPerPage,
+                n = Math.min(i + previewPerPage, mSpiderInfo.pages); i < n; i++) {
+            if (mSpiderInfo.pTokenMap.get(i) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void request(int previewIndex) {
+        mFetchingSet.add(previewIndex);
+        mRequestQueue.add(previewIndex);
+        execute();
+    }
+
+    private void prefetch(int index) {
+        if (mShutdown) {
+            return;
+        }
+        // Preview layout is unknown
+        if (mSpiderInfo.previewPerPage <= 0 || mSpiderInfo.previewPages <= 0) {
+            return;
+        }
+
+        int previewIndex = getPreviewIndex(index);
+        for (int i = 0; i <= PREFETCH_PREVIEW_PAGES; i++, previewIndex += mReadDirection) {
+            if (previewIndex < 0 || previewIndex >= mSpiderInfo.previewPages) {
+                break;
+            }
+            if (mFetchingSet.contains(previewIndex) || mPrefetchedSet.contains(previewIndex) ||
+                    isPreviewPageResolved(previewIndex)) {
+                continue;
+            }
+            mFetchingSet.add(previewIndex);
+            mPrefetchedSet.add(previewIndex);
+            mPrefetchQueue.add(previewIndex);
+            execute();
+        }
+    }
+
+    private void execute() {
+        try {
+            mExecutor.execute(mFetchTask);
+        } catch (RejectedExecutionException e) {
+            // The executor is shutdown
+            mShutdown = true;
+        }
+    }
+}
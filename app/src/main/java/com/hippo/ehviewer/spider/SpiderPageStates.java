@@ -0,0 +1,395 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import android.os.Process;
+import android.util.SparseArray;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.hippo.ehviewer.gallery.GalleryProvider2;
+import com.hippo.unifile.UniFile;
+import com.hippo.unifile.UniRandomAccessFile;
+import com.hippo.yorozuya.IOUtils;
+import com.hippo.yorozuya.thread.PriorityThreadFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * States of pages in the download dir: finished or failed, with the size
+ * and the extension of finished ones. A download can go on from the missing
+ * pages without checking every page file again.
+ * <p>
+ * The file is a fixed size header, then a fixed size slot for each page,
+ * so a changed page can be written in place. Writes run on a writer thread.
+ */
+public class SpiderPageStates {
+
+    public static final String FILENAME = ".ehviewer_pages";
+
+    public static final int STATE_NONE = 0;
+    public static final int STATE_FINISHED = 1;
+    public static final int STATE_FAILED = 2;
+
+    private static final int MAGIC = 0x45485053; // EHPS
+    private static final int VERSION = 1;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_GID = 8;
+    private static final int OFFSET_PAGES = 16;
+    private static final int HEADER_SIZE = 20;
+
+    // State byte, extension byte, two reserved bytes, size int
+    private static final int SLOT_SIZE = 8;
+    private static final int SLOT_OFFSET_STATE = 0;
+    private static final int SLOT_OFFSET_EXTENSION = 1;
+    private static final int SLOT_OFFSET_SIZE = 4;
+
+    private static final int VERIFY_THREAD_NUM = 4;
+
+    private static final ExecutorService sWriteExecutor = Executors.newSingleThreadExecutor(
+            new PriorityThreadFactory("SpiderPageStates-Writer", Process.THREAD_PRIORITY_BACKGROUND));
+
+    private final long mGid;
+    private final int mPages;
+    private final byte[] mData;
+
+    // The states file, only used on the writer thread after construction
+    @Nullable
+    private UniFile mFile;
+
+    // Guarded by this
+    private int mDirtyStart = Integer.MAX_VALUE;
+    private int mDirtyEnd = 0;
+    private boolean mWriteAll;
+    private boolean mWriteScheduled;
+
+    private SpiderPageStates(long gid, int pages, byte[] data) {
+        mGid = gid;
+        mPages = pages;
+        mData = data;
+    }
+
+    @NonNull
+    public static SpiderPageStates create(long gid, int pages) {
+        byte[] data = new byte[HEADER_SIZE + Math.max(pages, 0) * SLOT_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.putInt(OFFSET_MAGIC, MAGIC);
+        buffer.putInt(OFFSET_VERSION, VERSION);
+        buffer.putLong(OFFSET_GID, gid);
+        buffer.putInt(OFFSET_PAGES, pages);
+        SpiderPageStates states = new SpiderPageStates(gid, pages, data);
+        states.mWriteAll = true;
+        return states;
+    }
+
+    /**
+     * @return null if the file is missing, broken or not for the gallery
+     */
+    @Nullable
+    public static SpiderPageStates read(@Nullable UniFile file, long gid, int pages) {
+        if (file == null || pages <= 0) {
+            return null;
+        }
+
+        byte[] data = new byte[HEADER_SIZE + pages * SLOT_SIZE];
+        InputStream is = null;
+        try {
+            is = file.openInputStream();
+            int offset = 0;
+            while (offset < data.length) {
+                int read = is.read(data, offset, data.length - offset);
+                if (read < 0) {
+                    return null;
+                }
+                offset += read;
+            }
+            if (is.read() >= 0) {
+                // Too long
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.getInt(OFFSET_MAGIC) != MAGIC ||
+                buffer.getInt(OFFSET_VERSION) != VERSION ||
+                buffer.getLong(OFFSET_GID) != gid ||
+                buffer.getInt(OFFSET_PAGES) != pages) {
+            return null;
+        }
+        SpiderPageStates states = new SpiderPageStates(gid, pages, data);
+        states.mFile = file;
+        return states;
+    }
+
+    public long getGid() {
+        return mGid;
+    }
+
+    public int getPages() {
+        return mPages;
+    }
+
+    private static int getExtensionOrder(@Nullable String filename) {
+        if (filename == null) {
+            return -1;
+        }
+        String[] extensions = GalleryProvider2.SUPPORT_IMAGE_EXTENSIONS;
+        for (int i = 0; i < extensions.length; i++) {
+            if (filename.endsWith(extensions[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public synchronized int getState(int index) {
+        if (index < 0 || index >= mPages) {
+            return STATE_NONE;
+        }
+        return mData[HEADER_SIZE + index * SLOT_SIZE + SLOT_OFFSET_STATE];
+    }
+
+    /**
+     * Returns the size of the finished page, -1 for unknown.
+     */
+    public synchronized long getSize(int index) {
+        if (getState(index) != STATE_FINISHED) {
+            return -1;
+        }
+        return ByteBuffer.wrap(mData).getInt(HEADER_SIZE + index * SLOT_SIZE + SLOT_OFFSET_SIZE) & 0xffffffffL;
+    }
+
+    /**
+     * Returns {@code true} if the page is finished and the file has the recorded extension.
+     * The size of the file isn't checked.
+     */
+    public synchronized boolean isFinished(int index, @Nullable UniFile file) {
+        if (file == null || getState(index) != STATE_FINISHED) {
+            return false;
+        }
+        int extension = mData[HEADER_SIZE + index * SLOT_SIZE + SLOT_OFFSET_EXTENSION];
+        return extension == getExtensionOrder(file.getName());
+    }
+
+    private void putSlot(int index, int state, int extension, long size) {
+        if (index < 0 || index >= mPages) {
+            return;
+        }
+        int offset = HEADER_SIZE + index * SLOT_SIZE;
+        mData[offset + SLOT_OFFSET_STATE] = (byte) state;
+        mData[offset + SLOT_OFFSET_EXTENSION] = (byte) extension;
+        ByteBuffer.wrap(mData).putInt(offset + SLOT_OFFSET_SIZE, (int) size);
+        mDirtyStart = Math.min(mDirtyStart, index);
+        mDirtyEnd = Math.max(mDirtyEnd, index + 1);
+    }
+
+    /**
+     * @param file the page file in download dir
+     * @param size the size of the file, -1 to get it from the file
+     */
+    public void setFinished(int index, @NonNull UniFile file, long size) {
+        if (size < 0) {
+            size = file.length();
+        }
+        if (size <= 0 || size > 0xffffffffL) {
+            setState(index, STATE_NONE);
+            return;
+        }
+        int extension = getExtensionOrder(file.getName());
+        synchronized (this) {
+            putSlot(index, STATE_FINISHED, extension, size);
+        }
+    }
+
+    public synchronized void setState(int index, int state) {
+        putSlot(index, state, -1, 0);
+    }
+
+    /**
+     * Writes changed pages to the spider page states file in the dir on the writer thread.
+     */
+    public void save(@NonNull final UniFile dir) {
+        synchronized (this) {
+            if (mWriteScheduled || (!mWriteAll && mDirtyStart >= mDirtyEnd)) {
+                return;
+            }
+            mWriteScheduled = true;
+        }
+        sWriteExecutor.execute(() -> write(dir));
+    }
+
+    private void write(UniFile dir) {
+        byte[] data;
+        int start;
+        int end;
+        boolean writeAll;
+        synchronized (this) {
+            data = mData.clone();
+            start = mDirtyStart;
+            end = mDirtyEnd;
+            writeAll = mWriteAll;
+            mDirtyStart = Integer.MAX_VALUE;
+            mDirtyEnd = 0;
+            mWriteAll = false;
+            mWriteScheduled = false;
+        }
+
+        // Listing the dir for every write is slow on document trees
+        if (!writeAll && start < end && writeInPlace(mFile, data, start, end)) {
+            return;
+        }
+
+        UniFile file = dir.createFile(FILENAME);
+        mFile = file;
+        if (file == null) {
+            return;
+        }
+        OutputStream os = null;
+        try {
+            os = file.openOutputStream();
+            os.write(data);
+            os.flush();
+        } catch (IOException e) {
+            // Ignore
+        } finally {
+            IOUtils.closeQuietly(os);
+        }
+    }
+
+    private boolean writeInPlace(@Nullable UniFile file, byte[] data, int start, int end) {
+        if (file == null) {
+            return false;
+        }
+
+        UniRandomAccessFile raf = null;
+        try {
+            raf = file.createRandomAccessFile("rw");
+            if (raf.length() != data.length) {
+                return false;
+            }
+            int offset = HEADER_SIZE + start * SLOT_SIZE;
+            raf.seek(offset);
+            raf.write(data, offset, (end - start) * SLOT_SIZE);
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks page files in the dir against the states, in parallel. A finished
+     * page whose file is missing or in another size becomes none, and the file
+     * is deleted. A page file with no state is taken as finished. The states are
+     * saved to the dir.
+     * <p>
+     * Call it on a background thread, and not while the gallery is downloading.
+     *
+     * @param executor from {@link #newVerifyExecutor()}, it can be used for many galleries
+     * @return the number of finished pages
+     */
+    public static int verify(@NonNull UniFile dir, @NonNull final SpiderPageStates states,
+            @NonNull ExecutorService executor) {
+        final SparseArray<UniFile> files = SpiderDen.listImageFiles(dir);
+        final int pages = states.mPages;
+
+        List<Future<Integer>> futures = new ArrayList<>(VERIFY_THREAD_NUM);
+        for (int i = 0; i < VERIFY_THREAD_NUM; i++) {
+            final int first = i;
+            // Interleaved, so slow pages at the end don't land on one thread
+            futures.add(executor.submit(() -> {
+                int finished = 0;
+                for (int index = first; index < pages; index += VERIFY_THREAD_NUM) {
+                    if (verifyPage(states, index, files.get(index))) {
+                        finished++;
+                    }
+                }
+                return finished;
+            }));
+        }
+
+        int finished = 0;
+        for (Future<Integer> future : futures) {
+            try {
+                finished += future.get();
+            } catch (InterruptedException e) {
+                for (Future<Integer> f : futures) {
+                    f.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                // Treat the rest as unknown
+            }
+        }
+
+        states.save(dir);
+        return finished;
+    }
+
+    /**
+     * Returns an executor for {@link #verify(UniFile, SpiderPageStates, ExecutorService)}.
+     * Shut it down after all galleries are verified.
+     */
+    @NonNull
+    public static ExecutorService newVerifyExecutor() {
+        return Executors.newFixedThreadPool(VERIFY_THREAD_NUM,
+                new PriorityThreadFactory("SpiderPageStates-Verifier", Process.THREAD_PRIORITY_BACKGROUND));
+    }
+
+    private static boolean verifyPage(SpiderPageStates states, int index, @Nullable UniFile file) {
+        if (file == null) {
+            if (states.getState(index) != STATE_NONE) {
+                states.setState(index, STATE_NONE);
+            }
+            return false;
+        }
+
+        long length = file.length();
+        if (length <= 0 ||
+                (states.getState(index) == STATE_FINISHED &&
+                        (!states.isFinished(index, file) || states.getSize(index) != length))) {
+            // Broken, download it again
+            file.delete();
+            states.setState(index, STATE_NONE);
+            return false;
+        }
+
+        states.setFinished(index, file, length);
+        return true;
+    }
+}
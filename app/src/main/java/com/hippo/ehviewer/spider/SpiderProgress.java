@@ -0,0 +1,194 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import android.util.SparseArray;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
+import com.hippo.yorozuya.SimpleHandler;
+
+/**
+ * Merges download progress of pages. Workers update it as often as they
+ * like, the callback gets one {@link Snapshot} per interval on UI thread.
+ */
+public final class SpiderProgress {
+
+    public interface Callback {
+
+        @UiThread
+        void onProgress(@NonNull Snapshot snapshot);
+    }
+
+    private final long mInterval;
+    @NonNull
+    private final Callback mCallback;
+
+    private final Object mLock = new Object();
+    private final SparseArray<PageProgress> mPages = new SparseArray<>();
+    private long mBytesRead;
+    private boolean mPosted;
+    private boolean mReleased;
+
+    private final Runnable mDeliverTask = new Runnable() {
+        @Override
+        public void run() {
+            Snapshot snapshot;
+            synchronized (mLock) {
+                mPosted = false;
+                if (mReleased) {
+                    return;
+                }
+                snapshot = new Snapshot(mPages, mBytesRead);
+                mBytesRead = 0;
+            }
+            mCallback.onProgress(snapshot);
+        }
+    };
+
+    /**
+     * @param interval the min interval between two snapshots, in ms
+     */
+    public SpiderProgress(long interval, @NonNull Callback callback) {
+        mInterval = interval;
+        mCallback = callback;
+    }
+
+    /**
+     * @param contentLength -1 for unknown
+     * @param bytesRead bytes read since last update
+     */
+    public void update(int index, long contentLength, long receivedSize, long bytesRead) {
+        synchronized (mLock) {
+            if (mReleased) {
+                return;
+            }
+
+            PageProgress page = mPages.get(index);
+            if (page == null) {
+                page = new PageProgress();
+                mPages.put(index, page);
+            }
+            page.contentLength = contentLength;
+            page.receivedSize = receivedSize;
+            mBytesRead += bytesRead;
+
+            if (!mPosted) {
+                mPosted = true;
+                SimpleHandler.getInstance().postDelayed(mDeliverTask, mInterval);
+            }
+        }
+    }
+
+    /**
+     * The page is not downloading now.
+     */
+    public void remove(int index) {
+        synchronized (mLock) {
+            mPages.remove(index);
+        }
+    }
+
+    public void clear() {
+        synchronized (mLock) {
+            mPages.clear();
+        }
+    }
+
+    /**
+     * @return null for unknown
+     */
+    @Nullable
+    public Float getPercent(int index) {
+        synchronized (mLock) {
+            PageProgress page = mPages.get(index);
+            if (page != null && page.contentLength > 0) {
+                return (float) page.receivedSize / page.contentLength;
+            } else {
+                return null;
+            }
+        }
+    }
+
+    public void release() {
+        synchronized (mLock) {
+            mReleased = true;
+            mPages.clear();
+            mBytesRead = 0;
+        }
+        SimpleHandler.getInstance().removeCallbacks(mDeliverTask);
+    }
+
+    private static class PageProgress {
+        long contentLength;
+        long receivedSize;
+    }
+
+    /**
+     * Download progress of pages in one interval.
+     */
+    public static final class Snapshot {
+
+        private final int[] mIndexes;
+        private final long[] mContentLengths;
+        private final long[] mReceivedSizes;
+        private final long mBytesRead;
+
+        private Snapshot(SparseArray<PageProgress> pages, long bytesRead) {
+            int size = pages.size();
+            mIndexes = new int[size];
+            mContentLengths = new long[size];
+            mReceivedSizes = new long[size];
+            for (int i = 0; i < size; i++) {
+                PageProgress page = pages.valueAt(i);
+                mIndexes[i] = pages.keyAt(i);
+                mContentLengths[i] = page.contentLength;
+                mReceivedSizes[i] = page.receivedSize;
+            }
+            mBytesRead = bytesRead;
+        }
+
+        /**
+         * @return the number of downloading pages
+         */
+        public int size() {
+            return mIndexes.length;
+        }
+
+        public int getIndex(int i) {
+            return mIndexes[i];
+        }
+
+        /**
+         * @return -1 for unknown
+         */
+        public long getContentLength(int i) {
+            return mContentLengths[i];
+        }
+
+        public long getReceivedSize(int i) {
+            return mReceivedSizes[i];
+        }
+
+        /**
+         * @return bytes read of all pages in this interval
+         */
+        public long getBytesRead() {
+            return mBytesRead;
+        }
+    }
+}
@@ -32,6 +32,7 @@ import com.hippo.beerbelly.SimpleDiskCache;
 import com.hippo.ehviewer.EhApplication;
 import com.hippo.ehviewer.GetText;
 import com.hippo.ehviewer.R;
+import com.hippo.ehviewer.ReadingProgress;
 import com.hippo.ehviewer.Settings;
 import com.hippo.ehviewer.client.EhEngine;
 import com.hippo.ehviewer.client.EhRequestBuilder;
@@ -46,8 +47,8 @@ import com.hippo.ehviewer.client.parser.GalleryPageApiParser;
 import com.hippo.ehviewer.client.parser.GalleryPageParser;
 import com.hippo.ehviewer.client.parser.GalleryPageUrlParser;
 import com.hippo.ehviewer.dao.DownloadInfo;
+import com.hippo.ehviewer.gallery.GalleryDecoder;
 import com.hippo.ehviewer.gallery.GalleryProvider2;
-import com.hippo.glgallery.GalleryPageView;
 import com.hippo.glgallery.GalleryProvider;
 import com.hippo.image.Image;
 import com.hippo.streampipe.InputStreamPipe;
@@ -63,19 +64,17 @@ import com.hippo.yorozuya.Utilities;
 import com.hippo.yorozuya.collect.SparseJLArray;
 import com.hippo.yorozuya.thread.PriorityThread;
 import com.hippo.yorozuya.thread.PriorityThreadFactory;
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -86,6 +85,11 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSink;
+import okio.Okio;
+import okio.Sink;
 
 public final class SpiderQueen implements Runnable {
 
@@ -110,7 +114,7 @@ public final class SpiderQueen implements Runnable {
     public static final int STATE_FINISHED = 2;
     public static final int STATE_FAILED = 3;
 
-    public static final int DECODE_THREAD_NUM = 1;
+    private static final long PROGRESS_INTERVAL = 100;
 
     public static final String SPIDER_INFO_FILENAME = ".ehviewer";
 
@@ -121,11 +125,23 @@ public final class SpiderQueen implements Runnable {
 
     private static final SparseJLArray<SpiderQueen> sQueenMap = new SparseJLArray<>();
 
+    // Shared by all spiders, so downloading several galleries at the same time
+    // doesn't multiply image connections
+    private static final Object sDownloadSemaphoreLock = new Object();
+    // Guarded by sDownloadSemaphoreLock
+    private static Semaphore sDownloadSemaphore;
+    private static int sDownloadSemaphorePermits;
+
     @NonNull
     private final OkHttpClient mHttpClient;
+    // Images don't share connections and dispatcher with html
+    @NonNull
+    private final OkHttpClient mImageHttpClient;
     @NonNull
     private final SimpleDiskCache mSpiderInfoCache;
     @NonNull
+    private final ReadingProgress mReadingProgress;
+    @NonNull
     private final GalleryInfo mGalleryInfo;
     @NonNull
     private final SpiderDen mSpiderDen;
@@ -138,9 +154,9 @@ public final class SpiderQueen implements Runnable {
     private volatile Thread mQueenThread;
     private final Object mQueenLock = new Object();
 
-    private final Thread[] mDecodeThreadArray = new Thread[DECODE_THREAD_NUM];
-    private final int[] mDecodeIndexArray = new int[DECODE_THREAD_NUM];
-    private final Queue<Integer> mDecodeRequestQueue = new LinkedList<>();
+    private final GalleryDecoder mDecoder = new GalleryDecoder(new SpiderDecoder());
+    private volatile int mDecodeWidth;
+    private volatile int mDecodeHeight;
 
     private final Object mWorkerLock = new Object();
     private ThreadPoolExecutor mWorkerPoolExecutor;
@@ -148,19 +164,19 @@ public final class SpiderQueen implements Runnable {
 
     private final Object mPTokenLock = new Object();
     private final AtomicReference<SpiderInfo> mSpiderInfo = new AtomicReference<>();
-    private final Queue<Integer> mRequestPTokenQueue = new ConcurrentLinkedQueue<>();
+    @Nullable
+    private volatile SpiderPTokenResolver mPTokenResolver;
 
     private final Object mPageStateLock = new Object();
     private volatile int[] mPageStateArray;
+    // States of pages in download dir, null until download dir is available
+    @Nullable
+    private volatile SpiderPageStates mPageStates;
 
-    // Store request page. The index may be invalid
-    private final Queue<Integer> mRequestPageQueue = new LinkedList<>();
-    // Store preload page. The index may be invalid
-    private final Queue<Integer> mRequestPageQueue2 = new LinkedList<>();
-    // Store force request page. The index may be invalid
-    private final Queue<Integer> mForceRequestPageQueue = new LinkedList<>();
+    // Store force request, request and preload page. The index may be invalid
+    private final SpiderRequestQueue mRequestQueue = new SpiderRequestQueue();
     // For download, when it go to mPageStateArray.size(), done
-    private volatile int mDownloadPage = -1;
+    private final AtomicInteger mDownloadPage = new AtomicInteger(-1);
 
     private final AtomicInteger mDownloadedPages = new AtomicInteger(0);
     private final AtomicInteger mFinishedPages = new AtomicInteger(0);
@@ -170,8 +186,14 @@ public final class SpiderQueen implements Runnable {
 
     // Store page error
     private final ConcurrentHashMap<Integer, String> mPageErrorMap = new ConcurrentHashMap<>();
-    // Store page download percent
-    private final ConcurrentHashMap<Integer, Float> mPagePercentMap = new ConcurrentHashMap<>();
+    // Store page download progress
+    private final SpiderProgress mProgress = new SpiderProgress(PROGRESS_INTERVAL,
+            new SpiderProgress.Callback() {
+                @Override
+                public void onProgress(@NonNull SpiderProgress.Snapshot snapshot) {
+                    notifyDownloadProgress(snapshot);
+                }
+            });
 
     private final List<OnSpiderListener> mSpiderListeners = new ArrayList<>();
 
@@ -181,23 +203,38 @@ public final class SpiderQueen implements Runnable {
 
     private SpiderQueen(EhApplication application, @NonNull GalleryInfo galleryInfo) {
         mHttpClient = EhApplication.getOkHttpClient(application);
+        mImageHttpClient = EhApplication.getImageOkHttpClient(application);
         mSpiderInfoCache = EhApplication.getSpiderInfoCache(application);
+        mReadingProgress = EhApplication.getReadingProgress(application);
         mGalleryInfo = galleryInfo;
         mSpiderDen = new SpiderDen(mGalleryInfo);
 
         mWorkerMaxCount = MathUtils.clamp(Settings.getMultiThreadDownload(), 1, 10);
         mPreloadNumber = MathUtils.clamp(Settings.getPreloadImage(), 0, 100);
 
-        for (int i = 0; i < DECODE_THREAD_NUM; i++) {
-            mDecodeIndexArray[i] = GalleryPageView.INVALID_INDEX;
-        }
-
         mWorkerPoolExecutor = new ThreadPoolExecutor(mWorkerMaxCount, mWorkerMaxCount,
                 0, TimeUnit.SECONDS, new LinkedBlockingDeque<Runnable>(),
                 new PriorityThreadFactory(SpiderWorker.class.getSimpleName(), Process.THREAD_PRIORITY_BACKGROUND));
         mDownloadDelay = Settings.getDownloadDelay();
     }
 
+    /**
+     * Returns the download semaphore shared by all spiders. A new one is created
+     * when the multi-thread download setting changes, permits must be released
+     * to the semaphore they are acquired from.
+     */
+    @NonNull
+    private static Semaphore obtainDownloadSemaphore() {
+        int permits = MathUtils.clamp(Settings.getMultiThreadDownload(), 1, 10);
+        synchronized (sDownloadSemaphoreLock) {
+            if (sDownloadSemaphore == null || sDownloadSemaphorePermits != permits) {
+                sDownloadSemaphore = new Semaphore(permits, true);
+                sDownloadSemaphorePermits = permits;
+            }
+            return sDownloadSemaphore;
+        }
+    }
+
     public void addOnSpiderListener(OnSpiderListener listener) {
         synchronized (mSpiderListeners) {
             mSpiderListeners.add(listener);
@@ -226,10 +263,10 @@ public final class SpiderQueen implements Runnable {
         }
     }
 
-    private void notifyPageDownload(int index, long contentLength, long receivedSize, int bytesRead) {
+    private void notifyDownloadProgress(SpiderProgress.Snapshot snapshot) {
         synchronized (mSpiderListeners) {
             for (OnSpiderListener listener : mSpiderListeners) {
-                listener.onPageDownload(index, contentLength, receivedSize, bytesRead);
+                listener.onDownloadProgress(snapshot);
             }
         }
     }
@@ -342,15 +379,10 @@ public final class SpiderQueen implements Runnable {
 
         // Update download page
         boolean intoDownloadMode = false;
-        synchronized (mRequestPageQueue) {
-            if (mode == MODE_DOWNLOAD) {
-                if (mDownloadPage < 0) {
-                    mDownloadPage = 0;
-                    intoDownloadMode = true;
-                }
-            } else {
-                mDownloadPage = -1;
-            }
+        if (mode == MODE_DOWNLOAD) {
+            intoDownloadMode = mDownloadPage.compareAndSet(-1, 0);
+        } else {
+            mDownloadPage.set(-1);
         }
 
         if (intoDownloadMode && mPageStateArray != null) {
@@ -366,10 +398,13 @@ public final class SpiderQueen implements Runnable {
                 mDownloadedPages.lazySet(0);
                 mFinishedPages.lazySet(0);
                 mPageErrorMap.clear();
-                mPagePercentMap.clear();
+                mProgress.clear();
             }
-            // Ensure download workers
-            ensureWorkers();
+            // Restore finished pages out of UI thread, then ensure download workers
+            IoThreadPoolExecutor.getInstance().execute(() -> {
+                restorePageStates();
+                ensureWorkers();
+            });
         }
     }
 
@@ -459,33 +494,40 @@ public final class SpiderQueen implements Runnable {
     }
 
     private void tryToEnsureWorkers() {
-        boolean startWorkers = false;
-        synchronized (mRequestPageQueue) {
-            if (mPageStateArray != null &&
-                    (!mForceRequestPageQueue.isEmpty() ||
-                            !mRequestPageQueue.isEmpty() ||
-                            !mRequestPageQueue2.isEmpty() ||
-                            mDownloadPage >= 0 && mDownloadPage < mPageStateArray.length)) {
-                startWorkers = true;
-            }
+        int[] pageStateArray = mPageStateArray;
+        if (pageStateArray == null) {
+            return;
         }
 
-        if (startWorkers) {
+        int downloadPage = mDownloadPage.get();
+        if (!mRequestQueue.isEmpty() ||
+                downloadPage >= 0 && downloadPage < pageStateArray.length) {
             ensureWorkers();
         }
     }
 
+    /**
+     * @return the next page to download, {@link SpiderRequestQueue#INVALID_INDEX} for done
+     */
+    private int nextDownloadPage(int size) {
+        for (;;) {
+            int page = mDownloadPage.get();
+            if (page < 0 || page >= size) {
+                return SpiderRequestQueue.INVALID_INDEX;
+            }
+            if (mDownloadPage.compareAndSet(page, page + 1)) {
+                return page;
+            }
+        }
+    }
+
     public void cancelRequest(int index) {
         if (mQueenThread == null) {
             return;
         }
 
-        synchronized (mRequestPageQueue) {
-            mRequestPageQueue.remove(index);
-        }
-        synchronized (mDecodeRequestQueue) {
-            mDecodeRequestQueue.remove(index);
-        }
+        mRequestQueue.cancel(index);
+        mDecoder.cancel(index);
     }
 
     /**
@@ -511,29 +553,29 @@ public final class SpiderQueen implements Runnable {
         }
 
         // Add to request
-        synchronized (mRequestPageQueue) {
-            if (state == STATE_NONE) {
-                if (force) {
-                    mForceRequestPageQueue.add(index);
-                } else {
-                    mRequestPageQueue.add(index);
-                }
+        if (state == STATE_NONE) {
+            mRequestQueue.add(index, force ? SpiderRequestQueue.PRIORITY_FORCE :
+                    SpiderRequestQueue.PRIORITY_REQUEST);
+        }
+
+        // Add next some pages to request queue
+        if (addNeighbor) {
+            SpiderPTokenResolver resolver = mPTokenResolver;
+            if (resolver != null) {
+                resolver.onRead(index);
             }
 
-            // Add next some pages to request queue
-            if (addNeighbor) {
-                mRequestPageQueue2.clear();
-                int[] pageStateArray = mPageStateArray;
-                int size;
-                if (pageStateArray != null) {
-                    size = pageStateArray.length;
-                } else {
-                    size = Integer.MAX_VALUE;
-                }
-                for (int i = index + 1, n = index + 1 + mPreloadNumber; i < n && i < size; i++) {
-                    if (STATE_NONE == getPageState(i)) {
-                        mRequestPageQueue2.add(i);
-                    }
+            mRequestQueue.clear(SpiderRequestQueue.PRIORITY_PREFETCH);
+            int[] pageStateArray = mPageStateArray;
+            int size;
+            if (pageStateArray != null) {
+                size = pageStateArray.length;
+            } else {
+                size = Integer.MAX_VALUE;
+            }
+            for (int i = index + 1, n = index + 1 + mPreloadNumber; i < n && i < size; i++) {
+                if (STATE_NONE == getPageState(i)) {
+                    mRequestQueue.add(i, SpiderRequestQueue.PRIORITY_PREFETCH);
                 }
             }
         }
@@ -546,7 +588,7 @@ public final class SpiderQueen implements Runnable {
                 result = null;
                 break;
             case STATE_DOWNLOADING:
-                result = mPagePercentMap.get(index);
+                result = mProgress.getPercent(index);
                 break;
             case STATE_FAILED:
                 String error = mPageErrorMap.get(index);
@@ -556,12 +598,7 @@ public final class SpiderQueen implements Runnable {
                 result = error;
                 break;
             case STATE_FINISHED:
-                synchronized (mDecodeRequestQueue) {
-                    if (!contain(mDecodeIndexArray, index) && !mDecodeRequestQueue.contains(index)) {
-                        mDecodeRequestQueue.add(index);
-                        mDecodeRequestQueue.notify();
-                    }
-                }
+                mDecoder.request(index, mDecodeWidth, mDecodeHeight);
                 result = null;
                 break;
         }
@@ -659,10 +696,19 @@ public final class SpiderQueen implements Runnable {
         }
     }
 
+    /**
+     * Pages at least twice as large as the size are subsampled when decoding.
+     */
+    public void setDecodeSize(int width, int height) {
+        mDecodeWidth = width;
+        mDecodeHeight = height;
+    }
+
     public int getStartPage() {
         SpiderInfo spiderInfo = readSpiderInfoFromLocal();
         if (spiderInfo != null) {
             mSpiderInfo.lazySet(spiderInfo);
+            mReadingProgress.put(mGalleryInfo.gid, spiderInfo.startPage, spiderInfo.pages);
             return spiderInfo.startPage;
         } else {
             return 0;
@@ -673,10 +719,12 @@ public final class SpiderQueen implements Runnable {
         final SpiderInfo spiderInfo = mSpiderInfo.get();
         if (spiderInfo != null) {
             spiderInfo.startPage = page;
+            mReadingProgress.put(mGalleryInfo.gid, page, spiderInfo.pages);
             new AsyncTask<Void, Void, Void>() {
                 @Override
                 protected Void doInBackground(Void... params) {
-                    writeSpiderInfoToLocal(spiderInfo);
+                    // Only header
+                    updateSpiderInfoToLocal(spiderInfo, 0, 0);
                     return null;
                 }
             }.executeOnExecutor(IoThreadPoolExecutor.getInstance());
@@ -721,27 +769,40 @@ public final class SpiderQueen implements Runnable {
         return null;
     }
 
-    private void readPreviews(String body, int index, SpiderInfo spiderInfo) throws ParseException {
-        spiderInfo.pages = GalleryDetailParser.parsePages(body);
-        spiderInfo.previewPages = GalleryDetailParser.parsePreviewPages(body);
+    /**
+     * @return the range of pages whose pToken is read, [start, end)
+     */
+    private int[] readPreviews(String body, int index, SpiderInfo spiderInfo) throws ParseException {
+        int pages = GalleryDetailParser.parsePages(body);
+        int previewPages = GalleryDetailParser.parsePreviewPages(body);
         PreviewSet previewSet = GalleryDetailParser.parsePreviewSet(body);
 
-        if (previewSet.size() > 0) {
-            if (index == 0) {
-                spiderInfo.previewPerPage = previewSet.size();
-            } else {
-                spiderInfo.previewPerPage = previewSet.getPosition(0) / index;
+        // Preview pages may be read at the same time
+        synchronized (mPTokenLock) {
+            spiderInfo.pages = pages;
+            spiderInfo.previewPages = previewPages;
+            if (previewSet.size() > 0) {
+                if (index == 0) {
+                    spiderInfo.previewPerPage = previewSet.size();
+                } else {
+                    spiderInfo.previewPerPage = previewSet.getPosition(0) / index;
+                }
             }
         }
 
+        int start = Integer.MAX_VALUE;
+        int end = 0;
         for (int i = 0, n = previewSet.size(); i < n; i++) {
             GalleryPageUrlParser.Result result = GalleryPageUrlParser.parse(previewSet.getPageUrlAt(i));
             if (result != null) {
                 synchronized (mPTokenLock) {
                     spiderInfo.pTokenMap.put(result.page, result.pToken);
                 }
+                start = Math.min(start, result.page);
+                end = Math.max(end, result.page + 1);
             }
         }
+        return new int[] {Math.min(start, end), end};
     }
 
     private SpiderInfo readSpiderInfoFromInternet() {
@@ -765,21 +826,14 @@ public final class SpiderQueen implements Runnable {
         }
     }
 
-    private String getPTokenFromInternet(int index) {
+    /**
+     * Fetch the preview page and put the pTokens to spider info.
+     * Called on pToken resolver threads.
+     */
+    private void fetchPreviewPage(int previewIndex) {
         SpiderInfo spiderInfo = mSpiderInfo.get();
         if (spiderInfo == null) {
-            return null;
-        }
-
-        // Check previewIndex
-        int previewIndex;
-        if (spiderInfo.previewPerPage >= 0) {
-            previewIndex = index / spiderInfo.previewPerPage;
-        } else {
-            previewIndex = 0;
-        }
-        if (spiderInfo.previewPages > 0) {
-            previewIndex = Math.min(previewIndex, spiderInfo.previewPages - 1);
+            return;
         }
 
         try {
@@ -787,25 +841,18 @@ public final class SpiderQueen implements Runnable {
                     mGalleryInfo.gid, mGalleryInfo.token, previewIndex, false);
             String referer = EhUrl.getReferer();
             if (DEBUG_PTOKEN) {
-                Log.d(TAG, "index " + index + ", previewIndex " + previewIndex +
+                Log.d(TAG, "previewIndex " + previewIndex +
                         ", previewPerPage " + spiderInfo.previewPerPage+ ", url " + url);
             }
             Request request = new EhRequestBuilder(url, referer).build();
             Response response = mHttpClient.newCall(request).execute();
             String body = response.body().string();
-            readPreviews(body, previewIndex, spiderInfo);
+            int[] range = readPreviews(body, previewIndex, spiderInfo);
 
             // Save to local
-            writeSpiderInfoToLocal(spiderInfo);
-
-            String pToken;
-            synchronized (mPTokenLock) {
-                pToken = spiderInfo.pTokenMap.get(index);
-            }
-            return pToken;
+            updateSpiderInfoToLocal(spiderInfo, range[0], range[1]);
         } catch (Throwable e) {
             ExceptionUtils.throwIfFatal(e);
-            return null;
         }
     }
 
@@ -822,7 +869,7 @@ public final class SpiderQueen implements Runnable {
             }
         }
 
-        // Read from cache
+        // Write to cache
         OutputStreamPipe pipe = mSpiderInfoCache.getOutputStreamPipe(Long.toString(mGalleryInfo.gid));
         try {
             pipe.obtain();
@@ -835,6 +882,27 @@ public final class SpiderQueen implements Runnable {
         }
     }
 
+    /**
+     * Write the header and pTokens in [start, end) in place if possible,
+     * otherwise write the whole spider info.
+     */
+    private synchronized void updateSpiderInfoToLocal(@NonNull SpiderInfo spiderInfo, int start, int end) {
+        UniFile downloadDir = mSpiderDen.getDownloadDir();
+        if (downloadDir != null) {
+            UniFile file = downloadDir.findFile(SPIDER_INFO_FILENAME);
+            boolean updated;
+            synchronized (mPTokenLock) {
+                updated = spiderInfo.update(file, start, end);
+            }
+            if (updated) {
+                // Spider info in download dir is read first, skip the cache
+                return;
+            }
+        }
+
+        writeSpiderInfoToLocal(spiderInfo);
+    }
+
     private void runInternal() {
         // Read spider info
         SpiderInfo spiderInfo = readSpiderInfoFromLocal();
@@ -863,6 +931,15 @@ public final class SpiderQueen implements Runnable {
         // Write spider info to file
         writeSpiderInfoToLocal(spiderInfo);
 
+        // Start pToken resolver
+        mPTokenResolver = new SpiderPTokenResolver(spiderInfo, mPTokenLock,
+                new SpiderPTokenResolver.PreviewFetcher() {
+                    @Override
+                    public void fetchPreviewPage(int previewIndex) {
+                        SpiderQueen.this.fetchPreviewPage(previewIndex);
+                    }
+                });
+
         // Check interrupted
         if (Thread.currentThread().isInterrupted()) {
             return;
@@ -872,6 +949,7 @@ public final class SpiderQueen implements Runnable {
         synchronized (mPageStateLock) {
             mPageStateArray = new int[spiderInfo.pages];
         }
+        restorePageStates();
 
         // Notify get pages
         notifyGetPages(spiderInfo.pages);
@@ -879,61 +957,15 @@ public final class SpiderQueen implements Runnable {
         // Ensure worker
         tryToEnsureWorkers();
 
-        // Start decoder
-        for (int i = 0; i < DECODE_THREAD_NUM; i++) {
-            Thread decoderThread = new PriorityThread(new SpiderDecoder(i),
-                    "SpiderDecoder-" + i, Process.THREAD_PRIORITY_DEFAULT);
-            mDecodeThreadArray[i] = decoderThread;
-            decoderThread.start();
-        }
-
-        // handle pToken request
-        while (!Thread.currentThread().isInterrupted()) {
-            Integer index = mRequestPTokenQueue.poll();
-
-            if (index == null) {
-                // No request index, wait here
-                synchronized (mQueenLock) {
-                    try {
-                        mQueenLock.wait();
-                    } catch (InterruptedException e) {
-                        break;
-                    }
-                }
-                continue;
-            }
-
-            // Check it in spider info
-            String pToken;
-            synchronized (mPTokenLock) {
-                pToken = spiderInfo.pTokenMap.get(index);
-            }
-            if (pToken != null) {
-                // Get pToken from spider info, notify worker
-                synchronized (mWorkerLock) {
-                    mWorkerLock.notifyAll();
-                }
-                continue;
-            }
-
-            // Get pToken from internet
-            pToken = getPTokenFromInternet(index);
-            if (null == pToken) {
-                // Preview size may changed, so try to get pToken twice
-                pToken = getPTokenFromInternet(index);
-            }
-
-            if (null == pToken) {
-                // If failed, set the pToken "failed"
-                synchronized (mPTokenLock) {
-                    spiderInfo.pTokenMap.put(index, SpiderInfo.TOKEN_FAILED);
+        // Wait until stopped, pTokens are got by the resolver
+        synchronized (mQueenLock) {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    mQueenLock.wait();
+                } catch (InterruptedException e) {
+                    break;
                 }
             }
-
-            // Notify worker
-            synchronized (mWorkerLock) {
-                mWorkerLock.notifyAll();
-            }
         }
     }
 
@@ -948,18 +980,25 @@ public final class SpiderQueen implements Runnable {
         // Set mQueenThread null
         mQueenThread = null;
 
-        // Interrupt decoder
-        for (Thread decoderThread : mDecodeThreadArray) {
-            if (decoderThread != null) {
-                decoderThread.interrupt();
-            }
-        }
+        // Cancel queued decoding
+        mDecoder.release();
+
+        // Stop pToken resolver, workers must not use it anymore
+        SpiderPTokenResolver resolver = mPTokenResolver;
+        mPTokenResolver = null;
 
         // Interrupt all workers
         synchronized (mWorkerLock) {
             mWorkerPoolExecutor.shutdownNow();
             mWorkerPoolExecutor = null;
         }
+
+        // Stop progress
+        mProgress.release();
+
+        if (resolver != null) {
+            resolver.shutdown();
+        }
         notifyFinish();
 
         if (DEBUG_LOG) {
@@ -967,6 +1006,88 @@ public final class SpiderQueen implements Runnable {
         }
     }
 
+    /**
+     * Returns page states of download dir, null if download dir is not available.
+     */
+    @Nullable
+    private SpiderPageStates obtainPageStates() {
+        SpiderPageStates states = mPageStates;
+        int[] pageStateArray = mPageStateArray;
+        if (states != null || pageStateArray == null) {
+            return states;
+        }
+
+        UniFile downloadDir = mSpiderDen.getDownloadDir();
+        if (downloadDir == null) {
+            return null;
+        }
+        states = SpiderPageStates.read(downloadDir.findFile(SpiderPageStates.FILENAME),
+                mGalleryInfo.gid, pageStateArray.length);
+        if (states == null) {
+            states = SpiderPageStates.create(mGalleryInfo.gid, pageStateArray.length);
+        }
+
+        synchronized (mPageStateLock) {
+            if (mPageStates == null) {
+                mPageStates = states;
+            }
+            return mPageStates;
+        }
+    }
+
+    /**
+     * Marks pages finished in download dir as finished, so download goes on
+     * from the missing pages without checking finished pages one by one.
+     */
+    private void restorePageStates() {
+        SpiderPageStates states = obtainPageStates();
+        if (states == null) {
+            return;
+        }
+
+        // List download dir out of the lock
+        mSpiderDen.findImageFile(0);
+
+        int restored = 0;
+        synchronized (mPageStateLock) {
+            int[] temp = mPageStateArray;
+            for (int i = 0, n = temp.length; i < n; i++) {
+                if (temp[i] == STATE_NONE && states.isFinished(i, mSpiderDen.findImageFile(i))) {
+                    temp[i] = STATE_FINISHED;
+                    restored++;
+                }
+            }
+            mDownloadedPages.addAndGet(restored);
+            mFinishedPages.addAndGet(restored);
+        }
+    }
+
+    /**
+     * Records the page state to page states of download dir.
+     *
+     * @param size the size of the finished page, -1 for unknown
+     */
+    private void recordPageState(int index, @State int state, long size) {
+        SpiderPageStates states = obtainPageStates();
+        UniFile downloadDir = mSpiderDen.getDownloadDir();
+        if (states == null || downloadDir == null) {
+            return;
+        }
+
+        UniFile file = mSpiderDen.findImageFile(index);
+        if (state == STATE_FINISHED && file != null) {
+            states.setFinished(index, file, size);
+        } else if (state == STATE_FAILED) {
+            states.setState(index, SpiderPageStates.STATE_FAILED);
+        } else if (states.getState(index) != SpiderPageStates.STATE_NONE) {
+            // Not in download dir
+            states.setState(index, SpiderPageStates.STATE_NONE);
+        } else {
+            return;
+        }
+        states.save(downloadDir);
+    }
+
     private void updatePageState(int index, @State int state) {
         updatePageState(index, state, null);
     }
@@ -996,7 +1117,7 @@ public final class SpiderQueen implements Runnable {
             if (state == STATE_DOWNLOADING) {
                 mPageErrorMap.remove(index);
             } else if (state == STATE_FINISHED || state == STATE_FAILED) {
-                mPagePercentMap.remove(index);
+                mProgress.remove(index);
             }
 
             // Get default error
@@ -1189,13 +1310,13 @@ public final class SpiderQueen implements Runnable {
                 }
 
                 // Download image
-                InputStream is = null;
+                BufferedSource source = null;
                 try {
                     if (DEBUG_LOG) {
                         Log.d(TAG, "Start download image " + index);
                     }
 
-                    Call call = mHttpClient.newCall(new EhRequestBuilder(targetImageUrl, referer).build());
+                    Call call = mImageHttpClient.newCall(new EhRequestBuilder(targetImageUrl, referer).build());
                     Response response = call.execute();
                     ResponseBody responseBody = response.body();
 
@@ -1213,17 +1334,20 @@ public final class SpiderQueen implements Runnable {
                         continue;
                     }
 
-                    // Get extension
+                    // Get extension, null if it's not a supported image type
                     String extension = null;
                     MediaType mediaType = responseBody.contentType();
                     if (mediaType != null) {
-                        extension = MimeTypeMap.getSingleton().getExtensionFromMimeType(mediaType.toString());
+                        extension = MimeTypeMap.getSingleton().getExtensionFromMimeType(
+                                mediaType.type() + "/" + mediaType.subtype());
                     }
-                    // Ensure extension
-                    if (!Utilities.contain(GalleryProvider2.SUPPORT_IMAGE_EXTENSIONS, extension)) {
-                        extension = GalleryProvider2.SUPPORT_IMAGE_EXTENSIONS[0];
+                    // Supported extensions are with dot
+                    if (extension != null &&
+                            !Utilities.contain(GalleryProvider2.SUPPORT_IMAGE_EXTENSIONS, "." + extension)) {
+                        extension = null;
                     }
 
+                    long receivedSize;
                     OutputStreamPipe osPipe = null;
                     try {
                         // Get out put pipe
@@ -1236,31 +1360,15 @@ public final class SpiderQueen implements Runnable {
                         }
 
                         long contentLength = responseBody.contentLength();
-                        is = responseBody.byteStream();
+                        source = responseBody.source();
                         osPipe.obtain();
-                        OutputStream os = osPipe.open();
-
-                        final byte[] data = new byte[1024 * 4];
-                        long receivedSize = 0;
-
-                        while (!Thread.currentThread().isInterrupted()) {
-                            int bytesRead = is.read(data);
-                            if (bytesRead == -1) {
-                                response.close();
-                                break;
-                            }
-                            os.write(data, 0, bytesRead);
-                            receivedSize += bytesRead;
-                            // Update page percent
-                            if (contentLength > 0) {
-                                mPagePercentMap.put(index, (float) receivedSize / contentLength);
-                            }
-                            // Notify listener
-                            notifyPageDownload(index, contentLength, receivedSize, bytesRead);
-                        }
-                        os.flush();
+                        PageSink sink = new PageSink(Okio.sink(osPipe.open()), index, contentLength);
+                        source.readAll(sink);
+                        sink.flush();
+                        response.close();
 
                         // check download size
+                        receivedSize = sink.getReceivedSize();
                         if (contentLength >= 0) {
                             if (receivedSize < contentLength) {
                                 Log.e(TAG, "Can't download all of image data");
@@ -1271,46 +1379,17 @@ public final class SpiderQueen implements Runnable {
                                 Log.w(TAG, "Received data is more than contentLength");
                             }
                         }
-                    } finally {
-                        if (osPipe != null) {
-                            osPipe.close();
-                            osPipe.release();
-                        }
-                    }
-
-                    InputStreamPipe isPipe = null;
-                    try {
-                        // Get InputStreamPipe
-                        isPipe = mSpiderDen.openInputStreamPipe(index);
-                        if (isPipe == null) {
-                            // Can't get pipe
-                            error = GetText.getString(R.string.error_reading_failed);
-                            break;
-                        }
 
                         // Check plain txt
-                        isPipe.obtain();
-                        InputStream inputStream = new BufferedInputStream(isPipe.open());
-                        boolean isPlainTxt = true;
-                        for (;;) {
-                            int b = inputStream.read();
-                            if (b == -1) {
-                                break;
-                            }
-                            if (b > 126) {
-                                isPlainTxt = false;
-                                break;
-                            }
-                        }
-                        if (isPlainTxt) {
+                        if (sink.isPlainText()) {
                             error = GetText.getString(R.string.error_reading_failed);
                             forceHtml = true;
                             continue;
                         }
                     } finally {
-                        if (isPipe != null) {
-                            isPipe.close();
-                            isPipe.release();
+                        if (osPipe != null) {
+                            osPipe.close();
+                            osPipe.release();
                         }
                     }
 
@@ -1327,6 +1406,7 @@ public final class SpiderQueen implements Runnable {
 
                     // Download finished
                     updatePageState(index, STATE_FINISHED);
+                    recordPageState(index, STATE_FINISHED, receivedSize);
                     try {
                         Thread.sleep(mDownloadDelay);
                     } catch (InterruptedException e) {
@@ -1334,11 +1414,18 @@ public final class SpiderQueen implements Runnable {
                     }
                     return true;
                 } catch (IOException e) {
+                    // SocketTimeoutException is an InterruptedIOException too,
+                    // only take it as interrupted if the thread is
+                    if (e instanceof InterruptedIOException && Thread.currentThread().isInterrupted()) {
+                        interrupt = true;
+                        error = "Interrupted";
+                        break;
+                    }
                     e.printStackTrace();
                     error = GetText.getString(R.string.error_socket);
                     forceHtml = true;
                 } finally {
-                    IOUtils.closeQuietly(is);
+                    IOUtils.closeQuietly(source);
 
                     if (DEBUG_LOG) {
                         Log.d(TAG, "End download image " + index);
@@ -1350,6 +1437,7 @@ public final class SpiderQueen implements Runnable {
             mSpiderDen.remove(index);
 
             updatePageState(index, STATE_FAILED, error);
+            recordPageState(index, STATE_FAILED, 0);
             return !interrupt;
         }
 
@@ -1366,27 +1454,25 @@ public final class SpiderQueen implements Runnable {
             int index;
             // From force request
             boolean force = false;
-            synchronized (mRequestPageQueue) {
-                if (!mForceRequestPageQueue.isEmpty()) {
-                    index = mForceRequestPageQueue.remove();
-                    force = true;
-                } else if (!mRequestPageQueue.isEmpty()) {
-                    index = mRequestPageQueue.remove();
-                } else if (!mRequestPageQueue2.isEmpty()) {
-                    index = mRequestPageQueue2.remove();
-                } else if (mDownloadPage >= 0 && mDownloadPage < size) {
-                    index = mDownloadPage;
-                    mDownloadPage++;
-                } else {
-                    // No index any more, stop
-                    return false;
-                }
+            // From download page
+            boolean download = false;
+            if ((index = mRequestQueue.poll(SpiderRequestQueue.PRIORITY_FORCE)) != SpiderRequestQueue.INVALID_INDEX) {
+                force = true;
+            } else if ((index = mRequestQueue.poll(SpiderRequestQueue.PRIORITY_REQUEST)) != SpiderRequestQueue.INVALID_INDEX) {
+                // pass
+            } else if ((index = mRequestQueue.poll(SpiderRequestQueue.PRIORITY_PREFETCH)) != SpiderRequestQueue.INVALID_INDEX) {
+                // pass
+            } else if ((index = nextDownloadPage(size)) != SpiderRequestQueue.INVALID_INDEX) {
+                download = true;
+            } else {
+                // No index any more, stop
+                return false;
+            }
 
-                // Check out of range
-                if (index < 0 || index >= size) {
-                    // Invalid index
-                    return true;
-                }
+            // Check out of range
+            if (index >= size) {
+                // Invalid index
+                return true;
             }
 
             synchronized (mPageStateLock) {
@@ -1403,6 +1489,7 @@ public final class SpiderQueen implements Runnable {
             // Check exist for not force request
             if (!force && mSpiderDen.contain(index)) {
                 updatePageState(index , STATE_FINISHED);
+                recordPageState(index, STATE_FINISHED, -1);
                 return true;
             }
 
@@ -1419,35 +1506,15 @@ public final class SpiderQueen implements Runnable {
                 }
             }
 
-            String pToken = null;
-            // Get token
-            while (!Thread.currentThread().isInterrupted()) {
-                synchronized (mPTokenLock) {
-                    pToken = spiderInfo.pTokenMap.get(index);
-                }
-                if (pToken == null) {
-                    mRequestPTokenQueue.add(index);
-                    // Notify Queen
-                    synchronized (mQueenLock) {
-                        mQueenLock.notify();
-                    }
-                    // Wait
-                    synchronized (mWorkerLock) {
-                        try {
-                            mWorkerLock.wait();
-                        } catch (InterruptedException e) {
-                            // Interrupted
-                            if (DEBUG_LOG) {
-                                Log.d(TAG, Thread.currentThread().getName() + " Interrupted");
-                            }
-                            break;
-                        }
-                    }
-                } else {
-                    break;
-                }
+            SpiderPTokenResolver resolver = mPTokenResolver;
+            if (resolver == null) {
+                // Stopped
+                updatePageState(index, STATE_FAILED, "Interrupted");
+                return false;
             }
 
+            // Get token
+            String pToken = resolver.getPToken(index);
             if (pToken == null) {
                 // Interrupted
                 // Get token failed
@@ -1458,31 +1525,8 @@ public final class SpiderQueen implements Runnable {
             String previousPToken = null;
             int previousIndex = index - 1;
             // Get token
-            while (previousIndex >= 0 && !Thread.currentThread().isInterrupted()) {
-                synchronized (mPTokenLock) {
-                    previousPToken = spiderInfo.pTokenMap.get(previousIndex);
-                }
-                if (previousPToken == null) {
-                    mRequestPTokenQueue.add(previousIndex);
-                    // Notify Queen
-                    synchronized (mQueenLock) {
-                        mQueenLock.notify();
-                    }
-                    // Wait
-                    synchronized (mWorkerLock) {
-                        try {
-                            mWorkerLock.wait();
-                        } catch (InterruptedException e) {
-                            // Interrupted
-                            if (DEBUG_LOG) {
-                                Log.d(TAG, Thread.currentThread().getName() + " Interrupted");
-                            }
-                            break;
-                        }
-                    }
-                } else {
-                    break;
-                }
+            if (previousIndex >= 0) {
+                previousPToken = resolver.getPToken(previousIndex);
             }
 
             if (SpiderInfo.TOKEN_FAILED.equals(pToken)) {
@@ -1492,7 +1536,23 @@ public final class SpiderQueen implements Runnable {
             }
 
             // Get image url
-            return downloadImage(mGid, index, pToken, previousPToken, force);
+            if (!download) {
+                return downloadImage(mGid, index, pToken, previousPToken, force);
+            }
+
+            // Wait for a free download connection
+            Semaphore semaphore = obtainDownloadSemaphore();
+            try {
+                semaphore.acquire();
+            } catch (InterruptedException e) {
+                updatePageState(index, STATE_FAILED, "Interrupted");
+                return false;
+            }
+            try {
+                return downloadImage(mGid, index, pToken, previousPToken, force);
+            } finally {
+                semaphore.release();
+            }
         }
 
         @Override
@@ -1525,93 +1585,102 @@ public final class SpiderQueen implements Runnable {
         }
     }
 
-    private class SpiderDecoder implements Runnable {
+    /**
+     * Writes image data to the page file. It checks whether the data is
+     * plain text and updates download progress while writing.
+     */
+    private class PageSink extends ForwardingSink {
 
-        private final int mThreadIndex;
+        private final int mIndex;
+        private final long mContentLength;
+        private long mReceivedSize;
+        private boolean mPlainText = true;
 
-        public SpiderDecoder(int index) {
-            mThreadIndex = index;
+        public PageSink(Sink delegate, int index, long contentLength) {
+            super(delegate);
+            mIndex = index;
+            mContentLength = contentLength;
         }
 
-        private void resetDecodeIndex() {
-            synchronized (mDecodeRequestQueue) {
-                mDecodeIndexArray[mThreadIndex] = GalleryPageView.INVALID_INDEX;
+        @Override
+        public void write(Buffer source, long byteCount) throws IOException {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException();
             }
+
+            // Only check until the first byte which is not plain text
+            for (long i = 0; mPlainText && i < byteCount; i++) {
+                if ((source.getByte(i) & 0xff) > 126) {
+                    mPlainText = false;
+                }
+            }
+
+            super.write(source, byteCount);
+            mReceivedSize += byteCount;
+            mProgress.update(mIndex, mContentLength, mReceivedSize, byteCount);
+        }
+
+        public long getReceivedSize() {
+            return mReceivedSize;
         }
 
+        public boolean isPlainText() {
+            return mPlainText;
+        }
+    }
+
+    private class SpiderDecoder implements GalleryDecoder.Task {
+
         @Override
-        public void run() {
-            if (DEBUG_LOG) {
-                Log.i(TAG, Thread.currentThread().getName() + ": start");
+        public void decode(int index, int targetWidth, int targetHeight) {
+            // Check index valid
+            int[] pageStateArray = mPageStateArray;
+            if (pageStateArray == null || index < 0 || index >= pageStateArray.length) {
+                notifyGetImageFailure(index, GetText.getString(R.string.error_out_of_range));
+                return;
             }
 
-            while (!Thread.currentThread().isInterrupted()) {
-                int index;
-                synchronized (mDecodeRequestQueue) {
-                    if (mDecodeRequestQueue.isEmpty()) {
-                        try {
-                            mDecodeRequestQueue.wait();
-                        } catch (InterruptedException e) {
-                            // Interrupted
-                            break;
-                        }
-                        continue;
-                    }
-                    index = mDecodeRequestQueue.remove();
-                    mDecodeIndexArray[mThreadIndex] = index;
-                }
-
-                // Check index valid
-                if (index < 0 || index >= mPageStateArray.length) {
-                    resetDecodeIndex();
-                    notifyGetImageFailure(index, GetText.getString(R.string.error_out_of_range));
-                    continue;
-                }
+            InputStreamPipe pipe = mSpiderDen.openInputStreamPipe(index);
+            if (pipe == null) {
+                // Can't find the file, it might be removed from cache,
+                // Reset it state and request it
+                updatePageState(index, STATE_NONE, null);
+                request(index, false, false, false);
+                return;
+            }
 
-                InputStreamPipe pipe = mSpiderDen.openInputStreamPipe(index);
-                if (pipe == null) {
-                    resetDecodeIndex();
-                    // Can't find the file, it might be removed from cache,
-                    // Reset it state and request it
-                    updatePageState(index, STATE_NONE, null);
-                    request(index, false, false, false);
-                    continue;
-                }
+            Image image = null;
+            String error = null;
+            InputStream is;
 
-                Image image = null;
-                String error = null;
-                InputStream is;
+            pipe.obtain();
+            try {
+                is = new AutoCloseInputStream(pipe, pipe.open());
+            } catch (IOException e) {
+                // Can't open pipe
+                error = GetText.getString(R.string.error_reading_failed);
+                is = null;
+                pipe.close();
+                pipe.release();
+            }
 
-                pipe.obtain();
+            if (is != null) {
                 try {
-                    is = new AutoCloseInputStream(pipe, pipe.open());
-                } catch (IOException e) {
-                    // Can't open pipe
-                    error = GetText.getString(R.string.error_reading_failed);
-                    is = null;
-                    pipe.close();
-                    pipe.release();
-                }
-
-                if (is != null) {
-                    image = Image.decode(is, true);
+                    image = GalleryDecoder.decode(is, targetWidth, targetHeight);
                     if (image == null) {
                         error = GetText.getString(R.string.error_decoding_failed);
                     }
+                } catch (IOException e) {
+                    IOUtils.closeQuietly(is);
+                    error = GetText.getString(R.string.error_reading_failed);
                 }
-
-                // Notify
-                if (image != null) {
-                    notifyGetImageSuccess(index, image);
-                } else {
-                    notifyGetImageFailure(index, error);
-                }
-
-                resetDecodeIndex();
             }
 
-            if (DEBUG_LOG) {
-                Log.i(TAG, Thread.currentThread().getName() + ": end");
+            // Notify
+            if (image != null) {
+                notifyGetImageSuccess(index, image);
+            } else {
+                notifyGetImageFailure(index, error);
             }
         }
     }
@@ -1650,9 +1719,11 @@ public final class SpiderQueen implements Runnable {
         void onGet509(int index);
 
         /**
-         * @param contentLength -1 for unknown
+         * Download progress of pages, called on UI thread
+         * at most once per progress interval.
          */
-        void onPageDownload(int index, long contentLength, long receivedSize, int bytesRead);
+        @UiThread
+        void onDownloadProgress(@NonNull SpiderProgress.Snapshot snapshot);
 
         void onPageSuccess(int index, int finished, int downloaded, int total);
 
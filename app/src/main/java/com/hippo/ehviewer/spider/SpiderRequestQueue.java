@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import androidx.annotation.IntDef;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Page request queue for spider workers. A page is queued only once,
+ * a request with higher priority lifts the queued page, and cancel
+ * is a single map operation. Cancelled or lifted entries left in the
+ * queues are skipped when polled.
+ */
+final class SpiderRequestQueue {
+
+    @IntDef({PRIORITY_PREFETCH, PRIORITY_REQUEST, PRIORITY_FORCE})
+    @Retention(RetentionPolicy.SOURCE)
+    @interface Priority {}
+
+    static final int PRIORITY_PREFETCH = 0;
+    static final int PRIORITY_REQUEST = 1;
+    static final int PRIORITY_FORCE = 2;
+
+    private static final int PRIORITY_COUNT = 3;
+
+    static final int INVALID_INDEX = -1;
+
+    // Page index to the priority it is queued with
+    private final ConcurrentHashMap<Integer, Integer> mPriorityMap = new ConcurrentHashMap<>();
+    private final Queue<Integer>[] mQueues;
+
+    @SuppressWarnings("unchecked")
+    SpiderRequestQueue() {
+        mQueues = new Queue[PRIORITY_COUNT];
+        for (int i = 0; i < PRIORITY_COUNT; i++) {
+            mQueues[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    public void add(int index, @Priority int priority) {
+        if (index < 0) {
+            return;
+        }
+
+        Integer key = index;
+        for (;;) {
+            Integer oldPriority = mPriorityMap.putIfAbsent(key, priority);
+            if (oldPriority == null) {
+                break;
+            }
+            if (oldPriority >= priority) {
+                // Already queued
+                return;
+            }
+            if (mPriorityMap.replace(key, oldPriority, priority)) {
+                break;
+            }
+        }
+        mQueues[priority].offer(key);
+    }
+
+    /**
+     * Remove the page unless it is force requested.
+     */
+    public void cancel(int index) {
+        Integer key = index;
+        Integer priority = mPriorityMap.get(key);
+        if (priority != null && priority != PRIORITY_FORCE) {
+            mPriorityMap.remove(key, priority);
+        }
+    }
+
+    /**
+     * Remove all pages queued with the priority.
+     */
+    public void clear(@Priority int priority) {
+        Queue<Integer> queue = mQueues[priority];
+        Integer index;
+        while ((index = queue.poll()) != null) {
+            mPriorityMap.remove(index, priority);
+        }
+    }
+
+    /**
+     * @return the page index, {@link #INVALID_INDEX} for no page with the priority
+     */
+    public int poll(@Priority int priority) {
+        Queue<Integer> queue = mQueues[priority];
+        Integer index;
+        while ((index = queue.poll()) != null) {
+            if (mPriorityMap.remove(index, priority)) {
+                return index;
+            }
+            // Cancelled or lifted, skip it
+        }
+        return INVALID_INDEX;
+    }
+
+    public boolean isEmpty() {
+        return mPriorityMap.isEmpty();
+    }
+}
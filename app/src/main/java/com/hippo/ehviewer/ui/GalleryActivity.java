@@ -32,6 +32,7 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.text.TextUtils;
+import android.util.DisplayMetrics;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -309,6 +310,10 @@ public class GalleryActivity extends EhActivity implements SeekBar.OnSeekBarChan
             finish();
             return;
         }
+        // Pages much larger than the screen are subsampled, in any orientation
+        DisplayMetrics dm = getResources().getDisplayMetrics();
+        int decodeSize = Math.max(dm.widthPixels, dm.heightPixels);
+        mGalleryProvider.setDecodeSize(decodeSize, decodeSize);
         mGalleryProvider.start();
 
         // Get start page
@@ -69,6 +69,7 @@ import com.hippo.easyrecyclerview.MarginItemDecoration;
 import com.hippo.ehviewer.EhApplication;
 import com.hippo.ehviewer.EhDB;
 import com.hippo.ehviewer.R;
+import com.hippo.ehviewer.ReadingProgress;
 import com.hippo.ehviewer.Settings;
 import com.hippo.ehviewer.client.EhCacheKeyFactory;
 import com.hippo.ehviewer.client.EhUtils;
@@ -105,8 +106,10 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -128,6 +131,9 @@ public class DownloadsScene extends ToolbarScene
     public static final String ACTION_CLEAR_DOWNLOAD_SERVICE = "clear_download_service";
     private static final int REQUEST_GALLERY_CLOSE = 0;
 
+    // Galleries tried by indexReadingProgress()
+    private static final Set<Long> sIndexedGids = new HashSet<>();
+
     private static Pattern authorPattern = Pattern.compile("^(?:\\([^\\[\\]\\(\\)]*\\))?\\s*\\[([^\\[\\]\\(\\)]*)(?:\\(([^\\[\\]\\(\\)]*)\\))?\\]");
 
     private int lastPosition;
@@ -257,6 +263,7 @@ public class DownloadsScene extends ToolbarScene
         if (mAdapter != null) {
             mAdapter.notifyDataSetChanged();
         }
+        indexReadingProgress(mList);
 
         updateTitle();
         Settings.putRecentDownloadLabel(mLabel);
@@ -526,6 +533,20 @@ public class DownloadsScene extends ToolbarScene
                             if (mDownloadManager != null) {
                                 mDownloadManager.resetAllReadingProgress();
                             }
+                            if (mAdapter != null) {
+                                mAdapter.notifyDataSetChanged();
+                            }
+                        }).show();
+                return true;
+            }
+            case R.id.action_verify: {
+                new AlertDialog.Builder(getContext())
+                        .setMessage(R.string.download_verify_message)
+                        .setNegativeButton(android.R.string.cancel, null)
+                        .setPositiveButton(android.R.string.ok, (dialog, which) -> {
+                            if (mDownloadManager != null && mList != null) {
+                                mDownloadManager.verifyDownloads(mList, this::onVerifyDownloads);
+                            }
                         }).show();
                 return true;
             }
@@ -541,9 +562,10 @@ public class DownloadsScene extends ToolbarScene
             }
             case R.id.action_select_read: {
                 mRecyclerView.intoCustomChoiceMode();
+                ReadingProgress readingProgress = EhApplication.getReadingProgress(getContext2());
                 for (int i = 0, n = mAdapter.getItemCount(); i < n; i++) {
-                    SpiderInfo spiderInfo = mAdapter.readSpiderInfoFromLocalByInfo(mList.get(i));
-                    if (spiderInfo != null && spiderInfo.startPage > 0) {
+                    ReadingProgress.Progress progress = readingProgress.get(mList.get(i).gid);
+                    if (progress != null && progress.startPage > 0) {
                         mRecyclerView.setItemChecked(i, true);
                     }
                 }
@@ -654,6 +676,21 @@ public class DownloadsScene extends ToolbarScene
         return false;
     }
 
+    private void onVerifyDownloads(int verified, @NonNull LongList gidList) {
+        Activity activity = getActivity2();
+        if (activity == null) {
+            return;
+        }
+
+        if (gidList.size() > 0) {
+            Intent intent = new Intent(activity, DownloadService.class);
+            intent.setAction(DownloadService.ACTION_START_RANGE);
+            intent.putExtra(DownloadService.KEY_GID_LIST, gidList);
+            activity.startService(intent);
+        }
+        showTip(getString(R.string.download_verify_done, verified, gidList.size()), LENGTH_SHORT);
+    }
+
     public void updateView() {
         if (mViewTransition != null) {
             if (mList == null || mList.size() == 0) {
@@ -1103,6 +1140,87 @@ public class DownloadsScene extends ToolbarScene
         holder.speed.setText(FileUtils.humanReadableByteCount(speed, false) + "/S");
     }
 
+    @Nullable
+    private static SpiderInfo readSpiderInfoFromLocalByInfo(Context context, DownloadInfo info) {
+        // Read from download dir
+        SpiderDen spiderDen = new SpiderDen(info);
+        UniFile downloadDir = spiderDen.getDownloadDir();
+        if (downloadDir != null) {
+            UniFile file = downloadDir.findFile(SPIDER_INFO_FILENAME);
+            SpiderInfo spiderInfo = SpiderInfo.read(file);
+            if (spiderInfo != null && spiderInfo.gid == info.gid &&
+                    spiderInfo.token.equals(info.token)) {
+                return spiderInfo;
+            }
+        }
+
+        // Read from cache
+        SimpleDiskCache spiderInfoCache= EhApplication.getSpiderInfoCache(context);
+        InputStreamPipe pipe = spiderInfoCache.getInputStreamPipe(Long.toString(info.gid));
+        if (null != pipe) {
+            try {
+                pipe.obtain();
+                SpiderInfo spiderInfo = SpiderInfo.read(pipe.open());
+                if (spiderInfo != null && spiderInfo.gid == info.gid &&
+                        spiderInfo.token.equals(info.token)) {
+                    return spiderInfo;
+                }
+            } catch (IOException e) {
+                // Ignore
+            } finally {
+                pipe.close();
+                pipe.release();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads progress of downloads which are not in {@link ReadingProgress} yet,
+     * from their spider info. Each gallery is only tried once.
+     */
+    private void indexReadingProgress(@Nullable List<DownloadInfo> list) {
+        Context context = getContext2();
+        if (null == context || null == list) {
+            return;
+        }
+
+        Context application = context.getApplicationContext();
+        ReadingProgress readingProgress = EhApplication.getReadingProgress(application);
+        List<DownloadInfo> missing = new ArrayList<>();
+        for (DownloadInfo info : list) {
+            if (readingProgress.get(info.gid) == null && sIndexedGids.add(info.gid)) {
+                missing.add(info);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        new AsyncTask<Void, Void, Boolean>() {
+            @Override
+            protected Boolean doInBackground(Void... params) {
+                boolean changed = false;
+                for (DownloadInfo info : missing) {
+                    SpiderInfo spiderInfo = readSpiderInfoFromLocalByInfo(application, info);
+                    if (spiderInfo != null) {
+                        readingProgress.put(info.gid, spiderInfo.startPage, spiderInfo.pages);
+                        changed = true;
+                    }
+                }
+                return changed;
+            }
+
+            @Override
+            protected void onPostExecute(Boolean changed) {
+                if (changed && mAdapter != null) {
+                    mAdapter.notifyDataSetChanged();
+                }
+            }
+        }.executeOnExecutor(IoThreadPoolExecutor.getInstance());
+    }
+
     private static void deleteFileAsync(UniFile... files) {
         new AsyncTask<UniFile, Void, Void>() {
             @Override
@@ -1312,12 +1430,14 @@ public class DownloadsScene extends ToolbarScene
     private class DownloadAdapter extends RecyclerView.Adapter<DownloadHolder> {
 
         private final LayoutInflater mInflater;
+        private final ReadingProgress mReadingProgress;
         private final int mListThumbWidth;
         private final int mListThumbHeight;
 
         public DownloadAdapter() {
             mInflater = getLayoutInflater2();
             AssertUtils.assertNotNull(mInflater);
+            mReadingProgress = EhApplication.getReadingProgress(mInflater.getContext());
 
             View calculator = mInflater.inflate(R.layout.item_gallery_list_thumb_height, null);
             ViewUtils.measureView(calculator, 1024, ViewGroup.LayoutParams.WRAP_CONTENT);
@@ -1345,43 +1465,6 @@ public class DownloadsScene extends ToolbarScene
             return holder;
         }
 
-        private SpiderInfo readSpiderInfoFromLocalByInfo(DownloadInfo info) {
-            // Read from download dir
-            SpiderDen spiderDen = new SpiderDen(info);
-            UniFile downloadDir = spiderDen.getDownloadDir();
-            if (downloadDir != null) {
-                UniFile file = downloadDir.findFile(SPIDER_INFO_FILENAME);
-                SpiderInfo spiderInfo = SpiderInfo.read(file);
-                if (spiderInfo != null && spiderInfo.gid == info.gid &&
-                        spiderInfo.token.equals(info.token)) {
-                    return spiderInfo;
-                }
-            }
-
-            // Read from cache
-            Context context = getActivity2();
-            EhApplication application = (EhApplication) context.getApplicationContext();
-            SimpleDiskCache spiderInfoCache= EhApplication.getSpiderInfoCache(application);
-            InputStreamPipe pipe = spiderInfoCache.getInputStreamPipe(Long.toString(info.gid));
-            if (null != pipe) {
-                try {
-                    pipe.obtain();
-                    SpiderInfo spiderInfo = SpiderInfo.read(pipe.open());
-                    if (spiderInfo != null && spiderInfo.gid == info.gid &&
-                            spiderInfo.token.equals(info.token)) {
-                        return spiderInfo;
-                    }
-                } catch (IOException e) {
-                    // Ignore
-                } finally {
-                    pipe.close();
-                    pipe.release();
-                }
-            }
-
-            return null;
-        }
-
         @SuppressLint("SetTextI18n")
         @Override
         public void onBindViewHolder(DownloadHolder holder, int position) {
@@ -1389,13 +1472,13 @@ public class DownloadsScene extends ToolbarScene
                 return;
             }
             DownloadInfo info = mList.get(position);
-            SpiderInfo spiderInfo = readSpiderInfoFromLocalByInfo(info);
-            if (spiderInfo == null) {
+            ReadingProgress.Progress progress = mReadingProgress.get(info.gid);
+            if (progress == null) {
                 holder.readProgress.setText(1 + "/" + info.total);
                 holder.readProgress.setTextColor(Color.rgb(255, 0, 0));
             } else {
-                holder.readProgress.setText((spiderInfo.startPage + 1) + "/" + spiderInfo.pages);
-                int read255th = spiderInfo.startPage * 255 / spiderInfo.pages;
+                holder.readProgress.setText((progress.startPage + 1) + "/" + progress.pages);
+                int read255th = progress.startPage * 255 / progress.pages;
                 holder.readProgress.setTextColor(Color.rgb(255 - read255th, read255th, 0));
             }
             holder.thumb.load(EhCacheKeyFactory.getThumbKey(info.gid), info.thumb,
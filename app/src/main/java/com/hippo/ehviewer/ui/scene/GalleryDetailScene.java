@@ -70,6 +70,7 @@ import com.hippo.ehviewer.client.EhRequest;
 import com.hippo.ehviewer.client.EhTagDatabase;
 import com.hippo.ehviewer.client.EhUrl;
 import com.hippo.ehviewer.client.EhUtils;
+import com.hippo.ehviewer.client.GalleryDetailCache;
 import com.hippo.ehviewer.client.data.GalleryComment;
 import com.hippo.ehviewer.client.data.GalleryCommentList;
 import com.hippo.ehviewer.client.data.GalleryDetail;
@@ -646,20 +647,56 @@ public class GalleryDetailScene extends BaseScene implements View.OnClickListene
             return false;
         }
 
-        // Get from cache
-        mGalleryDetail = EhApplication.getGalleryDetailCache(context).get(gid);
-        if (mGalleryDetail != null) {
+        EhApplication application = (EhApplication) context.getApplicationContext();
+        GalleryDetailCache cache = EhApplication.getGalleryDetailCache(context);
+        if (application.containGlobalStuff(mRequestId)) {
+            // request exist, the stale one shown is in memory
+            mGalleryDetail = cache.getFromMemory(gid);
             return true;
         }
 
-        EhApplication application = (EhApplication) context.getApplicationContext();
-        if (application.containGlobalStuff(mRequestId)) {
-            // request exist
+        // Get from memory cache
+        mGalleryDetail = cache.getFromMemory(gid);
+        if (mGalleryDetail != null) {
+            if (cache.isStale(gid)) {
+                // Show the stale one, update it in background
+                request();
+            }
             return true;
         }
 
-        // Do request
-        return request();
+        // Get from disk cache, request if it's missing
+        cache.load(gid, this::onLoadGalleryDetailCache);
+        return true;
+    }
+
+    private void onLoadGalleryDetailCache(@Nullable GalleryDetail galleryDetail, boolean stale) {
+        Context context = getContext2();
+        if (mGalleryDetail != null || context == null) {
+            // Got it or the scene is gone
+            return;
+        }
+
+        if (galleryDetail != null) {
+            if (mViewTransition != null) {
+                onGetGalleryDetailSuccess(galleryDetail);
+            } else {
+                mGalleryDetail = galleryDetail;
+            }
+            if (!stale) {
+                return;
+            }
+            // Show the stale one, update it in background
+        }
+
+        if (((EhApplication) context.getApplicationContext()).containGlobalStuff(mRequestId)) {
+            // Requested by refreshing
+            return;
+        }
+        if (!request() && galleryDetail == null && mTip != null) {
+            mTip.setText(R.string.error_cannot_find_gallery);
+            adjustViewVisibility(STATE_FAILED, true);
+        }
     }
 
     private boolean request() {
@@ -1453,6 +1490,7 @@ public class GalleryDetailScene extends BaseScene implements View.OnClickListene
                     break;
                 }
                 mGalleryDetail.comments = comments;
+                updateGalleryDetailCache();
                 bindComments(comments.comments);
                 break;
             default:
@@ -1579,6 +1617,10 @@ public class GalleryDetailScene extends BaseScene implements View.OnClickListene
 
     private void onGetGalleryDetailFailure(Exception e) {
         e.printStackTrace();
+        if (mGalleryDetail != null && mState == STATE_NORMAL) {
+            // Failed to update the stale one in background, keep it
+            return;
+        }
         Context context = getContext2();
         if (null != context && null != mTip) {
             String error = ExceptionUtils.getReadableString(e);
@@ -1591,6 +1633,7 @@ public class GalleryDetailScene extends BaseScene implements View.OnClickListene
         if (mGalleryDetail != null) {
             mGalleryDetail.rating = result.rating;
             mGalleryDetail.ratingCount = result.ratingCount;
+            updateGalleryDetailCache();
         }
 
         // Update UI
@@ -1600,10 +1643,21 @@ public class GalleryDetailScene extends BaseScene implements View.OnClickListene
         }
     }
 
+    /**
+     * Writes changes of mGalleryDetail to the gallery detail cache.
+     */
+    private void updateGalleryDetailCache() {
+        Context context = getContext2();
+        if (context != null && mGalleryDetail != null) {
+            EhApplication.getGalleryDetailCache(context).update(mGalleryDetail.gid);
+        }
+    }
+
     private void onModifyFavoritesSuccess(boolean addOrRemove) {
         mModifingFavorites = false;
         if (mGalleryDetail != null) {
             mGalleryDetail.isFavorited = !addOrRemove && mGalleryDetail.favoriteName != null;
+            updateGalleryDetailCache();
             updateFavoriteDrawable();
         }
     }
@@ -1943,7 +1997,7 @@ public class GalleryDetailScene extends BaseScene implements View.OnClickListene
             getApplication().removeGlobalStuff(this);
 
             // Put gallery detail to cache
-            EhApplication.getGalleryDetailCache(getApplication()).put(result.gid, result);
+            EhApplication.getGalleryDetailCache(getApplication()).put(result);
 
             // Add history
             EhDB.putHistoryInfo(result);
@@ -2035,10 +2089,12 @@ public class GalleryDetailScene extends BaseScene implements View.OnClickListene
                 scene.onRateGallerySuccess(result);
             } else {
                 // Update rating in cache
-                GalleryDetail gd = EhApplication.getGalleryDetailCache(getApplication()).get(mGid);
+                GalleryDetailCache cache = EhApplication.getGalleryDetailCache(getApplication());
+                GalleryDetail gd = cache.getFromMemory(mGid);
                 if (gd != null) {
                     gd.rating = result.rating;
                     gd.ratingCount = result.ratingCount;
+                    cache.update(mGid);
                 }
             }
         }
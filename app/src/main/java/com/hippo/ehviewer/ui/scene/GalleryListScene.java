@@ -105,8 +105,12 @@ import com.hippo.yorozuya.ViewUtils;
 import java.io.File;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 public final class GalleryListScene extends BaseScene
         implements EasyRecyclerView.OnItemClickListener, EasyRecyclerView.OnItemLongClickListener,
@@ -1573,7 +1577,10 @@ public final class GalleryListScene extends BaseScene
         }
     }
 
-    private void onGetGalleryListSuccess(GalleryListParser.Result result, int taskId) {
+    /**
+     * @return true if the result is shown
+     */
+    private boolean onGetGalleryListSuccess(GalleryListParser.Result result, int taskId) {
         if (mHelper != null && mSearchBarMover != null &&
                 mHelper.isCurrentTask(taskId)) {
             String emptyString = getResources2().getString(mUrlBuilder.getMode() == ListUrlBuilder.MODE_SUBSCRIPTION && result.noWatchedTags
@@ -1581,7 +1588,9 @@ public final class GalleryListScene extends BaseScene
                     : R.string.gallery_list_empty_hit);
             mHelper.setEmptyString(emptyString);
             mHelper.onGetPageData(taskId, result.pages, result.nextPage, result.galleryInfoList);
+            return true;
         }
+        return false;
     }
 
     private void onGetGalleryListFailure(Exception e, int taskId) {
@@ -1591,20 +1600,87 @@ public final class GalleryListScene extends BaseScene
         }
     }
 
-    private static class GetGalleryListListener extends EhCallback<GalleryListScene, GalleryListParser.Result> {
+    /**
+     * Copy API data from the list to the shown rows with the same gid.
+     * The shown rows may be in the list even if other tasks started, so it
+     * doesn't check task id.
+     *
+     * @param remove true to remove the shown rows not in the list
+     */
+    private void onUpdateGalleryList(List<GalleryInfo> shown, List<GalleryInfo> list, boolean remove) {
+        if (mHelper == null || mAdapter == null) {
+            return;
+        }
+
+        Map<Long, GalleryInfo> map = new HashMap<>(list.size());
+        for (GalleryInfo info : list) {
+            map.put(info.gid, info);
+        }
+
+        List<GalleryInfo> data = mHelper.getData();
+        for (Iterator<GalleryInfo> iterator = shown.iterator(); iterator.hasNext();) {
+            GalleryInfo info = iterator.next();
+            GalleryInfo update = map.get(info.gid);
+            if (update != null) {
+                info.title = update.title;
+                info.titleJpn = update.titleJpn;
+                info.thumb = update.thumb;
+                info.category = update.category;
+                info.posted = update.posted;
+                info.uploader = update.uploader;
+                info.rating = update.rating;
+                info.simpleTags = update.simpleTags;
+                info.pages = update.pages;
+                info.simpleLanguage = update.simpleLanguage;
+            } else if (remove) {
+                iterator.remove();
+                // GalleryInfo doesn't override equals, it finds the same object
+                int index = data.indexOf(info);
+                if (index >= 0) {
+                    mHelper.removeAt(index);
+                }
+            }
+        }
+        mAdapter.notifyDataSetChanged();
+    }
+
+    private static class GetGalleryListListener extends EhCallback<GalleryListScene, GalleryListParser.Result>
+            implements EhClient.PartialCallback<GalleryListParser.Result> {
 
         private final int mTaskId;
+        private boolean mPartial;
+        // Rows of the first partial result, null if it isn't shown
+        @Nullable
+        private List<GalleryInfo> mShown;
 
         public GetGalleryListListener(Context context, int stageId, String sceneTag, int taskId) {
             super(context, stageId, sceneTag);
             mTaskId = taskId;
         }
 
+        @Override
+        public void onPartialResult(GalleryListParser.Result result) {
+            GalleryListScene scene = getScene();
+            if (!mPartial) {
+                mPartial = true;
+                if (scene != null && scene.onGetGalleryListSuccess(result, mTaskId)) {
+                    mShown = new ArrayList<>(result.galleryInfoList);
+                }
+            } else if (scene != null && mShown != null) {
+                // Other partial results are batches with API data
+                scene.onUpdateGalleryList(mShown, result.galleryInfoList, false);
+            }
+        }
+
         @Override
         public void onSuccess(GalleryListParser.Result result) {
             GalleryListScene scene = getScene();
             if (scene != null) {
-                scene.onGetGalleryListSuccess(result, mTaskId);
+                if (mShown != null) {
+                    scene.onUpdateGalleryList(mShown, result.galleryInfoList, true);
+                } else {
+                    scene.onGetGalleryListSuccess(result, mTaskId);
+                }
             }
         }
 
@@ -1612,6 +1688,10 @@ public final class GalleryListScene extends BaseScene
         public void onFailure(Exception e) {
             GalleryListScene scene = getScene();
             if (scene != null) {
+                if (mShown != null) {
+                    // Rows without API data are not kept
+                    scene.onUpdateGalleryList(mShown, Collections.<GalleryInfo>emptyList(), true);
+                }
                 scene.onGetGalleryListFailure(e, mTaskId);
             }
         }
@@ -68,7 +68,7 @@ import com.hippo.widget.LoadImageView;
 import com.hippo.widget.recyclerview.AutoStaggeredGridLayoutManager;
 import com.hippo.yorozuya.AssertUtils;
 import com.hippo.yorozuya.ViewUtils;
-import de.greenrobot.dao.query.LazyList;
+import java.util.List;
 
 public class HistoryScene extends ToolbarScene
         implements EasyRecyclerView.OnItemClickListener,
@@ -84,7 +84,7 @@ public class HistoryScene extends ToolbarScene
     @Nullable
     private RecyclerView.Adapter<?> mAdapter;
     @Nullable
-    private LazyList<HistoryInfo> mLazyList;
+    private List<HistoryInfo> mList;
 
     @Override
     public int getNavCheckedItem() {
@@ -145,7 +145,7 @@ public class HistoryScene extends ToolbarScene
         handlerDrawable.setColor(AttrResources.getAttrColor(context, R.attr.widgetColorThemeAccent));
         fastScroller.setHandlerDrawable(handlerDrawable);
 
-        updateLazyList();
+        updateList();
         updateView(false);
 
         return view;
@@ -162,9 +162,8 @@ public class HistoryScene extends ToolbarScene
     public void onDestroyView() {
         super.onDestroyView();
 
-        if (null != mLazyList) {
-            mLazyList.close();
-            mLazyList = null;
+        if (null != mList) {
+            mList = null;
             if (mAdapter != null) {
                 mAdapter.notifyDataSetChanged();
             }
@@ -179,12 +178,8 @@ public class HistoryScene extends ToolbarScene
     }
 
     // Remember to notify
-    private void updateLazyList() {
-        LazyList<HistoryInfo> lazyList = EhDB.getHistoryLazyList();
-        if (mLazyList != null) {
-            mLazyList.close();
-        }
-        mLazyList = lazyList;
+    private void updateList() {
+        mList = EhDB.getHistoryList();
     }
 
     private void updateView(boolean animation) {
@@ -220,7 +215,7 @@ public class HistoryScene extends ToolbarScene
                         }
 
                         EhDB.clearHistoryInfo();
-                        updateLazyList();
+                        updateList();
                         mAdapter.notifyDataSetChanged();
                         updateView(true);
                     }
@@ -247,13 +242,13 @@ public class HistoryScene extends ToolbarScene
 
     @Override
     public boolean onItemClick(EasyRecyclerView parent, View view, int position, long id) {
-        if (null == mLazyList) {
+        if (null == mList) {
             return false;
         }
 
         Bundle args = new Bundle();
         args.putString(GalleryDetailScene.KEY_ACTION, GalleryDetailScene.ACTION_GALLERY_INFO);
-        args.putParcelable(GalleryDetailScene.KEY_GALLERY_INFO, mLazyList.get(position));
+        args.putParcelable(GalleryDetailScene.KEY_GALLERY_INFO, mList.get(position));
         Announcer announcer = new Announcer(GalleryDetailScene.class).setArgs(args);
         View thumb;
         if (null != (thumb = view.findViewById(R.id.thumb))) {
@@ -267,11 +262,11 @@ public class HistoryScene extends ToolbarScene
     public boolean onItemLongClick(EasyRecyclerView parent, View view, int position, long id) {
         final Context context = getContext2();
         final MainActivity activity = getActivity2();
-        if (null == context || null == activity || null == mLazyList) {
+        if (null == context || null == activity || null == mList) {
             return false;
         }
 
-        final GalleryInfo gi = mLazyList.get(position);
+        final GalleryInfo gi = mList.get(position);
         new AlertDialog.Builder(context)
                 .setTitle(EhUtils.getSuitableTitle(gi))
                 .setItems(R.array.gallery_list_menu_entries, new DialogInterface.OnClickListener() {
@@ -340,10 +335,10 @@ public class HistoryScene extends ToolbarScene
 
         @Override
         public long getItemId(int position) {
-            if (null == mLazyList) {
+            if (null == mList) {
                 return super.getItemId(position);
             } else {
-                return mLazyList.get(position).gid;
+                return mList.get(position).gid;
             }
         }
 
@@ -361,11 +356,11 @@ public class HistoryScene extends ToolbarScene
 
         @Override
         public void onBindViewHolder(HistoryHolder holder, int position) {
-            if (null == mLazyList) {
+            if (null == mList) {
                 return;
             }
 
-            GalleryInfo gi = mLazyList.get(position);
+            GalleryInfo gi = mList.get(position);
             holder.thumb.load(EhCacheKeyFactory.getThumbKey(gi.gid), gi.thumb);
             holder.title.setText(EhUtils.getSuitableTitle(gi));
             holder.uploader.setText(gi.uploader);
@@ -388,7 +383,7 @@ public class HistoryScene extends ToolbarScene
 
         @Override
         public int getItemCount() {
-            return null != mLazyList ? mLazyList.size() : 0;
+            return null != mList ? mList.size() : 0;
         }
 
         @Override
@@ -426,13 +421,13 @@ public class HistoryScene extends ToolbarScene
         @Override
         protected void onPerformAction() {
             super.onPerformAction();
-            if (null == mLazyList || null == mAdapter) {
+            if (null == mList || null == mAdapter) {
                 return;
             }
 
-            HistoryInfo info = mLazyList.get(mPosition);
+            HistoryInfo info = mList.get(mPosition);
             EhDB.deleteHistoryInfo(info);
-            updateLazyList();
+            updateList();
             mAdapter.notifyDataSetChanged();
             updateView(true);
         }
@@ -29,6 +29,7 @@ import android.text.Editable;
 import android.text.TextUtils;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
+import android.util.Pair;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -43,6 +44,9 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.cardview.widget.CardView;
 import com.hippo.ehviewer.R;
+import com.hippo.ehviewer.Settings;
+import com.hippo.ehviewer.client.EhTagDatabase;
+import com.hippo.util.IoThreadPoolExecutor;
 import com.hippo.view.ViewTransition;
 import com.hippo.yorozuya.AnimationUtils;
 import com.hippo.yorozuya.MathUtils;
@@ -60,6 +64,10 @@ public class SearchBar extends CardView implements View.OnClickListener,
 
     private static final long ANIMATE_TIME = 300L;
 
+    private static final int MAX_TAG_SUGGESTIONS = 10;
+    // Wait for typing to pause before querying suggestions
+    private static final long SUGGESTION_DELAY = 150L;
+
     public static final int STATE_NORMAL = 0;
     public static final int STATE_SEARCH = 1;
     public static final int STATE_SEARCH_LIST = 2;
@@ -89,6 +97,9 @@ public class SearchBar extends CardView implements View.OnClickListener,
     private Helper mHelper;
     private OnStateChangeListener mOnStateChangeListener;
     private SuggestionProvider mSuggestionProvider;
+    // Increased for each suggestion request, results of older requests are dropped
+    private volatile int mSuggestionGeneration;
+    private Runnable mSuggestionTask;
 
     private boolean mAllowEmptySearch = true;
 
@@ -166,22 +177,66 @@ public class SearchBar extends CardView implements View.OnClickListener,
     }
 
     private void updateSuggestions(boolean scrollToTop) {
-        mSuggestionList.clear();
+        requestSuggestions(scrollToTop, 0);
+    }
+
+    /**
+     * Query suggestions on IO thread, after the delay.
+     * Pending and running requests are cancelled.
+     */
+    private void requestSuggestions(final boolean scrollToTop, long delay) {
+        final int generation = ++mSuggestionGeneration;
+        if (mSuggestionTask != null) {
+            removeCallbacks(mSuggestionTask);
+        }
+
+        mSuggestionTask = () -> {
+            mSuggestionTask = null;
+            final String text = mEditText.getText().toString();
+            final SuggestionProvider provider = mSuggestionProvider;
+            IoThreadPoolExecutor.getInstance().execute(() -> {
+                if (generation != mSuggestionGeneration) {
+                    return;
+                }
+                final List<Suggestion> suggestions = querySuggestions(provider, text);
+                post(() -> {
+                    if (generation == mSuggestionGeneration) {
+                        setSuggestions(suggestions, scrollToTop);
+                    }
+                });
+            });
+        };
+        if (delay > 0) {
+            postDelayed(mSuggestionTask, delay);
+        } else {
+            mSuggestionTask.run();
+        }
+    }
 
-        String text = mEditText.getText().toString();
+    private List<Suggestion> querySuggestions(SuggestionProvider provider, String text) {
+        List<Suggestion> list = new ArrayList<>();
 
-        if (mSuggestionProvider != null) {
-            List<Suggestion> suggestions = mSuggestionProvider.providerSuggestions(text);
+        if (provider != null) {
+            List<Suggestion> suggestions = provider.providerSuggestions(text);
             if (suggestions != null && !suggestions.isEmpty()) {
-                mSuggestionList.addAll(suggestions);
+                list.addAll(suggestions);
             }
         }
 
+        addTagSuggestions(list, text);
+
         String[] keywords = mSearchDatabase.getSuggestions(text, 128);
         for (String keyword : keywords) {
-            mSuggestionList.add(new KeywordSuggestion(keyword));
+            list.add(new KeywordSuggestion(keyword));
         }
 
+        return list;
+    }
+
+    private void setSuggestions(List<Suggestion> suggestions, boolean scrollToTop) {
+        mSuggestionList.clear();
+        mSuggestionList.addAll(suggestions);
+
         if (mSuggestionList.size() == 0) {
             removeListHeader();
         } else {
@@ -194,6 +249,51 @@ public class SearchBar extends CardView implements View.OnClickListener,
         }
     }
 
+    private void addTagSuggestions(List<Suggestion> list, String text) {
+        if (!Settings.getShowTagTranslations()) {
+            return;
+        }
+        EhTagDatabase ehTags = EhTagDatabase.getInstance(getContext());
+        if (ehTags == null) {
+            return;
+        }
+
+        // Complete the last word
+        int start = text.lastIndexOf(' ') + 1;
+        String keyword = text.substring(start);
+        if (keyword.isEmpty()) {
+            return;
+        }
+        String head = text.substring(0, start);
+
+        for (Pair<String, String> pair : ehTags.suggest(keyword, MAX_TAG_SUGGESTIONS)) {
+            // Translations are keys too, tags are in ascii
+            String tag;
+            String translation;
+            if (isAscii(pair.first)) {
+                tag = pair.first;
+                translation = pair.second;
+            } else {
+                tag = pair.second;
+                translation = pair.first;
+            }
+            // Skip namespace translations
+            if (tag.startsWith("n:")) {
+                continue;
+            }
+            list.add(new TagSuggestion(head, tag, translation));
+        }
+    }
+
+    private static boolean isAscii(String str) {
+        for (int i = 0, n = str.length(); i < n; i++) {
+            if (str.charAt(i) > 127) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public void setAllowEmptySearch(boolean allowEmptySearch) {
         mAllowEmptySearch = allowEmptySearch;
     }
@@ -464,7 +564,7 @@ public class SearchBar extends CardView implements View.OnClickListener,
 
     @Override
     public void afterTextChanged(Editable s) {
-        updateSuggestions();
+        requestSuggestions(true, SUGGESTION_DELAY);
     }
 
     @Override
@@ -510,6 +610,9 @@ public class SearchBar extends CardView implements View.OnClickListener,
 
     public interface SuggestionProvider {
 
+        /**
+         * Called on IO thread.
+         */
         List<Suggestion> providerSuggestions(String text);
     }
 
@@ -585,4 +688,38 @@ public class SearchBar extends CardView implements View.OnClickListener,
             updateSuggestions(false);
         }
     }
+
+    public class TagSuggestion extends Suggestion {
+
+        private final String mHead;
+        private final String mTag;
+        private final String mTranslation;
+
+        private TagSuggestion(String head, String tag, String translation) {
+            mHead = head;
+            mTag = tag;
+            mTranslation = translation;
+        }
+
+        @Override
+        public CharSequence getText(float textSize) {
+            return mTranslation + "  " + mTag;
+        }
+
+        @Override
+        public void onClick() {
+            // "f:big breasts" to f:"big breasts$"
+            int index = mTag.indexOf(':');
+            String prefix = mTag.substring(0, index + 1);
+            String name = mTag.substring(index + 1);
+            String keyword = name.indexOf(' ') >= 0 ? prefix + '"' + name + "$\"" : prefix + name + '$';
+            mEditText.setText(mHead + keyword + ' ');
+            mEditText.setSelection(mEditText.getText().length());
+        }
+
+        @Override
+        public void onLongClick() {
+            // Empty
+        }
+    }
 }
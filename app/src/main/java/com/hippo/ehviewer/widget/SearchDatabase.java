@@ -27,8 +27,14 @@ import android.util.Log;
 
 import com.hippo.util.SqlUtils;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
 
 public final class SearchDatabase {
 
@@ -44,6 +50,11 @@ public final class SearchDatabase {
 
     private final SQLiteDatabase mDatabase;
 
+    // In-memory index of all queries, sorted by lower case query. Loaded on first use.
+    private final Object mIndexLock = new Object();
+    private TreeSet<Query> mIndex;
+    private final Map<String, Query> mQueryMap = new HashMap<>();
+
     private static SearchDatabase sInstance;
 
     public static SearchDatabase getInstance(Context context) {
@@ -58,36 +69,107 @@ public final class SearchDatabase {
         mDatabase = databaseHelper.getWritableDatabase();
     }
 
-    public String[] getSuggestions(String prefix, int limit) {
-        List<String> queryList = new LinkedList<>();
-        limit = Math.max(0, limit);
+    private static final class Query {
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("SELECT * FROM ").append(TABLE_SUGGESTIONS);
-        if (!TextUtils.isEmpty(prefix)) {
-            sb.append(" WHERE ").append(COLUMN_QUERY).append(" LIKE '")
-                    .append(SqlUtils.sqlEscapeString(prefix)).append("%'");
+        private final String query;
+        private final String lowerQuery;
+        private final long date;
+
+        private Query(String query, long date) {
+            this(query, query.toLowerCase(Locale.US), date);
         }
-        sb.append(" ORDER BY ").append(COLUMN_DATE).append(" DESC")
-            .append(" LIMIT ").append(limit);
 
+        private Query(String query, String lowerQuery, long date) {
+            this.query = query;
+            this.lowerQuery = lowerQuery;
+            this.date = date;
+        }
+    }
+
+    // Case is ignored like LIKE does
+    private static final Comparator<Query> INDEX_ORDER = new Comparator<Query>() {
+        @Override
+        public int compare(Query o1, Query o2) {
+            int result = o1.lowerQuery.compareTo(o2.lowerQuery);
+            return result != 0 ? result : o1.query.compareTo(o2.query);
+        }
+    };
+
+    private static final Comparator<Query> DATE_ORDER = new Comparator<Query>() {
+        @Override
+        public int compare(Query o1, Query o2) {
+            return Long.compare(o2.date, o1.date);
+        }
+    };
+
+    // Call it with mIndexLock
+    private TreeSet<Query> getIndex() {
+        if (mIndex != null) {
+            return mIndex;
+        }
+
+        mIndex = new TreeSet<>(INDEX_ORDER);
         try {
-            Cursor cursor = mDatabase.rawQuery(sb.toString(), null);
+            Cursor cursor = mDatabase.rawQuery("SELECT " + COLUMN_QUERY + ", " + COLUMN_DATE +
+                    " FROM " + TABLE_SUGGESTIONS, null);
             int queryIndex = cursor.getColumnIndex(COLUMN_QUERY);
-            if (cursor.moveToFirst()) {
-                while (!cursor.isAfterLast()) {
-                    String suggestion = cursor.getString(queryIndex);
-                    if (!prefix.equals(suggestion)) {
-                        queryList.add(suggestion);
-                    }
-                    cursor.moveToNext();
+            int dateIndex = cursor.getColumnIndex(COLUMN_DATE);
+            while (cursor.moveToNext()) {
+                String query = cursor.getString(queryIndex);
+                if (query != null) {
+                    putIndex(new Query(query, cursor.getLong(dateIndex)));
                 }
             }
             cursor.close();
-            return queryList.toArray(new String[queryList.size()]);
         } catch (SQLException e) {
-            return new String[0];
+            Log.e(TAG, "Can't load queries", e);
+        }
+        return mIndex;
+    }
+
+    // Call it with mIndexLock
+    private void putIndex(Query query) {
+        Query old = mQueryMap.put(query.query, query);
+        if (old != null) {
+            mIndex.remove(old);
         }
+        mIndex.add(query);
+    }
+
+    /**
+     * Get queries starting with the prefix, ignoring case, newest first.
+     * It's served from memory, only the first call reads the database.
+     */
+    public String[] getSuggestions(String prefix, int limit) {
+        limit = Math.max(0, limit);
+        if (prefix == null) {
+            prefix = "";
+        }
+
+        List<Query> candidates;
+        synchronized (mIndexLock) {
+            TreeSet<Query> index = getIndex();
+            if (TextUtils.isEmpty(prefix)) {
+                candidates = new ArrayList<>(index);
+            } else {
+                String lowerPrefix = prefix.toLowerCase(Locale.US);
+                candidates = new ArrayList<>(index.subSet(
+                        new Query("", lowerPrefix, 0), true,
+                        new Query("", lowerPrefix + Character.MAX_VALUE, 0), false));
+            }
+        }
+
+        Collections.sort(candidates, DATE_ORDER);
+        List<String> queryList = new ArrayList<>(Math.min(limit, candidates.size()));
+        for (Query query : candidates) {
+            if (queryList.size() >= limit) {
+                break;
+            }
+            if (!prefix.equals(query.query)) {
+                queryList.add(query.query);
+            }
+        }
+        return queryList.toArray(new String[queryList.size()]);
     }
 
     public void addQuery(final String query) {
@@ -95,10 +177,16 @@ public final class SearchDatabase {
             // Delete old first
             deleteQuery(query);
             // Add it to database
+            long date = System.currentTimeMillis();
             ContentValues values = new ContentValues();
             values.put(COLUMN_QUERY, query);
-            values.put(COLUMN_DATE, System.currentTimeMillis());
+            values.put(COLUMN_DATE, date);
             mDatabase.insert(TABLE_SUGGESTIONS, null, values);
+            synchronized (mIndexLock) {
+                if (mIndex != null) {
+                    putIndex(new Query(query, date));
+                }
+            }
             // Remove history if more than max
             truncateHistory(MAX_HISTORY);
         }
@@ -106,6 +194,12 @@ public final class SearchDatabase {
 
     public void deleteQuery(final String query) {
         mDatabase.delete(TABLE_SUGGESTIONS, COLUMN_QUERY + "=?", new String[]{query});
+        synchronized (mIndexLock) {
+            Query old = mQueryMap.remove(query);
+            if (old != null && mIndex != null) {
+                mIndex.remove(old);
+            }
+        }
     }
 
     public void clearQuery() {
@@ -132,11 +226,26 @@ public final class SearchDatabase {
                         " LIMIT -1 OFFSET " + String.valueOf(maxEntries) + ")";
             }
             mDatabase.delete(TABLE_SUGGESTIONS, selection, null);
+            truncateIndex(maxEntries);
         } catch (RuntimeException e) {
             Log.e(TAG, "truncateHistory", e);
         }
     }
 
+    private void truncateIndex(int maxEntries) {
+        synchronized (mIndexLock) {
+            if (mIndex == null || mIndex.size() <= maxEntries) {
+                return;
+            }
+            List<Query> list = new ArrayList<>(mIndex);
+            Collections.sort(list, DATE_ORDER);
+            for (Query query : list.subList(maxEntries, list.size())) {
+                mIndex.remove(query);
+                mQueryMap.remove(query.query);
+            }
+        }
+    }
+
     /**
      * Builds the database.  This version has extra support for using the version field
      * as a mode flags field, and configures the database columns depending on the mode bits
@@ -0,0 +1,448 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import android.os.Process;
+import androidx.annotation.NonNull;
+import com.hippo.yorozuya.thread.PriorityThreadFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.Dns;
+import okhttp3.EventListener;
+import okhttp3.HttpUrl;
+import okhttp3.Protocol;
+
+/**
+ * A {@link Dns} caching results of the upstream {@code Dns}, failures are
+ * cached for a shorter time. Concurrent lookups of the same host share one
+ * upstream query.
+ * <p>
+ * Connect latency of each address is measured, addresses are returned in
+ * the order of measured-good, unknown and failed. If none of the addresses
+ * of a host is measured, they are raced by TCP connecting to the port of
+ * the call. Set the {@link EventListener.Factory} from {@link #getEventListenerFactory()}
+ * to the {@code OkHttpClient} to measure real connections and to get the port.
+ */
+public class CachingDns implements Dns {
+
+  private static final long DEFAULT_TTL = TimeUnit.MINUTES.toNanos(5);
+  private static final long DEFAULT_NEGATIVE_TTL = TimeUnit.SECONDS.toNanos(10);
+
+  private static final int MAX_ENTRIES = 512;
+  private static final int RACE_TIMEOUT_MILLIS = 2000;
+
+  private static final long RANK_UNKNOWN = Long.MAX_VALUE - 1;
+  private static final long RANK_FAILED = Long.MAX_VALUE;
+
+  private static final ExecutorService sRaceExecutor = Executors.newCachedThreadPool(
+      new PriorityThreadFactory("CachingDns-Race", Process.THREAD_PRIORITY_BACKGROUND));
+
+  private final Dns upstream;
+  private final long ttl;
+  private final long negativeTtl;
+  private final boolean race;
+
+  private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, FutureTask<Entry>> queries = new ConcurrentHashMap<>();
+  private final ConcurrentMap<InetAddress, Stats> stats = new ConcurrentHashMap<>();
+  // Host and port of the url of the call looking up on this thread
+  private final ThreadLocal<InetSocketAddress> callAddress = new ThreadLocal<>();
+
+  private final EventListener.Factory eventListenerFactory = new EventListener.Factory() {
+    @Override
+    public EventListener create(Call call) {
+      return new ConnectListener();
+    }
+  };
+
+  public CachingDns() {
+    this(Dns.SYSTEM);
+  }
+
+  public CachingDns(@NonNull Dns upstream) {
+    this(upstream, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL, true);
+  }
+
+  /**
+   * @param ttl in nanoseconds
+   * @param negativeTtl in nanoseconds
+   * @param race false to disable racing
+   */
+  CachingDns(@NonNull Dns upstream, long ttl, long negativeTtl, boolean race) {
+    this.upstream = upstream;
+    this.ttl = ttl;
+    this.negativeTtl = negativeTtl;
+    this.race = race;
+  }
+
+  @NonNull
+  public EventListener.Factory getEventListenerFactory() {
+    return eventListenerFactory;
+  }
+
+  @Override
+  public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+    // OkHttp looks up on the thread of dnsStart()
+    int port = 0;
+    InetSocketAddress address = callAddress.get();
+    if (address != null && address.getHostName().equals(hostname)) {
+      port = address.getPort();
+    }
+    return lookup(hostname, port);
+  }
+
+  /**
+   * @param port the port to race addresses, {@code <= 0} if unknown
+   */
+  List<InetAddress> lookup(String hostname, int port) throws UnknownHostException {
+    if (hostname == null) throw new UnknownHostException("hostname == null");
+
+    Entry entry = cache.get(hostname);
+    if (entry == null || entry.expiresAt - System.nanoTime() <= 0) {
+      entry = query(hostname, port);
+    }
+
+    if (entry.exception != null) {
+      UnknownHostException exception = new UnknownHostException(entry.exception.getMessage());
+      exception.initCause(entry.exception);
+      throw exception;
+    }
+    return sort(entry.addresses);
+  }
+
+  /**
+   * Drops the cached result of the host.
+   */
+  public void evict(@NonNull String hostname) {
+    cache.remove(hostname);
+  }
+
+  private Entry query(final String hostname, final int port) throws UnknownHostException {
+    FutureTask<Entry> task = new FutureTask<>(new Callable<Entry>() {
+      @Override
+      public Entry call() {
+        return resolve(hostname, port);
+      }
+    });
+    FutureTask<Entry> running = queries.putIfAbsent(hostname, task);
+    if (running == null) {
+      running = task;
+      try {
+        task.run();
+      } finally {
+        queries.remove(hostname, task);
+      }
+    }
+
+    try {
+      return running.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      UnknownHostException exception = new UnknownHostException("Interrupted lookup of " + hostname);
+      exception.initCause(e);
+      throw exception;
+    } catch (ExecutionException e) {
+      UnknownHostException exception = new UnknownHostException("Failed lookup of " + hostname);
+      exception.initCause(e.getCause());
+      throw exception;
+    }
+  }
+
+  private Entry resolve(String hostname, int port) {
+    Entry entry;
+    try {
+      List<InetAddress> addresses = upstream.lookup(hostname);
+      if (addresses == null || addresses.isEmpty()) {
+        throw new UnknownHostException("No address for " + hostname);
+      }
+      addresses = Collections.unmodifiableList(new ArrayList<>(addresses));
+      if (race && port > 0 && addresses.size() > 1 && !isAnyMeasured(addresses)) {
+        race(addresses, port);
+      }
+      entry = new Entry(System.nanoTime() + ttl, addresses, null);
+    } catch (UnknownHostException e) {
+      entry = new Entry(System.nanoTime() + negativeTtl, null, e);
+    }
+
+    if (cache.size() >= MAX_ENTRIES) {
+      trim();
+    }
+    cache.put(hostname, entry);
+    return entry;
+  }
+
+  private void trim() {
+    long now = System.nanoTime();
+    for (Iterator<Entry> iterator = cache.values().iterator(); iterator.hasNext();) {
+      if (iterator.next().expiresAt - now <= 0) {
+        iterator.remove();
+      }
+    }
+    if (cache.size() >= MAX_ENTRIES) {
+      cache.clear();
+    }
+    if (stats.size() >= MAX_ENTRIES * 4) {
+      stats.clear();
+    }
+  }
+
+  private boolean isAnyMeasured(List<InetAddress> addresses) {
+    for (InetAddress address : addresses) {
+      if (stats.containsKey(address)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Connects to all addresses in parallel and waits for the first one
+   * connected. The others keep going in background, all of them are measured.
+   */
+  private void race(List<InetAddress> addresses, final int port) {
+    CompletionService<Boolean> service = new ExecutorCompletionService<>(sRaceExecutor);
+    for (final InetAddress address : addresses) {
+      service.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          return probe(address, port);
+        }
+      });
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RACE_TIMEOUT_MILLIS);
+    try {
+      for (int i = 0, n = addresses.size(); i < n; i++) {
+        Future<Boolean> future = service.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (future == null || future.get()) {
+          break;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      // Ignore
+    }
+  }
+
+  private boolean probe(InetAddress address, int port) {
+    Socket socket = new Socket();
+    long start = System.nanoTime();
+    try {
+      socket.connect(new InetSocketAddress(address, port), RACE_TIMEOUT_MILLIS);
+      onConnected(address, System.nanoTime() - start);
+      return true;
+    } catch (IOException e) {
+      onConnectFailed(address);
+      return false;
+    } finally {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // Ignore
+      }
+    }
+  }
+
+  private Stats getStats(InetAddress address) {
+    Stats s = stats.get(address);
+    if (s == null) {
+      Stats newStats = new Stats();
+      s = stats.putIfAbsent(address, newStats);
+      if (s == null) {
+        s = newStats;
+      }
+    }
+    return s;
+  }
+
+  void onConnected(InetAddress address, long latency) {
+    getStats(address).onConnected(latency);
+  }
+
+  void onConnectFailed(InetAddress address) {
+    getStats(address).onConnectFailed();
+  }
+
+  private long rank(InetAddress address) {
+    Stats s = stats.get(address);
+    return s != null ? s.rank() : RANK_UNKNOWN;
+  }
+
+  // Stable, stats are read once so concurrent updates can't break the sorting
+  private List<InetAddress> sort(List<InetAddress> addresses) {
+    int size = addresses.size();
+    if (size < 2) {
+      return addresses;
+    }
+
+    long[] ranks = new long[size];
+    boolean sorted = true;
+    for (int i = 0; i < size; i++) {
+      ranks[i] = rank(addresses.get(i));
+      if (i > 0 && ranks[i] < ranks[i - 1]) {
+        sorted = false;
+      }
+    }
+    if (sorted) {
+      return addresses;
+    }
+
+    InetAddress[] array = addresses.toArray(new InetAddress[size]);
+    for (int i = 1; i < size; i++) {
+      InetAddress address = array[i];
+      long rank = ranks[i];
+      int j = i - 1;
+      while (j >= 0 && ranks[j] > rank) {
+        array[j + 1] = array[j];
+        ranks[j + 1] = ranks[j];
+        j--;
+      }
+      array[j + 1] = address;
+      ranks[j + 1] = rank;
+    }
+    return Collections.unmodifiableList(Arrays.asList(array));
+  }
+
+  private static class Entry {
+
+    // System.nanoTime()
+    final long expiresAt;
+    final List<InetAddress> addresses;
+    final UnknownHostException exception;
+
+    Entry(long expiresAt, List<InetAddress> addresses, UnknownHostException exception) {
+      this.expiresAt = expiresAt;
+      this.addresses = addresses;
+      this.exception = exception;
+    }
+  }
+
+  private static class Stats {
+
+    // Exponentially weighted moving average of connect latency in nanoseconds, -1 for unknown
+    private long latency = -1;
+    // Failures since last success
+    private int failures;
+
+    synchronized void onConnected(long latency) {
+      this.latency = this.latency < 0 ? latency : (this.latency * 3 + latency) / 4;
+      this.failures = 0;
+    }
+
+    synchronized void onConnectFailed() {
+      failures++;
+    }
+
+    synchronized long rank() {
+      if (failures > 0) {
+        return RANK_FAILED;
+      } else if (latency < 0) {
+        return RANK_UNKNOWN;
+      } else {
+        return latency;
+      }
+    }
+  }
+
+  /**
+   * Measures connections of a call. The TCP connect latency ends at
+   * secureConnectStart for TLS, or at connectEnd.
+   */
+  private class ConnectListener extends EventListener {
+
+    private InetSocketAddress address;
+    private long start;
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+      // The port is unknown if it looks up a proxy
+      HttpUrl url = call.request().url();
+      if (url.host().equals(domainName)) {
+        callAddress.set(InetSocketAddress.createUnresolved(domainName, url.port()));
+      } else {
+        callAddress.remove();
+      }
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+      callAddress.remove();
+    }
+
+    private void onConnected() {
+      if (address != null) {
+        CachingDns.this.onConnected(address.getAddress(), System.nanoTime() - start);
+        address = null;
+      }
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+      // Only direct connections measure the address
+      if (proxy.type() == Proxy.Type.DIRECT && inetSocketAddress.getAddress() != null) {
+        address = inetSocketAddress;
+        start = System.nanoTime();
+      } else {
+        address = null;
+      }
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+      onConnected();
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+        Protocol protocol) {
+      onConnected();
+    }
+
+    @Override
+    public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+        Protocol protocol, IOException ioe) {
+      if (address != null) {
+        CachingDns.this.onConnectFailed(address.getAddress());
+        address = null;
+        // The addresses may be changed
+        evict(call.request().url().host());
+      }
+    }
+  }
+}
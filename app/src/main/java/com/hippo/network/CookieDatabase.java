@@ -224,6 +224,16 @@ class CookieDatabase {
     cookieIdMap.remove(cookie);
   }
 
+  public void runInTransaction(Runnable runnable) {
+    db.beginTransaction();
+    try {
+      runnable.run();
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
   public void clear() {
     db.delete(TABLE_COOKIE, null, null);
     cookieIdMap.clear();
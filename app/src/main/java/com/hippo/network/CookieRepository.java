@@ -21,112 +21,318 @@ package com.hippo.network;
  */
 
 import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+import com.hippo.util.ExceptionUtils;
 import com.hippo.yorozuya.ObjectUtils;
+import com.hippo.yorozuya.thread.PriorityThreadFactory;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import okhttp3.Cookie;
 import okhttp3.CookieJar;
 import okhttp3.HttpUrl;
 
+/**
+ * Cookies are indexed by domain, each {@link CookieSet} is locked on its own.
+ * Cookies matched by a host are cached with the rendered {@code Cookie} header,
+ * so most requests don't lock or allocate. Database writes are queued and run
+ * in one transaction on a writer thread.
+ */
 public class CookieRepository implements CookieJar {
 
-  private CookieDatabase db;
-  private Map<String, CookieSet> map;
+  private static final String LOG_TAG = CookieRepository.class.getSimpleName();
+
+  private static final int MAX_CACHED_HOSTS = 256;
+
+  private static final ExecutorService sWriteExecutor = Executors.newSingleThreadExecutor(
+      new PriorityThreadFactory("CookieRepository-Writer", Process.THREAD_PRIORITY_BACKGROUND));
+
+  // RFC 6265 Section-5.4 step 2, sort the cookie-list
+  // Cookies with longer paths are listed before cookies with shorter paths.
+  // Ignore creation-time, we don't store them.
+  private static final Comparator<Cookie> PATH_LENGTH_COMPARATOR = new Comparator<Cookie>() {
+    @Override
+    public int compare(Cookie o1, Cookie o2) {
+      return o2.path().length() - o1.path().length();
+    }
+  };
+
+  private final CookieDatabase db;
+  private final ConcurrentMap<String, CookieSet> map;
+
+  // Cookies matched by host, for https and http urls
+  private final Map<String, HostCookies> httpsCache = new ConcurrentHashMap<>();
+  private final Map<String, HostCookies> httpCache = new ConcurrentHashMap<>();
+  // Increased after cookies are changed, older cache entries are stale
+  private final AtomicInteger version = new AtomicInteger();
+
+  // Write-behind queue, only the writer thread touches db
+  private final Object writeLock = new Object();
+  private final List<WriteOp> pendingWriteOps = new ArrayList<>();
+  private long enqueuedCount;
+  private long writtenCount;
+  private boolean writeScheduled;
+
+  private interface WriteOp {
+    void run(CookieDatabase db);
+  }
+
+  private final Runnable writeTask = new Runnable() {
+    @Override
+    public void run() {
+      final List<WriteOp> ops;
+      long count;
+      synchronized (writeLock) {
+        ops = new ArrayList<>(pendingWriteOps);
+        pendingWriteOps.clear();
+        count = enqueuedCount;
+        writeScheduled = false;
+      }
+
+      try {
+        db.runInTransaction(new Runnable() {
+          @Override
+          public void run() {
+            for (WriteOp op : ops) {
+              op.run(db);
+            }
+          }
+        });
+      } catch (Throwable e) {
+        ExceptionUtils.throwIfFatal(e);
+        Log.e(LOG_TAG, "Can't write cookies", e);
+      }
+
+      synchronized (writeLock) {
+        writtenCount = count;
+        writeLock.notifyAll();
+      }
+    }
+  };
 
   public CookieRepository(Context context, String name) {
     db = new CookieDatabase(context, name);
-    map = db.getAllCookies();
+    map = new ConcurrentHashMap<>(db.getAllCookies());
   }
 
-  public synchronized void addCookie(Cookie cookie) {
-    // For cookie database
-    Cookie toAdd = null;
-    Cookie toUpdate = null;
-    Cookie toRemove = null;
-
-    CookieSet set = map.get(cookie.domain());
-    if (set == null) {
-      set = new CookieSet();
-      map.put(cookie.domain(), set);
+  private void enqueue(WriteOp op) {
+    synchronized (writeLock) {
+      pendingWriteOps.add(op);
+      enqueuedCount++;
+      if (!writeScheduled) {
+        writeScheduled = true;
+        sWriteExecutor.execute(writeTask);
+      }
     }
+  }
+
+  private void enqueueRemove(final Cookie cookie) {
+    enqueue(new WriteOp() {
+      @Override
+      public void run(CookieDatabase db) {
+        db.remove(cookie);
+      }
+    });
+  }
 
-    if (cookie.expiresAt() <= System.currentTimeMillis()) {
-      toRemove = set.remove(cookie);
-      // If the cookie is not persistent, it's not in database
-      if (toRemove != null && !toRemove.persistent()) {
-        toRemove = null;
+  /**
+   * Waits for queued database writes.
+   */
+  private void waitForWrites() {
+    synchronized (writeLock) {
+      long count = enqueuedCount;
+      boolean interrupted = false;
+      while (writtenCount < count) {
+        try {
+          writeLock.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
       }
-    } else {
-      toAdd = cookie;
-      toUpdate = set.add(cookie);
-      // If the cookie is not persistent, it's not in database
-      if (!toAdd.persistent()) toAdd = null;
-      if (toUpdate != null && !toUpdate.persistent()) toUpdate = null;
-      // Remove the cookie if it updates to null
-      if (toAdd == null && toUpdate != null) {
-        toRemove = toUpdate;
-        toUpdate = null;
+      if (interrupted) {
+        Thread.currentThread().interrupt();
       }
     }
+  }
 
-    if (toRemove != null) {
-      db.remove(toRemove);
+  public void addCookie(Cookie cookie) {
+    CookieSet set = map.get(cookie.domain());
+    if (set == null) {
+      CookieSet newSet = new CookieSet();
+      set = map.putIfAbsent(cookie.domain(), newSet);
+      if (set == null) {
+        set = newSet;
+      }
     }
-    if (toAdd != null) {
-      if (toUpdate != null) {
-        db.update(toUpdate, toAdd);
+
+    // Enqueue database writes with the set locked,
+    // so they are in the same order as changes of the set
+    synchronized (set) {
+      // For cookie database
+      Cookie toAdd = null;
+      Cookie toUpdate = null;
+      Cookie toRemove = null;
+
+      if (cookie.expiresAt() <= System.currentTimeMillis()) {
+        toRemove = set.remove(cookie);
+        // If the cookie is not persistent, it's not in database
+        if (toRemove != null && !toRemove.persistent()) {
+          toRemove = null;
+        }
       } else {
-        db.add(toAdd);
+        toAdd = cookie;
+        toUpdate = set.add(cookie);
+        if (cookie.equals(toUpdate)) {
+          // Nothing changed
+          return;
+        }
+        // If the cookie is not persistent, it's not in database
+        if (!toAdd.persistent()) toAdd = null;
+        if (toUpdate != null && !toUpdate.persistent()) toUpdate = null;
+        // Remove the cookie if it updates to null
+        if (toAdd == null && toUpdate != null) {
+          toRemove = toUpdate;
+          toUpdate = null;
+        }
+      }
+
+      version.incrementAndGet();
+
+      if (toRemove != null) {
+        enqueueRemove(toRemove);
+      }
+      if (toAdd != null) {
+        final Cookie from = toUpdate;
+        final Cookie to = toAdd;
+        enqueue(new WriteOp() {
+          @Override
+          public void run(CookieDatabase db) {
+            if (from != null) {
+              db.update(from, to);
+            } else {
+              db.add(to);
+            }
+          }
+        });
       }
     }
   }
 
   public String getCookieHeader(HttpUrl url) {
-    List<Cookie> cookies = getCookies(url);
-    StringBuilder cookieHeader = new StringBuilder();
-    for (int i = 0, size = cookies.size(); i < size; i++) {
-      if (i > 0) {
-        cookieHeader.append("; ");
-      }
+    HostCookies hostCookies = getHostCookies(url);
+    if (hostCookies.anyPath) {
+      return hostCookies.header;
+    }
+    return renderHeader(getCookies(hostCookies, url));
+  }
+
+  public List<Cookie> getCookies(HttpUrl url) {
+    return getCookies(getHostCookies(url), url);
+  }
+
+  private static List<Cookie> getCookies(HostCookies hostCookies, HttpUrl url) {
+    List<Cookie> cookies = hostCookies.cookies;
+    if (hostCookies.anyPath) {
+      return cookies;
+    }
+    // Domain and scheme are checked when the entry is built
+    String urlPath = url.encodedPath();
+    List<Cookie> accepted = new ArrayList<>(cookies.size());
+    for (int i = 0, n = cookies.size(); i < n; i++) {
       Cookie cookie = cookies.get(i);
-      cookieHeader.append(cookie.name()).append('=').append(cookie.value());
+      if (pathMatch(urlPath, cookie.path())) {
+        accepted.add(cookie);
+      }
     }
-    return cookieHeader.toString();
+    return Collections.unmodifiableList(accepted);
   }
 
-  public synchronized List<Cookie> getCookies(HttpUrl url) {
+  // okhttp3.Cookie.pathMatch(HttpUrl, String)
+  private static boolean pathMatch(String urlPath, String path) {
+    if (urlPath.equals(path)) {
+      return true; // As in '/foo' matching '/foo'.
+    }
+
+    if (urlPath.startsWith(path)) {
+      if (path.endsWith("/")) return true; // As in '/' matching '/foo'.
+      if (urlPath.charAt(path.length()) == '/') return true; // As in '/foo' matching '/foo/bar'.
+    }
+
+    return false;
+  }
+
+  private HostCookies getHostCookies(HttpUrl url) {
+    String host = url.host();
+    boolean https = url.isHttps();
+    Map<String, HostCookies> cache = https ? httpsCache : httpCache;
+    HostCookies hostCookies = cache.get(host);
+    if (hostCookies != null && hostCookies.version == version.get() &&
+        System.currentTimeMillis() < hostCookies.expiresAt) {
+      return hostCookies;
+    }
+
+    // Read version before reading sets, the entry is stale if cookies change meanwhile
+    int currentVersion = version.get();
+    long now = System.currentTimeMillis();
     List<Cookie> accepted = new ArrayList<>();
     List<Cookie> expired = new ArrayList<>();
 
-    for (Map.Entry<String, CookieSet> entry : map.entrySet()) {
-      String domain = entry.getKey();
-      CookieSet cookieSet = entry.getValue();
-      if (domainMatch(url, domain)) {
-        cookieSet.get(url, accepted, expired);
+    // The host itself and its parent domains, as in okhttp3.Cookie.domainMatch()
+    boolean ipAddress = verifyAsIpAddress(host);
+    for (int index = 0; index >= 0; ) {
+      CookieSet set = map.get(index == 0 ? host : host.substring(index));
+      if (set != null) {
+        synchronized (set) {
+          int expiredStart = expired.size();
+          set.get(host, https, now, accepted, expired);
+          for (int i = expiredStart, n = expired.size(); i < n; i++) {
+            Cookie cookie = expired.get(i);
+            if (cookie.persistent()) {
+              enqueueRemove(cookie);
+            }
+          }
+        }
+      }
+      if (ipAddress) {
+        break;
       }
+      int dot = host.indexOf('.', index);
+      index = dot >= 0 && dot + 1 < host.length() ? dot + 1 : -1;
+    }
+    if (!expired.isEmpty()) {
+      // Entries of other hosts may have them
+      version.incrementAndGet();
     }
 
-    for (Cookie cookie : expired) {
-      if (cookie.persistent()) {
-        db.remove(cookie);
-      }
+    Collections.sort(accepted, PATH_LENGTH_COMPARATOR);
+    hostCookies = new HostCookies(currentVersion, accepted);
+    if (cache.size() >= MAX_CACHED_HOSTS) {
+      // Image servers have many hosts
+      cache.clear();
     }
+    cache.put(host, hostCookies);
+    return hostCookies;
+  }
 
-    // RFC 6265 Section-5.4 step 2, sort the cookie-list
-    // Cookies with longer paths are listed before cookies with shorter paths.
-    // Ignore creation-time, we don't store them.
-    Collections.sort(accepted, new Comparator<Cookie>() {
-      @Override
-      public int compare(Cookie o1, Cookie o2) {
-        return o2.path().length() - o1.path().length();
+  private static String renderHeader(List<Cookie> cookies) {
+    StringBuilder cookieHeader = new StringBuilder();
+    for (int i = 0, size = cookies.size(); i < size; i++) {
+      if (i > 0) {
+        cookieHeader.append("; ");
       }
-    });
-
-    return accepted;
+      Cookie cookie = cookies.get(i);
+      cookieHeader.append(cookie.name()).append('=').append(cookie.value());
+    }
+    return cookieHeader.toString();
   }
 
   public boolean contains(HttpUrl url, String name) {
@@ -141,12 +347,22 @@ public class CookieRepository implements CookieJar {
   /**
    * Remove all cookies in this {@code CookieRepository}.
    */
-  public synchronized void clear() {
+  public void clear() {
     map.clear();
-    db.clear();
+    version.incrementAndGet();
+    enqueue(new WriteOp() {
+      @Override
+      public void run(CookieDatabase db) {
+        db.clear();
+      }
+    });
   }
 
-  public synchronized void close() {
+  /**
+   * Waits for queued database writes and closes the database.
+   */
+  public void close() {
+    waitForWrites();
     db.close();
   }
 
@@ -162,6 +378,35 @@ public class CookieRepository implements CookieJar {
     return getCookies(httpUrl);
   }
 
+  /**
+   * Cookies matched by a host, sorted.
+   */
+  private static class HostCookies {
+
+    private final int version;
+    // The time the first cookie expires
+    private final long expiresAt;
+    private final List<Cookie> cookies;
+    // All paths are "/", so cookies and header are for any url of the host
+    private final boolean anyPath;
+    private final String header;
+
+    private HostCookies(int version, List<Cookie> cookies) {
+      long expiresAt = Long.MAX_VALUE;
+      boolean anyPath = true;
+      for (int i = 0, n = cookies.size(); i < n; i++) {
+        Cookie cookie = cookies.get(i);
+        expiresAt = Math.min(expiresAt, cookie.expiresAt());
+        anyPath &= "/".equals(cookie.path());
+      }
+      this.version = version;
+      this.expiresAt = expiresAt;
+      this.cookies = Collections.unmodifiableList(cookies);
+      this.anyPath = anyPath;
+      this.header = anyPath ? renderHeader(cookies) : null;
+    }
+  }
+
   /**
    * Quick and dirty pattern to differentiate IP addresses from hostnames. This is an approximation
    * of Android's private InetAddress#isNumeric API.
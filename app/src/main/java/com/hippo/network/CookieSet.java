@@ -27,8 +27,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import okhttp3.Cookie;
-import okhttp3.HttpUrl;
 
+/**
+ * Cookies of a domain. It isn't thread-safe, lock the set to access it.
+ */
 class CookieSet {
 
   private Map<Key, Cookie> map = new HashMap<>();
@@ -52,17 +54,18 @@ class CookieSet {
   }
 
   /**
-   * Get cookies for the url. Fill {@code accepted} and {@code expired}.
+   * Get cookies for the host. Fill {@code accepted} and {@code expired}.
+   * Domain of the set must match the host. Paths are not checked.
    */
-  public void get(HttpUrl url, List<Cookie> accepted, List<Cookie> expired) {
-    long now = System.currentTimeMillis();
+  public void get(String host, boolean https, long now, List<Cookie> accepted, List<Cookie> expired) {
     Iterator<Map.Entry<Key, Cookie>> iterator = map.entrySet().iterator();
     while (iterator.hasNext()) {
       Cookie cookie = iterator.next().getValue();
       if (cookie.expiresAt() <= now) {
         iterator.remove();
         expired.add(cookie);
-      } else if (cookie.matches(url)) {
+      } else if ((!cookie.hostOnly() || host.equals(cookie.domain())) &&
+          (https || !cookie.secure())) {
         accepted.add(cookie);
       }
     }
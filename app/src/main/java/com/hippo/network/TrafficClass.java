@@ -0,0 +1,287 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import android.os.Process;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.hippo.yorozuya.thread.PriorityThreadFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * A kind of traffic with its own {@link Dispatcher}, {@link ConnectionPool},
+ * timeouts and thread priority, so one kind of traffic can't starve another.
+ * It also counts calls of the kind, sync calls included.
+ */
+public class TrafficClass {
+
+  private final String name;
+  private final Dispatcher dispatcher;
+  private final ConnectionPool connectionPool;
+  private final long connectTimeout;
+  private final long readTimeout;
+  private final long writeTimeout;
+
+  private final AtomicInteger runningCalls = new AtomicInteger();
+  private final AtomicInteger calls = new AtomicInteger();
+  private final AtomicInteger failures = new AtomicInteger();
+  // Exponentially weighted moving average of time to response headers in milliseconds, -1 for unknown
+  private long latency = -1;
+
+  private TrafficClass(Builder builder) {
+    name = builder.name;
+    dispatcher = new Dispatcher(new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+        new SynchronousQueue<>(), new PriorityThreadFactory("OkHttp-" + name, builder.threadPriority)));
+    dispatcher.setMaxRequests(builder.maxRequests);
+    dispatcher.setMaxRequestsPerHost(builder.maxRequestsPerHost);
+    connectionPool = new ConnectionPool(builder.maxIdleConnections, builder.keepAlive, TimeUnit.MILLISECONDS);
+    connectTimeout = builder.connectTimeout;
+    readTimeout = builder.readTimeout;
+    writeTimeout = builder.writeTimeout;
+  }
+
+  @NonNull
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Sets dispatcher, connection pool, timeouts and event listener of the traffic class.
+   *
+   * @param factory events are forwarded to listeners of it
+   */
+  @NonNull
+  public OkHttpClient.Builder apply(@NonNull OkHttpClient.Builder builder, @Nullable EventListener.Factory factory) {
+    return builder
+        .dispatcher(dispatcher)
+        .connectionPool(connectionPool)
+        .connectTimeout(connectTimeout, TimeUnit.MILLISECONDS)
+        .readTimeout(readTimeout, TimeUnit.MILLISECONDS)
+        .writeTimeout(writeTimeout, TimeUnit.MILLISECONDS)
+        .eventListenerFactory(call -> new Listener(factory != null ? factory.create(call) : EventListener.NONE));
+  }
+
+  /**
+   * Async calls waiting for the dispatcher.
+   */
+  public int getQueuedCalls() {
+    return dispatcher.queuedCallsCount();
+  }
+
+  /**
+   * Sync and async calls running.
+   */
+  public int getRunningCalls() {
+    return runningCalls.get();
+  }
+
+  public int getCalls() {
+    return calls.get();
+  }
+
+  public int getFailures() {
+    return failures.get();
+  }
+
+  /**
+   * @return time to response headers in milliseconds, -1 for unknown
+   */
+  public synchronized long getLatency() {
+    return latency;
+  }
+
+  private synchronized void onResponse(long time) {
+    latency = latency < 0 ? time : (latency * 3 + time) / 4;
+  }
+
+  @Override
+  public String toString() {
+    return name + ": queued " + getQueuedCalls() + ", running " + getRunningCalls() +
+        ", calls " + getCalls() + ", failures " + getFailures() + ", latency " + getLatency() + "ms";
+  }
+
+  public static class Builder {
+
+    private final String name;
+    public int maxRequests = 64;
+    public int maxRequestsPerHost = 5;
+    public int maxIdleConnections = 5;
+    // In milliseconds
+    public long keepAlive = 5 * 60 * 1000;
+    public long connectTimeout = 10 * 1000;
+    public long readTimeout = 10 * 1000;
+    public long writeTimeout = 10 * 1000;
+    public int threadPriority = Process.THREAD_PRIORITY_DEFAULT;
+
+    public Builder(@NonNull String name) {
+      this.name = name;
+    }
+
+    @NonNull
+    public TrafficClass build() {
+      return new TrafficClass(this);
+    }
+  }
+
+  private class Listener extends EventListener {
+
+    private final EventListener delegate;
+    private long start;
+    private boolean responded;
+
+    Listener(EventListener delegate) {
+      this.delegate = delegate;
+    }
+
+    private void onCallFinished(boolean failed) {
+      runningCalls.decrementAndGet();
+      calls.incrementAndGet();
+      if (failed) {
+        failures.incrementAndGet();
+      }
+    }
+
+    @Override
+    public void callStart(Call call) {
+      start = System.nanoTime();
+      runningCalls.incrementAndGet();
+      delegate.callStart(call);
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+      delegate.dnsStart(call, domainName);
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+      delegate.dnsEnd(call, domainName, inetAddressList);
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+      delegate.connectStart(call, inetSocketAddress, proxy);
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+      delegate.secureConnectStart(call);
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, @Nullable Handshake handshake) {
+      delegate.secureConnectEnd(call, handshake);
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+        @Nullable Protocol protocol) {
+      delegate.connectEnd(call, inetSocketAddress, proxy, protocol);
+    }
+
+    @Override
+    public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+        @Nullable Protocol protocol, IOException ioe) {
+      delegate.connectFailed(call, inetSocketAddress, proxy, protocol, ioe);
+    }
+
+    @Override
+    public void connectionAcquired(Call call, Connection connection) {
+      delegate.connectionAcquired(call, connection);
+    }
+
+    @Override
+    public void connectionReleased(Call call, Connection connection) {
+      delegate.connectionReleased(call, connection);
+    }
+
+    @Override
+    public void requestHeadersStart(Call call) {
+      delegate.requestHeadersStart(call);
+    }
+
+    @Override
+    public void requestHeadersEnd(Call call, Request request) {
+      delegate.requestHeadersEnd(call, request);
+    }
+
+    @Override
+    public void requestBodyStart(Call call) {
+      delegate.requestBodyStart(call);
+    }
+
+    @Override
+    public void requestBodyEnd(Call call, long byteCount) {
+      delegate.requestBodyEnd(call, byteCount);
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+      delegate.responseHeadersStart(call);
+    }
+
+    @Override
+    public void responseHeadersEnd(Call call, Response response) {
+      // Only the first response, follow-ups of redirects are not counted
+      if (!responded) {
+        responded = true;
+        onResponse(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      }
+      delegate.responseHeadersEnd(call, response);
+    }
+
+    @Override
+    public void responseBodyStart(Call call) {
+      delegate.responseBodyStart(call);
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+      delegate.responseBodyEnd(call, byteCount);
+    }
+
+    @Override
+    public void callEnd(Call call) {
+      onCallFinished(false);
+      delegate.callEnd(call);
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+      onCallFinished(true);
+      delegate.callFailed(call, ioe);
+    }
+  }
+}
@@ -19,8 +19,10 @@ package com.hippo.ehviewer.client;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
+import android.util.Pair;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 import okio.BufferedSource;
 import okio.Okio;
 import org.junit.Test;
@@ -50,5 +52,34 @@ public class EhTagDatabaseTest {
     assertEquals("123", db.getTranslation("abc"));
     assertEquals("1234", db.getTranslation("abcd"));
     assertNull(db.getTranslation("21"));
+    assertNull(db.getTranslation("12345"));
+    assertNull(db.getTranslation(""));
+  }
+
+  @Test
+  public void suggest() throws IOException {
+    InputStream resource = EhTagDatabaseTest.class.getResourceAsStream("EhTagDatabaseTest");
+
+    EhTagDatabase db;
+    try (BufferedSource source = Okio.buffer(Okio.source(resource))) {
+      db = new EhTagDatabase("EhTagDatabaseTest", source);
+    }
+
+    // Prefix first, then substring
+    List<Pair<String, String>> list = db.suggest("23", 10);
+    assertEquals(2, list.size());
+    assertEquals("123", list.get(0).first);
+    assertEquals("abc", list.get(0).second);
+    assertEquals("1234", list.get(1).first);
+
+    list = db.suggest("ab", 10);
+    assertEquals(3, list.size());
+    assertEquals("ab", list.get(0).first);
+    assertEquals("12", list.get(0).second);
+    assertEquals("abc", list.get(1).first);
+    assertEquals("abcd", list.get(2).first);
+
+    assertEquals(2, db.suggest("1", 2).size());
+    assertEquals(0, db.suggest("x", 10).size());
   }
 }
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class GalleryDetailCodecTest {
+
+  private static GalleryDetail newGalleryDetail(boolean largePreviews) {
+    GalleryDetail gd = new GalleryDetail();
+    gd.gid = 1363978;
+    gd.token = "a1b2c3d4e5";
+    gd.title = "Title";
+    gd.titleJpn = "タイトル";
+    gd.thumb = "https://ehgt.org/thumb.jpg";
+    gd.category = 2;
+    gd.posted = "2019-02-16 04:55";
+    gd.uploader = "uploader";
+    gd.rating = 4.5f;
+    gd.rated = true;
+    gd.simpleTags = new String[] {"language:english", null};
+    gd.pages = 42;
+    gd.thumbWidth = 250;
+    gd.thumbHeight = 350;
+    gd.simpleLanguage = "EN";
+    gd.favoriteSlot = 3;
+    gd.favoriteName = "Favorites 3";
+
+    gd.apiUid = 123456;
+    gd.apiKey = "apikey";
+    gd.torrentCount = 1;
+    gd.torrentUrl = "https://e-hentai.org/gallerytorrents.php";
+    gd.archiveUrl = "https://e-hentai.org/archiver.php";
+    gd.parent = null;
+    gd.visible = "Yes";
+    gd.language = "English";
+    gd.size = "10.5 MB";
+    gd.favoriteCount = 100;
+    gd.isFavorited = true;
+    gd.ratingCount = 50;
+    gd.previewPages = 2;
+
+    GalleryTagGroup group = new GalleryTagGroup();
+    group.groupName = "language";
+    group.addTag("english");
+    group.addTag("translated");
+    gd.tags = new GalleryTagGroup[] {group};
+
+    GalleryComment comment = new GalleryComment();
+    comment.id = 7;
+    comment.score = -3;
+    comment.voteUpAble = true;
+    comment.voteState = "+1";
+    comment.time = 1550291700000L;
+    comment.user = "user";
+    comment.comment = "<p>comment</p>";
+    comment.lastEdited = 1550291800000L;
+    gd.comments = new GalleryCommentList(new GalleryComment[] {comment}, true);
+
+    if (largePreviews) {
+      LargePreviewSet previewSet = new LargePreviewSet();
+      previewSet.addItem(0, "https://ehgt.org/1.jpg", "https://e-hentai.org/s/1");
+      previewSet.addItem(1, "https://ehgt.org/2.jpg", "https://e-hentai.org/s/2");
+      gd.previewSet = previewSet;
+    } else {
+      NormalPreviewSet previewSet = new NormalPreviewSet();
+      previewSet.addItem(0, "https://ehgt.org/m.jpg", 0, 0, 100, 140, "https://e-hentai.org/s/1");
+      previewSet.addItem(1, "https://ehgt.org/m.jpg", 100, 0, 100, 140, "https://e-hentai.org/s/2");
+      gd.previewSet = previewSet;
+    }
+    return gd;
+  }
+
+  private static void assertGalleryDetailEquals(GalleryDetail expected, GalleryDetail actual) {
+    assertNotNull(actual);
+    assertEquals(expected.gid, actual.gid);
+    assertEquals(expected.token, actual.token);
+    assertEquals(expected.titleJpn, actual.titleJpn);
+    assertEquals(expected.rating, actual.rating, 0.0f);
+    assertArrayEquals(expected.simpleTags, actual.simpleTags);
+    assertEquals(expected.favoriteSlot, actual.favoriteSlot);
+    assertEquals(expected.apiUid, actual.apiUid);
+    assertNull(actual.parent);
+    assertEquals(expected.tags.length, actual.tags.length);
+    assertEquals(expected.tags[0].groupName, actual.tags[0].groupName);
+    assertEquals(expected.tags[0].getTagAt(1), actual.tags[0].getTagAt(1));
+    assertEquals(expected.comments.hasMore, actual.comments.hasMore);
+    assertEquals(expected.comments.comments[0].comment, actual.comments.comments[0].comment);
+    assertEquals(expected.comments.comments[0].score, actual.comments.comments[0].score);
+    assertEquals(expected.previewSet.getClass(), actual.previewSet.getClass());
+    assertEquals(expected.previewSet.size(), actual.previewSet.size());
+    for (int i = 0; i < expected.previewSet.size(); i++) {
+      GalleryPreview e = expected.previewSet.getGalleryPreview(expected.gid, i);
+      GalleryPreview a = actual.previewSet.getGalleryPreview(actual.gid, i);
+      assertEquals(e.position, a.position);
+      assertEquals(e.imageUrl, a.imageUrl);
+      assertEquals(e.pageUrl, a.pageUrl);
+      assertEquals(e.offsetX, a.offsetX);
+      assertEquals(e.clipWidth, a.clipWidth);
+    }
+    // Everything else
+    assertArrayEquals(GalleryDetailCodec.encode(expected), GalleryDetailCodec.encode(actual));
+  }
+
+  @Test
+  public void testRoundTrip() {
+    for (boolean largePreviews : new boolean[] {true, false}) {
+      GalleryDetail gd = newGalleryDetail(largePreviews);
+      assertGalleryDetailEquals(gd, GalleryDetailCodec.decode(GalleryDetailCodec.encode(gd)));
+    }
+  }
+
+  @Test
+  public void testRoundTripEmpty() {
+    GalleryDetail gd = new GalleryDetail();
+    byte[] data = GalleryDetailCodec.encode(gd);
+    GalleryDetail result = GalleryDetailCodec.decode(data);
+    assertNotNull(result);
+    assertNull(result.title);
+    assertNull(result.simpleTags);
+    assertNull(result.tags);
+    assertNull(result.comments);
+    assertNull(result.previewSet);
+    assertArrayEquals(data, GalleryDetailCodec.encode(result));
+  }
+
+  @Test
+  public void testBadHeader() {
+    byte[] data = GalleryDetailCodec.encode(newGalleryDetail(true));
+
+    byte[] badMagic = data.clone();
+    badMagic[0] ^= 0xff;
+    assertNull(GalleryDetailCodec.decode(badMagic));
+
+    // Another version
+    byte[] badVersion = data.clone();
+    badVersion[7]++;
+    assertNull(GalleryDetailCodec.decode(badVersion));
+
+    assertNull(GalleryDetailCodec.decode(new byte[0]));
+  }
+
+  @Test
+  public void testTruncated() {
+    byte[] data = GalleryDetailCodec.encode(newGalleryDetail(false));
+    for (int i = 0; i < data.length; i++) {
+      assertNull(GalleryDetailCodec.decode(Arrays.copyOf(data, i)));
+    }
+  }
+
+  @Test
+  public void testBadLength() {
+    byte[] data = GalleryDetailCodec.encode(newGalleryDetail(true));
+    // Length of token, after magic, version and gid
+    byte[] badLength = data.clone();
+    badLength[16] = 0x7f;
+    assertNull(GalleryDetailCodec.decode(badLength));
+  }
+
+  @Test
+  public void testCorrupted() {
+    byte[] data = GalleryDetailCodec.encode(newGalleryDetail(true));
+    Random random = new Random(0);
+    for (int i = 0; i < 1000; i++) {
+      byte[] corrupted = data.clone();
+      for (int j = 0, n = 1 + random.nextInt(4); j < n; j++) {
+        corrupted[8 + random.nextInt(corrupted.length - 8)] = (byte) random.nextInt();
+      }
+      // It may decode to another gallery detail, but never throws
+      GalleryDetailCodec.decode(corrupted);
+    }
+  }
+}
@@ -16,17 +16,20 @@
 
 package com.hippo.ehviewer.client.parser;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
 import com.hippo.ehviewer.client.EhUtils;
+import com.hippo.ehviewer.client.data.GalleryInfo;
 import edu.emory.mathcs.backport.java.util.Arrays;
 import java.io.InputStream;
 import java.util.List;
 import okio.BufferedSource;
 import okio.Okio;
+import org.jsoup.Jsoup;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.ParameterizedRobolectricTestRunner;
@@ -107,4 +110,36 @@ public class GalleryListParserTest {
       assertNotEquals(0, gi.pages);
     });
   }
+
+  @Test
+  public void testStreamParser() throws Exception {
+    InputStream resource = GalleryPageApiParserTest.class.getResourceAsStream(file);
+    BufferedSource source = Okio.buffer(Okio.source(resource));
+    String body = source.readUtf8();
+
+    GalleryListParser.Result expected = GalleryListParser.parse(Jsoup.parse(body), body);
+    GalleryListParser.Result actual = GalleryListStreamParser.parse(body);
+
+    assertEquals(expected.pages, actual.pages);
+    assertEquals(expected.nextPage, actual.nextPage);
+    assertEquals(expected.galleryInfoList.size(), actual.galleryInfoList.size());
+    for (int i = 0; i < expected.galleryInfoList.size(); i++) {
+      GalleryInfo e = expected.galleryInfoList.get(i);
+      GalleryInfo a = actual.galleryInfoList.get(i);
+      assertEquals(e.gid, a.gid);
+      assertEquals(e.token, a.token);
+      assertEquals(e.title, a.title);
+      assertArrayEquals(e.simpleTags, a.simpleTags);
+      assertEquals(e.category, a.category);
+      assertEquals(e.thumb, a.thumb);
+      assertEquals(e.thumbWidth, a.thumbWidth);
+      assertEquals(e.thumbHeight, a.thumbHeight);
+      assertEquals(e.posted, a.posted);
+      assertEquals(e.favoriteSlot, a.favoriteSlot);
+      assertEquals(e.rating, a.rating, 0.0f);
+      assertEquals(e.rated, a.rated);
+      assertEquals(e.uploader, a.uploader);
+      assertEquals(e.pages, a.pages);
+    }
+  }
 }
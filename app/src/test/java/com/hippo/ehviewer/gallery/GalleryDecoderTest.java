@@ -0,0 +1,42 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.gallery;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class GalleryDecoderTest {
+
+  @Test
+  public void testSampleSize() {
+    // Smaller than or near the target
+    assertEquals(1, GalleryDecoder.getSampleSize(1000, 1500, 1920, 1920));
+    assertEquals(1, GalleryDecoder.getSampleSize(3839, 3839, 1920, 1920));
+    assertEquals(2, GalleryDecoder.getSampleSize(3840, 3840, 1920, 1920));
+    assertEquals(4, GalleryDecoder.getSampleSize(8000, 8000, 1920, 1920));
+    // Long pages keep their width
+    assertEquals(1, GalleryDecoder.getSampleSize(800, 8000, 1920, 1920));
+    assertEquals(2, GalleryDecoder.getSampleSize(4000, 30000, 1920, 1920));
+  }
+
+  @Test
+  public void testSampleSizeUnknown() {
+    assertEquals(1, GalleryDecoder.getSampleSize(-1, -1, 1920, 1920));
+    assertEquals(1, GalleryDecoder.getSampleSize(8000, 8000, 0, 0));
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.gallery;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import org.junit.Test;
+
+public class PooledPipeTest {
+
+  private static Thread startWriter(final OutputStream os, final byte[] data, final int chunk) {
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for (int off = 0; off < data.length; off += chunk) {
+            os.write(data, off, Math.min(chunk, data.length - off));
+          }
+        } catch (IOException e) {
+          // Ignore
+        } finally {
+          try {
+            os.close();
+          } catch (IOException e) {
+            // Ignore
+          }
+        }
+      }
+    };
+    thread.start();
+    return thread;
+  }
+
+  @Test
+  public void testTransfer() throws Exception {
+    byte[] data = new byte[1024 * 1024 + 13];
+    new Random(0).nextBytes(data);
+
+    PooledPipe pipe = new PooledPipe();
+    Thread writer = startWriter(pipe.getOutputStream(), data, 1000);
+
+    InputStream is = pipe.getInputStream();
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    // Mix single byte read and bulk read
+    byte[] buffer = new byte[777];
+    for (;;) {
+      int b = is.read();
+      if (b == -1) {
+        break;
+      }
+      baos.write(b);
+      int n = is.read(buffer);
+      if (n == -1) {
+        break;
+      }
+      baos.write(buffer, 0, n);
+    }
+    is.close();
+    writer.join();
+
+    assertArrayEquals(data, baos.toByteArray());
+  }
+
+  @Test
+  public void testReaderClosed() throws Exception {
+    PooledPipe pipe = new PooledPipe();
+    pipe.getInputStream().close();
+    try {
+      pipe.getOutputStream().write(new byte[16]);
+      fail();
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    PooledPipe pipe = new PooledPipe();
+    pipe.getOutputStream().close();
+    assertEquals(-1, pipe.getInputStream().read());
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import android.util.SparseArray;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class SpiderInfoTest {
+
+  private static SpiderInfo read(String str) {
+    return SpiderInfo.read(new ByteArrayInputStream(str.getBytes()));
+  }
+
+  @Test
+  public void testReadVersion1() {
+    SpiderInfo info = read("0000000a\n123\nabcdef0123\n1\n3\n20\n5\n0 aaaaaaaaaa\n4 eeeeeeeeee\n");
+    assertNotNull(info);
+    assertEquals(10, info.startPage);
+    assertEquals(123, info.gid);
+    assertEquals("abcdef0123", info.token);
+    assertEquals(3, info.previewPages);
+    assertEquals(-1, info.previewPerPage);
+    assertEquals(5, info.pages);
+    assertEquals("aaaaaaaaaa", info.pTokenMap.get(0));
+    assertEquals("eeeeeeeeee", info.pTokenMap.get(4));
+  }
+
+  @Test
+  public void testReadVersion2() {
+    SpiderInfo info = read("VERSION2\n00000001\n123\nabcdef0123\n1\n3\n20\n5\n2 cccccccccc\n");
+    assertNotNull(info);
+    assertEquals(1, info.startPage);
+    assertEquals(20, info.previewPerPage);
+    assertEquals("cccccccccc", info.pTokenMap.get(2));
+    assertNull(info.pTokenMap.get(0));
+  }
+
+  @Test
+  public void testBinary() {
+    SpiderInfo info = new SpiderInfo();
+    info.startPage = 3;
+    info.gid = 123;
+    info.token = "abcdef0123";
+    info.previewPages = 2;
+    info.previewPerPage = 20;
+    info.pages = 40;
+    info.pTokenMap = new SparseArray<>();
+    info.pTokenMap.put(0, "aaaaaaaaaa");
+    info.pTokenMap.put(39, "zzzzzzzzzz");
+    info.pTokenMap.put(7, SpiderInfo.TOKEN_FAILED);
+
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    info.write(os);
+    SpiderInfo result = SpiderInfo.read(new ByteArrayInputStream(os.toByteArray()));
+
+    assertNotNull(result);
+    assertEquals(3, result.startPage);
+    assertEquals(123, result.gid);
+    assertEquals("abcdef0123", result.token);
+    assertEquals(2, result.previewPages);
+    assertEquals(20, result.previewPerPage);
+    assertEquals(40, result.pages);
+    assertEquals(2, result.pTokenMap.size());
+    assertEquals("aaaaaaaaaa", result.pTokenMap.get(0));
+    assertEquals("zzzzzzzzzz", result.pTokenMap.get(39));
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.hippo.unifile.UniFile;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@Config(manifest = Config.NONE)
+@RunWith(RobolectricTestRunner.class)
+public class SpiderPageStatesTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static void writeFile(File file, int size) throws IOException {
+    FileOutputStream os = new FileOutputStream(file);
+    try {
+      os.write(new byte[size]);
+    } finally {
+      os.close();
+    }
+  }
+
+  @Test
+  public void testStates() throws IOException {
+    File dir = folder.getRoot();
+    File page0 = new File(dir, "00000001.jpg");
+    writeFile(page0, 10);
+    UniFile file0 = UniFile.fromFile(page0);
+
+    SpiderPageStates states = SpiderPageStates.create(123, 3);
+    states.setFinished(0, file0, -1);
+    states.setState(1, SpiderPageStates.STATE_FAILED);
+
+    assertEquals(SpiderPageStates.STATE_FINISHED, states.getState(0));
+    assertEquals(10, states.getSize(0));
+    assertTrue(states.isFinished(0, file0));
+    assertFalse(states.isFinished(0, UniFile.fromFile(new File(dir, "00000001.png"))));
+    assertEquals(SpiderPageStates.STATE_FAILED, states.getState(1));
+    assertEquals(-1, states.getSize(1));
+    assertEquals(SpiderPageStates.STATE_NONE, states.getState(2));
+    assertEquals(SpiderPageStates.STATE_NONE, states.getState(3));
+  }
+
+  @Test
+  public void testVerify() throws Exception {
+    File dir = folder.getRoot();
+    File page0 = new File(dir, "00000001.jpg");
+    File page1 = new File(dir, "00000002.png");
+    File page2 = new File(dir, "00000003.jpg");
+    writeFile(page0, 10);
+    writeFile(page1, 20);
+    writeFile(page2, 30);
+
+    SpiderPageStates states = SpiderPageStates.create(123, 5);
+    states.setFinished(0, UniFile.fromFile(page0), -1);
+    states.setFinished(1, UniFile.fromFile(page1), -1);
+    // Missing
+    states.setFinished(3, UniFile.fromFile(page0), -1);
+    // Broken
+    writeFile(page1, 15);
+
+    UniFile uniDir = UniFile.fromFile(dir);
+    ExecutorService executor = SpiderPageStates.newVerifyExecutor();
+    try {
+      assertEquals(2, SpiderPageStates.verify(uniDir, states, executor));
+    } finally {
+      executor.shutdown();
+    }
+
+    assertEquals(SpiderPageStates.STATE_FINISHED, states.getState(0));
+    assertEquals(SpiderPageStates.STATE_NONE, states.getState(1));
+    assertFalse(page1.exists());
+    // Page file with no state
+    assertEquals(SpiderPageStates.STATE_FINISHED, states.getState(2));
+    assertEquals(30, states.getSize(2));
+    assertEquals(SpiderPageStates.STATE_NONE, states.getState(3));
+    assertEquals(SpiderPageStates.STATE_NONE, states.getState(4));
+
+    // Wait for the writer thread
+    File file = new File(dir, SpiderPageStates.FILENAME);
+    for (int i = 0; i < 50 && !file.exists(); i++) {
+      Thread.sleep(100);
+    }
+    Thread.sleep(100);
+
+    SpiderPageStates result = SpiderPageStates.read(UniFile.fromFile(file), 123, 5);
+    assertNotNull(result);
+    assertEquals(SpiderPageStates.STATE_FINISHED, result.getState(0));
+    assertEquals(10, result.getSize(0));
+    assertEquals(SpiderPageStates.STATE_NONE, result.getState(1));
+    assertEquals(30, result.getSize(2));
+
+    assertNull(SpiderPageStates.read(UniFile.fromFile(file), 124, 5));
+    assertNull(SpiderPageStates.read(UniFile.fromFile(file), 123, 6));
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import static com.hippo.ehviewer.spider.SpiderRequestQueue.INVALID_INDEX;
+import static com.hippo.ehviewer.spider.SpiderRequestQueue.PRIORITY_FORCE;
+import static com.hippo.ehviewer.spider.SpiderRequestQueue.PRIORITY_PREFETCH;
+import static com.hippo.ehviewer.spider.SpiderRequestQueue.PRIORITY_REQUEST;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SpiderRequestQueueTest {
+
+  @Test
+  public void testDuplicate() {
+    SpiderRequestQueue queue = new SpiderRequestQueue();
+    queue.add(1, PRIORITY_REQUEST);
+    queue.add(1, PRIORITY_REQUEST);
+    queue.add(1, PRIORITY_PREFETCH);
+    assertEquals(1, queue.poll(PRIORITY_REQUEST));
+    assertEquals(INVALID_INDEX, queue.poll(PRIORITY_REQUEST));
+    assertEquals(INVALID_INDEX, queue.poll(PRIORITY_PREFETCH));
+    assertTrue(queue.isEmpty());
+  }
+
+  @Test
+  public void testLift() {
+    SpiderRequestQueue queue = new SpiderRequestQueue();
+    queue.add(1, PRIORITY_PREFETCH);
+    queue.add(2, PRIORITY_PREFETCH);
+    queue.add(2, PRIORITY_FORCE);
+    assertEquals(2, queue.poll(PRIORITY_FORCE));
+    assertEquals(1, queue.poll(PRIORITY_PREFETCH));
+    assertEquals(INVALID_INDEX, queue.poll(PRIORITY_PREFETCH));
+  }
+
+  @Test
+  public void testCancel() {
+    SpiderRequestQueue queue = new SpiderRequestQueue();
+    queue.add(1, PRIORITY_REQUEST);
+    queue.add(2, PRIORITY_FORCE);
+    queue.cancel(1);
+    queue.cancel(2);
+    assertEquals(INVALID_INDEX, queue.poll(PRIORITY_REQUEST));
+    assertEquals(2, queue.poll(PRIORITY_FORCE));
+
+    // Add again after cancel
+    queue.add(3, PRIORITY_REQUEST);
+    queue.cancel(3);
+    queue.add(3, PRIORITY_REQUEST);
+    assertEquals(3, queue.poll(PRIORITY_REQUEST));
+    assertEquals(INVALID_INDEX, queue.poll(PRIORITY_REQUEST));
+  }
+
+  @Test
+  public void testClear() {
+    SpiderRequestQueue queue = new SpiderRequestQueue();
+    queue.add(1, PRIORITY_PREFETCH);
+    queue.add(2, PRIORITY_PREFETCH);
+    queue.add(3, PRIORITY_REQUEST);
+    queue.clear(PRIORITY_PREFETCH);
+    assertEquals(INVALID_INDEX, queue.poll(PRIORITY_PREFETCH));
+    assertEquals(3, queue.poll(PRIORITY_REQUEST));
+    assertTrue(queue.isEmpty());
+  }
+}
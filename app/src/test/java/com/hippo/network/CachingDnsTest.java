@@ -0,0 +1,223 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.Call;
+import okhttp3.Dns;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import org.junit.Test;
+
+public class CachingDnsTest {
+
+  private static final long TTL = TimeUnit.MINUTES.toNanos(1);
+
+  private static InetAddress address(String ip) throws UnknownHostException {
+    return InetAddress.getByName(ip);
+  }
+
+  private static class StubDns implements Dns {
+
+    final Map<String, List<InetAddress>> hosts = new HashMap<>();
+    final AtomicInteger count = new AtomicInteger();
+    volatile CountDownLatch latch;
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+      count.incrementAndGet();
+      CountDownLatch latch = this.latch;
+      if (latch != null) {
+        try {
+          latch.await();
+        } catch (InterruptedException e) {
+          throw new UnknownHostException(hostname);
+        }
+      }
+      List<InetAddress> addresses = hosts.get(hostname);
+      if (addresses == null) {
+        throw new UnknownHostException(hostname);
+      }
+      return addresses;
+    }
+  }
+
+  @Test
+  public void testCache() throws Exception {
+    StubDns stub = new StubDns();
+    stub.hosts.put("a.com", Arrays.asList(address("1.1.1.1"), address("2.2.2.2")));
+    CachingDns dns = new CachingDns(stub, TTL, TTL, false);
+
+    assertEquals(stub.hosts.get("a.com"), dns.lookup("a.com"));
+    assertEquals(stub.hosts.get("a.com"), dns.lookup("a.com"));
+    assertEquals(1, stub.count.get());
+
+    dns.evict("a.com");
+    dns.lookup("a.com");
+    assertEquals(2, stub.count.get());
+  }
+
+  @Test
+  public void testNegativeCache() throws Exception {
+    StubDns stub = new StubDns();
+    CachingDns dns = new CachingDns(stub, TTL, TTL, false);
+
+    for (int i = 0; i < 2; i++) {
+      try {
+        dns.lookup("b.com");
+        fail();
+      } catch (UnknownHostException e) {
+        // Expected
+      }
+    }
+    assertEquals(1, stub.count.get());
+  }
+
+  @Test
+  public void testExpire() throws Exception {
+    StubDns stub = new StubDns();
+    stub.hosts.put("a.com", Arrays.asList(address("1.1.1.1")));
+    CachingDns dns = new CachingDns(stub, TimeUnit.MILLISECONDS.toNanos(10), TTL, false);
+
+    dns.lookup("a.com");
+    Thread.sleep(20);
+    dns.lookup("a.com");
+    assertEquals(2, stub.count.get());
+  }
+
+  @Test
+  public void testCoalesce() throws Exception {
+    final StubDns stub = new StubDns();
+    stub.hosts.put("a.com", Arrays.asList(address("1.1.1.1")));
+    stub.latch = new CountDownLatch(1);
+    final CachingDns dns = new CachingDns(stub, TTL, TTL, false);
+
+    final AtomicInteger succeed = new AtomicInteger();
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            dns.lookup("a.com");
+            succeed.incrementAndGet();
+          } catch (UnknownHostException e) {
+            // Ignore
+          }
+        }
+      };
+      threads[i].start();
+    }
+    // Let all threads block on the query
+    Thread.sleep(100);
+    stub.latch.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(threads.length, succeed.get());
+    assertEquals(1, stub.count.get());
+  }
+
+  @Test
+  public void testOrder() throws Exception {
+    InetAddress a = address("1.1.1.1");
+    InetAddress b = address("2.2.2.2");
+    InetAddress c = address("3.3.3.3");
+    StubDns stub = new StubDns();
+    stub.hosts.put("a.com", Arrays.asList(a, b, c));
+    CachingDns dns = new CachingDns(stub, TTL, TTL, false);
+
+    assertEquals(Arrays.asList(a, b, c), dns.lookup("a.com"));
+
+    // Measured first, unknown next, failed last
+    dns.onConnectFailed(a);
+    dns.onConnected(c, 100);
+    assertEquals(Arrays.asList(c, b, a), dns.lookup("a.com"));
+
+    dns.onConnected(b, 10);
+    assertEquals(Arrays.asList(b, c, a), dns.lookup("a.com"));
+
+    // Success resets failures
+    dns.onConnected(a, 1);
+    assertEquals(Arrays.asList(a, b, c), dns.lookup("a.com"));
+  }
+
+  @Test
+  public void testRace() throws Exception {
+    // Only b accepts connections
+    InetAddress a = address("127.0.0.2");
+    InetAddress b = address("127.0.0.1");
+    StubDns stub = new StubDns();
+    stub.hosts.put("a.com", Arrays.asList(a, b));
+    stub.hosts.put("b.com", Arrays.asList(a, b));
+    CachingDns dns = new CachingDns(stub, TTL, TTL, true);
+
+    ServerSocket server = new ServerSocket(0, 50, b);
+    try {
+      // No port, no racing
+      assertEquals(Arrays.asList(a, b), dns.lookup("a.com"));
+      assertEquals(Arrays.asList(b, a), dns.lookup("b.com", server.getLocalPort()));
+      // Measured by racing
+      dns.evict("a.com");
+      assertEquals(Arrays.asList(b, a), dns.lookup("a.com"));
+    } finally {
+      server.close();
+    }
+  }
+
+  @Test
+  public void testRaceOnCallPort() throws Exception {
+    InetAddress a = address("127.0.0.2");
+    InetAddress b = address("127.0.0.1");
+    StubDns stub = new StubDns();
+    stub.hosts.put("a.com", Arrays.asList(a, b));
+    CachingDns dns = new CachingDns(stub, TTL, TTL, true);
+
+    ServerSocket server = new ServerSocket(0, 50, b);
+    try {
+      Call call = new OkHttpClient().newCall(new Request.Builder()
+          .url("http://a.com:" + server.getLocalPort() + "/").build());
+      EventListener listener = dns.getEventListenerFactory().create(call);
+
+      // Proxy host, the port of the url is not for it
+      listener.dnsStart(call, "proxy.com");
+      assertEquals(Arrays.asList(a, b), dns.lookup("a.com"));
+      dns.evict("a.com");
+
+      listener.dnsStart(call, "a.com");
+      List<InetAddress> addresses = dns.lookup("a.com");
+      listener.dnsEnd(call, "a.com", addresses);
+      assertEquals(Arrays.asList(b, a), addresses);
+    } finally {
+      server.close();
+    }
+  }
+}
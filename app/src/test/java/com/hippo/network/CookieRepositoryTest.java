@@ -333,4 +333,160 @@ public class CookieRepositoryTest {
     }
     repository.close();
   }
+
+  @Test
+  public void testParentDomain() {
+    Context app = RuntimeEnvironment.application;
+
+    Cookie cookie = new Cookie.Builder()
+        .name("user")
+        .value("1234567890")
+        .domain("ehviewer.com")
+        .path("/")
+        .build();
+
+    CookieRepository repository = new CookieRepository(app, "cookie.db");
+    repository.addCookie(cookie);
+    equals(Collections.singletonList(cookie), repository.getCookies(HttpUrl.parse("http://ehviewer.com/")));
+    equals(Collections.singletonList(cookie), repository.getCookies(HttpUrl.parse("http://www.ehviewer.com/")));
+    equals(Collections.singletonList(cookie), repository.getCookies(HttpUrl.parse("http://a.b.ehviewer.com/")));
+    equals(Collections.<Cookie>emptyList(), repository.getCookies(HttpUrl.parse("http://myehviewer.com/")));
+    equals(Collections.<Cookie>emptyList(), repository.getCookies(HttpUrl.parse("http://ehviewer.com.cn/")));
+    equals(Collections.<Cookie>emptyList(), repository.getCookies(HttpUrl.parse("http://com/")));
+    repository.close();
+  }
+
+  @Test
+  public void testHostOnly() {
+    Context app = RuntimeEnvironment.application;
+
+    Cookie cookie1 = new Cookie.Builder()
+        .name("user")
+        .value("1234567890")
+        .hostOnlyDomain("ehviewer.com")
+        .path("/")
+        .build();
+    Cookie cookie2 = new Cookie.Builder()
+        .name("level")
+        .value("999")
+        .hostOnlyDomain("www.ehviewer.com")
+        .path("/")
+        .build();
+
+    CookieRepository repository = new CookieRepository(app, "cookie.db");
+    repository.addCookie(cookie1);
+    repository.addCookie(cookie2);
+    equals(Collections.singletonList(cookie1), repository.getCookies(HttpUrl.parse("http://ehviewer.com/")));
+    equals(Collections.singletonList(cookie2), repository.getCookies(HttpUrl.parse("http://www.ehviewer.com/")));
+    equals(Collections.<Cookie>emptyList(), repository.getCookies(HttpUrl.parse("http://a.www.ehviewer.com/")));
+    repository.close();
+  }
+
+  @Test
+  public void testSecure() {
+    Context app = RuntimeEnvironment.application;
+
+    Cookie cookie1 = new Cookie.Builder()
+        .name("user")
+        .value("1234567890")
+        .domain("ehviewer.com")
+        .path("/")
+        .secure()
+        .build();
+    Cookie cookie2 = new Cookie.Builder()
+        .name("level")
+        .value("999")
+        .domain("ehviewer.com")
+        .path("/")
+        .build();
+
+    CookieRepository repository = new CookieRepository(app, "cookie.db");
+    repository.saveFromResponse(HttpUrl.parse("https://ehviewer.com/"), Arrays.asList(cookie1, cookie2));
+    // Take http first, the https entry must not reuse it
+    assertEquals("level=999", repository.getCookieHeader(HttpUrl.parse("http://www.ehviewer.com/")));
+    equals(Collections.singletonList(cookie2), repository.getCookies(HttpUrl.parse("http://www.ehviewer.com/")));
+    equals(Arrays.asList(cookie1, cookie2), repository.getCookies(HttpUrl.parse("https://www.ehviewer.com/")));
+    assertEquals("level=999", repository.getCookieHeader(HttpUrl.parse("http://www.ehviewer.com/")));
+    repository.close();
+  }
+
+  @Test
+  public void testInvalidate() {
+    Context app = RuntimeEnvironment.application;
+
+    HttpUrl url = HttpUrl.parse("http://www.ehviewer.com/");
+    Cookie cookie1 = new Cookie.Builder()
+        .name("user")
+        .value("1234567890")
+        .domain("ehviewer.com")
+        .path("/")
+        .build();
+    Cookie cookie2 = new Cookie.Builder()
+        .name("level")
+        .value("999")
+        .domain("www.ehviewer.com")
+        .path("/")
+        .build();
+    Cookie cookie3 = new Cookie.Builder()
+        .name("level")
+        .value("0")
+        .domain("www.ehviewer.com")
+        .path("/")
+        .build();
+
+    CookieRepository repository = new CookieRepository(app, "cookie.db");
+    assertEquals("", repository.getCookieHeader(url));
+    repository.addCookie(cookie1);
+    assertEquals("user=1234567890", repository.getCookieHeader(url));
+    // Cookie of the host itself
+    repository.addCookie(cookie2);
+    equals(Arrays.asList(cookie1, cookie2), repository.getCookies(url));
+    // Update
+    repository.addCookie(cookie3);
+    equals(Arrays.asList(cookie1, cookie3), repository.getCookies(url));
+    assertTrue(repository.contains(url, "level"));
+    repository.clear();
+    assertEquals("", repository.getCookieHeader(url));
+    equals(Collections.<Cookie>emptyList(), repository.getCookies(url));
+    // Add after clear
+    repository.addCookie(cookie1);
+    assertEquals("user=1234567890", repository.getCookieHeader(url));
+    repository.close();
+  }
+
+  @Test
+  public void testExpire() throws InterruptedException {
+    Context app = RuntimeEnvironment.application;
+
+    HttpUrl url = HttpUrl.parse("http://www.ehviewer.com/");
+    Cookie cookie1 = new Cookie.Builder()
+        .name("user")
+        .value("1234567890")
+        .domain("ehviewer.com")
+        .path("/")
+        .expiresAt(System.currentTimeMillis() + 1000)
+        .build();
+    Cookie cookie2 = new Cookie.Builder()
+        .name("level")
+        .value("999")
+        .domain("ehviewer.com")
+        .path("/")
+        .build();
+
+    CookieRepository repository = new CookieRepository(app, "cookie.db");
+    repository.saveFromResponse(url, Arrays.asList(cookie1, cookie2));
+    assertEquals(2, repository.getCookies(url).size());
+    assertTrue(repository.contains(url, "user"));
+    Thread.sleep(1500);
+    // The cached entry expires with its first cookie
+    equals(Collections.singletonList(cookie2), repository.getCookies(url));
+    assertEquals("level=999", repository.getCookieHeader(url));
+    repository.close();
+
+    // The expired cookie is removed from database too
+    repository = new CookieRepository(app, "cookie.db");
+    Map<String, CookieSet> map = Reflect.on(repository).field("map").get();
+    assertEquals(0, map.size());
+    repository.close();
+  }
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Reads recorded fixtures from resources next to the benchmark class.
+ */
+public final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    public static String readString(Class<?> clazz, String name) throws IOException {
+        InputStream is = clazz.getResourceAsStream(name);
+        if (is == null) {
+            throw new IOException("Can't find fixture " + name);
+        }
+        try (BufferedSource source = Okio.buffer(Okio.source(is))) {
+            return source.readUtf8();
+        }
+    }
+
+    /**
+     * Returns lines of the fixture, empty lines and lines starting with '#' are skipped.
+     */
+    public static List<String> readLines(Class<?> clazz, String name) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : readString(clazz, name).split("\n")) {
+            if (!line.isEmpty() && line.charAt(0) != '#') {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client;
+
+import com.hippo.benchmark.Fixtures;
+import com.hippo.ehviewer.EhDB;
+import com.hippo.ehviewer.client.data.GalleryInfo;
+import com.hippo.ehviewer.client.parser.GalleryListParser;
+import com.hippo.ehviewer.dao.Filter;
+import java.util.ArrayList;
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Matches galleries of recorded list pages against a filter set,
+ * the way list scenes filter every page they load.
+ */
+@State(Scope.Benchmark)
+public class EhFilterBenchmark {
+
+    private static final String[] PAGES = {
+            "parser/GalleryListParserTestEExtended.html",
+            "parser/GalleryListParserTestExExtended.html",
+            "parser/GalleryListParserTestEThumbnail.html",
+            "parser/GalleryListParserTestExThumbnail.html",
+    };
+
+    private EhFilter filter;
+    private GalleryInfo[] infos;
+
+    @Setup
+    public void setup() throws Exception {
+        // EhFilter loads filters from EhDB once
+        if (EhDB.getAllFilter().isEmpty()) {
+            for (String line : Fixtures.readLines(EhFilterBenchmark.class, "EhFilterBenchmark.txt")) {
+                int index = line.indexOf('\t');
+                EhDB.addFilter(new Filter(null, Integer.parseInt(line.substring(0, index)),
+                        line.substring(index + 1), true));
+            }
+        }
+        filter = EhFilter.getInstance();
+
+        List<GalleryInfo> list = new ArrayList<>();
+        for (String page : PAGES) {
+            list.addAll(GalleryListParser.parse(
+                    Fixtures.readString(EhFilterBenchmark.class, page)).galleryInfoList);
+        }
+        infos = list.toArray(new GalleryInfo[list.size()]);
+    }
+
+    @Benchmark
+    public void filter(Blackhole bh) {
+        EhFilter filter = this.filter;
+        boolean needTags = filter.needTags();
+        for (GalleryInfo info : infos) {
+            bh.consume(filter.filterTitle(info) && filter.filterUploader(info)
+                    && (!needTags || (filter.filterTag(info) && filter.filterTagNamespace(info))));
+        }
+    }
+
+    @Benchmark
+    public void filterTag(Blackhole bh) {
+        EhFilter filter = this.filter;
+        for (GalleryInfo info : infos) {
+            bh.consume(filter.filterTag(info));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client;
+
+import com.hippo.benchmark.Fixtures;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Looks up translations of tags, a quarter of them are not in the database.
+ */
+@State(Scope.Benchmark)
+public class EhTagDatabaseBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    private EhTagDatabase database;
+    private String[] queries;
+
+    @Setup
+    public void setup() throws Exception {
+        List<String> lines = Fixtures.readLines(EhTagDatabaseBenchmark.class, "EhTagDatabaseBenchmark.txt");
+
+        // Encode to the downloaded format, "key\rbase64(value)\n" sorted by key
+        StringBuilder sb = new StringBuilder();
+        List<String> keys = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            int index = line.indexOf('\t');
+            String key = line.substring(0, index);
+            String value = line.substring(index + 1);
+            keys.add(key);
+            sb.append(key).append('\r')
+                    .append(Base64.getEncoder().encodeToString(value.getBytes("UTF-8")))
+                    .append('\n');
+        }
+        byte[] bytes = sb.toString().getBytes("UTF-8");
+        Buffer buffer = new Buffer();
+        buffer.writeInt(bytes.length);
+        buffer.write(bytes);
+        database = new EhTagDatabase("benchmark", buffer);
+
+        Random random = new Random(0);
+        queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            String key = keys.get(random.nextInt(keys.size()));
+            queries[i] = i % 4 == 0 ? key + "s" : key;
+        }
+    }
+
+    @Benchmark
+    public void getTranslation(Blackhole bh) {
+        EhTagDatabase database = this.database;
+        for (String query : queries) {
+            bh.consume(database.getTranslation(query));
+        }
+    }
+}
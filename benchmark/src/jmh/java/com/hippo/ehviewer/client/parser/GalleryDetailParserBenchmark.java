@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client.parser;
+
+import com.hippo.benchmark.Fixtures;
+import com.hippo.ehviewer.client.data.GalleryDetail;
+import com.hippo.ehviewer.client.data.GalleryDetailCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Parses a gallery detail page with large previews, tags and comments,
+ * compared with decoding it from the disk cache.
+ */
+@State(Scope.Benchmark)
+public class GalleryDetailParserBenchmark {
+
+    private String body;
+    private byte[] data;
+
+    @Setup
+    public void setup() throws Exception {
+        body = Fixtures.readString(GalleryDetailParserBenchmark.class,
+                "GalleryDetailParserBenchmark.html");
+        data = GalleryDetailCodec.encode(GalleryDetailParser.parse(body));
+    }
+
+    @Benchmark
+    public GalleryDetail parse() throws Exception {
+        return GalleryDetailParser.parse(body);
+    }
+
+    @Benchmark
+    public GalleryDetail decode() {
+        return GalleryDetailCodec.decode(data);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client.parser;
+
+import com.hippo.benchmark.Fixtures;
+import org.jsoup.Jsoup;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Parses recorded gallery list pages of all display modes,
+ * with the streaming parser and with the jsoup fallback.
+ */
+@State(Scope.Benchmark)
+public class GalleryListParserBenchmark {
+
+    @Param({
+            "GalleryListParserTestEMinimal.html",
+            "GalleryListParserTestEMinimalPlus.html",
+            "GalleryListParserTestECompat.html",
+            "GalleryListParserTestEExtended.html",
+            "GalleryListParserTestEThumbnail.html",
+            "GalleryListParserTestExMinimal.html",
+            "GalleryListParserTestExMinimalPlus.html",
+            "GalleryListParserTestExCompat.html",
+            "GalleryListParserTestExExtended.html",
+            "GalleryListParserTestExThumbnail.html",
+    })
+    public String file;
+
+    private String body;
+
+    @Setup
+    public void setup() throws Exception {
+        body = Fixtures.readString(GalleryListParserBenchmark.class, file);
+    }
+
+    @Benchmark
+    public GalleryListParser.Result parse() throws Exception {
+        return GalleryListParser.parse(body);
+    }
+
+    @Benchmark
+    public GalleryListParser.Result parseJsoup() throws Exception {
+        return GalleryListParser.parse(Jsoup.parse(body), body);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.gallery;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Extracts a page through a pipe and reads it like a decoder does.
+ */
+@State(Scope.Benchmark)
+public class PipeBenchmark {
+
+    private static final int PAGE_SIZE = 4 * 1024 * 1024;
+    // a7zip writes extracted data in chunks of this size
+    private static final int EXTRACT_CHUNK_SIZE = 64 * 1024;
+
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        data = new byte[PAGE_SIZE];
+        new Random(0).nextBytes(data);
+    }
+
+    @Benchmark
+    public long pipe() throws Exception {
+        Pipe pipe = new Pipe(4 * 1024);
+        return transfer(pipe.getInputStream(), pipe.getOutputStream());
+    }
+
+    @Benchmark
+    public long pooledPipe() throws Exception {
+        PooledPipe pipe = new PooledPipe();
+        return transfer(pipe.getInputStream(), pipe.getOutputStream());
+    }
+
+    private long transfer(InputStream in, final OutputStream os) throws Exception {
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int off = 0; off < data.length; off += EXTRACT_CHUNK_SIZE) {
+                        os.write(data, off, Math.min(EXTRACT_CHUNK_SIZE, data.length - off));
+                    }
+                } catch (IOException e) {
+                    // Ignore
+                } finally {
+                    try {
+                        os.close();
+                    } catch (IOException e) {
+                        // Ignore
+                    }
+                }
+            }
+        };
+        writer.start();
+
+        InputStream is = new BufferedInputStream(in);
+        // Decoders read the header byte by byte
+        long sum = 0;
+        for (int i = 0; i < 64 && is.read() != -1; i++) {
+            sum++;
+        }
+        byte[] buffer = new byte[16 * 1024];
+        int n;
+        while ((n = is.read(buffer)) != -1) {
+            sum += n;
+        }
+        is.close();
+        writer.join();
+        return sum;
+    }
+}
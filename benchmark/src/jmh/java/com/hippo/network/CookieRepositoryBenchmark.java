@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import android.content.Context;
+import com.hippo.benchmark.Fixtures;
+import okhttp3.Cookie;
+import okhttp3.HttpUrl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Loads cookies for the requests of opening a gallery,
+ * every request of OkHttp calls {@link CookieRepository#getCookies(HttpUrl)}.
+ */
+@State(Scope.Benchmark)
+public class CookieRepositoryBenchmark {
+
+    private static final HttpUrl[] URLS = {
+            HttpUrl.get("https://e-hentai.org/"),
+            HttpUrl.get("https://e-hentai.org/g/1479811/a1b2c3d4e5/"),
+            HttpUrl.get("https://e-hentai.org/s/0123456789/1479811-1"),
+            HttpUrl.get("https://api.e-hentai.org/api.php"),
+            HttpUrl.get("https://exhentai.org/g/1479811/a1b2c3d4e5/?p=1"),
+            HttpUrl.get("https://forums.e-hentai.org/index.php?act=Login"),
+            HttpUrl.get("https://ehgt.org/g/mr.gif"),
+            HttpUrl.get("https://abcdefg.hijklmno.hath.network/h/0123/keystamp=1;fileindex=1/001.jpg"),
+    };
+
+    private CookieRepository repository;
+
+    @Setup
+    public void setup() throws Exception {
+        repository = new CookieRepository(new Context(), "benchmark");
+        for (String line : Fixtures.readLines(CookieRepositoryBenchmark.class,
+                "CookieRepositoryBenchmark.txt")) {
+            int index = line.indexOf('\t');
+            HttpUrl url = HttpUrl.get(line.substring(0, index));
+            Cookie cookie = Cookie.parse(url, line.substring(index + 1));
+            if (cookie != null) {
+                repository.addCookie(cookie);
+            }
+        }
+    }
+
+    @Benchmark
+    public void getCookies(Blackhole bh) {
+        CookieRepository repository = this.repository;
+        for (HttpUrl url : URLS) {
+            bh.consume(repository.getCookies(url));
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void getCookiesContended(Blackhole bh) {
+        getCookies(bh);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.util;
+
+import com.hippo.benchmark.Fixtures;
+import java.util.Arrays;
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Sorts recorded file names of galleries and archives.
+ */
+@State(Scope.Benchmark)
+public class NaturalComparatorBenchmark {
+
+    private final NaturalComparator comparator = new NaturalComparator();
+    private String[] names;
+
+    @Setup
+    public void setup() throws Exception {
+        List<String> lines = Fixtures.readLines(NaturalComparatorBenchmark.class,
+                "NaturalComparatorBenchmark.txt");
+        names = lines.toArray(new String[lines.size()]);
+    }
+
+    @Benchmark
+    public String[] sort() {
+        String[] array = names.clone();
+        Arrays.sort(array, comparator);
+        return array;
+    }
+}
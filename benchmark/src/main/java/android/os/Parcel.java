@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+import java.util.List;
+
+/**
+ * JVM stand-in of {@code android.os.Parcel}. Benchmarks never parcel,
+ * so every method throws.
+ */
+public final class Parcel {
+
+    private Parcel() {
+    }
+
+    private static UnsupportedOperationException unsupported() {
+        return new UnsupportedOperationException("No Parcel on JVM");
+    }
+
+    public void writeByte(byte val) { throw unsupported(); }
+
+    public void writeInt(int val) { throw unsupported(); }
+
+    public void writeLong(long val) { throw unsupported(); }
+
+    public void writeFloat(float val) { throw unsupported(); }
+
+    public void writeString(String val) { throw unsupported(); }
+
+    public void writeStringArray(String[] val) { throw unsupported(); }
+
+    public void writeStringList(List<String> val) { throw unsupported(); }
+
+    public void writeParcelable(Parcelable p, int flags) { throw unsupported(); }
+
+    public <T extends Parcelable> void writeParcelableArray(T[] value, int flags) { throw unsupported(); }
+
+    public byte readByte() { throw unsupported(); }
+
+    public int readInt() { throw unsupported(); }
+
+    public long readLong() { throw unsupported(); }
+
+    public float readFloat() { throw unsupported(); }
+
+    public String readString() { throw unsupported(); }
+
+    public String[] createStringArray() { throw unsupported(); }
+
+    public java.util.ArrayList<String> createStringArrayList() { throw unsupported(); }
+
+    public <T extends Parcelable> T readParcelable(ClassLoader loader) { throw unsupported(); }
+
+    public Parcelable[] readParcelableArray(ClassLoader loader) { throw unsupported(); }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+/**
+ * JVM stand-in of {@code android.util.Base64}, only decoding.
+ */
+public final class Base64 {
+
+    public static final int DEFAULT = 0;
+
+    private Base64() {
+    }
+
+    public static byte[] decode(byte[] input, int offset, int len, int flags) {
+        byte[] bytes = new byte[len];
+        System.arraycopy(input, offset, bytes, 0, len);
+        return java.util.Base64.getMimeDecoder().decode(bytes);
+    }
+
+    public static byte[] decode(String str, int flags) {
+        return java.util.Base64.getMimeDecoder().decode(str);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import com.hippo.ehviewer.client.EhCookieStore;
+import okhttp3.OkHttpClient;
+
+/**
+ * JVM stand-in of {@code EhApplication}.
+ */
+public class EhApplication extends Context {
+
+    private static final EhApplication sInstance = new EhApplication();
+
+    private EhCookieStore mEhCookieStore;
+    private OkHttpClient mOkHttpClient;
+
+    public static EhApplication getInstance() {
+        return sInstance;
+    }
+
+    public static synchronized EhCookieStore getEhCookieStore(@NonNull Context context) {
+        if (sInstance.mEhCookieStore == null) {
+            sInstance.mEhCookieStore = new EhCookieStore(context);
+        }
+        return sInstance.mEhCookieStore;
+    }
+
+    public static synchronized OkHttpClient getOkHttpClient(@NonNull Context context) {
+        if (sInstance.mOkHttpClient == null) {
+            sInstance.mOkHttpClient = new OkHttpClient.Builder()
+                    .cookieJar(getEhCookieStore(context))
+                    .build();
+        }
+        return sInstance.mOkHttpClient;
+    }
+
+    public static OkHttpClient getArchiveOkHttpClient(@NonNull Context context) {
+        return getOkHttpClient(context);
+    }
+}
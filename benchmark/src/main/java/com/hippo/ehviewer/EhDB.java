@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer;
+
+import com.hippo.ehviewer.dao.Filter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * JVM stand-in of {@code EhDB}. Filters and local favorites are kept in
+ * memory, benchmarks fill them before use.
+ */
+public final class EhDB {
+
+    private static final List<Filter> sFilters = new ArrayList<>();
+    private static final Set<Long> sLocalFavorites = new HashSet<>();
+    private static long sNextFilterId = 1;
+
+    private EhDB() {
+    }
+
+    public static synchronized boolean containLocalFavorites(long gid) {
+        return sLocalFavorites.contains(gid);
+    }
+
+    public static synchronized void putLocalFavorites(long gid) {
+        sLocalFavorites.add(gid);
+    }
+
+    public static synchronized List<Filter> getAllFilter() {
+        return new ArrayList<>(sFilters);
+    }
+
+    public static synchronized void addFilter(Filter filter) {
+        filter.setId(sNextFilterId++);
+        sFilters.add(filter);
+    }
+
+    public static synchronized void deleteFilter(Filter filter) {
+        sFilters.remove(filter);
+    }
+
+    public static synchronized void triggerFilter(Filter filter) {
+        filter.setEnable(!filter.enable);
+    }
+}
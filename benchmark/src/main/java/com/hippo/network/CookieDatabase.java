@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.network;
+
+import android.content.Context;
+import java.util.HashMap;
+import java.util.Map;
+import okhttp3.Cookie;
+
+/**
+ * JVM stand-in of {@code CookieDatabase}. Nothing is persisted,
+ * so benchmarks measure the in-memory lookup only.
+ */
+class CookieDatabase {
+
+    public CookieDatabase(Context context, String name) {
+    }
+
+    public Map<String, CookieSet> getAllCookies() {
+        return new HashMap<>();
+    }
+
+    public void add(Cookie cookie) {
+    }
+
+    public void update(Cookie from, Cookie to) {
+    }
+
+    public void remove(Cookie cookie) {
+    }
+
+    public void runInTransaction(Runnable runnable) {
+        runnable.run();
+    }
+
+    public void clear() {
+    }
+
+    public void close() {
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.util;
+
+import androidx.annotation.NonNull;
+
+/**
+ * JVM stand-in of {@code ExceptionUtils}, only {@link #throwIfFatal(Throwable)}.
+ */
+public final class ExceptionUtils {
+
+    private ExceptionUtils() {
+    }
+
+    public static void throwIfFatal(@NonNull Throwable t) {
+        // values here derived from https://github.com/ReactiveX/RxJava/issues/748#issuecomment-32471495
+        if (t instanceof VirtualMachineError) {
+            throw (VirtualMachineError) t;
+        } else if (t instanceof ThreadDeath) {
+            throw (ThreadDeath) t;
+        } else if (t instanceof LinkageError) {
+            throw (LinkageError) t;
+        }
+    }
+}
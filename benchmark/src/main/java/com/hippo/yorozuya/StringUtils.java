@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.yorozuya;
+
+/**
+ * JVM stand-in of yorozuya {@code StringUtils}.
+ */
+public final class StringUtils {
+
+    private static final String[] ESCAPE = {"&lt;", "&gt;", "&quot;", "&apos;", "&#039;", "&#39;", "&amp;"};
+    private static final String[] UNESCAPE = {"<", ">", "\"", "'", "'", "'", "&"};
+
+    private StringUtils() {
+    }
+
+    private static boolean isWhitespace(char c) {
+        return Character.isWhitespace(c) || c == '\u00a0';
+    }
+
+    public static String trim(String str) {
+        if (str == null) {
+            return null;
+        }
+        int start = 0;
+        int end = str.length();
+        while (start < end && isWhitespace(str.charAt(start))) {
+            start++;
+        }
+        while (start < end && isWhitespace(str.charAt(end - 1))) {
+            end--;
+        }
+        return str.substring(start, end);
+    }
+
+    public static String unescapeXml(String str) {
+        if (str == null || str.indexOf('&') < 0) {
+            return str;
+        }
+        for (int i = 0; i < ESCAPE.length; i++) {
+            str = str.replace(ESCAPE[i], UNESCAPE[i]);
+        }
+        return str;
+    }
+}
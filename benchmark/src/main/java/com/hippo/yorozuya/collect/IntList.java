@@ -0,0 +1,58 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.yorozuya.collect;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import java.util.Arrays;
+
+/**
+ * JVM stand-in of yorozuya {@code IntList}.
+ */
+public class IntList implements Parcelable {
+
+    private int[] mArray = new int[8];
+    private int mSize;
+
+    public void add(int value) {
+        if (mSize == mArray.length) {
+            mArray = Arrays.copyOf(mArray, mSize * 2);
+        }
+        mArray[mSize++] = value;
+    }
+
+    public int get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + mSize);
+        }
+        return mArray[index];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        throw new UnsupportedOperationException("No Parcel on JVM");
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.yorozuya.thread;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * JVM stand-in of yorozuya {@code PriorityThreadFactory}, threads are daemon.
+ */
+public class PriorityThreadFactory implements ThreadFactory {
+
+    private final String mName;
+    private final AtomicInteger mNumber = new AtomicInteger();
+
+    public PriorityThreadFactory(String name, int priority) {
+        mName = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, mName + "-" + mNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}